@@ -0,0 +1,176 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry;
+
+/**
+ * Generators of synthetic input files for the benchmarks. The generated index files and
+ * AVS scripts are only as detailed as the parsers need them to be, so the benchmarks
+ * can be run on any machine, without real video files or encoder executables.
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class BenchmarkFixtures {
+	
+	/**
+	 * A logger that ignores all of the log entries.
+	 */
+	public static final EncoderLogger NO_OP_LOGGER = new EncoderLogger() {
+		@Override
+		public void clear() {}
+		
+		@Override
+		public void log(final LogEntry.Severity severity, final String content) {}
+		
+		@Override
+		public void filter(final LogEntry.Severity severity) {}
+		
+		@Override
+		public void filter(final LogEntry.Severity severity, final String filterText) {}
+	};
+	
+	//Frame flags for a single GOP, each flag describes a progressive frame (two fields)
+	private static final String GOP_FRAME_FLAGS = " b2 a2 a2 b2 a2 a2 b2 a2 a2 b2 a2 a2";
+	private static final int BYTES_PER_GOP = 180000;
+	
+	private BenchmarkFixtures() {}
+	
+	public static Path createDirectory() throws IOException {
+		return Files.createTempDirectory("x264batcher-benchmark");
+	}
+	
+	/**
+	 * Delete a fixture directory, along with all of its contents.
+	 * 
+	 * @param directory Directory to delete
+	 * @throws IOException If any of the files can't be deleted
+	 */
+	public static void deleteDirectory(final Path directory) throws IOException {
+		try(final Stream<Path> paths = Files.walk(directory)) {
+			for(final Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+	
+	/**
+	 * Write a D2V index file, as created by DGIndex for a progressive MPEG-2 clip.
+	 * 
+	 * @param directory Target directory
+	 * @param name Name of the index file
+	 * @param width Clip width
+	 * @param height Clip height
+	 * @param gopCount Number of GOPs in the clip
+	 * @return Path to the written file
+	 * @throws IOException If the file can't be written
+	 */
+	public static Path writeD2V(final Path directory, final String name, final int width,
+			final int height, final int gopCount) throws IOException {
+		final Path d2vPath = directory.resolve(name);
+		try(final BufferedWriter writer = Files.newBufferedWriter(d2vPath, StandardCharsets.US_ASCII)) {
+			writer.write("DGIndexProjectFile16\n1\n" + directory.resolve(name + ".vob") + "\n\n");
+			writer.write("Stream_Type=1\nMPEG_Type=2\niDCT_Algorithm=5 (IEEE-1180 Reference)\n");
+			writer.write("YUVRGB_Scale=1\nLuminance_Filter=0,0\nClipping=0,0,0,0\nAspect_Ratio=16:9\n");
+			writer.write("Picture_Size=" + width + "x" + height + "\n");
+			writer.write("Field_Operation=0\nFrame_Rate=25000 (25/1)\nLocation=0,0,0,0\n\n");
+			for(int gop = 0; gop < gopCount; ++gop) {
+				writer.write("900 5 0 " + ((long)gop * BYTES_PER_GOP) + " 0 1" + GOP_FRAME_FLAGS + "\n");
+			}
+			writer.write("\nFINISHED  100.00% VIDEO\n");
+		}
+		return d2vPath;
+	}
+	
+	/**
+	 * Write AVS scripts, each with its own D2V index file, as they would be queued for an encoding.
+	 * Every other clip has a different resolution, so that the merged scripts have to resize them.
+	 * Most of the scripts are written in MeGUI's style, on the implicit last clip, while every third
+	 * one chains its filters through a named variable and is deinterlaced, so that its clip is resized
+	 * around the deinterlacer.
+	 * 
+	 * @param directory Target directory
+	 * @param scriptCount Number of scripts to write
+	 * @param gopsPerScript Number of GOPs in each of the scripts' clips
+	 * @return Paths to the written scripts
+	 * @throws IOException If the files can't be written
+	 */
+	public static List<String> writeInputScripts(final Path directory, final int scriptCount,
+			final int gopsPerScript) throws IOException {
+		final List<String> scriptPaths = new ArrayList<>(scriptCount);
+		for(int i = 0; i < scriptCount; ++i) {
+			final String clipName = "clip_" + i;
+			writeD2V(directory, clipName + ".d2v", 720, i % 2 == 0? 576 : 480, gopsPerScript);
+			
+			final List<String> scriptLines = new ArrayList<>();
+			scriptLines.add("LoadPlugin(\"C:\\AviSynth\\plugins\\DGDecode.dll\")");
+			scriptLines.add("Import(\"C:\\AviSynth\\plugins\\shared.avsi\")");
+			if(i % 3 == 1) {
+				scriptLines.add("v = DGDecode_mpeg2source(\"" + clipName + ".d2v\", info=3)");
+				scriptLines.add("v = v.Crop(8, 0, -8, 0)");
+				scriptLines.add("v = v.QTGMC(Preset=\"Fast\").SelectEven()");
+				scriptLines.add("return v");
+			}
+			else {
+				scriptLines.add("DGDecode_mpeg2source(\"" + clipName + ".d2v\", info=3)");
+				scriptLines.add("ColorMatrix(hints=true, interlaced=false)");
+				scriptLines.add("Crop(8, 0, -8, 0)");
+			}
+			
+			final Path scriptPath = directory.resolve(clipName + ".avs");
+			Files.write(scriptPath, scriptLines, StandardCharsets.UTF_8);
+			scriptPaths.add(scriptPath.toString());
+		}
+		return scriptPaths;
+	}
+	
+	/**
+	 * Create the status lines that an x264 instance prints while encoding, ending with its summary line.
+	 * 
+	 * @param totalFrames Number of frames being encoded
+	 * @param lineCount Number of lines to create
+	 * @return Created lines
+	 */
+	public static String[] createX264StatusLines(final long totalFrames, final int lineCount) {
+		final String[] lines = new String[lineCount];
+		for(int i = 0; i < lineCount - 1; ++i) {
+			final long framesDone = totalFrames * i / lineCount;
+			lines[i] = String.format(Locale.US, "[%.1f%%] %d/%d frames, %.2f fps, %.2f kb/s, eta 0:%02d:%02d",
+					100.0 * framesDone / totalFrames, framesDone, totalFrames, 20 + (i % 700) / 100.0,
+					2400 + (i % 300) / 10.0, (lineCount - i) / 60 % 60, (lineCount - i) % 60);
+		}
+		lines[lineCount - 1] = String.format(Locale.US, "encoded %d frames, %.2f fps, %.2f kb/s",
+				totalFrames, 23.47, 2418.55);
+		return lines;
+	}
+}
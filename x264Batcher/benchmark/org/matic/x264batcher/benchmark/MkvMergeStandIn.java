@@ -0,0 +1,56 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A stand-in for the mkvmerge executable, used together with {@link X264StandIn}.
+ * It accepts the arguments that the segment merger passes to mkvmerge
+ * (-o output.mkv segment_0.264 + segment_1.264 + ...) and simply concatenates the
+ * segments into the output file, which gives a valid Annex-B stream rather than a
+ * Matroska file.
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class MkvMergeStandIn {
+	
+	private MkvMergeStandIn() {}
+	
+	public static void main(final String[] args) throws IOException {
+		if(args.length < 3 || !"-o".equals(args[0])) {
+			System.out.println("Error: no output file name was given.");
+			System.exit(2);
+		}
+		try(final OutputStream stream = Files.newOutputStream(Paths.get(args[1]))) {
+			for(int i = 2; i < args.length; ++i) {
+				if(!"+".equals(args[i])) {
+					System.out.println("Appending: " + args[i]);
+					Files.copy(Paths.get(args[i]), stream);
+				}
+			}
+		}
+		System.out.println("Multiplexing took 0 seconds.");
+	}
+}
@@ -0,0 +1,380 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.matic.x264batcher.encoder.SegmentScheduler;
+import org.matic.x264batcher.model.QueuePolicy;
+
+/**
+ * A discrete-event simulation of the encoder, in virtual time. Jobs arrive on the queue
+ * at recorded (or generated) times and are encoded the way the encoder controller does it:
+ * one job at a time, its segments spread over the encoder slots and merged when all of them
+ * are done. All of the scheduling decisions are made by the same {@link SegmentScheduler}
+ * that the encoder uses. Each combination of slot count, segments per slot, queue policy and
+ * segment order is simulated and its makespan, utilisation and job turnaround are reported.
+ * 
+ * The encoding speed of a job is given as an fps profile, a list of fps values that cover equal
+ * consecutive parts of the job (such as the average fps of each of its segments, recorded
+ * during a real encoding). When more segments run than there are processor cores, the cores
+ * are shared evenly between them.
+ * 
+ * Options (all optional), given as --name=value:
+ * <ul>
+ * <li>trace: CSV file with one job per line: submit time (seconds), job name, frame count and the
+ * fps profile, with the values separated by semicolons (default: generate jobs)</li>
+ * <li>days, jobs-per-day, mean-frames, mean-fps, fps-variation, seed: generated jobs' properties
+ * (defaults 30, 12, 150000, 30, 0.3 and 1)</li>
+ * <li>slots: comma separated slot counts to simulate (default 4)</li>
+ * <li>segments-per-slot: comma separated segment per slot counts to simulate (default 1,2,4)</li>
+ * <li>cores: number of processor cores (default: this machine's processor count)</li>
+ * <li>segment-overhead: seconds it takes to start encoding a segment (default 2)</li>
+ * <li>merge-fps: merging speed in frames per second (default 5000)</li>
+ * <li>output: CSV file to write the turnaround of each job in each simulation to</li>
+ * </ul>
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class SchedulerSimulator {
+	
+	private static final double SECONDS_PER_HOUR = 3600;
+	private static final double SECONDS_PER_DAY = 24 * SECONDS_PER_HOUR;
+	
+	//Remaining work below this (in seconds) means that a segment is done, it absorbs rounding errors
+	private static final double WORK_EPSILON = 1e-6;
+	
+	private final List<SimulatedJob> jobs;
+	private final int coreCount;
+	private final double segmentOverhead;
+	private final double mergeFps;
+	
+	private SchedulerSimulator(final List<SimulatedJob> jobs, final int coreCount,
+			final double segmentOverhead, final double mergeFps) {
+		this.jobs = jobs;
+		this.coreCount = coreCount;
+		this.segmentOverhead = segmentOverhead;
+		this.mergeFps = mergeFps;
+	}
+	
+	public static void main(final String[] args) throws IOException {
+		final Map<String, String> options = parseOptions(args);
+		final List<SimulatedJob> jobs = options.containsKey("trace")?
+				readTrace(options.get("trace")) : generateJobs(options);
+		final int coreCount = Integer.parseInt(options.getOrDefault("cores",
+				String.valueOf(Runtime.getRuntime().availableProcessors())));
+		final SchedulerSimulator simulator = new SchedulerSimulator(jobs, coreCount,
+				Double.parseDouble(options.getOrDefault("segment-overhead", "2")),
+				Double.parseDouble(options.getOrDefault("merge-fps", "5000")));
+		
+		final int[] slotCounts = parseIntegers(options.getOrDefault("slots", "4"));
+		final int[] segmentsPerSlotCounts = parseIntegers(options.getOrDefault("segments-per-slot", "1,2,4"));
+		
+		System.out.println(String.format(Locale.US, "Simulating %d jobs (%d frames) on %d cores",
+				jobs.size(), jobs.stream().mapToLong(j -> j.frameCount).sum(), coreCount));
+		System.out.println(String.format(Locale.US, "%5s %9s %-18s %-13s %10s %9s %9s %10s %10s %10s",
+				"Slots", "Seg/slot", "Queue policy", "Seg. order", "Makespan h", "Slots %", "CPU %",
+				"Turn. p50", "Turn. p95", "Turn. max"));
+		
+		final long startTime = System.currentTimeMillis();
+		final List<String> turnaroundLines = new ArrayList<>();
+		for(final int slotCount : slotCounts) {
+			for(final int segmentsPerSlot : segmentsPerSlotCounts) {
+				for(final QueuePolicy queuePolicy : QueuePolicy.values()) {
+					for(final SegmentScheduler.SegmentOrder segmentOrder : SegmentScheduler.SegmentOrder.values()) {
+						final SegmentScheduler scheduler = new SegmentScheduler(
+								slotCount, segmentsPerSlot, queuePolicy, segmentOrder);
+						final Result result = simulator.simulate(scheduler);
+						
+						System.out.println(String.format(Locale.US, "%5d %9d %-18s %-13s %10.2f %9.1f %9.1f %10.2f %10.2f %10.2f",
+								slotCount, segmentsPerSlot, queuePolicy.name(), segmentOrder.name(),
+								result.makespan / SECONDS_PER_HOUR, 100 * result.slotUtilisation,
+								100 * result.cpuUtilisation, percentile(result.turnarounds, 50) / SECONDS_PER_HOUR,
+								percentile(result.turnarounds, 95) / SECONDS_PER_HOUR,
+								percentile(result.turnarounds, 100) / SECONDS_PER_HOUR));
+						
+						for(int i = 0; i < jobs.size(); ++i) {
+							turnaroundLines.add(String.format(Locale.US, "%d,%d,%s,%s,%s,%.1f,%.1f",
+									slotCount, segmentsPerSlot, queuePolicy.name(), segmentOrder.name(),
+									jobs.get(i).name, jobs.get(i).arrival, result.turnarounds[i]));
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Simulated in " + (System.currentTimeMillis() - startTime) + " ms");
+		
+		if(options.containsKey("output")) {
+			try(final PrintWriter writer = new PrintWriter(Files.newBufferedWriter(
+					Paths.get(options.get("output")), StandardCharsets.UTF_8))) {
+				writer.println("slots,segments_per_slot,queue_policy,segment_order,job,arrival_seconds,turnaround_seconds");
+				turnaroundLines.forEach(writer::println);
+			}
+		}
+	}
+	
+	/**
+	 * Simulate the encoding of all jobs with the decisions of a scheduler.
+	 * 
+	 * @param scheduler Scheduler to simulate
+	 * @return Simulation result
+	 */
+	Result simulate(final SegmentScheduler scheduler) {
+		final Deque<SimulatedJob> arrivals = new ArrayDeque<>(jobs);
+		final List<SimulatedJob> queue = new ArrayList<>();
+		final Deque<Double> pendingSegments = new ArrayDeque<>();
+		final List<double[]> runningSegments = new ArrayList<>();
+		final double[] turnarounds = new double[jobs.size()];
+		final Map<SimulatedJob, Integer> jobIndexes = new HashMap<>();
+		for(int i = 0; i < jobs.size(); ++i) {
+			jobIndexes.put(jobs.get(i), i);
+		}
+		
+		final double firstArrival = jobs.isEmpty()? 0 : jobs.get(0).arrival;
+		double time = firstArrival;
+		double slotBusyTime = 0;
+		double cpuBusyTime = 0;
+		
+		SimulatedJob currentJob = null;
+		double mergeEnd = Double.NaN;
+		
+		while(true) {
+			while(!arrivals.isEmpty() && arrivals.peekFirst().arrival <= time) {
+				queue.add(arrivals.pollFirst());
+			}
+			if(currentJob == null && !queue.isEmpty()) {
+				currentJob = queue.remove(scheduler.selectNextJob(
+						queue.stream().map(j -> j.frameCount).collect(Collectors.toList())));
+				final double[] segmentWork = splitJob(currentJob, scheduler.getSegmentCount());
+				final long[] segmentFrameCounts = splitFrames(currentJob.frameCount, scheduler.getSegmentCount());
+				for(final int segment : scheduler.orderSegments(segmentFrameCounts)) {
+					pendingSegments.add(segmentWork[segment]);
+				}
+				while(runningSegments.size() < scheduler.getSlotCount() && !pendingSegments.isEmpty()) {
+					runningSegments.add(new double[] {pendingSegments.pollFirst()});
+				}
+			}
+			if(currentJob == null && arrivals.isEmpty()) {
+				break;
+			}
+			
+			//Advance the time to the next event: an arrival, a segment completion or a merge completion
+			final double speed = runningSegments.isEmpty()? 0 : Math.min(1, (double)coreCount / runningSegments.size());
+			double nextEventTime = arrivals.isEmpty()? Double.MAX_VALUE : arrivals.peekFirst().arrival;
+			if(!runningSegments.isEmpty()) {
+				final double minWork = runningSegments.stream().mapToDouble(s -> s[0]).min().getAsDouble();
+				nextEventTime = Math.min(nextEventTime, time + minWork / speed);
+			}
+			if(!Double.isNaN(mergeEnd)) {
+				nextEventTime = Math.min(nextEventTime, mergeEnd);
+			}
+			final double elapsed = nextEventTime - time;
+			for(final double[] segment : runningSegments) {
+				segment[0] -= elapsed * speed;
+			}
+			slotBusyTime += elapsed * runningSegments.size();
+			cpuBusyTime += elapsed * Math.min(coreCount, runningSegments.size());
+			time = nextEventTime;
+			
+			//Segments that are done free their slots for the next segments
+			final int runningCount = runningSegments.size();
+			runningSegments.removeIf(s -> s[0] <= WORK_EPSILON);
+			for(int i = runningSegments.size(); i < runningCount && !pendingSegments.isEmpty(); ++i) {
+				runningSegments.add(new double[] {pendingSegments.pollFirst()});
+			}
+			
+			if(currentJob != null && runningSegments.isEmpty() && pendingSegments.isEmpty()) {
+				if(Double.isNaN(mergeEnd)) {
+					mergeEnd = time + currentJob.frameCount / mergeFps;
+				}
+				else if(time >= mergeEnd) {
+					turnarounds[jobIndexes.get(currentJob)] = time - currentJob.arrival;
+					currentJob = null;
+					mergeEnd = Double.NaN;
+				}
+			}
+		}
+		
+		final double makespan = time - firstArrival;
+		final int slotCount = scheduler.getSlotCount();
+		return new Result(makespan, makespan > 0? slotBusyTime / (makespan * slotCount) : 0,
+				makespan > 0? cpuBusyTime / (makespan * Math.min(slotCount, coreCount)) : 0, turnarounds);
+	}
+	
+	/**
+	 * Split a job into segments and calculate each segment's encoding time at full speed.
+	 */
+	private double[] splitJob(final SimulatedJob job, final int segmentCount) {
+		final long[] segmentFrameCounts = splitFrames(job.frameCount, segmentCount);
+		final double[] segmentWork = new double[segmentCount];
+		long segmentStart = 0;
+		for(int i = 0; i < segmentCount; ++i) {
+			segmentWork[i] = segmentOverhead + job.getEncodingTime(segmentStart, segmentStart + segmentFrameCounts[i]);
+			segmentStart += segmentFrameCounts[i];
+		}
+		return segmentWork;
+	}
+	
+	//Split the frames the way the segment builder does it, without the GOP alignment
+	private static long[] splitFrames(final long frameCount, final int segmentCount) {
+		final long segmentLength = (long)Math.ceil((double)frameCount / segmentCount);
+		final long[] segmentFrameCounts = new long[segmentCount];
+		for(int i = 0; i < segmentCount; ++i) {
+			segmentFrameCounts[i] = Math.max(0, Math.min(segmentLength, frameCount - i * segmentLength));
+		}
+		return segmentFrameCounts;
+	}
+	
+	private static List<SimulatedJob> readTrace(final String tracePath) throws IOException {
+		final List<SimulatedJob> jobs = new ArrayList<>();
+		for(final String line : Files.readAllLines(Paths.get(tracePath), StandardCharsets.UTF_8)) {
+			final String trimmedLine = line.trim();
+			if(trimmedLine.isEmpty() || trimmedLine.startsWith("#")) {
+				continue;
+			}
+			final String[] fields = trimmedLine.split(",");
+			if(fields.length != 4) {
+				throw new IOException("Invalid trace line, expected 4 fields: " + line);
+			}
+			jobs.add(new SimulatedJob(fields[1].trim(), Double.parseDouble(fields[0].trim()),
+					Long.parseLong(fields[2].trim()), Arrays.stream(fields[3].split(";")).map(String::trim)
+						.mapToDouble(Double::parseDouble).toArray()));
+		}
+		jobs.sort(Comparator.comparingDouble(j -> j.arrival));
+		return jobs;
+	}
+	
+	private static List<SimulatedJob> generateJobs(final Map<String, String> options) {
+		final int days = Integer.parseInt(options.getOrDefault("days", "30"));
+		final double jobsPerDay = Double.parseDouble(options.getOrDefault("jobs-per-day", "12"));
+		final double meanFrames = Double.parseDouble(options.getOrDefault("mean-frames", "150000"));
+		final double meanFps = Double.parseDouble(options.getOrDefault("mean-fps", "30"));
+		final double fpsVariation = Double.parseDouble(options.getOrDefault("fps-variation", "0.3"));
+		final Random random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+		
+		final List<SimulatedJob> jobs = new ArrayList<>();
+		double arrival = 0;
+		while(true) {
+			//Exponential inter-arrival times, i.e. the jobs arrive as a Poisson process
+			arrival += -Math.log(1 - random.nextDouble()) * SECONDS_PER_DAY / jobsPerDay;
+			if(arrival >= days * SECONDS_PER_DAY) {
+				break;
+			}
+			final long frameCount = Math.max(1, (long)(meanFrames * Math.exp(random.nextGaussian() * 0.5 - 0.125)));
+			final double jobFps = meanFps * Math.exp(random.nextGaussian() * fpsVariation);
+			final double[] fpsProfile = new double[16];
+			for(int i = 0; i < fpsProfile.length; ++i) {
+				fpsProfile[i] = Math.max(0.1, jobFps * (1 + random.nextGaussian() * fpsVariation));
+			}
+			jobs.add(new SimulatedJob("job_" + jobs.size(), arrival, frameCount, fpsProfile));
+		}
+		return jobs;
+	}
+	
+	private static Map<String, String> parseOptions(final String[] args) {
+		final Map<String, String> options = new HashMap<>();
+		for(final String arg : args) {
+			final int separator = arg.indexOf('=');
+			if(!arg.startsWith("--") || separator == -1) {
+				throw new IllegalArgumentException("Expected an option as --name=value, got: " + arg);
+			}
+			options.put(arg.substring(2, separator), arg.substring(separator + 1));
+		}
+		return options;
+	}
+	
+	private static int[] parseIntegers(final String values) {
+		return Arrays.stream(values.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+	}
+	
+	private static double percentile(final double[] values, final double percentile) {
+		if(values.length == 0) {
+			return 0;
+		}
+		final double[] sortedValues = values.clone();
+		Arrays.sort(sortedValues);
+		final int index = (int)Math.ceil(percentile / 100 * sortedValues.length) - 1;
+		return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+	}
+	
+	private static final class SimulatedJob {
+		private final String name;
+		private final double arrival;
+		private final long frameCount;
+		private final double[] fpsProfile;
+		
+		SimulatedJob(final String name, final double arrival, final long frameCount, final double[] fpsProfile) {
+			this.name = name;
+			this.arrival = arrival;
+			this.frameCount = frameCount;
+			this.fpsProfile = fpsProfile;
+		}
+		
+		/**
+		 * Get the time it takes to encode a range of frames on an uncontended core.
+		 * 
+		 * @param fromFrame First frame of the range
+		 * @param toFrame End of the range (exclusive)
+		 * @return Encoding time in seconds
+		 */
+		double getEncodingTime(final long fromFrame, final long toFrame) {
+			final double partLength = (double)frameCount / fpsProfile.length;
+			double encodingTime = 0;
+			for(int part = 0; part < fpsProfile.length; ++part) {
+				final double overlap = Math.min(toFrame, (part + 1) * partLength) - Math.max(fromFrame, part * partLength);
+				if(overlap > 0) {
+					encodingTime += overlap / fpsProfile[part];
+				}
+			}
+			return encodingTime;
+		}
+	}
+	
+	private static final class Result {
+		private final double makespan;
+		private final double slotUtilisation;
+		private final double cpuUtilisation;
+		private final double[] turnarounds;
+		
+		Result(final double makespan, final double slotUtilisation, final double cpuUtilisation,
+				final double[] turnarounds) {
+			this.makespan = makespan;
+			this.slotUtilisation = slotUtilisation;
+			this.cpuUtilisation = cpuUtilisation;
+			this.turnarounds = turnarounds;
+		}
+	}
+}
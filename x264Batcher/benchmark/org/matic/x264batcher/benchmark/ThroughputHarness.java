@@ -0,0 +1,305 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.matic.x264batcher.encoder.AvsParser;
+import org.matic.x264batcher.encoder.EncoderController;
+import org.matic.x264batcher.encoder.EncodingProgressListener;
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry;
+import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.EncoderJobParameters;
+import org.matic.x264batcher.model.EncoderParameters;
+import org.matic.x264batcher.model.EncoderPreset;
+import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.JobStatus;
+import org.matic.x264batcher.model.QueuePolicy;
+import org.matic.x264batcher.model.SegmentProgressView;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+
+/**
+ * Runs a queue of synthetic jobs through the {@link EncoderController}, with {@link X264StandIn}
+ * and {@link MkvMergeStandIn} in place of the real executables, and reports the makespan
+ * (time until all jobs complete), the time that encoder slots spent idle and the job latencies.
+ * The JavaFX toolkit is started, as the encoder reports job completions on its thread, but no
+ * windows are shown.
+ * 
+ * Options (all optional), given as --name=value:
+ * <ul>
+ * <li>jobs: number of jobs to queue (default 4)</li>
+ * <li>scripts: number of input scripts per job (default 3)</li>
+ * <li>gops: number of GOPs (12 frames each) per input script (default 100)</li>
+ * <li>slots: number of x264 instances to run at once (default 4)</li>
+ * <li>segments-per-slot: number of segments to split a job into, per slot (default 1)</li>
+ * <li>small-job-frames: jobs with fewer frames are encoded unsplit, side by side (default 0, never)</li>
+ * <li>policy: queue policy, one of {@link QueuePolicy}'s names (default FIFO)</li>
+ * <li>standin: options for the x264 stand-in, such as "--standin-fps 200 --standin-fail-at 50"</li>
+ * <li>timeout: seconds after which a running job is cancelled, useful with stalling segments (default none)</li>
+ * <li>verbose: whether to print the encoder log (default false)</li>
+ * </ul>
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class ThroughputHarness extends Application {
+	
+	private static final long PROGRESS_UPDATE_INTERVAL = 20;
+	
+	private final Map<QueuedJob, long[][]> segmentTimes = new ConcurrentHashMap<>();
+	private final CountDownLatch allJobsCompleted = new CountDownLatch(1);
+	
+	public static void main(final String[] args) {
+		launch(args);
+	}
+
+	@Override
+	public void start(final Stage stage) {
+		final Thread harnessThread = new Thread(() -> {
+			try {
+				run(getParameters().getNamed());
+			} catch(final Exception e) {
+				e.printStackTrace();
+			} finally {
+				Platform.exit();
+			}
+		});
+		harnessThread.setDaemon(true);
+		harnessThread.start();
+	}
+	
+	private void run(final Map<String, String> options) throws IOException, EncoderException, InterruptedException {
+		final int jobCount = Integer.parseInt(options.getOrDefault("jobs", "4"));
+		final int scriptCount = Integer.parseInt(options.getOrDefault("scripts", "3"));
+		final int gopCount = Integer.parseInt(options.getOrDefault("gops", "100"));
+		final int slotCount = Integer.parseInt(options.getOrDefault("slots", "4"));
+		final int segmentsPerSlot = Integer.parseInt(options.getOrDefault("segments-per-slot", "1"));
+		final long smallJobFrameLimit = Long.parseLong(options.getOrDefault("small-job-frames", "0"));
+		final QueuePolicy queuePolicy = QueuePolicy.valueOf(options.getOrDefault("policy", QueuePolicy.FIFO.name()));
+		final String standInOptions = options.getOrDefault("standin", "");
+		final long timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "0")) * 1000;
+		final EncoderLogger logger = Boolean.parseBoolean(options.getOrDefault("verbose", "false"))?
+				new ConsoleLogger() : BenchmarkFixtures.NO_OP_LOGGER;
+		
+		final Path workDirectory = BenchmarkFixtures.createDirectory();
+		try {
+			final EncoderParameters encoderParameters = new EncoderParameters(
+					writeLauncher(workDirectory, "x264", X264StandIn.class),
+					writeLauncher(workDirectory, "mkvmerge", MkvMergeStandIn.class),
+					slotCount, PROGRESS_UPDATE_INTERVAL, false, queuePolicy, segmentsPerSlot, smallJobFrameLimit);
+			final EncoderController encoderController = new EncoderController(logger);
+			encoderController.addListener(new TimelineRecorder());
+			
+			final List<QueuedJob> queuedJobs = new ArrayList<>();
+			for(int i = 0; i < jobCount; ++i) {
+				final QueuedJob queuedJob = createJob(workDirectory.resolve("job_" + i), "job_" + i,
+						scriptCount, gopCount, standInOptions);
+				queuedJobs.add(queuedJob);
+				encoderController.add(queuedJob);
+			}
+			
+			System.out.println("Encoding " + jobCount + " jobs with " + slotCount + " slots in " + workDirectory);
+			final long startTime = System.currentTimeMillis();
+			encoderController.encode(encoderParameters);
+			
+			while(allJobsCompleted.getCount() > 0) {
+				cancelTimedOutJob(encoderController, queuedJobs, timeoutMillis);
+				Thread.sleep(100);
+			}
+			final long makespan = System.currentTimeMillis() - startTime;
+			
+			report(queuedJobs, startTime, makespan, slotCount);
+		} finally {
+			BenchmarkFixtures.deleteDirectory(workDirectory);
+		}
+	}
+	
+	private QueuedJob createJob(final Path jobDirectory, final String jobName, final int scriptCount,
+			final int gopCount, final String standInOptions) throws IOException, EncoderException {
+		Files.createDirectories(jobDirectory);
+		final List<String> scriptPaths = BenchmarkFixtures.writeInputScripts(jobDirectory, scriptCount, gopCount);
+		final List<AvsInputFile> inputFiles = AvsParser.parseInputAvs(scriptPaths, BenchmarkFixtures.NO_OP_LOGGER);
+		final EncoderPreset encoderPreset = new EncoderPreset("stand-in", ("--preset fast --crf 18 " + standInOptions).trim());
+		final EncoderJobParameters jobParameters = new EncoderJobParameters(jobName, jobDirectory.toString(),
+				"1:1", scriptPaths, encoderPreset, true);
+		return new QueuedJob(jobParameters, inputFiles, inputFiles.get(0).getClipDimension());
+	}
+	
+	private void cancelTimedOutJob(final EncoderController encoderController, final List<QueuedJob> queuedJobs,
+			final long timeoutMillis) {
+		if(timeoutMillis <= 0) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		queuedJobs.stream().filter(j -> j.getJobStatus() == JobStatus.RUNNING
+				&& j.getTimeStarted() > 0 && now - j.getTimeStarted() > timeoutMillis).findAny().ifPresent(j -> {
+					System.out.println("Cancelling timed out job: " + j.getName());
+					encoderController.cancel();
+				});
+	}
+	
+	private void report(final List<QueuedJob> queuedJobs, final long startTime, final long makespan,
+			final int slotCount) {
+		long busyMillis = 0;
+		final List<Long> turnarounds = new ArrayList<>();
+		final List<Long> segmentTails = new ArrayList<>();
+		
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-10s %-10s %8s %12s %12s %12s %12s",
+				"Job", "Status", "Segments", "Turnaround", "Run time", "Seg. tail", "Merge"));
+		for(final QueuedJob queuedJob : queuedJobs) {
+			final long completed = queuedJob.getTimeCompleted();
+			final long[][] times = segmentTimes.getOrDefault(queuedJob, new long[2][0]);
+			final long[] segmentStarts = times[0];
+			final long[] segmentEnds = times[1];
+			
+			long firstEnd = Long.MAX_VALUE;
+			long lastEnd = 0;
+			for(int i = 0; i < segmentStarts.length; ++i) {
+				//A segment whose finish wasn't observed ran until its job completed
+				final long segmentEnd = segmentEnds[i] > 0? segmentEnds[i] : completed;
+				if(segmentStarts[i] > 0) {
+					busyMillis += segmentEnd - segmentStarts[i];
+					firstEnd = Math.min(firstEnd, segmentEnd);
+					lastEnd = Math.max(lastEnd, segmentEnd);
+				}
+			}
+			final long turnaround = completed - startTime;
+			final long segmentTail = lastEnd > 0? lastEnd - firstEnd : 0;
+			turnarounds.add(turnaround);
+			segmentTails.add(segmentTail);
+			
+			System.out.println(String.format(Locale.US, "%-10s %-10s %8d %12s %12s %12s %12s",
+					queuedJob.getName(), queuedJob.getJobStatus(), segmentStarts.length,
+					formatMillis(turnaround), formatMillis(completed - queuedJob.getTimeStarted()),
+					formatMillis(segmentTail), formatMillis(lastEnd > 0? completed - lastEnd : 0)));
+		}
+		
+		final long slotMillis = makespan * slotCount;
+		System.out.println();
+		System.out.println("Makespan:              " + formatMillis(makespan));
+		System.out.println(String.format(Locale.US, "Slot idle time:        %s (%.1f%% of %s slot time)",
+				formatMillis(slotMillis - busyMillis), 100.0 * (slotMillis - busyMillis) / slotMillis,
+				formatMillis(slotMillis)));
+		System.out.println("Job turnaround p50:    " + formatMillis(percentile(turnarounds, 50)));
+		System.out.println("Job turnaround p95:    " + formatMillis(percentile(turnarounds, 95)));
+		System.out.println("Job turnaround max:    " + formatMillis(percentile(turnarounds, 100)));
+		System.out.println("Segment tail p95:      " + formatMillis(percentile(segmentTails, 95)));
+		System.out.println("Segment tail max:      " + formatMillis(percentile(segmentTails, 100)));
+	}
+	
+	private static long percentile(final List<Long> values, final double percentile) {
+		if(values.isEmpty()) {
+			return 0;
+		}
+		final long[] sortedValues = values.stream().mapToLong(Long::longValue).sorted().toArray();
+		final int index = (int)Math.ceil(percentile / 100 * sortedValues.length) - 1;
+		return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+	}
+	
+	private static String formatMillis(final long millis) {
+		return String.format(Locale.US, "%.2f s", millis / 1000.0);
+	}
+	
+	/**
+	 * Write a shell script that runs a stand-in's main class in a new JVM, with the classpath
+	 * of this JVM. The encoder splits the commands on spaces, so the script's path is used
+	 * in place of an executable's path.
+	 */
+	private static String writeLauncher(final Path directory, final String name,
+			final Class<?> mainClass) throws IOException {
+		final Path javaPath = Paths.get(System.getProperty("java.home"), "bin", "java");
+		final Path launcherPath = directory.resolve(name);
+		Files.write(launcherPath, Arrays.asList("#!/bin/sh",
+				"exec \"" + javaPath + "\" -XX:TieredStopAtLevel=1 -Xmx64m -cp \""
+						+ System.getProperty("java.class.path") + "\" " + mainClass.getName() + " \"$@\""),
+				StandardCharsets.UTF_8);
+		if(!launcherPath.toFile().setExecutable(true)) {
+			throw new IOException("Unable to make the launcher executable: " + launcherPath);
+		}
+		return launcherPath.toString();
+	}
+	
+	/**
+	 * Records the times at which the segments of each job start and finish encoding. 
+	 */
+	private final class TimelineRecorder implements EncodingProgressListener {
+		@Override
+		public void onProgressUpdate(final QueuedJob queuedJob, final EncodingProgressView jobProgressView) {
+			final long now = System.currentTimeMillis();
+			final List<SegmentProgressView> segmentViews = jobProgressView.getSegmentViews();
+			final long[][] times = segmentTimes.computeIfAbsent(queuedJob,
+					j -> new long[][] {new long[segmentViews.size()], new long[segmentViews.size()]});
+			for(final SegmentProgressView segmentView : segmentViews) {
+				final int segment = segmentView.getSegmentIndex();
+				if(segmentView.getState() != SegmentProgressView.State.QUEUED && times[0][segment] == 0) {
+					times[0][segment] = now;
+				}
+				if((segmentView.getState() == SegmentProgressView.State.FINISHED
+						|| segmentView.getState() == SegmentProgressView.State.FAILED) && times[1][segment] == 0) {
+					times[1][segment] = now;
+				}
+			}
+		}
+
+		@Override
+		public void onJobCompleted(final QueuedJob queuedJob) {
+			System.out.println("Job completed: " + queuedJob.getName() + " [" + queuedJob.getJobStatus() + "]");
+		}
+
+		@Override
+		public void onAllJobsCompleted() {
+			allJobsCompleted.countDown();
+		}
+	}
+	
+	private static final class ConsoleLogger implements EncoderLogger {
+		@Override
+		public void clear() {}
+
+		@Override
+		public void log(final LogEntry.Severity severity, final String content) {
+			System.out.println(severity + ": " + content);
+		}
+
+		@Override
+		public void filter(final LogEntry.Severity severity) {}
+
+		@Override
+		public void filter(final LogEntry.Severity severity, final String filterText) {}
+	}
+}
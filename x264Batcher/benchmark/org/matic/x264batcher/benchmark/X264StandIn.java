@@ -0,0 +1,322 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A stand-in for the x264 executable, used for repeatable runs of the whole encoding
+ * pipeline without real video. It accepts the same arguments that the segment builder
+ * passes to x264, determines the number of frames to encode from the Trim() calls in
+ * the segment's AVS script, and then pretends to encode them at a set speed. While doing
+ * so, it prints the same progress output as x264 and writes a small, but structurally
+ * valid, Annex-B H.264 stream to the output file. Like AviSynth, it fails on a script
+ * that uses a clip before the clip has been assigned.
+ * 
+ * Besides --frames, which limits the number of frames to encode, any x264 options are
+ * ignored. The following options are accepted as well:
+ * <ul>
+ * <li>--standin-fps: encoding speed in frames per second (default 250)</li>
+ * <li>--standin-frame-cost: time in milliseconds that each frame takes, overrides the fps</li>
+ * <li>--standin-fail-at: percent done at which to fail with an error</li>
+ * <li>--standin-stall-at: percent done at which to stop making progress, without exiting</li>
+ * <li>--standin-segments: comma separated indexes of the segments (and their continuations) to fail or stall (default all)</li>
+ * </ul>
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class X264StandIn {
+	
+	private static final String STANDIN_OPTION_PREFIX = "--standin-";
+	private static final String OUTPUT_OPTION = "--output";
+	private static final String FRAMES_OPTION = "--frames";
+	
+	private static final Pattern CLIP_STATEMENT = Pattern.compile("^\\s*(\\w+)\\s*=(.*)$");
+	private static final Pattern CONTINUATION_TRIM = Pattern.compile("^\\s*Trim\\(\\s*(\\d+)\\s*,\\s*(\\d+)\\s*\\)\\s*$");
+	private static final Pattern TRIM_CALL = Pattern.compile("Trim\\(\\s*(-?\\d+)\\s*,\\s*(-?\\d+)\\s*\\)");
+	private static final Pattern CLIP_REFERENCE = Pattern.compile("\\b(clip_\\d+\\w*)\\b");
+	private static final Pattern SEGMENT_INDEX = Pattern.compile("_seg_(\\d+)(_cont_\\d+_\\d+)?\\.avs$");
+	
+	private static final long STATUS_INTERVAL_MILLIS = 100;
+	private static final int KEYFRAME_INTERVAL = 250;
+	private static final int BYTES_PER_FRAME = 400;
+	
+	private static final byte[] START_CODE = {0, 0, 0, 1};
+	private static final byte[] SPS = {0x67, 0x64, 0x00, 0x1f, (byte)0xac, (byte)0xd9, 0x40, 0x50, 0x05, (byte)0xbb, 0x01, 0x10};
+	private static final byte[] PPS = {0x68, (byte)0xeb, (byte)0xe3, (byte)0xcb, 0x22, (byte)0xc0};
+	private static final byte IDR_SLICE_HEADER = 0x65;
+	private static final byte SLICE_HEADER = 0x41;
+	private static final byte SEI_HEADER = 0x06;
+	private static final byte SEI_USER_DATA_UNREGISTERED = 0x05;
+	private static final byte RBSP_TRAILING_BITS = (byte)0x80;
+	
+	private X264StandIn() {}
+	
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final Map<String, String> standInOptions = new LinkedHashMap<>();
+		String outputPath = null;
+		String inputPath = null;
+		long frameLimit = Long.MAX_VALUE;
+		for(int i = 0; i < args.length; ++i) {
+			if(args[i].startsWith(STANDIN_OPTION_PREFIX) && i + 1 < args.length) {
+				standInOptions.put(args[i].substring(STANDIN_OPTION_PREFIX.length()), args[++i]);
+			}
+			else if(OUTPUT_OPTION.equals(args[i]) && i + 1 < args.length) {
+				outputPath = args[++i];
+			}
+			else if(FRAMES_OPTION.equals(args[i]) && i + 1 < args.length) {
+				frameLimit = Long.parseLong(args[++i]);
+			}
+			else if(!args[i].startsWith("-")) {
+				//x264 options' values are skipped as well, the input file is the last argument
+				inputPath = args[i];
+			}
+		}
+		
+		final PrintStream out = System.err;
+		if(outputPath == null || inputPath == null) {
+			out.println("x264 [error]: No input file. Run x264 --help for a list of options.");
+			System.exit(1);
+		}
+		
+		final long frameCount;
+		try {
+			final List<String> scriptLines = Files.readAllLines(Paths.get(inputPath), StandardCharsets.UTF_8);
+			final String unknownClip = findUnassignedClip(scriptLines);
+			if(unknownClip != null) {
+				out.println("avs [error]: Script error: I don't know what '" + unknownClip + "' means.");
+				out.println("x264 [error]: could not open input file `" + inputPath + "'");
+				System.exit(1);
+			}
+			frameCount = Math.min(frameLimit, countFrames(scriptLines));
+		} catch(final IOException ioe) {
+			out.println("avs [error]: failed to load avisynth script: " + ioe.getMessage());
+			System.exit(1);
+			return;
+		}
+		
+		final double frameCost = standInOptions.containsKey("frame-cost")?
+				Double.parseDouble(standInOptions.get("frame-cost")) :
+				1000 / Double.parseDouble(standInOptions.getOrDefault("fps", "250"));
+		final boolean targeted = isTargeted(inputPath, standInOptions.get("segments"));
+		final double failAt = targeted? Double.parseDouble(standInOptions.getOrDefault("fail-at", "-1")) : -1;
+		final double stallAt = targeted? Double.parseDouble(standInOptions.getOrDefault("stall-at", "-1")) : -1;
+		
+		out.println("avs [info]: 704x576p 1:1 @ 25/1 fps (cfr)");
+		out.println("x264 [info]: using cpu capabilities: MMX2 SSE2Fast SSSE3 SSE4.2 AVX");
+		out.println("x264 [info]: profile High, level 3.1");
+		
+		final Random random = new Random(frameCount);
+		final long startTime = System.currentTimeMillis();
+		long lastStatusTime = startTime;
+		long bytesWritten = 0;
+		
+		try(final OutputStream stream = new BufferedOutputStream(Files.newOutputStream(Paths.get(outputPath)))) {
+			bytesWritten += writeHeaders(stream);
+			for(long frame = 0; frame < frameCount; ++frame) {
+				final double percentDone = 100.0 * frame / frameCount;
+				if(failAt >= 0 && percentDone >= failAt) {
+					out.println();
+					out.println("x264 [error]: stand-in failure at frame " + frame);
+					System.exit(1);
+				}
+				if(stallAt >= 0 && percentDone >= stallAt) {
+					out.flush();
+					Thread.sleep(Long.MAX_VALUE);
+				}
+				
+				bytesWritten += writeFrame(stream, frame % KEYFRAME_INTERVAL == 0, random);
+				sleepUntil(startTime + (long)((frame + 1) * frameCost));
+				
+				final long now = System.currentTimeMillis();
+				if(now - lastStatusTime >= STATUS_INTERVAL_MILLIS) {
+					lastStatusTime = now;
+					printStatus(out, frame + 1, frameCount, now - startTime, bytesWritten);
+				}
+			}
+		}
+		
+		final long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+		out.println();
+		out.println(String.format(Locale.US, "encoded %d frames, %.2f fps, %.2f kb/s", frameCount,
+				frameCount * 1000.0 / elapsedMillis, getBitrate(bytesWritten, frameCount)));
+	}
+	
+	/**
+	 * Count the frames that an AVS script returns, by adding up the ranges of its clips'
+	 * Trim() calls. A clip that is deinterlaced with QTGMC(), and not decimated with
+	 * SelectEven(), returns twice as many frames. A continuation script returns the range
+	 * of its own Trim() call.
+	 * 
+	 * @param scriptLines Lines of the AVS script
+	 * @return Number of frames that the script returns
+	 */
+	static long countFrames(final List<String> scriptLines) {
+		final Map<String, long[]> clips = new LinkedHashMap<>();
+		for(final String line : scriptLines) {
+			//A continuation script returns a Trim() of the segment script it imports
+			final Matcher continuationTrim = CONTINUATION_TRIM.matcher(line);
+			if(continuationTrim.matches()) {
+				return Long.parseLong(continuationTrim.group(2)) - Long.parseLong(continuationTrim.group(1)) + 1;
+			}
+			final Matcher statement = CLIP_STATEMENT.matcher(line);
+			if(!statement.matches()) {
+				continue;
+			}
+			//Each clip's statistics: {trimmed frame count, deinterlaced, decimated}
+			final long[] clip = clips.computeIfAbsent(statement.group(1), c -> new long[3]);
+			final String expression = statement.group(2);
+			final Matcher trim = TRIM_CALL.matcher(expression);
+			if(trim.find()) {
+				final long trimStart = Long.parseLong(trim.group(1));
+				final long trimEnd = Long.parseLong(trim.group(2));
+				clip[0] = trimEnd < 0? -trimEnd : trimEnd - trimStart + 1;
+			}
+			if(expression.contains("QTGMC(")) {
+				clip[1] = 1;
+			}
+			if(expression.contains("SelectEven(")) {
+				clip[2] = 1;
+			}
+		}
+		return clips.values().stream().mapToLong(c -> c[1] == 1 && c[2] == 0? 2 * c[0] : c[0]).sum();
+	}
+	
+	/**
+	 * Find a clip that a script's statement uses before the clip has been assigned.
+	 * 
+	 * @param scriptLines Lines of the AVS script
+	 * @return Name of the first such clip, or null if all of the used clips are assigned
+	 */
+	static String findUnassignedClip(final List<String> scriptLines) {
+		final Set<String> assignedClips = new HashSet<>();
+		for(final String line : scriptLines) {
+			final Matcher statement = CLIP_STATEMENT.matcher(line);
+			if(!statement.matches()) {
+				continue;
+			}
+			//Clip names may appear in the string arguments, such as the source file names
+			final Matcher reference = CLIP_REFERENCE.matcher(statement.group(2).replaceAll("\"[^\"]*\"", ""));
+			while(reference.find()) {
+				if(!assignedClips.contains(reference.group(1))) {
+					return reference.group(1);
+				}
+			}
+			assignedClips.add(statement.group(1));
+		}
+		return null;
+	}
+	
+	private static boolean isTargeted(final String inputPath, final String segments) {
+		if(segments == null) {
+			return true;
+		}
+		final Matcher segmentIndex = SEGMENT_INDEX.matcher(inputPath);
+		if(!segmentIndex.find()) {
+			return false;
+		}
+		for(final String segment : segments.split(",")) {
+			if(segment.trim().equals(segmentIndex.group(1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static void printStatus(final PrintStream out, final long framesDone, final long frameCount,
+			final long elapsedMillis, final long bytesWritten) {
+		final double fps = framesDone * 1000.0 / elapsedMillis;
+		final long secondsLeft = (long)((frameCount - framesDone) / fps);
+		out.print(String.format(Locale.US, "[%.1f%%] %d/%d frames, %.2f fps, %.2f kb/s, eta %d:%02d:%02d\r",
+				100.0 * framesDone / frameCount, framesDone, frameCount, fps, getBitrate(bytesWritten, framesDone),
+				secondsLeft / 3600, secondsLeft / 60 % 60, secondsLeft % 60));
+		out.flush();
+	}
+	
+	private static double getBitrate(final long bytesWritten, final long frameCount) {
+		//Assuming 25 fps
+		return frameCount > 0? bytesWritten * 8 * 25.0 / frameCount / 1000 : 0;
+	}
+	
+	private static int writeHeaders(final OutputStream stream) throws IOException {
+		final byte[] userData = "x264 stand-in - H.264/MPEG-4 AVC codec".getBytes(StandardCharsets.US_ASCII);
+		
+		stream.write(START_CODE);
+		stream.write(SPS);
+		stream.write(START_CODE);
+		stream.write(PPS);
+		
+		//The SEI payload is a 16 byte UUID followed by the user data
+		stream.write(START_CODE);
+		stream.write(SEI_HEADER);
+		stream.write(SEI_USER_DATA_UNREGISTERED);
+		stream.write(16 + userData.length);
+		stream.write(new byte[] {(byte)0xdc, 0x45, (byte)0xe9, (byte)0xbd, (byte)0xe6, (byte)0xd9, 0x48, (byte)0xb7,
+				(byte)0x96, 0x2c, (byte)0xd8, 0x20, (byte)0xd9, 0x23, (byte)0xee, (byte)0xef});
+		stream.write(userData);
+		stream.write(RBSP_TRAILING_BITS);
+		
+		return 3 * START_CODE.length + SPS.length + PPS.length + 3 + 16 + userData.length + 1;
+	}
+	
+	private static int writeFrame(final OutputStream stream, final boolean keyFrame,
+			final Random random) throws IOException {
+		final int payloadSize = keyFrame? 4 * BYTES_PER_FRAME : BYTES_PER_FRAME / 2 + random.nextInt(BYTES_PER_FRAME);
+		final byte[] payload = new byte[payloadSize];
+		random.nextBytes(payload);
+		for(int i = 0; i < payload.length; ++i) {
+			//Avoid zero bytes, so that the payload never contains a start code (or needs emulation prevention)
+			if(payload[i] == 0) {
+				payload[i] = 1;
+			}
+		}
+		payload[payload.length - 1] = RBSP_TRAILING_BITS;
+		
+		stream.write(START_CODE);
+		stream.write(keyFrame? IDR_SLICE_HEADER : SLICE_HEADER);
+		stream.write(payload);
+		
+		return START_CODE.length + 1 + payload.length;
+	}
+	
+	private static void sleepUntil(final long time) throws InterruptedException {
+		final long delay = time - System.currentTimeMillis();
+		if(delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matic.x264batcher.benchmark.BenchmarkFixtures;
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.ClipDimension;
+import org.matic.x264batcher.model.MergedScript;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to merge parts of many AVS scripts, half of which
+ * need to be resized, into a single script.
+ *
+ * @author Vedran Matic
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Duser.home=target/benchmark-home")
+public class ScriptMergerBenchmark {
+	
+	private static final int GOPS_PER_SCRIPT = 50;
+	
+	@Param({"1", "16", "256"})
+	private int partCount;
+	
+	private Path fixtureDirectory;
+	private List<AvsInputFile> inputFiles;
+	private ClipDimension clipDimension;
+	
+	@Setup
+	public void setUp() throws IOException, EncoderException {
+		fixtureDirectory = BenchmarkFixtures.createDirectory();
+		final List<String> scriptPaths = BenchmarkFixtures.writeInputScripts(
+				fixtureDirectory, partCount, GOPS_PER_SCRIPT);
+		inputFiles = AvsParser.parseInputAvs(scriptPaths, BenchmarkFixtures.NO_OP_LOGGER);
+		clipDimension = inputFiles.get(0).getClipDimension();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkFixtures.deleteDirectory(fixtureDirectory);
+	}
+	
+	@Benchmark
+	public MergedScript merge() {
+		final ScriptMerger scriptMerger = new ScriptMerger(clipDimension);
+		for(final AvsInputFile inputFile : inputFiles) {
+			scriptMerger.addScript(inputFile, inputFile.getClipStart() + 1, inputFile.getClipEnd() - 1);
+		}
+		return scriptMerger.merge();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matic.x264batcher.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how long it takes to parse the progress output of an x264 instance.
+ *
+ * @author Vedran Matic
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class X264ProgressParserBenchmark {
+	
+	private static final long TOTAL_FRAMES = 150000;
+	private static final int LINE_COUNT = 4096;
+	
+	private String[] statusLines;
+	
+	@Setup
+	public void setUp() {
+		statusLines = BenchmarkFixtures.createX264StatusLines(TOTAL_FRAMES, LINE_COUNT);
+	}
+	
+	@Benchmark
+	public void parse(final Blackhole blackhole) {
+		final X264ProgressParser progressParser = new X264ProgressParser();
+		for(final String statusLine : statusLines) {
+			if(progressParser.parse(statusLine)) {
+				blackhole.consume(progressParser.getFramesDone());
+				blackhole.consume(progressParser.getFps());
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.parser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.matic.x264batcher.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to parse a large D2V index file, without the index cache.
+ *
+ * @author Vedran Matic
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class D2VParserBenchmark {
+	
+	@Param({"10000", "200000"})
+	private int gopCount;
+	
+	private final D2VParser d2vParser = new D2VParser();
+	
+	private Path fixtureDirectory;
+	private String d2vFilePath;
+	
+	@Setup
+	public void setUp() throws IOException {
+		fixtureDirectory = BenchmarkFixtures.createDirectory();
+		d2vFilePath = BenchmarkFixtures.writeD2V(fixtureDirectory, "clip.d2v", 1920, 1080, gopCount).toString();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkFixtures.deleteDirectory(fixtureDirectory);
+	}
+	
+	@Benchmark
+	public ParsedIndexedFile parse() throws IOException {
+		return d2vParser.parse(d2vFilePath);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.control;
+
+import java.util.List;
+
+import org.matic.x264batcher.gui.model.QueuedJob;
+
+/**
+ * Notify implementing classes about the changes that were requested through the control API.
+ * The job queue is shared with the GUI, so it is up to the implementing class to apply the
+ * changes to both. The notifications are delivered on the API's threads, not on the JavaFX
+ * application thread.
+ *
+ * @author Vedran Matic
+ */
+public interface ControlListener {
+
+	/**
+	 * Notify implementing classes when a job has been submitted and should be queued.
+	 * 
+	 * @param queuedJob Submitted job, with all of its input files already parsed
+	 */
+	void onJobSubmitted(QueuedJob queuedJob);
+	
+	/**
+	 * Notify implementing classes when jobs should be removed from the queue.
+	 * 
+	 * @param queuedJobs Jobs to remove
+	 */
+	void onJobsRemoved(List<QueuedJob> queuedJobs);
+	
+	/**
+	 * Notify implementing classes when a job should be moved to another queue position.
+	 * 
+	 * @param queuedJob Job to move
+	 * @param position New queue position
+	 */
+	void onJobMoved(QueuedJob queuedJob, int position);
+	
+	/**
+	 * Notify implementing classes when the max number of encoder instances should be changed.
+	 * 
+	 * @param encoderJobsLimit New instance limit, or 0 to use one instance per CPU core
+	 */
+	void onEncoderJobsLimitChanged(int encoderJobsLimit);
+	
+	/**
+	 * Notify implementing classes when the encoding of the queued jobs should be started.
+	 */
+	void onEncodeRequested();
+}
@@ -0,0 +1,511 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.matic.x264batcher.encoder.AvsParser;
+import org.matic.x264batcher.encoder.BatchImporter;
+import org.matic.x264batcher.encoder.EncoderController;
+import org.matic.x264batcher.encoder.EncodingProgressListener;
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.EncoderJobParameters;
+import org.matic.x264batcher.model.EncoderPreset;
+import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.JobPriority;
+import org.matic.x264batcher.model.SegmentProgressView;
+import org.matic.x264batcher.utils.Helper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP/JSON API for driving the encoder from other programs. Jobs can be
+ * submitted, listed, removed, cancelled and reordered, the encoder instance limit can be
+ * changed and the encoding can be started. The progress and job completions are streamed
+ * to the clients as server-sent events, so that they don't have to poll for these.
+ * <p>
+ * The API has no authentication, so it is only ever bound to the loopback address. Requests
+ * that carry an Origin header are rejected, so that web pages can't drive it through a browser.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class ControlServer implements EncodingProgressListener {
+	
+	public static final int DEFAULT_PORT = 9465;
+	
+	private static final String API_PATH = "/api/";
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+	private static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream; charset=utf-8";
+	private static final String AVS_FILE_EXTENSION = ".avs";
+	
+	private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+	
+	//Each event stream occupies a thread for as long as it is open
+	private static final int MAX_EVENT_STREAMS = 16;
+	
+	//A client that falls this far behind is disconnected, it can reconnect and catch up from the job list
+	private static final int MAX_PENDING_EVENTS = 1024;
+	private static final long KEEP_ALIVE_INTERVAL = 15;
+	
+	private final List<EventStream> eventStreams = new CopyOnWriteArrayList<>();
+	
+	private final EncoderController encoderController;
+	private final ControlListener listener;
+	private final EncoderLogger logger;
+	
+	private final ExecutorService requestExecutor;
+	private final HttpServer httpServer;
+
+	/**
+	 * Create the control server and bind it to a loopback port. It won't serve any requests until started.
+	 * 
+	 * @param encoderController Controller that is driven by the API
+	 * @param port Port to listen on
+	 * @param logger Job submission errors are logged to this logger
+	 * @param listener Listener to apply the requested queue changes
+	 * @throws IOException If the port can't be bound
+	 */
+	public ControlServer(final EncoderController encoderController, final int port,
+			final EncoderLogger logger, final ControlListener listener) throws IOException {
+		this.encoderController = encoderController;
+		this.listener = listener;
+		this.logger = logger;
+		
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext(API_PATH, this::onRequest);
+		requestExecutor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		httpServer.setExecutor(requestExecutor);
+	}
+	
+	public void start() {
+		encoderController.addListener(this);
+		httpServer.start();
+	}
+	
+	public void stop() {
+		encoderController.removeListener(this);
+		eventStreams.forEach(EventStream::close);
+		httpServer.stop(0);
+		requestExecutor.shutdownNow();
+	}
+	
+	/**
+	 * @see EncodingProgressListener#onProgressUpdate(QueuedJob, EncodingProgressView)
+	 */
+	@Override
+	public void onProgressUpdate(final QueuedJob queuedJob, final EncodingProgressView progressView) {
+		if(progressView != null && !eventStreams.isEmpty()) {
+			publish("progress", buildProgress(queuedJob, progressView));
+		}
+	}
+
+	/**
+	 * @see EncodingProgressListener#onJobCompleted(QueuedJob)
+	 */
+	@Override
+	public void onJobCompleted(final QueuedJob queuedJob) {
+		publish("job-completed", buildJob(queuedJob));
+	}
+
+	/**
+	 * @see EncodingProgressListener#onAllJobsCompleted()
+	 */
+	@Override
+	public void onAllJobsCompleted() {
+		publish("all-jobs-completed", "{}");
+	}
+	
+	private void onRequest(final HttpExchange exchange) throws IOException {
+		try {
+			if(exchange.getRequestHeaders().containsKey("Origin")) {
+				sendError(exchange, 403, "Cross-origin requests are not allowed");
+				return;
+			}
+			final String[] path = exchange.getRequestURI().getPath().substring(API_PATH.length()).split("/");
+			final String method = exchange.getRequestMethod();
+			
+			switch(path[0]) {
+			case "jobs":
+				onJobsRequest(exchange, method, path);
+				break;
+			case "limit":
+				onLimitRequest(exchange, method);
+				break;
+			case "encode":
+				if(checkMethod(exchange, method, "POST")) {
+					listener.onEncodeRequested();
+					sendJson(exchange, 202, "{}");
+				}
+				break;
+			case "events":
+				if(checkMethod(exchange, method, "GET")) {
+					streamEvents(exchange);
+				}
+				break;
+			default:
+				sendError(exchange, 404, "Unknown resource");
+			}
+		} catch(final IllegalArgumentException iae) {
+			sendError(exchange, 400, iae.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private void onJobsRequest(final HttpExchange exchange, final String method, final String[] path) throws IOException {
+		if(path.length == 1) {
+			if("GET".equals(method)) {
+				sendJson(exchange, 200, encoderController.getJobs().stream().map(
+						ControlServer::buildJob).collect(Collectors.joining(",", "[", "]")));
+			}
+			else if(checkMethod(exchange, method, "POST")) {
+				onSubmitJob(exchange);
+			}
+			return;
+		}
+		
+		final Optional<QueuedJob> queuedJob = findJob(path[1]);
+		if(!queuedJob.isPresent()) {
+			sendError(exchange, 404, "No such job: " + path[1]);
+			return;
+		}
+		final QueuedJob job = queuedJob.get();
+		
+		if(path.length == 2) {
+			if("GET".equals(method)) {
+				sendJson(exchange, 200, buildJob(job));
+			}
+			else if(checkMethod(exchange, method, "DELETE")) {
+				listener.onJobsRemoved(Collections.singletonList(job));
+				sendJson(exchange, 202, "{}");
+			}
+		}
+		else if(path.length == 3 && "cancel".equals(path[2])) {
+			if(checkMethod(exchange, method, "POST")) {
+				encoderController.cancel(job);
+				sendJson(exchange, 202, "{}");
+			}
+		}
+		else if(path.length == 3 && "move".equals(path[2])) {
+			if(checkMethod(exchange, method, "POST")) {
+				final Map<String, Object> request = readRequest(exchange);
+				listener.onJobMoved(job, getInt(request, "position"));
+				sendJson(exchange, 202, "{}");
+			}
+		}
+		else {
+			sendError(exchange, 404, "Unknown resource");
+		}
+	}
+	
+	private void onLimitRequest(final HttpExchange exchange, final String method) throws IOException {
+		if("GET".equals(method)) {
+			sendJson(exchange, 200, "{\"limit\":" + encoderController.getEncoderJobsLimit() + "}");
+		}
+		else if(checkMethod(exchange, method, "PUT")) {
+			final int encoderJobsLimit = getInt(readRequest(exchange), "limit");
+			if(encoderJobsLimit < 0) {
+				throw new IllegalArgumentException("The limit can't be negative");
+			}
+			listener.onEncoderJobsLimitChanged(encoderJobsLimit);
+			sendJson(exchange, 202, "{\"limit\":" + encoderJobsLimit + "}");
+		}
+	}
+	
+	private void onSubmitJob(final HttpExchange exchange) throws IOException {
+		final Map<String, Object> request = readRequest(exchange);
+		final EncoderJobParameters defaultJobParameters = EncoderJobParameters.getDefault();
+		
+		final Object inputPathsValue = request.get("inputPaths");
+		if(!(inputPathsValue instanceof List) || ((List<?>)inputPathsValue).isEmpty()) {
+			throw new IllegalArgumentException("A job needs at least one input path");
+		}
+		final List<String> inputPaths = new ArrayList<>();
+		((List<?>)inputPathsValue).forEach(p -> {
+			if(!(p instanceof String)) {
+				throw new IllegalArgumentException("Input paths must be strings");
+			}
+			inputPaths.add((String)p);
+		});
+		
+		final String outputPath = getString(request, "outputPath", defaultJobParameters.getJobOutputPath());
+		final String outputSar = getString(request, "sar", defaultJobParameters.getOutputSar());
+		if(!outputSar.matches("\\d+:\\d+")) {
+			throw new IllegalArgumentException("The SAR must be given as nominator:denominator");
+		}
+		final String name = getString(request, "name", getJobName(inputPaths.get(0)));
+		final boolean cleanup = getBoolean(request, "cleanup", defaultJobParameters.isDeleteTemporaryFiles());
+		final EncoderPreset encoderPreset = getPreset(request, defaultJobParameters.getEncoderPreset());
+		final JobPriority jobPriority = getPriority(request);
+		
+		final EncoderJobParameters jobParameters = new EncoderJobParameters(name, outputPath, outputSar,
+				inputPaths, encoderPreset, cleanup);
+		
+		final List<AvsInputFile> inputFiles;
+		try {
+			inputFiles = AvsParser.parseInputAvs(inputPaths, logger);
+		} catch(final IOException | EncoderException e) {
+			sendError(exchange, 422, "Failed to read the input files: " + e.getMessage());
+			return;
+		}
+		
+		final QueuedJob queuedJob = new QueuedJob(jobParameters, inputFiles,
+				BatchImporter.selectTargetClipDimension(name, inputFiles, logger));
+		queuedJob.setPriority(jobPriority);
+		listener.onJobSubmitted(queuedJob);
+		sendJson(exchange, 201, buildJob(queuedJob));
+	}
+	
+	private void streamEvents(final HttpExchange exchange) throws IOException {
+		if(eventStreams.size() >= MAX_EVENT_STREAMS) {
+			sendError(exchange, 503, "Too many event streams");
+			return;
+		}
+		final EventStream eventStream = new EventStream();
+		eventStreams.add(eventStream);
+		try {
+			exchange.getResponseHeaders().set("Content-Type", EVENT_STREAM_CONTENT_TYPE);
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			
+			final OutputStream responseBody = exchange.getResponseBody();
+			while(true) {
+				final String event = eventStream.events.poll(KEEP_ALIVE_INTERVAL, TimeUnit.SECONDS);
+				if(EventStream.END_OF_STREAM.equals(event)) {
+					break;
+				}
+				//A comment is sent when there are no events, so that a disconnected client is noticed
+				responseBody.write((event != null? event : ":\n\n").getBytes(StandardCharsets.UTF_8));
+				responseBody.flush();
+			}
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch(final IOException ioe) {
+			//The client has disconnected
+		} finally {
+			eventStreams.remove(eventStream);
+		}
+	}
+	
+	private void publish(final String eventName, final String data) {
+		final String event = "event: " + eventName + "\ndata: " + data + "\n\n";
+		eventStreams.forEach(s -> {
+			if(!s.events.offer(event)) {
+				s.close();
+			}
+		});
+	}
+	
+	private Optional<QueuedJob> findJob(final String id) {
+		final long jobId;
+		try {
+			jobId = Long.parseLong(id);
+		} catch(final NumberFormatException nfe) {
+			return Optional.empty();
+		}
+		return encoderController.getJobs().stream().filter(j -> j.getId() == jobId).findFirst();
+	}
+	
+	private static EncoderPreset getPreset(final Map<String, Object> request, final EncoderPreset defaultPreset) {
+		final String presetName = getString(request, "preset", null);
+		final String presetCommand = getString(request, "presetCommand", null);
+		if(presetCommand != null) {
+			return new EncoderPreset(presetName != null? presetName : "Custom", presetCommand);
+		}
+		if(presetName == null) {
+			return defaultPreset;
+		}
+		return Helper.loadEncoderPresets().stream().filter(p -> p.getName().equals(presetName)).findFirst().orElseThrow(
+				() -> new IllegalArgumentException("No such encoder preset: " + presetName));
+	}
+	
+	private static JobPriority getPriority(final Map<String, Object> request) {
+		final String priority = getString(request, "priority", JobPriority.NORMAL.name());
+		try {
+			return JobPriority.valueOf(priority.toUpperCase(Locale.ROOT));
+		} catch(final IllegalArgumentException iae) {
+			throw new IllegalArgumentException("No such job priority: " + priority);
+		}
+	}
+	
+	private static String getJobName(final String inputPath) {
+		final Path fileName = Paths.get(inputPath).getFileName();
+		final String name = fileName != null? fileName.toString() : inputPath;
+		return name.toLowerCase(Locale.ROOT).endsWith(AVS_FILE_EXTENSION)?
+				name.substring(0, name.length() - AVS_FILE_EXTENSION.length()) : name;
+	}
+	
+	private static String getString(final Map<String, Object> request, final String name, final String defaultValue) {
+		final Object value = request.get(name);
+		if(value == null) {
+			return defaultValue;
+		}
+		if(!(value instanceof String)) {
+			throw new IllegalArgumentException("Property " + name + " must be a string");
+		}
+		return (String)value;
+	}
+	
+	private static boolean getBoolean(final Map<String, Object> request, final String name, final boolean defaultValue) {
+		final Object value = request.get(name);
+		if(value == null) {
+			return defaultValue;
+		}
+		if(!(value instanceof Boolean)) {
+			throw new IllegalArgumentException("Property " + name + " must be a boolean");
+		}
+		return (Boolean)value;
+	}
+	
+	private static int getInt(final Map<String, Object> request, final String name) {
+		final Object value = request.get(name);
+		if(!(value instanceof Double) || ((Double)value) != Math.rint((Double)value)) {
+			throw new IllegalArgumentException("Property " + name + " must be an integer");
+		}
+		return ((Double)value).intValue();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readRequest(final HttpExchange exchange) throws IOException {
+		final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+		try(final InputStream inputStream = exchange.getRequestBody()) {
+			final byte[] buffer = new byte[8192];
+			int bytesRead;
+			while((bytesRead = inputStream.read(buffer)) != -1) {
+				if(requestBody.size() + bytesRead > MAX_REQUEST_SIZE) {
+					throw new IllegalArgumentException("The request is too large");
+				}
+				requestBody.write(buffer, 0, bytesRead);
+			}
+		}
+		final Object request = Json.parse(new String(requestBody.toByteArray(), StandardCharsets.UTF_8));
+		if(!(request instanceof Map)) {
+			throw new IllegalArgumentException("The request must be a JSON object");
+		}
+		return (Map<String, Object>)request;
+	}
+	
+	private static String buildJob(final QueuedJob queuedJob) {
+		final EncoderJobParameters jobParameters = queuedJob.getJobParameters();
+		return new StringBuilder("{")
+				.append("\"id\":").append(queuedJob.getId())
+				.append(",\"name\":").append(Json.quote(jobParameters.getName()))
+				.append(",\"status\":").append(Json.quote(queuedJob.getJobStatus().name()))
+				.append(",\"priority\":").append(Json.quote(queuedJob.getJobPriority().name()))
+				.append(",\"message\":").append(Json.quote(queuedJob.getMessage()))
+				.append(",\"outputPath\":").append(Json.quote(jobParameters.getJobOutputPath()))
+				.append(",\"sar\":").append(Json.quote(jobParameters.getOutputSar()))
+				.append(",\"preset\":").append(Json.quote(jobParameters.getEncoderPreset().getName()))
+				.append(",\"cleanup\":").append(jobParameters.isDeleteTemporaryFiles())
+				.append(",\"inputPaths\":").append(jobParameters.getJobInputPaths().stream().map(
+						Json::quote).collect(Collectors.joining(",", "[", "]")))
+				.append("}").toString();
+	}
+	
+	private static String buildProgress(final QueuedJob queuedJob, final EncodingProgressView progressView) {
+		final StringBuilder progress = new StringBuilder("{")
+				.append("\"id\":").append(queuedJob.getId())
+				.append(",\"percentDone\":").append(progressView.getCurrentJobPercentDone())
+				.append(",\"framesDone\":").append(progressView.getCurrentJobFramesDone())
+				.append(",\"totalFrames\":").append(progressView.getCurrentJobTotalFrames())
+				.append(",\"fps\":").append(progressView.getFps())
+				.append(",\"secondsLeft\":").append(progressView.getJobSecondsLeft())
+				.append(",\"queueSecondsLeft\":").append(progressView.getQueueSecondsLeft())
+				.append(",\"cpuLoad\":").append(progressView.getCpuLoad())
+				.append(",\"segments\":[");
+		final List<SegmentProgressView> segmentViews = progressView.getSegmentViews();
+		for(int i = 0; i < segmentViews.size(); ++i) {
+			final SegmentProgressView segmentView = segmentViews.get(i);
+			progress.append(i > 0? ",{" : "{")
+				.append("\"index\":").append(segmentView.getSegmentIndex())
+				.append(",\"state\":").append(Json.quote(segmentView.getState().name()))
+				.append(",\"framesDone\":").append(segmentView.getFramesDone())
+				.append(",\"totalFrames\":").append(segmentView.getTotalFrames())
+				.append(",\"fps\":").append(segmentView.getFps())
+				.append("}");
+		}
+		return progress.append("]}").toString();
+	}
+	
+	private static boolean checkMethod(final HttpExchange exchange, final String method,
+			final String allowedMethod) throws IOException {
+		if(allowedMethod.equals(method)) {
+			return true;
+		}
+		exchange.getResponseHeaders().set("Allow", allowedMethod);
+		sendError(exchange, 405, "Method not allowed");
+		return false;
+	}
+	
+	private static void sendError(final HttpExchange exchange, final int status, final String message) throws IOException {
+		sendJson(exchange, status, "{\"error\":" + Json.quote(message) + "}");
+	}
+	
+	private static void sendJson(final HttpExchange exchange, final int status, final String json) throws IOException {
+		final byte[] response = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, response.length);
+		try(final OutputStream responseBody = exchange.getResponseBody()) {
+			responseBody.write(response);
+		}
+	}
+	
+	private static final class EventStream {
+		private static final String END_OF_STREAM = "";
+		
+		private final BlockingQueue<String> events = new ArrayBlockingQueue<>(MAX_PENDING_EVENTS);
+		
+		void close() {
+			//Make room for the end marker, whatever is left unsent is lost anyway
+			events.clear();
+			events.offer(END_OF_STREAM);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.control;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer, enough for the control API's small request and
+ * response bodies. Objects are read into maps, arrays into lists and numbers into doubles.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class Json {
+	
+	private final String text;
+	private int position = 0;
+	
+	private Json(final String text) {
+		this.text = text;
+	}
+	
+	/**
+	 * Parse a JSON document.
+	 * 
+	 * @param text JSON text
+	 * @return The parsed value (a Map, List, String, Double, Boolean or null)
+	 * @throws IllegalArgumentException If the text is not valid JSON
+	 */
+	static Object parse(final String text) {
+		final Json json = new Json(text);
+		final Object value = json.readValue();
+		json.skipWhitespace();
+		if(json.position != text.length()) {
+			throw json.error("Unexpected trailing content");
+		}
+		return value;
+	}
+	
+	/**
+	 * Quote a string value, escaping any characters that are not allowed in a JSON string.
+	 * 
+	 * @param value Value to quote (null is written as JSON null)
+	 * @return The quoted value
+	 */
+	static String quote(final String value) {
+		if(value == null) {
+			return "null";
+		}
+		final StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		for(int i = 0; i < value.length(); ++i) {
+			final char character = value.charAt(i);
+			switch(character) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if(character < 0x20) {
+					quoted.append(String.format("\\u%04x", (int)character));
+				}
+				else {
+					quoted.append(character);
+				}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+	
+	private Object readValue() {
+		skipWhitespace();
+		if(position >= text.length()) {
+			throw error("Unexpected end of input");
+		}
+		final char character = text.charAt(position);
+		switch(character) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			return readNumber();
+		}
+	}
+	
+	private Map<String, Object> readObject() {
+		final Map<String, Object> object = new LinkedHashMap<>();
+		++position;
+		skipWhitespace();
+		if(consume('}')) {
+			return object;
+		}
+		do {
+			skipWhitespace();
+			if(position >= text.length() || text.charAt(position) != '"') {
+				throw error("Expected a property name");
+			}
+			final String name = readString();
+			skipWhitespace();
+			if(!consume(':')) {
+				throw error("Expected ':'");
+			}
+			object.put(name, readValue());
+			skipWhitespace();
+		} while(consume(','));
+		if(!consume('}')) {
+			throw error("Expected ',' or '}'");
+		}
+		return object;
+	}
+	
+	private List<Object> readArray() {
+		final List<Object> array = new ArrayList<>();
+		++position;
+		skipWhitespace();
+		if(consume(']')) {
+			return array;
+		}
+		do {
+			array.add(readValue());
+			skipWhitespace();
+		} while(consume(','));
+		if(!consume(']')) {
+			throw error("Expected ',' or ']'");
+		}
+		return array;
+	}
+	
+	private String readString() {
+		final StringBuilder value = new StringBuilder();
+		++position;
+		while(position < text.length()) {
+			final char character = text.charAt(position++);
+			if(character == '"') {
+				return value.toString();
+			}
+			if(character != '\\') {
+				value.append(character);
+				continue;
+			}
+			if(position >= text.length()) {
+				break;
+			}
+			final char escaped = text.charAt(position++);
+			switch(escaped) {
+			case 'b':
+				value.append('\b');
+				break;
+			case 'f':
+				value.append('\f');
+				break;
+			case 'n':
+				value.append('\n');
+				break;
+			case 'r':
+				value.append('\r');
+				break;
+			case 't':
+				value.append('\t');
+				break;
+			case 'u':
+				if(position + 4 > text.length()) {
+					throw error("Invalid unicode escape");
+				}
+				try {
+					value.append((char)Integer.parseInt(text.substring(position, position + 4), 16));
+				} catch(final NumberFormatException nfe) {
+					throw error("Invalid unicode escape");
+				}
+				position += 4;
+				break;
+			default:
+				value.append(escaped);
+			}
+		}
+		throw error("Unterminated string");
+	}
+	
+	private Object readLiteral(final String literal, final Object value) {
+		if(!text.startsWith(literal, position)) {
+			throw error("Unexpected token");
+		}
+		position += literal.length();
+		return value;
+	}
+	
+	private Double readNumber() {
+		final int start = position;
+		while(position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) != -1) {
+			++position;
+		}
+		try {
+			return Double.valueOf(text.substring(start, position));
+		} catch(final NumberFormatException nfe) {
+			throw error("Invalid number");
+		}
+	}
+	
+	private boolean consume(final char character) {
+		if(position < text.length() && text.charAt(position) == character) {
+			++position;
+			return true;
+		}
+		return false;
+	}
+	
+	private void skipWhitespace() {
+		while(position < text.length() && Character.isWhitespace(text.charAt(position))) {
+			++position;
+		}
+	}
+	
+	private IllegalArgumentException error(final String message) {
+		return new IllegalArgumentException(message + " at position " + position);
+	}
+}
@@ -19,46 +19,94 @@
 */
 package org.matic.x264batcher.encoder;
 
+import org.matic.x264batcher.encoder.X264StreamScanner.StreamCut;
 import org.matic.x264batcher.gui.log.EncoderLogger;
 import org.matic.x264batcher.gui.log.LogEntry.Severity;
 import org.matic.x264batcher.exception.EncoderException;
-import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.AvsSegment;
 import org.matic.x264batcher.model.SegmentEncoderResult;
+import org.matic.x264batcher.model.SegmentProgressView;
+import org.matic.x264batcher.model.SegmentProgressView.State;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The x264 encoding process. It parallelizes input AVS files for more efficient encoding.
- * It offers means to listen for encoding progress updates.
+ * The segment encoders publish their progress to a {@link ProgressEventBus}.
+ * <p>
+ * Once all of the segments have started and some of the slots have gone idle, a straggler
+ * segment is encoded a second time by a backup encoder, to a separate output file. Whichever
+ * of the two completes first is kept, and the other one is killed. If more of the slots are idle,
+ * the straggler is re-split instead: its encoder is stopped, and the frames it hasn't encoded yet
+ * are divided among continuation segments, which are merged right after it. A segment that
+ * resumes an interrupted encoding only encodes its continuation.
  * 
  * @author Vedran Matic
  *
  */
 final class AvsEncoder {
 	
+	//How often to look for stragglers while waiting on the segments to complete
+	private static final long BACKUP_CHECK_INTERVAL = 5000;
+	private static final String BACKUP_FILE_PREFIX = "backup_";
+	
+	//A straggler is only re-split if at least this many slots are free, otherwise it is backed up
+	private static final int MIN_RESPLIT_FREE_SLOTS = 2;
+	private static final long CONTINUATION_PROGRESS_INTERVAL = 1000;
+	
 	private final List<SegmentEncoder> jobSegments = new ArrayList<>();
+	private final Map<Future<SegmentEncoderResult>, SegmentEncoder> futureTasks = new HashMap<>();
+	
+	//Continuation segments of the re-split segments, mapped to the re-split they belong to
+	private final Map<SegmentEncoder, Resplit> continuationSegments = new HashMap<>();
+	private final StragglerDetector stragglerDetector = new StragglerDetector(StragglerDetector.DEFAULT_STRAGGLER_FACTOR);
+	private final SlotGate slotGate;
 	
 	private final ExecutorService jobExecutor;
-	private final EncodingProgressView jobProgress;
+	private final ExecutorCompletionService<SegmentEncoderResult> completionService;
+	private final SegmentScheduler scheduler;
+	private final ProgressEventBus progressBus;
+	private final EncoderStatistics statistics;
+	private final SegmentLogTailer logTailer;
 	private final EncoderLogger logger;
+	
+	private List<AvsSegment> segments;
+	private SegmentEncoder[] backupSegments;
+	private Resplit[] resplits;
+	private long[] finishTimes;
+	private ProgressEventBus backupProgressBus;
 
 	/**
 	 * Create a new instance of the encoding process.
 	 * 
-	 * @param threadCount Limit of parallel encoding processes.
-	 * @param frameCount Total frames to be encoded (used for progress updates)
+	 * @param scheduler Scheduler that decides on the number of parallel encoding processes and segment order
 	 * @param logger Logger to which the output progress info is written
+	 * @param progressBus Bus to which the segment encoders publish their progress
+	 * @param statistics Counters of encoded and failed segments
+	 * @param segmentLogFiles Whether to write the encoder output to a log file for each segment
 	 */
-	AvsEncoder(final int threadCount, final long frameCount, final EncoderLogger logger) {
-		this.jobProgress = new EncodingProgressView(frameCount);
-		this.jobExecutor = Executors.newFixedThreadPool(threadCount);
+	AvsEncoder(final SegmentScheduler scheduler, final EncoderLogger logger, final ProgressEventBus progressBus,
+			final EncoderStatistics statistics, final boolean segmentLogFiles) {
+		this.progressBus = progressBus;
+		this.statistics = statistics;
+		this.logTailer = segmentLogFiles? new SegmentLogTailer(progressBus, logger) : null;
+		this.scheduler = scheduler;
+		this.jobExecutor = Executors.newFixedThreadPool(scheduler.getSlotCount());
+		this.completionService = new ExecutorCompletionService<>(jobExecutor);
+		this.slotGate = new SlotGate(scheduler.getSlotCount());
 		this.logger = logger;
 	}
 	
@@ -66,82 +114,322 @@ final class AvsEncoder {
 	 * Cancel the encoding in progress.
 	 */
 	void cancel() {
+		//A suspended process would never produce the output its reader is waiting on
+		slotGate.releaseAll();
 		jobExecutor.shutdownNow();
 	}
 	
 	/**
-	 * Get a snapshot of encoding progress status.
+	 * Suspend the running segment processes and hold back the segments that haven't started yet.
+	 */
+	void pause() {
+		slotGate.pause();
+	}
+	
+	void resume() {
+		slotGate.resume();
+	}
+	
+	boolean isPaused() {
+		return slotGate.isPaused();
+	}
+	
+	/**
+	 * Get the gate that limits the number of the job's running processes.
 	 * 
-	 * @return Progress status
+	 * @return The job's slot gate
 	 */
-	EncodingProgressView getJobProgress() {
-		double fps = 0;
-		long totalFramesDone = 0;
-		for(final SegmentEncoder job : jobSegments) {
-			final String jobOutput = job.getOutput();
-			
-			if(jobOutput == null || jobOutput.trim().isEmpty()) {
-				continue;
-			}
-			long framesDone = 0;
-			if(jobOutput.startsWith("[")) {
-				final String[] tokens = jobOutput.split(",");
-				final String framesProgress = tokens[0].split(" ")[1];
-				framesDone = Long.parseLong(
-						framesProgress.substring(0, framesProgress.indexOf("/")));
-				fps += Double.parseDouble(tokens[1].substring(0, tokens[1].indexOf(" fps")));
-			}
-			else if(jobOutput.startsWith("encoded ")) {
-				framesDone = Long.parseLong(jobOutput.split(" ")[1]);
-				fps += 0;
-			}
-
-			job.setFramesDone(job.getFramesDone() + (framesDone - job.getFramesDone()));
-			totalFramesDone += job.getFramesDone();
-		}
-		
-		jobProgress.setFps(fps);
-		jobProgress.setCurrentJobFramesDone(totalFramesDone);
-		
-		return jobProgress;
+	SlotGate getSlotGate() {
+		return slotGate;
+	}
+	
+	/**
+	 * Change the number of the segments that are encoded at the same time, and the scheduling
+	 * priority of their processes. The slot count can't be raised above the scheduler's slot count,
+	 * while a slot count of 0 holds back the whole job, as when its slot was given to another job.
+	 * 
+	 * @param slotLimit New slot limit
+	 * @param niceness Scheduling priority of the encoder processes, from 0 (normal) to 19 (lowest)
+	 */
+	void setCapacity(final int slotLimit, final int niceness) {
+		slotGate.setCapacity(Math.min(slotLimit, scheduler.getSlotCount()), niceness);
 	}
 	
 	/**
 	 * Start an encoding process.
 	 * 
-	 * @param jobCommands x264.exe commands for used for segment encoding
+	 * @param segments Segments to encode
 	 * @throws EncoderException If the encoding is interrupted/cancelled or failed
 	 */
-	void encode(final List<String> jobCommands) throws EncoderException {
-		jobCommands.forEach(cmd -> jobSegments.add(new SegmentEncoder(cmd, logger)));
+	void encode(final List<AvsSegment> segments) throws EncoderException {
+		for(int i = 0; i < segments.size(); ++i) {
+			final AvsSegment segment = segments.get(i);
+			final SegmentEncoder segmentEncoder = new SegmentEncoder(i, segment.getCommand(), logger, progressBus,
+					logTailer != null? segment.getLogFilePath() : null, logTailer, slotGate);
+			jobSegments.add(segmentEncoder);
+		}
+		this.segments = segments;
 
-		//Encode segments to x264
-		final ExecutorCompletionService<SegmentEncoderResult> completionService = new ExecutorCompletionService<>(jobExecutor);
-		final List<Future<SegmentEncoderResult>> futureTasks =jobSegments.stream().map(
-				segment -> completionService.submit(segment)).collect(Collectors.toList());
+		//Encode segments to x264, the executor starts them in the order they were submitted in
+		final long[] segmentFrameCounts = segments.stream().mapToLong(AvsSegment::getFrameCount).toArray();
+		final int[] segmentOrder = scheduler.orderSegments(segmentFrameCounts);
+		
+		backupSegments = new SegmentEncoder[segments.size()];
+		resplits = new Resplit[segments.size()];
+		finishTimes = new long[segments.size()];
+		
+		for(final int segmentIndex : segmentOrder) {
+			final AvsSegment segment = segments.get(segmentIndex);
+			if(segment.isEncoded()) {
+				//An interrupted encoding of the job has already encoded the whole segment
+				progressBus.onSegmentFinished(segmentIndex);
+				finishTimes[segmentIndex] = System.currentTimeMillis();
+			}
+			else if(segment.getContinuations().isEmpty()) {
+				futureTasks.put(completionService.submit(jobSegments.get(segmentIndex)), jobSegments.get(segmentIndex));
+			}
+			else {
+				//The segment resumes an interrupted encoding, only the frames that weren't kept are encoded
+				progressBus.onFramesAdvanced(segmentIndex, segment.getKeptFrameCount(), 0);
+				startContinuations(segmentIndex);
+			}
+		}
+		
+		//The backups' progress isn't shown, it would overwrite the progress of the segments they back up
+		backupProgressBus = new ProgressEventBus(segmentFrameCounts, BACKUP_CHECK_INTERVAL, s -> {});
+		int segmentsLeft = (int)segments.stream().filter(s -> !s.isEncoded()).count();
 
 		try {
-			while(futureTasks.size() > 0) {
+			while(segmentsLeft > 0) {
                	try {
-					final Future<SegmentEncoderResult> completedTask = completionService.take();
-					futureTasks.remove(completedTask);
+					final Future<SegmentEncoderResult> completedTask = completionService.poll(
+							BACKUP_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+					if(completedTask == null) {
+						handleStraggler();
+						continue;
+					}
+					final SegmentEncoder segmentEncoder = futureTasks.remove(completedTask);
 					final SegmentEncoderResult encoderResult = completedTask.get();
-					if(encoderResult.getException() != null) {
-						throw new EncoderException(encoderResult.getException().getMessage());
-					} else if(encoderResult.getExitCode() != SegmentEncoderResult.SUCCESS) {
-						throw new EncoderException("Exit code was " + encoderResult.getExitCode());
+					
+					final Resplit resplit = continuationSegments.get(segmentEncoder);
+					if(resplit != null) {
+						checkResult(encoderResult);
+						if(--resplit.continuationsLeft == 0) {
+							resplit.progressBus.close();
+							progressBus.onSegmentFinished(resplit.segmentIndex);
+							finishTimes[resplit.segmentIndex] = System.currentTimeMillis();
+							--segmentsLeft;
+							statistics.onSegmentEncoded();
+						}
+						continue;
+					}
+					
+					final int segmentIndex = segmentEncoder.getSegmentIndex();
+					if(finishTimes[segmentIndex] != 0 || resplits[segmentIndex] != null) {
+						//The loser of a race between a segment and its backup, or a segment that was re-split
+						continue;
 					}
+					final SegmentEncoder backupSegment = backupSegments[segmentIndex];
+					final SegmentEncoder rivalSegment = segmentEncoder == backupSegment? jobSegments.get(segmentIndex) : backupSegment;
+					
+					if(encoderResult.getException() != null || encoderResult.getExitCode() != SegmentEncoderResult.SUCCESS) {
+						if(rivalSegment != null && futureTasks.containsValue(rivalSegment)) {
+							logger.log(Severity.WARN, (segmentEncoder == backupSegment? "Backup of segment " : "Segment ")
+									+ segmentIndex + " failed, waiting on its " + (segmentEncoder == backupSegment?
+											"original" : "backup") + " encoder to complete");
+							continue;
+						}
+						checkResult(encoderResult);
+					}
+					
+					finishTimes[segmentIndex] = System.currentTimeMillis();
+					--segmentsLeft;
+					if(rivalSegment != null) {
+						rivalSegment.kill();
+						if(segmentEncoder == backupSegment) {
+							logger.log(Severity.INFO, "Backup of segment " + segmentIndex + " completed first");
+							Files.move(getBackupPath(segments.get(segmentIndex)), segments.get(segmentIndex).getX264FilePath(),
+									StandardCopyOption.REPLACE_EXISTING);
+							progressBus.onSegmentFinished(segmentIndex);
+						}
+					}
+					statistics.onSegmentEncoded();
                 } catch (final ExecutionException | InterruptedException e) {
 					throw new EncoderException(e.getMessage());
+				} catch(final IOException ioe) {
+					throw new EncoderException("Failed to keep the output of a backup segment: " + ioe.getMessage());
 				}
 			}
 		} finally {
-			for(final Future<SegmentEncoderResult> futureTask : futureTasks){
+			slotGate.releaseAll();
+			for(final Future<SegmentEncoderResult> futureTask : futureTasks.keySet()){
 				futureTask.cancel(true);
 			}
 			jobExecutor.shutdownNow();
+			backupProgressBus.close();
+			for(final Resplit resplit : resplits) {
+				if(resplit != null) {
+					resplit.progressBus.close();
+				}
+			}
+			if(logTailer != null) {
+				logTailer.close();
+			}
+			deleteBackups();
+		}
+		
+		logger.log(Severity.INFO, "Encoding completed [ " + segments.size() + " segments encoded ]");
+	}
+	
+	private void checkResult(final SegmentEncoderResult encoderResult) throws EncoderException {
+		if(encoderResult.getException() != null) {
+			statistics.onSegmentFailed();
+			throw new EncoderException(encoderResult.getException().getMessage());
+		} else if(encoderResult.getExitCode() != SegmentEncoderResult.SUCCESS) {
+			statistics.onSegmentFailed();
+			throw new EncoderException("Exit code was " + encoderResult.getExitCode());
+		}
+	}
+	
+	/**
+	 * Find the straggler segment, if there is one and there are free slots to speed it up with.
+	 * The straggler is re-split if enough of the slots are free, otherwise it is backed up.
+	 * 
+	 * @throws EncoderException If a straggler was stopped but its output couldn't be cut,
+	 * or if its command couldn't be rebuilt for another output
+	 */
+	private void handleStraggler() throws EncoderException {
+		final List<SegmentProgressView> segmentViews = progressBus.getSnapshot();
+		
+		//Only the slots that would otherwise stay idle until the job completes are used
+		if(!slotGate.hasFreeSlot() || segmentViews.stream().anyMatch(v -> v.getState() == State.QUEUED)) {
+			return;
+		}
+		
+		final long[] startTimes = new long[segments.size()];
+		final boolean[] candidates = new boolean[segments.size()];
+		for(int i = 0; i < segments.size(); ++i) {
+			startTimes[i] = jobSegments.get(i).getStartTime();
+			candidates[i] = backupSegments[i] == null && resplits[i] == null;
+		}
+		final int straggler = stragglerDetector.findStraggler(segmentViews, startTimes, finishTimes,
+				candidates, System.currentTimeMillis());
+		if(straggler == -1) {
+			return;
+		}
+		
+		final int freeSlotCount = slotGate.getFreeSlotCount();
+		if(freeSlotCount < MIN_RESPLIT_FREE_SLOTS || !resplit(straggler, freeSlotCount + 1)) {
+			startBackup(straggler);
+		}
+	}
+	
+	private void startBackup(final int straggler) throws EncoderException {
+		final AvsSegment segment = segments.get(straggler);
+		final String backupCommand = SegmentBuilder.buildEncoderCommand(segment, "", getBackupPath(segment),
+				segment.getAvsFilePath());
+		logger.log(Severity.INFO, "Segment " + straggler + " is lagging behind, starting a backup of it");
+		
+		final SegmentEncoder backupSegment = new SegmentEncoder(straggler, backupCommand, logger,
+				backupProgressBus, null, null, slotGate);
+		backupSegments[straggler] = backupSegment;
+		futureTasks.put(completionService.submit(backupSegment), backupSegment);
+	}
+	
+	/**
+	 * Stop the encoder of a straggler segment and divide the frames that it hasn't encoded yet among
+	 * continuation segments. The straggler's output is cut at its last complete GOP, so the frames
+	 * that were encoded after it are encoded again.
+	 * 
+	 * @param straggler Index of the straggler segment
+	 * @param partCount Number of the continuation segments to create
+	 * @return Whether the segment was re-split
+	 * @throws EncoderException If the straggler was stopped but its output couldn't be cut
+	 */
+	private boolean resplit(final int straggler, final int partCount) throws EncoderException {
+		final AvsSegment segment = segments.get(straggler);
+		final StreamCut streamCut;
+		final List<AvsSegment> continuations;
+		try {
+			streamCut = X264StreamScanner.findLastGopStart(segment.getX264FilePath());
+			continuations = SegmentBuilder.buildContinuations(segment, streamCut.getFrameCount(), partCount);
+		} catch(final IOException ioe) {
+			logger.log(Severity.WARN, "Failed to re-split segment " + straggler + ": " + ioe.getMessage());
+			return false;
+		}
+		
+		//Anything written after the cut is dropped, so the encoder must be stopped before the cut is made
+		jobSegments.get(straggler).kill();
+		try {
+			X264StreamScanner.cut(segment.getX264FilePath(), streamCut);
+		} catch(final IOException ioe) {
+			statistics.onSegmentFailed();
+			throw new EncoderException("Failed to cut the output of segment " + straggler + ": " + ioe.getMessage());
+		}
+		segment.setContinuations(streamCut.getFrameCount(), continuations);
+		
+		logger.log(Severity.INFO, "Segment " + straggler + " is lagging behind, its frames from " + streamCut.getFrameCount()
+				+ " on were re-split into " + continuations.size() + " continuation segments");
+		
+		startContinuations(straggler);
+		return true;
+	}
+	
+	private void startContinuations(final int segmentIndex) {
+		final AvsSegment segment = segments.get(segmentIndex);
+		final List<AvsSegment> continuations = segment.getContinuations();
+		final Resplit resplit = new Resplit(segmentIndex, segment.getKeptFrameCount(), continuations, progressBus);
+		resplits[segmentIndex] = resplit;
+		for(int i = 0; i < continuations.size(); ++i) {
+			final SegmentEncoder continuationSegment = new SegmentEncoder(i, continuations.get(i).getCommand(), logger,
+					resplit.progressBus, null, null, slotGate);
+			continuationSegments.put(continuationSegment, resplit);
+			futureTasks.put(completionService.submit(continuationSegment), continuationSegment);
+		}
+	}
+	
+	private void deleteBackups() {
+		for(int i = 0; i < backupSegments.length; ++i) {
+			if(backupSegments[i] != null) {
+				backupSegments[i].kill();
+				try {
+					Files.deleteIfExists(getBackupPath(segments.get(i)));
+				} catch(final IOException ioe) {
+					logger.log(Severity.WARN, "Failed to delete the backup of segment " + i + ": " + ioe.getMessage());
+				}
+			}
+		}
+	}
+	
+	private static Path getBackupPath(final AvsSegment segment) {
+		return segment.getX264FilePath().resolveSibling(BACKUP_FILE_PREFIX + segment.getX264FilePath().getFileName());
+	}
+	
+	/**
+	 * A segment that was re-split, or that resumes an interrupted encoding. The progress of its
+	 * continuation segments is added up and published as the progress of the segment itself.
+	 */
+	private static final class Resplit {
+		private final ProgressEventBus progressBus;
+		private final int segmentIndex;
+		private int continuationsLeft;
+		
+		Resplit(final int segmentIndex, final long keptFrameCount, final List<AvsSegment> continuations,
+				final ProgressEventBus segmentProgressBus) {
+			this.segmentIndex = segmentIndex;
+			this.continuationsLeft = continuations.size();
+			this.progressBus = new ProgressEventBus(continuations.stream().mapToLong(AvsSegment::getFrameCount).toArray(),
+					CONTINUATION_PROGRESS_INTERVAL, views -> publishProgress(segmentProgressBus, keptFrameCount, views));
+		}
+		
+		private void publishProgress(final ProgressEventBus segmentProgressBus, final long keptFrameCount,
+				final List<SegmentProgressView> views) {
+			if(views.stream().anyMatch(v -> v.getState() == State.RUNNING)) {
+				segmentProgressBus.onSegmentStarted(segmentIndex);
+			}
+			segmentProgressBus.onFramesAdvanced(segmentIndex,
+					keptFrameCount + views.stream().mapToLong(SegmentProgressView::getFramesDone).sum(),
+					views.stream().mapToDouble(SegmentProgressView::getFps).sum());
 		}
-
-		logger.log(Severity.INFO, "Encoding completed [ " + jobCommands.size() + " segments encoded ]");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import org.matic.x264batcher.gui.model.QueuedJob;
+
+/**
+ * Notify implementing classes about the progress of a batch import. The notifications
+ * are delivered on the importer's threads, not on the JavaFX application thread.
+ *
+ * @author Vedran Matic
+ */
+public interface BatchImportListener {
+
+	/**
+	 * Notify implementing classes when an input AVS file has been processed.
+	 * 
+	 * @param avsPath Path of the processed AVS file
+	 * @param successful Whether the file was parsed successfully
+	 * @param processedFileCount How many files have been processed so far
+	 * @param totalFileCount Total number of files being imported
+	 */
+	void onFileProcessed(String avsPath, boolean successful, int processedFileCount, int totalFileCount);
+	
+	/**
+	 * Notify implementing classes when all of a job's input files have been parsed.
+	 * 
+	 * @param queuedJob Imported job
+	 */
+	void onJobImported(QueuedJob queuedJob);
+	
+	/**
+	 * Notify implementing classes when the import has completed or has been cancelled.
+	 * 
+	 * @param importedJobCount How many jobs were imported
+	 * @param cancelled Whether the import was cancelled
+	 */
+	void onImportCompleted(int importedJobCount, boolean cancelled);
+}
@@ -0,0 +1,301 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
+import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.ClipDimension;
+import org.matic.x264batcher.model.EncoderJobParameters;
+
+/**
+ * Imports a batch of AVS scripts as encoding jobs, without any user interaction. The scripts
+ * (and the index files that they reference) are parsed concurrently on a bounded thread pool,
+ * and each job is reported to the listener as soon as all of its input files have been parsed.
+ * All jobs are created with the default job parameters and, if the clip dimensions of a job's
+ * inputs differ, the most common clip dimension is used as the job's target dimension.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class BatchImporter {
+	
+	/**
+	 * The rule for grouping the imported scripts into jobs.
+	 */
+	public enum Grouping {
+		PER_SCRIPT("One job per script"), PER_DIRECTORY("One job per directory");
+		
+		private final String description;
+		
+		Grouping(final String description) {
+			this.description = description;
+		}
+		
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+	
+	private static final String AVS_FILE_EXTENSION = ".avs";
+	
+	//Parsing is mostly I/O bound, more threads than this would only make the disks seek
+	private static final int MAX_IMPORT_THREADS = 4;
+	
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+	private final AtomicBoolean cancelled = new AtomicBoolean(false);
+	private final AtomicInteger processedFileCount = new AtomicInteger(0);
+	private final AtomicInteger finishedFileCount = new AtomicInteger(0);
+	private final AtomicInteger importedJobCount = new AtomicInteger(0);
+	
+	private final EncoderJobParameters defaultJobParameters;
+	private final BatchImportListener listener;
+	private final EncoderLogger logger;
+	
+	private final ExecutorService importExecutor;
+	private final List<JobGroup> jobGroups;
+	private final int totalFileCount;
+
+	/**
+	 * Create a new instance of the batch importer.
+	 * 
+	 * @param inputPaths Paths to the AVS scripts (or directories containing these) to import
+	 * @param grouping How to group the scripts into jobs
+	 * @param defaultJobParameters Parameters to use for the imported jobs
+	 * @param logger Import errors are logged to this logger
+	 * @param listener Listener to notify of the import progress
+	 * @throws IOException If a directory can't be listed
+	 */
+	public BatchImporter(final List<String> inputPaths, final Grouping grouping,
+			final EncoderJobParameters defaultJobParameters, final EncoderLogger logger,
+			final BatchImportListener listener) throws IOException {
+		this.defaultJobParameters = defaultJobParameters;
+		this.listener = listener;
+		this.logger = logger;
+		
+		final List<Path> avsPaths = expandDirectories(inputPaths);
+		this.jobGroups = groupScripts(avsPaths, grouping);
+		this.totalFileCount = avsPaths.size();
+		
+		final int threadCount = Math.max(1, Math.min(MAX_IMPORT_THREADS, 
+				Math.min(totalFileCount, Runtime.getRuntime().availableProcessors())));
+		this.importExecutor = Executors.newFixedThreadPool(threadCount, r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Start the import. This method returns immediately and the progress is reported to the listener.
+	 */
+	public void start() {
+		if(totalFileCount == 0) {
+			complete();
+			return;
+		}
+		try {
+			jobGroups.forEach(g -> {
+				for(int i = 0; i < g.avsPaths.size(); ++i) {
+					final int inputIndex = i;
+					importExecutor.execute(() -> importScript(g, inputIndex));
+				}
+			});
+		} catch(final RejectedExecutionException ree) {
+			//The import was cancelled while the scripts were being submitted
+		}
+	}
+	
+	/**
+	 * Cancel the import. The jobs that have already been reported to the listener are not affected,
+	 * but no job is reported once this method returns. The scripts that are being parsed are left to
+	 * finish, the rest are skipped, and the listener is notified of the completion after the last one.
+	 */
+	public void cancel() {
+		synchronized(cancelled) {
+			cancelled.set(true);
+		}
+	}
+	
+	public int getTotalFileCount() {
+		return totalFileCount;
+	}
+	
+	private void importScript(final JobGroup jobGroup, final int inputIndex) {
+		try {
+			if(cancelled.get()) {
+				return;
+			}
+			final String avsPath = jobGroup.avsPaths.get(inputIndex).toString();
+			boolean successful = false;
+			
+			//There is no point in parsing the rest of a job's scripts once one of them has failed
+			if(!jobGroup.failed) {
+				try {
+					jobGroup.inputFiles[inputIndex] = AvsParser.parseInputAvs(Collections.singletonList(avsPath), logger).get(0);
+					successful = true;
+				} catch(final IOException | EncoderException | RuntimeException e) {
+					jobGroup.failed = true;
+					if(cancelled.get()) {
+						return;
+					}
+					logger.log(Severity.ERROR, "Failed to import AVS = [" + avsPath + " ], cause = [ " + e.getMessage() + " ]");
+				}
+			}
+			
+			if(cancelled.get()) {
+				return;
+			}
+			listener.onFileProcessed(avsPath, successful, processedFileCount.incrementAndGet(), totalFileCount);
+			
+			if(jobGroup.remainingFileCount.decrementAndGet() == 0 && !jobGroup.failed) {
+				//Don't report a job if the import was cancelled in the meantime
+				synchronized(cancelled) {
+					if(!cancelled.get()) {
+						listener.onJobImported(buildJob(jobGroup));
+						importedJobCount.incrementAndGet();
+					}
+				}
+			}
+		} finally {
+			if(finishedFileCount.incrementAndGet() == totalFileCount) {
+				complete();
+			}
+		}
+	}
+	
+	private QueuedJob buildJob(final JobGroup jobGroup) {
+		final List<AvsInputFile> inputFiles = Arrays.asList(jobGroup.inputFiles);
+		final ClipDimension targetClipDimension = selectTargetClipDimension(jobGroup.name, inputFiles, logger);
+		
+		final EncoderJobParameters jobParameters = new EncoderJobParameters(jobGroup.name,
+				defaultJobParameters.getJobOutputPath(), defaultJobParameters.getOutputSar(),
+				jobGroup.avsPaths.stream().map(Path::toString).collect(Collectors.toList()),
+				defaultJobParameters.getEncoderPreset(), defaultJobParameters.isDeleteTemporaryFiles());
+		
+		return new QueuedJob(jobParameters, inputFiles, targetClipDimension);
+	}
+	
+	/**
+	 * Select the clip dimension that is shared by most of a job's clips, the other clips will be resized to it.
+	 * 
+	 * @param jobName Name of the job, used when logging a dimension mismatch
+	 * @param inputFiles The job's input files
+	 * @param logger Any dimension mismatch is logged to this logger
+	 * @return The job's target clip dimension
+	 */
+	public static ClipDimension selectTargetClipDimension(final String jobName, final List<AvsInputFile> inputFiles,
+			final EncoderLogger logger) {
+		final Map<ClipDimension, Long> clipDimensionCounts = inputFiles.stream().collect(
+				Collectors.groupingBy(AvsInputFile::getClipDimension, LinkedHashMap::new, Collectors.counting()));
+		final ClipDimension targetClipDimension = clipDimensionCounts.entrySet().stream().max(
+				Map.Entry.comparingByValue()).get().getKey();
+		
+		if(clipDimensionCounts.size() > 1) {
+			logger.log(Severity.WARN, "Clip dimensions differ in job " + jobName + ", clips will be resized to "
+					+ targetClipDimension);
+		}
+		return targetClipDimension;
+	}
+	
+	private void complete() {
+		if(completed.compareAndSet(false, true)) {
+			importExecutor.shutdownNow();
+			listener.onImportCompleted(importedJobCount.get(), cancelled.get());
+		}
+	}
+	
+	private static List<Path> expandDirectories(final List<String> inputPaths) throws IOException {
+		final List<Path> avsPaths = new ArrayList<>();
+		for(final String inputPath : inputPaths) {
+			final Path path = Paths.get(inputPath);
+			if(!Files.isDirectory(path)) {
+				avsPaths.add(path);
+				continue;
+			}
+			final List<Path> directoryAvsPaths = new ArrayList<>();
+			try(final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(path, 
+					p -> p.getFileName().toString().toLowerCase().endsWith(AVS_FILE_EXTENSION))) {
+				directoryStream.forEach(directoryAvsPaths::add);
+			}
+			Collections.sort(directoryAvsPaths);
+			avsPaths.addAll(directoryAvsPaths);
+		}
+		return avsPaths;
+	}
+	
+	private static List<JobGroup> groupScripts(final List<Path> avsPaths, final Grouping grouping) {
+		final Function<Path, Path> groupKey = grouping == Grouping.PER_DIRECTORY? 
+				p -> p.toAbsolutePath().getParent() : Function.identity();
+		final Map<Path, List<Path>> groupedPaths = avsPaths.stream().collect(
+				Collectors.groupingBy(groupKey, LinkedHashMap::new, Collectors.toList()));
+		
+		return groupedPaths.entrySet().stream().map(e -> new JobGroup(getJobName(e.getKey()), 
+				e.getValue())).collect(Collectors.toList());
+	}
+	
+	private static String getJobName(final Path groupPath) {
+		final Path fileName = groupPath.getFileName();
+		if(fileName == null) {
+			return groupPath.toString();
+		}
+		final String name = fileName.toString();
+		return name.toLowerCase().endsWith(AVS_FILE_EXTENSION)? 
+				name.substring(0, name.length() - AVS_FILE_EXTENSION.length()) : name;
+	}
+	
+	private static final class JobGroup {
+		private final AtomicInteger remainingFileCount;
+		private final AvsInputFile[] inputFiles;
+		private final List<Path> avsPaths;
+		private final String name;
+		
+		private volatile boolean failed = false;
+		
+		JobGroup(final String name, final List<Path> avsPaths) {
+			this.name = name;
+			this.avsPaths = avsPaths;
+			this.inputFiles = new AvsInputFile[avsPaths.size()];
+			this.remainingFileCount = new AtomicInteger(avsPaths.size());
+		}
+	}
+}
@@ -20,10 +20,19 @@
 package org.matic.x264batcher.encoder;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -32,35 +41,67 @@ import java.util.stream.Collectors;
 
 import org.matic.x264batcher.gui.log.EncoderLogger;
 import org.matic.x264batcher.gui.log.LogEntry.Severity;
-import org.matic.x264batcher.gui.ProgressPoller;
 import org.matic.x264batcher.gui.model.QueuedJob;
 import org.matic.x264batcher.model.AvsSegment;
+import org.matic.x264batcher.model.CapacityProfile;
 import org.matic.x264batcher.model.EncoderJob;
 import org.matic.x264batcher.model.EncoderParameters;
 import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.JobPriority;
 import org.matic.x264batcher.model.JobStatus;
+import org.matic.x264batcher.model.SegmentProgressView;
+
+import com.sun.management.OperatingSystemMXBean;
 
 import javafx.application.Platform;
-import javafx.util.Duration;
 
 /**
  * A controller for managing addition, removal and cancellation of encoding jobs.
- * Notifies listeners of encoding progress.  
- * Allows to start encoding of previously added jobs.
+ * Notifies listeners of encoding progress, as published by the running job's segment encoders.  
+ * Allows to start encoding of previously added jobs. A job with a higher priority preempts the
+ * running job, whose encoder processes are suspended until the preempting job has completed.
+ * Small jobs aren't split, instead several of them are encoded side by side, each one in its own slot.
  * 
  * @author Vedran Matic
  *
  */
 public final class EncoderController {
 	
+	//How often to check whether another capacity profile has become active
+	private static final long CAPACITY_CHECK_INTERVAL = 30000;
+	
+	private final OperatingSystemMXBean operatingSystemMXBean = 
+			(OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+	
 	private final List<EncodingProgressListener> listeners = new CopyOnWriteArrayList<>();
 	private final Map<QueuedJob, EncoderJob> queuedJobs = new LinkedHashMap<>();
+	private final EncoderStatistics statistics = new EncoderStatistics();
 	
 	private final EncoderLogger logger;
 	
 	private volatile EncodingTask currentEncoderTask = null;
 	private ExecutorService encoderExecutor;
 	
+	//Suspended jobs that were preempted by the jobs with higher priorities, the most recent one first
+	private final Deque<EncodingTask> preemptedTasks = new ArrayDeque<>();
+	
+	//Small jobs that are encoded side by side, each one in a single slot
+	private final List<EncodingTask> packedTasks = new ArrayList<>();
+	
+	//The most recent progress of each of the small jobs, counted in the queue progress of the others
+	private final Map<QueuedJob, List<SegmentProgressView>> packedSegmentViews = new HashMap<>();
+	
+	//Estimates the queue's time left from the progress of all of the small jobs together
+	private EtaEstimator packedEtaEstimator = null;
+	
+	//Can be changed while encoding, it applies whenever none of the capacity profiles is active
+	private volatile int encoderJobsLimit = 0;
+	private volatile List<CapacityProfile> capacityProfiles = Collections.emptyList();
+	private CapacityProfile activeCapacityProfile = null;
+	
+	//While the queue is paused, no new job is started
+	private volatile boolean queuePaused = false;
+	
 	private long totalFrameCount = 0;
 
 	public EncoderController(final EncoderLogger logger) {
@@ -75,6 +116,35 @@ public final class EncoderController {
 		listeners.remove(listener);
 	}
 	
+	public EncoderStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Count the jobs on the queue, grouped by their status.
+	 * 
+	 * @return Job count for each of the job statuses
+	 */
+	public Map<JobStatus, Integer> getJobCounts() {
+		final Map<JobStatus, Integer> jobCounts = new EnumMap<>(JobStatus.class);
+		Arrays.stream(JobStatus.values()).forEach(s -> jobCounts.put(s, 0));
+		synchronized(queuedJobs) {
+			queuedJobs.keySet().forEach(j -> jobCounts.merge(j.getJobStatus(), 1, Integer::sum));
+		}
+		return jobCounts;
+	}
+	
+	/**
+	 * Get all of the jobs on the queue, in the queue order.
+	 * 
+	 * @return A copy of the job queue
+	 */
+	public List<QueuedJob> getJobs() {
+		synchronized(queuedJobs) {
+			return new ArrayList<>(queuedJobs.keySet());
+		}
+	}
+	
 	/**
 	 * Queue a job and make it eligible for encoding.
 	 * 
@@ -83,8 +153,24 @@ public final class EncoderController {
 	public void add(final QueuedJob queuedJob) {
 		synchronized(queuedJobs) {
 			queuedJobs.put(queuedJob, null);
-			totalFrameCount += queuedJob.getInputAvsFiles().stream().mapToLong(f ->
-					f.isUsingDeinterlacing()? 2 * f.getFrameCount() : f.getFrameCount()).sum();
+			totalFrameCount += getEncodedFrameCount(queuedJob);
+			
+			//The new job might need to preempt the running one
+			queuedJobs.notifyAll();
+		}
+	}
+	
+	/**
+	 * Change a job's priority. If the encoding is in progress and the job is waiting on
+	 * the queue with a higher priority than the running job, it will preempt the running job.
+	 * 
+	 * @param queuedJob Job whose priority to change
+	 * @param jobPriority New job priority
+	 */
+	public void setPriority(final QueuedJob queuedJob, final JobPriority jobPriority) {
+		synchronized(queuedJobs) {
+			queuedJob.setPriority(jobPriority);
+			queuedJobs.notifyAll();
 		}
 	}
 	
@@ -99,29 +185,193 @@ public final class EncoderController {
 		synchronized(queuedJobs) {
 			jobsToRemove.forEach(queuedJobs::remove);
 			
-			totalFrameCount -= jobsToRemove.stream().flatMap(
-					j -> j.getInputAvsFiles().stream()).mapToLong(avs -> 
-					avs.isUsingDeinterlacing()? 2 * avs.getFrameCount() : avs.getFrameCount()).sum();
+			totalFrameCount -= jobsToRemove.stream().mapToLong(EncoderController::getEncodedFrameCount).sum();
 			
-			final Optional<QueuedJob> jobInProgress = jobsToRemove.stream().filter(
-					j -> j.getJobStatus() == JobStatus.RUNNING).findAny();
-			jobInProgress.ifPresent(j -> cancel());
+			jobsToRemove.stream().filter(j -> j.getJobStatus() == JobStatus.RUNNING).forEach(this::cancel);
 			
 			return queuedJobs.isEmpty();
 		}
 	}
 	
 	/**
-	 * Cancel currently running job, if any. If there are more jobs on the
+	 * Move a job to another position in the queue.
+	 * 
+	 * @param queuedJob Job to move
+	 * @param position New queue position, clamped to the queue bounds
+	 * @return Whether the job was found on the queue
+	 */
+	public boolean move(final QueuedJob queuedJob, final int position) {
+		synchronized(queuedJobs) {
+			final List<QueuedJob> jobOrder = new ArrayList<>(queuedJobs.keySet());
+			if(!jobOrder.remove(queuedJob)) {
+				return false;
+			}
+			jobOrder.add(Math.max(0, Math.min(position, jobOrder.size())), queuedJob);
+			
+			final Map<QueuedJob, EncoderJob> encoderJobs = new HashMap<>(queuedJobs);
+			queuedJobs.clear();
+			jobOrder.forEach(j -> queuedJobs.put(j, encoderJobs.get(j)));
+			return true;
+		}
+	}
+	
+	/**
+	 * Cancel a single job. A running job is stopped, while a job that is still
+	 * waiting on the queue will simply never be started.
+	 * 
+	 * @param queuedJob Job to cancel
+	 */
+	public void cancel(final QueuedJob queuedJob) {
+		synchronized(queuedJobs) {
+			final EncodingTask encoderTask = findTask(queuedJob);
+			if(encoderTask != null) {
+				encoderTask.cancel();
+			}
+			else if(queuedJob.getJobStatus() == JobStatus.QUEUED) {
+				queuedJob.setStatus(JobStatus.CANCELLED);
+				queuedJob.setMessage("");
+			}
+		}
+	}
+	
+	/**
+	 * Change the max number of concurrent encoder instances, used when none of the capacity
+	 * profiles is active. The running job applies the change at its segment boundaries, but it
+	 * can't use more instances than it was split for. A higher limit is fully used from the next job on.
+	 * 
+	 * @param encoderJobsLimit New instance limit, or 0 to use one instance per CPU core 
+	 */
+	public void setEncoderJobsLimit(final int encoderJobsLimit) {
+		synchronized(queuedJobs) {
+			this.encoderJobsLimit = encoderJobsLimit;
+			queuedJobs.notifyAll();
+		}
+	}
+	
+	public int getEncoderJobsLimit() {
+		return encoderJobsLimit;
+	}
+	
+	/**
+	 * Set the time-of-day capacity profiles, which override the encoder instance limit while they
+	 * are active. The running job lowers its encoder instance count by suspending its most recently
+	 * started segments, and raises it by resuming them or by starting new segments.
+	 * 
+	 * @param capacityProfiles Capacity profiles, the first one that is active at a time is used
+	 */
+	public void setCapacityProfiles(final List<CapacityProfile> capacityProfiles) {
+		synchronized(queuedJobs) {
+			this.capacityProfiles = new ArrayList<>(capacityProfiles);
+			queuedJobs.notifyAll();
+		}
+	}
+	
+	public List<CapacityProfile> getCapacityProfiles() {
+		return Collections.unmodifiableList(capacityProfiles);
+	}
+	
+	/**
+	 * Pause the whole queue. The running job's encoder processes are suspended,
+	 * and neither its remaining segments nor any of the queued jobs are started
+	 * until the queue is resumed.
+	 */
+	public void pause() {
+		synchronized(queuedJobs) {
+			queuePaused = true;
+			getActiveTasks().forEach(this::pauseTask);
+		}
+	}
+	
+	/**
+	 * Resume the previously paused queue, including the running job.
+	 */
+	public void resume() {
+		synchronized(queuedJobs) {
+			queuePaused = false;
+			getActiveTasks().forEach(this::resumeTask);
+			queuedJobs.notifyAll();
+		}
+	}
+	
+	public boolean isPaused() {
+		return queuePaused;
+	}
+	
+	/**
+	 * Pause a single job. A running job has its encoder processes suspended, while
+	 * a job that is still waiting on the queue is held back until it is resumed.
+	 * A preempted job is already suspended, so it can't be paused.
+	 * 
+	 * @param queuedJob Job to pause
+	 */
+	public void pause(final QueuedJob queuedJob) {
+		synchronized(queuedJobs) {
+			final EncodingTask encoderTask = findActiveTask(queuedJob);
+			if(encoderTask != null) {
+				pauseTask(encoderTask);
+			}
+			else if(queuedJob.getJobStatus() == JobStatus.QUEUED) {
+				queuedJob.setStatus(JobStatus.PAUSED);
+			}
+		}
+	}
+	
+	/**
+	 * Resume a previously paused job. A preempted job is resumed automatically
+	 * once the jobs with higher priorities have completed.
+	 * 
+	 * @param queuedJob Job to resume
+	 */
+	public void resume(final QueuedJob queuedJob) {
+		synchronized(queuedJobs) {
+			final EncodingTask encoderTask = findActiveTask(queuedJob);
+			if(encoderTask != null) {
+				resumeTask(encoderTask);
+			}
+			else if(queuedJob.getJobStatus() == JobStatus.PAUSED) {
+				queuedJob.setStatus(JobStatus.QUEUED);
+				queuedJobs.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Check whether a job is paused, either on the queue or while running.
+	 * 
+	 * @param queuedJob Job to check
+	 * @return Whether the job is paused
+	 */
+	public boolean isPaused(final QueuedJob queuedJob) {
+		synchronized(queuedJobs) {
+			if(queuedJob.getJobStatus() == JobStatus.RUNNING) {
+				final EncodingTask encoderTask = findActiveTask(queuedJob);
+				return encoderTask != null && encoderTask.isPaused();
+			}
+			return queuedJob.getJobStatus() == JobStatus.PAUSED;
+		}
+	}
+	
+	/**
+	 * Check whether a job is preempted by a job with a higher priority.
+	 * 
+	 * @param queuedJob Job to check
+	 * @return Whether the job is preempted
+	 */
+	public boolean isPreempted(final QueuedJob queuedJob) {
+		synchronized(queuedJobs) {
+			return preemptedTasks.stream().anyMatch(t -> t.getEncoderJob().getQueuedJob() == queuedJob);
+		}
+	}
+	
+	/**
+	 * Cancel currently running job (or small jobs), if any. If there are more jobs on the
 	 * queue, the encoder will continue encoding these. Otherwise, it simply
 	 * returns as there is nothing more to do. It will also notify any
 	 * listeners if the job was successfully cancelled. 
 	 */
 	public void cancel() {
 		synchronized(queuedJobs) {
-			if(currentEncoderTask != null) {
-				currentEncoderTask.cancel();
-			}
+			getActiveTasks().forEach(EncodingTask::cancel);
 		}
 	}
 	
@@ -140,7 +390,20 @@ public final class EncoderController {
 	}
 	
 	/**
-	 * Start a new encoding of queued jobs, one by one, in the order they were added in. 
+	 * Check whether the encoder is currently working through the queue. Jobs that are
+	 * added while it is, will be encoded without having to call {@link #encode(EncoderParameters)}.
+	 * 
+	 * @return Whether the encoding is in progress
+	 */
+	public boolean isEncoding() {
+		synchronized(queuedJobs) {
+			return encoderExecutor != null;
+		}
+	}
+	
+	/**
+	 * Start a new encoding of queued jobs, one by one, in the order they were added in.
+	 * Jobs with higher priorities are started first.
 	 * 
 	 * @param encoderParameters x264.exe executable command parameters
 	 */
@@ -154,6 +417,8 @@ public final class EncoderController {
 				thread.setDaemon(true);
 				return thread;
 			});
+			encoderJobsLimit = encoderParameters.getEncoderJobsLimit();
+			queuePaused = false;
 		}
 		
 		encoderExecutor.submit(() -> encodeJobs(encoderParameters));						
@@ -168,17 +433,80 @@ public final class EncoderController {
 	private void encodeJobs(final EncoderParameters encoderParameters) {				
 		while(true) {
 			synchronized(queuedJobs) {
-				final List<QueuedJob> availableJobs = filterJobs(q -> q.getJobStatus() == JobStatus.QUEUED);
-				if(availableJobs.isEmpty()) {
-					//No more jobs left to encode, we are done
-					encoderExecutor.shutdown();				
+				applyCapacity();
+				if(queuePaused) {
+					//Don't start the next job until the queue is resumed
+					if(!awaitQueueChange()) {
+						break;
+					}
+					continue;
+				}
+				
+				final List<QueuedJob> queuedJobsLeft = filterJobs(q -> q.getJobStatus() == JobStatus.QUEUED);
+				final JobPriority highestPriority = queuedJobsLeft.stream().map(QueuedJob::getJobPriority).max(
+						Comparator.naturalOrder()).orElse(null);
+				
+				if(currentEncoderTask != null) {
+					//A job is running, only a waiting job with a higher priority may preempt it
+					if(highestPriority == null || !highestPriority.isHigherThan(getPriority(currentEncoderTask))) {
+						if(!awaitQueueChange()) {
+							break;
+						}
+						continue;
+					}
+				}
+				else if(!packedTasks.isEmpty()) {
+					//Small jobs share the slots, another one may only start if one of the slots is free
+					//and no preempted job is waiting to be resumed ahead of it
+					if(highestPriority == null || packedTasks.size() >= getSlotCount() || (!preemptedTasks.isEmpty()
+							&& !highestPriority.isHigherThan(getPriority(preemptedTasks.peek())))) {
+						if(!awaitQueueChange()) {
+							break;
+						}
+						continue;
+					}
+				}
+				else if(!preemptedTasks.isEmpty() && (highestPriority == null ||
+						!highestPriority.isHigherThan(getPriority(preemptedTasks.peek())))) {
+					//Nothing more urgent is waiting, continue with the most recently preempted job
+					restorePreemptedTask();
+					continue;
+				}
+				else if(highestPriority == null) {
+					//No more jobs left to encode, we are done. Any job added from now on needs a new encoding
+					encoderExecutor.shutdown();
+					encoderExecutor = null;
 					break;
 				}
-				final QueuedJob nextJob = availableJobs.get(0);			
+				
+				//Split the job for the highest capacity, in case a profile with more instances becomes active
+				final SegmentScheduler scheduler = new SegmentScheduler(getMaxSlotCount(),
+						encoderParameters.getSegmentsPerSlot(), encoderParameters.getQueuePolicy(),
+						SegmentScheduler.SegmentOrder.LONGEST_FIRST);
+				
+				//The queue policy only chooses between the jobs with the highest priority
+				final List<QueuedJob> availableJobs = queuedJobsLeft.stream().filter(
+						q -> q.getJobPriority() == highestPriority).collect(Collectors.toList());
+				final QueuedJob nextJob = availableJobs.get(scheduler.selectNextJob(availableJobs.stream().map(
+						EncoderController::getEncodedFrameCount).collect(Collectors.toList())));
+				
+				final boolean smallJob = isSmallJob(nextJob, encoderParameters);
+				if(!packedTasks.isEmpty() && !smallJob) {
+					//Any other job waits until the small jobs have completed, so that it gets all of the slots
+					if(!awaitQueueChange()) {
+						break;
+					}
+					continue;
+				}
 				nextJob.setStatus(JobStatus.RUNNING);
 				nextJob.setMessage("");
 				
-				final SegmentBuilder segmentBuilder = new SegmentBuilder(encoderParameters, nextJob, logger);
+				//A small job isn't split, the startup costs of its segments and their merge would outweigh the gains
+				final SegmentScheduler jobScheduler = smallJob? new SegmentScheduler(1, 1, encoderParameters.getQueuePolicy(),
+						SegmentScheduler.SegmentOrder.LONGEST_FIRST) : scheduler;
+				
+				final SegmentBuilder segmentBuilder = new SegmentBuilder(encoderParameters, nextJob, logger,
+						jobScheduler.getSegmentCount());
 				List<AvsSegment> avsSegments;
 				try {
 					avsSegments = segmentBuilder.buildSegments();
@@ -192,61 +520,207 @@ public final class EncoderController {
 				final EncoderJob encoderJob = new EncoderJob(nextJob, avsSegments);
 				queuedJobs.put(nextJob, encoderJob);
 				
-				final EncodingTask encoderTask = new EncodingTask(encoderParameters, encoderJob, logger);
-				currentEncoderTask = encoderTask;
+				final EtaEstimator etaEstimator = new EtaEstimator(jobScheduler.getSlotCount(), statistics);
+				
+				final long[] segmentFrameCounts = avsSegments.stream().mapToLong(AvsSegment::getFrameCount).toArray();
+				final ProgressEventBus progressBus = new ProgressEventBus(segmentFrameCounts,
+						encoderParameters.getProgressUpdateInterval(), segmentViews -> {
+							//Only the job that is actually encoding reports its progress
+							if(isPreempted(nextJob)) {
+								return;
+							}
+							final EncodingProgressView progressView = buildProgressView(nextJob, segmentViews, etaEstimator);
+							listeners.forEach(l -> l.onProgressUpdate(nextJob, progressView));
+						});
+				
+				final EncodingTask encoderTask = new EncodingTask(encoderParameters, encoderJob, logger, progressBus, statistics, jobScheduler);
+				
+				if(currentEncoderTask != null) {
+					preemptTask(currentEncoderTask, nextJob);
+				}
+				if(smallJob) {
+					logger.log(Severity.INFO, "Small job is encoded as a single segment, side by side with other small jobs: "
+							+ nextJob.getName());
+					if(packedTasks.isEmpty()) {
+						packedEtaEstimator = new EtaEstimator(getSlotCount(), statistics);
+					}
+					packedTasks.add(encoderTask);
+				}
+				else {
+					currentEncoderTask = encoderTask;
+				}
+				applyCapacity();
 				
 				nextJob.setTimeStarted(System.currentTimeMillis());
 				
-				runJob(encoderJob, encoderTask);
-				try {
-					queuedJobs.wait();
-				} catch(final InterruptedException ie) {
-					Thread.interrupted();
-					
-					//Check whether the user cancelled the encoding
-					if(encoderExecutor.isShutdown()) {
-						
-						System.out.println("Interrupted, all encoding tasks were cancelled");
-						
-						//Cancel the active encoding task, if any
-						cancel();
-						
-						//Cancel all queued jobs
-						filterJobs(j -> j.getJobStatus() == JobStatus.QUEUED).forEach(j -> {
-							j.setStatus(JobStatus.CANCELLED);
-							j.setMessage("");
-						});
-						break;
-					}					
-				}			
+				runJob(encoderJob, encoderTask, progressBus);
 			}
 		}
-		encoderExecutor = null;
 		Platform.runLater(() -> listeners.forEach(EncodingProgressListener::onAllJobsCompleted));
 	}
+	
+	/**
+	 * Wait for a notification on the queue, or until it is time to check the capacity profiles
+	 * again. Must be called while holding the queue's lock.
+	 * 
+	 * @return False if the encoding was cancelled while waiting, true otherwise
+	 */
+	private boolean awaitQueueChange() {
+		try {
+			queuedJobs.wait(CAPACITY_CHECK_INTERVAL);
+			return true;
+		} catch(final InterruptedException ie) {
+			Thread.interrupted();
+			
+			//Check whether the user cancelled the encoding
+			if(!encoderExecutor.isShutdown()) {
+				return true;
+			}
+			
+			System.out.println("Interrupted, all encoding tasks were cancelled");
+			
+			//Cancel the active encoding task, if any, as well as the preempted ones
+			cancel();
+			preemptedTasks.forEach(EncodingTask::cancel);
+			
+			//Cancel all queued (and held back) jobs
+			filterJobs(j -> j.getJobStatus() == JobStatus.QUEUED || j.getJobStatus() == JobStatus.PAUSED).forEach(j -> {
+				j.setStatus(JobStatus.CANCELLED);
+				j.setMessage("");
+			});
+			encoderExecutor = null;
+			return false;
+		}
+	}
+	
+	/**
+	 * Apply the capacity of the currently active profile, or the encoder instance limit if none is active.
+	 * The small jobs share the slots, those started the most recently are held back while there are
+	 * more of them than there are slots.
+	 */
+	private void applyCapacity() {
+		final CapacityProfile capacityProfile = CapacityProfile.findActive(capacityProfiles, LocalTime.now());
+		if(capacityProfile != activeCapacityProfile) {
+			logger.log(Severity.INFO, capacityProfile != null? "Capacity profile is now active: " + capacityProfile :
+				"No capacity profile is active, using the encoder instance limit");
+			activeCapacityProfile = capacityProfile;
+		}
+		final int slotCount = SegmentScheduler.resolveSlotCount(capacityProfile != null?
+				capacityProfile.getEncoderJobsLimit() : encoderJobsLimit);
+		final int niceness = capacityProfile != null? capacityProfile.getNiceness() : CapacityProfile.DEFAULT_NICENESS;
+		
+		final EncodingTask encoderTask = currentEncoderTask;
+		if(encoderTask != null) {
+			encoderTask.setCapacity(slotCount, niceness);
+		}
+		for(int i = 0; i < packedTasks.size(); ++i) {
+			packedTasks.get(i).setCapacity(i < slotCount? 1 : 0, niceness);
+		}
+	}
+	
+	private int getSlotCount() {
+		final CapacityProfile capacityProfile = CapacityProfile.findActive(capacityProfiles, LocalTime.now());
+		return SegmentScheduler.resolveSlotCount(capacityProfile != null? capacityProfile.getEncoderJobsLimit() : encoderJobsLimit);
+	}
+	
+	private int getMaxSlotCount() {
+		return capacityProfiles.stream().mapToInt(p -> SegmentScheduler.resolveSlotCount(p.getEncoderJobsLimit())).reduce(
+				SegmentScheduler.resolveSlotCount(encoderJobsLimit), Math::max);
+	}
+	
+	private void pauseTask(final EncodingTask encoderTask) {
+		if(!ProcessSignals.isSupported()) {
+			logger.log(Severity.WARN, "Running encoder processes can't be suspended on this platform,"
+					+ " only the segments that haven't started yet are held back");
+		}
+		encoderTask.pause();
+		encoderTask.getEncoderJob().getQueuedJob().setMessage("Paused");
+	}
+	
+	private void resumeTask(final EncodingTask encoderTask) {
+		encoderTask.resume();
+		encoderTask.getEncoderJob().getQueuedJob().setMessage("");
+	}
+	
+	/**
+	 * Suspend the running job, so that its slots are given to a job with a higher priority.
+	 * 
+	 * @param encoderTask Task of the job to preempt
+	 * @param preemptingJob The job with a higher priority
+	 */
+	private void preemptTask(final EncodingTask encoderTask, final QueuedJob preemptingJob) {
+		final QueuedJob preemptedJob = encoderTask.getEncoderJob().getQueuedJob();
+		logger.log(Severity.INFO, "Job " + preemptedJob.getName() + " was preempted by a job with a higher priority: "
+				+ preemptingJob.getName());
+		
+		pauseTask(encoderTask);
+		preemptedJob.setMessage("Preempted by " + preemptingJob.getName());
+		preemptedTasks.push(encoderTask);
+		currentEncoderTask = null;
+	}
+	
+	private void restorePreemptedTask() {
+		final EncodingTask encoderTask = preemptedTasks.pop();
+		logger.log(Severity.INFO, "Resuming preempted job: " + encoderTask.getEncoderJob().getQueuedJob().getName());
+		
+		currentEncoderTask = encoderTask;
+		resumeTask(encoderTask);
+	}
+	
+	private EncodingTask findTask(final QueuedJob queuedJob) {
+		final EncodingTask encoderTask = findActiveTask(queuedJob);
+		if(encoderTask != null) {
+			return encoderTask;
+		}
+		return preemptedTasks.stream().filter(t -> t.getEncoderJob().getQueuedJob() == queuedJob).findFirst().orElse(null);
+	}
+	
+	/**
+	 * Find the task of a job that is actually encoding, that is neither preempted nor waiting on the queue.
+	 * 
+	 * @param queuedJob Job whose task to find
+	 * @return The job's task, or null if the job isn't encoding
+	 */
+	private EncodingTask findActiveTask(final QueuedJob queuedJob) {
+		return getActiveTasks().stream().filter(t -> t.getEncoderJob().getQueuedJob() == queuedJob).findFirst().orElse(null);
+	}
+	
+	/**
+	 * Get the tasks that are actually encoding, either the single running job or the small jobs.
+	 * 
+	 * @return Active encoding tasks
+	 */
+	private List<EncodingTask> getActiveTasks() {
+		final List<EncodingTask> activeTasks = new ArrayList<>(packedTasks);
+		final EncodingTask encoderTask = currentEncoderTask;
+		if(encoderTask != null) {
+			activeTasks.add(0, encoderTask);
+		}
+		return activeTasks;
+	}
+	
+	private static boolean isSmallJob(final QueuedJob queuedJob, final EncoderParameters encoderParameters) {
+		return getEncodedFrameCount(queuedJob) < encoderParameters.getSmallJobFrameLimit();
+	}
+	
+	private static JobPriority getPriority(final EncodingTask encoderTask) {
+		return encoderTask.getEncoderJob().getQueuedJob().getJobPriority();
+	}
 
-	private void runJob(final EncoderJob encoderJob, final EncodingTask encoderTask) {
+	private void runJob(final EncoderJob encoderJob, final EncodingTask encoderTask,
+			final ProgressEventBus progressBus) {
 		final ExecutorService encoderTaskExecutor = Executors.newSingleThreadExecutor(r -> {
 			final Thread thread = new Thread(r);
 			thread.setDaemon(true);
 			return thread;
 		});
 		
-		final ProgressPoller progressPoller = new ProgressPoller(() ->
-			listeners.forEach(l -> {
-				final EncodingProgressView progressView = encoderTask.getProgressView();
-				updateTotalProgress(progressView);
-				l.onProgressUpdate(encoderJob.getQueuedJob(), progressView);
-			}));
-		
-		progressPoller.setPeriod(Duration.seconds(1));
-		
 		encoderTask.setOnSucceeded(handler -> {
 			logger.log(Severity.INFO, "Job completed: " + encoderJob.getJobParameters().getName());
 			
 			updateJobStatusOnCompletion(encoderJob.getQueuedJob(), JobStatus.FINISHED, "Completed");
 			listeners.forEach(l -> l.onJobCompleted(encoderJob.getQueuedJob()));
-			resetState(encoderTaskExecutor, progressPoller);
+			resetState(encoderTask, encoderTaskExecutor, progressBus);
 		});
 		
 		encoderTask.setOnCancelled(handler -> {
@@ -254,7 +728,7 @@ public final class EncoderController {
 
 			updateJobStatusOnCompletion(encoderJob.getQueuedJob(), JobStatus.CANCELLED, "");
 			listeners.forEach(l -> l.onJobCompleted(encoderJob.getQueuedJob()));
-			resetState(encoderTaskExecutor, progressPoller);						
+			resetState(encoderTask, encoderTaskExecutor, progressBus);						
 		});
 		
 		encoderTask.setOnFailed(handler -> {			
@@ -265,14 +739,11 @@ public final class EncoderController {
 			
 			updateJobStatusOnCompletion(encoderJob.getQueuedJob(), JobStatus.FAILED, error.toString());
 			listeners.forEach(l -> l.onJobCompleted(encoderJob.getQueuedJob()));
-			resetState(encoderTaskExecutor, progressPoller);									
+			resetState(encoderTask, encoderTaskExecutor, progressBus);									
 		});
 		
-		progressPoller.start();
-		
 		logger.log(Severity.INFO, "Start encoding: job = " + encoderJob.getJobParameters().getName());
 		
-		currentEncoderTask = encoderTask;
 		encoderTaskExecutor.execute(encoderTask);
 	}
 	
@@ -283,27 +754,74 @@ public final class EncoderController {
 		queuedJob.setMessage(message);
 	}
 	
-	private void updateTotalProgress(final EncodingProgressView progressView) {
-		final long totalFramesDone = filterJobs(j -> j.getJobStatus() != JobStatus.RUNNING).stream().mapToLong(
-				q -> {
-					final EncoderJob encoderJob = queuedJobs.get(q);
-					return encoderJob != null? encoderJob.getFrameCount() : 0;
-				}).sum() + progressView.getCurrentJobFramesDone();
-				 
-		progressView.setTotalFrames(totalFrameCount);
-		progressView.setTotalFramesDone(totalFramesDone);
-		
-		final int totalJobsDone = filterJobs(j -> j.getJobStatus() != JobStatus.RUNNING &&
-				j.getJobStatus() != JobStatus.QUEUED).size();
-		
-		progressView.setTotalJobs(queuedJobs.size());
-		progressView.setTotalJobsDone(totalJobsDone);
+	private EncodingProgressView buildProgressView(final QueuedJob queuedJob, final List<SegmentProgressView> segmentViews,
+			final EtaEstimator etaEstimator) {
+		synchronized(queuedJobs) {
+			final EncodingTask encoderTask = findActiveTask(queuedJob);
+			final boolean packedJob = encoderTask != null && packedTasks.contains(encoderTask);
+			if(packedJob) {
+				packedSegmentViews.put(queuedJob, segmentViews);
+			}
+			
+			//The small jobs that are encoded side by side are still running, but their frames are done nevertheless
+			final long otherJobsFramesDone = filterJobs(j -> j.getJobStatus() != JobStatus.RUNNING).stream().mapToLong(
+					q -> {
+						final EncoderJob encoderJob = queuedJobs.get(q);
+						return encoderJob != null? encoderJob.getFrameCount() : 0;
+					}).sum() + packedSegmentViews.entrySet().stream().filter(e -> e.getKey() != queuedJob).flatMap(
+							e -> e.getValue().stream()).mapToLong(SegmentProgressView::getFramesDone).sum();
+			
+			final int totalJobsDone = filterJobs(j -> j.getJobStatus() != JobStatus.RUNNING &&
+					j.getJobStatus() != JobStatus.QUEUED && j.getJobStatus() != JobStatus.PAUSED).size();
+			
+			final List<Long> queuedJobFrameCounts = filterJobs(j -> j.getJobStatus() == JobStatus.QUEUED).stream().map(
+					EncoderController::getEncodedFrameCount).collect(Collectors.toList());
+			final boolean paused = encoderTask != null && encoderTask.isPaused();
+			
+			final long jobSecondsLeft;
+			final long queueSecondsLeft;
+			if(packedJob) {
+				//The queue only advances as fast as all of the small jobs together
+				jobSecondsLeft = etaEstimator.estimate(segmentViews, Collections.emptyList(), paused).getJobSecondsLeft();
+				queueSecondsLeft = packedEtaEstimator.estimate(packedSegmentViews.values().stream().flatMap(
+						List::stream).collect(Collectors.toList()), queuedJobFrameCounts,
+						packedTasks.stream().allMatch(EncodingTask::isPaused)).getQueueSecondsLeft();
+			}
+			else {
+				final EtaEstimator.Eta eta = etaEstimator.estimate(segmentViews, queuedJobFrameCounts, paused);
+				jobSecondsLeft = eta.getJobSecondsLeft();
+				queueSecondsLeft = eta.getQueueSecondsLeft();
+			}
+			
+			return new EncodingProgressView(segmentViews, totalFrameCount, otherJobsFramesDone,
+					queuedJobs.size(), totalJobsDone, operatingSystemMXBean.getSystemCpuLoad(),
+					jobSecondsLeft, queueSecondsLeft, paused);
+		}
+	}
+	
+	private static long getEncodedFrameCount(final QueuedJob queuedJob) {
+		//Deinterlacing doubles the frame rate, and with it the number of the encoded frames
+		return queuedJob.getInputAvsFiles().stream().mapToLong(f ->
+				f.isUsingDeinterlacing()? 2 * f.getFrameCount() : f.getFrameCount()).sum();
 	}
 	
-	private void resetState(final ExecutorService encoderTaskExecutor, final ProgressPoller progressPoller) {
+	private void resetState(final EncodingTask encoderTask, final ExecutorService encoderTaskExecutor,
+			final ProgressEventBus progressBus) {
 		synchronized(queuedJobs) {
-			currentEncoderTask = null;
-			progressPoller.cancel();
+			if(currentEncoderTask == encoderTask) {
+				currentEncoderTask = null;
+			}
+			else if(packedTasks.remove(encoderTask)) {
+				packedSegmentViews.remove(encoderTask.getEncoderJob().getQueuedJob());
+				if(packedTasks.isEmpty()) {
+					packedEtaEstimator = null;
+				}
+			}
+			else {
+				//A preempted job was cancelled
+				preemptedTasks.remove(encoderTask);
+			}
+			progressBus.close();
 			encoderTaskExecutor.shutdownNow();
 			queuedJobs.notifyAll();
 		}
@@ -0,0 +1,89 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative counters of the encoder's activity since the application was started.
+ * The counters are updated by the encoder threads and can be read from any thread.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class EncoderStatistics {
+	
+	private final AtomicLong segmentsEncoded = new AtomicLong();
+	private final AtomicLong segmentsFailed = new AtomicLong();
+	
+	private final AtomicLong mergeCount = new AtomicLong();
+	private final AtomicLong mergedFrames = new AtomicLong();
+	private final AtomicLong mergeDurationTotal = new AtomicLong();
+	private volatile long lastMergeDuration = 0;
+	
+	void onSegmentEncoded() {
+		segmentsEncoded.incrementAndGet();
+	}
+	
+	void onSegmentFailed() {
+		segmentsFailed.incrementAndGet();
+	}
+	
+	void onSegmentsMerged(final long mergeDuration, final long frameCount) {
+		lastMergeDuration = mergeDuration;
+		mergeDurationTotal.addAndGet(mergeDuration);
+		mergedFrames.addAndGet(frameCount);
+		mergeCount.incrementAndGet();
+	}
+	
+	public long getSegmentsEncoded() {
+		return segmentsEncoded.get();
+	}
+	
+	public long getSegmentsFailed() {
+		return segmentsFailed.get();
+	}
+	
+	public long getMergeCount() {
+		return mergeCount.get();
+	}
+	
+	public long getMergedFrames() {
+		return mergedFrames.get();
+	}
+	
+	/**
+	 * Get the total time spent on merging of segments.
+	 * 
+	 * @return Total merge duration (in millis)
+	 */
+	public long getMergeDurationTotal() {
+		return mergeDurationTotal.get();
+	}
+	
+	/**
+	 * Get the time spent on the most recent merging of segments.
+	 * 
+	 * @return Last merge duration (in millis)
+	 */
+	public long getLastMergeDuration() {
+		return lastMergeDuration;
+	}
+}
@@ -25,15 +25,13 @@ import org.matic.x264batcher.gui.log.LogEntry.Severity;
 import org.matic.x264batcher.model.AvsSegment;
 import org.matic.x264batcher.model.EncoderJob;
 import org.matic.x264batcher.model.EncoderParameters;
-import org.matic.x264batcher.model.EncodingProgressView;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
 /**
- * A job encoding task. It controls the x264.exe encodings and merging of the
- * resulting x264 files. It also provides the progress status updates to the GUI.
+ * A job encoding task. It checks the job's segments, and controls the x264.exe encodings
+ * and merging of the resulting x264 files. The encoding progress is published to a {@link ProgressEventBus}.
  * 
  * @author Vedran Matic
  *
@@ -43,8 +41,10 @@ final class EncodingTask extends Task<Void> {
 	private final EncoderParameters encoderParameters;
 	private final EncoderJob encoderJob;
 	private final EncoderLogger logger;
+	private final EncoderStatistics statistics;
 	
 	private final AvsEncoder encoder;  
+	private final SegmentValidator validator;
 	
 	/**
 	 * Create a new instance of the encoding task.
@@ -52,19 +52,21 @@ final class EncodingTask extends Task<Void> {
 	 * @param encoderParameters x264.exe executable parameters
 	 * @param encoderJob A view to the corresponding encoder job
 	 * @param logger Log encoding output to this logger
+	 * @param progressBus Bus to which the encoding progress is published
+	 * @param statistics Counters to update with the encoding and merging results
+	 * @param scheduler Scheduler that decides in which order the job's segments are encoded
 	 */
 	EncodingTask(final EncoderParameters encoderParameters,
-				 final EncoderJob encoderJob, final EncoderLogger logger) {
+				 final EncoderJob encoderJob, final EncoderLogger logger, final ProgressEventBus progressBus,
+				 final EncoderStatistics statistics, final SegmentScheduler scheduler) {
 		this.encoderParameters = encoderParameters;
 		this.encoderJob = encoderJob;
 		this.logger = logger;
+		this.statistics = statistics;
 		
-		final long totalFrames = this.encoderJob.getSegments().stream().mapToLong(AvsSegment::getFrameCount).sum();
-		encoder = new AvsEncoder(this.encoderParameters.getEncoderJobsLimit(), totalFrames, logger);
-	}
-
-	EncodingProgressView getProgressView() {
-		return encoder.getJobProgress();
+		encoder = new AvsEncoder(scheduler, logger, progressBus, statistics,
+				this.encoderParameters.isSegmentLogFiles());
+		validator = new SegmentValidator(logger, encoder.getSlotGate(), scheduler.getSlotCount());
 	}
 
 	@Override
@@ -74,9 +76,14 @@ final class EncodingTask extends Task<Void> {
 		
 		logger.log(Severity.INFO, "Start encoding: Job = " + jobName);
 		
-		//Encode job file segments
+		//Check that all of the segment scripts work, before any time is spent on encoding them
 		final List<AvsSegment> avsSegments = encoderJob.getSegments();	
-		encoder.encode(avsSegments.stream().map(AvsSegment::getCommand).collect(Collectors.toList()));
+		validator.validate(avsSegments);
+		
+		logger.log(Severity.INFO, "Pre-flight check passed: Job = " + jobName);
+		
+		//Encode job file segments
+		encoder.encode(avsSegments);
 		
 		logger.log(Severity.INFO, "All segments encoded: Job = " + jobName);
 		
@@ -87,7 +94,9 @@ final class EncodingTask extends Task<Void> {
 		logger.log(Severity.INFO, "Merging segments: Job = " + jobName + ", command = [ " +
 				mergerJob.getCommand() + " ]");
 
+		final long mergeStartTime = System.currentTimeMillis();
 		CompletableFuture.runAsync(mergerJob).join();
+		statistics.onSegmentsMerged(System.currentTimeMillis() - mergeStartTime, encoderJob.getFrameCount());
 
 		//Check for any merger error, re-throw it if it exists
 		final Exception mergeException = mergerJob.getError();
@@ -105,6 +114,32 @@ final class EncodingTask extends Task<Void> {
 		return null;
 	}
 	
+	EncoderJob getEncoderJob() {
+		return encoderJob;
+	}
+	
+	/**
+	 * Pause the encoding of the job's segments. Pausing has no effect on a merge that is already running.
+	 */
+	void pause() {
+		encoder.pause();
+	}
+	
+	void resume() {
+		encoder.resume();
+	}
+	
+	boolean isPaused() {
+		return encoder.isPaused();
+	}
+	
+	/**
+	 * @see AvsEncoder#setCapacity(int, int)
+	 */
+	void setCapacity(final int slotLimit, final int niceness) {
+		encoder.setCapacity(slotLimit, niceness);
+	}
+	
 	@Override
 	protected void cancelled() {		
 		super.cancelled();
@@ -0,0 +1,176 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.matic.x264batcher.model.SegmentProgressView;
+import org.matic.x264batcher.model.SegmentProgressView.State;
+
+/**
+ * An estimator of the time left until the running job and the whole queue are done.
+ * Rather than dividing the remaining frames by the current combined fps, which
+ * underestimates the time needed once the segments start finishing and fewer encoder
+ * instances remain running, it projects each running segment's completion from its own
+ * fps and simulates how the queued segments and jobs reuse the freed encoder slots.
+ * The predicted merge time of each job is added on top of its encoding time.
+ * While the job is paused the last estimate is kept, as nothing progresses until it is resumed.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class EtaEstimator {
+	
+	/**
+	 * Time left (in seconds) for a job and the queue, or -1 when it can't be estimated yet.
+	 */
+	static final class Eta {
+		private final long jobSecondsLeft;
+		private final long queueSecondsLeft;
+		
+		private Eta(final long jobSecondsLeft, final long queueSecondsLeft) {
+			this.jobSecondsLeft = jobSecondsLeft;
+			this.queueSecondsLeft = queueSecondsLeft;
+		}
+		
+		long getJobSecondsLeft() {
+			return jobSecondsLeft;
+		}
+		
+		long getQueueSecondsLeft() {
+			return queueSecondsLeft;
+		}
+	}
+	
+	static final Eta UNKNOWN = new Eta(-1, -1);
+	
+	private final EncoderStatistics statistics;
+	private final int slotCount;
+	
+	//Only accessed on the progress delivery thread
+	private Eta lastEta = UNKNOWN;
+	
+	/**
+	 * Create a new instance of the estimator.
+	 * 
+	 * @param slotCount Number of encoder instances that may run in parallel
+	 * @param statistics Statistics of the past merges, used for merge time prediction
+	 */
+	EtaEstimator(final int slotCount, final EncoderStatistics statistics) {
+		this.slotCount = Math.max(1, slotCount);
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Estimate the time left for the running job and for the whole queue.
+	 * 
+	 * @param segmentViews Current progress of the running job's segments
+	 * @param queuedJobFrameCounts Frames to encode in each of the jobs waiting on the queue
+	 * @param paused Whether the job is paused, in which case the last estimate is returned
+	 * @return Estimated time left
+	 */
+	Eta estimate(final List<SegmentProgressView> segmentViews, final List<Long> queuedJobFrameCounts,
+			final boolean paused) {
+		if(paused) {
+			return lastEta;
+		}
+		lastEta = estimate(segmentViews, queuedJobFrameCounts);
+		return lastEta;
+	}
+	
+	private Eta estimate(final List<SegmentProgressView> segmentViews, final List<Long> queuedJobFrameCounts) {
+		//Speed of a single encoder instance, as observed on the running segments
+		final double instanceFps = segmentViews.stream().filter(s -> s.getState() == State.RUNNING
+				&& s.getFps() > 0).mapToDouble(SegmentProgressView::getFps).average().orElse(0);
+		if(instanceFps <= 0) {
+			return UNKNOWN;
+		}
+		
+		final PriorityQueue<Double> slotFreeTimes = new PriorityQueue<>();
+		final double[] queuedSegmentDurations = new double[segmentViews.size()];
+		int queuedSegmentCount = 0;
+		long jobFrames = 0;
+		
+		for(final SegmentProgressView segmentView : segmentViews) {
+			jobFrames += segmentView.getTotalFrames();
+			final long framesLeft = segmentView.getTotalFrames() - segmentView.getFramesDone();
+			if(segmentView.getState() == State.RUNNING) {
+				final double segmentFps = segmentView.getFps() > 0? segmentView.getFps() : instanceFps;
+				slotFreeTimes.add(framesLeft / segmentFps);
+			}
+			else if(segmentView.getState() == State.QUEUED) {
+				queuedSegmentDurations[queuedSegmentCount++] = framesLeft / instanceFps;
+			}
+		}
+		while(slotFreeTimes.size() < slotCount) {
+			slotFreeTimes.add(0.0);
+		}
+		
+		final double jobSecondsLeft = simulate(slotFreeTimes, queuedSegmentDurations, queuedSegmentCount)
+				+ predictMergeSeconds(jobFrames);
+		
+		//The queued jobs are encoded one after another, each split in as many segments as there are slots
+		double queueSecondsLeft = jobSecondsLeft;
+		for(final long jobFrameCount : queuedJobFrameCounts) {
+			final double[] segmentDurations = new double[slotCount];
+			Arrays.fill(segmentDurations, Math.ceil((double)jobFrameCount / slotCount) / instanceFps);
+			
+			final PriorityQueue<Double> freeSlots = new PriorityQueue<>();
+			for(int i = 0; i < slotCount; ++i) {
+				freeSlots.add(0.0);
+			}
+			queueSecondsLeft += simulate(freeSlots, segmentDurations, segmentDurations.length)
+					+ predictMergeSeconds(jobFrameCount);
+		}
+		
+		return new Eta(Math.round(jobSecondsLeft), Math.round(queueSecondsLeft));
+	}
+	
+	/**
+	 * Simulate assignment of segments to the encoder slots in the queue order, where each
+	 * segment is started on the first slot that becomes free.
+	 * 
+	 * @param slotFreeTimes Time at which each of the slots becomes free
+	 * @param segmentDurations Encoding time of each of the segments to be started
+	 * @param segmentCount Number of segments to be started
+	 * @return Time at which the last segment will have been encoded
+	 */
+	private static double simulate(final PriorityQueue<Double> slotFreeTimes,
+			final double[] segmentDurations, final int segmentCount) {
+		for(int i = 0; i < segmentCount; ++i) {
+			slotFreeTimes.add(slotFreeTimes.poll() + segmentDurations[i]);
+		}
+		double lastFinishTime = 0;
+		for(final double slotFreeTime : slotFreeTimes) {
+			lastFinishTime = Math.max(lastFinishTime, slotFreeTime);
+		}
+		return lastFinishTime;
+	}
+	
+	private double predictMergeSeconds(final long frameCount) {
+		final long mergedFrames = statistics.getMergedFrames();
+		if(mergedFrames <= 0) {
+			return 0;
+		}
+		return frameCount * (statistics.getMergeDurationTotal() / 1000.0) / mergedFrames;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.matic.x264batcher.model.ProcessResourceUsage;
+
+/**
+ * A sampler of the resources used by encoder processes, as reported by the Linux /proc
+ * file system. Each sample reads the stat, status and io files of a process, which is cheap
+ * enough to be done every second or so. On systems without /proc nothing is sampled.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class ProcessResourceSampler {
+	
+	private static final Path PROC_PATH = Paths.get("/proc");
+	
+	//The USER_HZ value, which is 100 on all of the mainstream Linux architectures
+	private static final long CLOCK_TICKS_PER_SECOND = 100;
+	
+	private static final boolean PROC_AVAILABLE = Files.isDirectory(PROC_PATH.resolve("self"));
+	
+	private final Path processPath;
+	
+	private long lastCpuTicks = -1;
+	private long lastSampleTime = 0;
+	private long peakRssBytes = -1;
+	
+	/**
+	 * Create a sampler for a process.
+	 * 
+	 * @param pid Id of the sampled process
+	 */
+	ProcessResourceSampler(final long pid) {
+		this.processPath = PROC_PATH.resolve(String.valueOf(pid));
+	}
+	
+	static boolean isAvailable() {
+		return PROC_AVAILABLE;
+	}
+	
+	/**
+	 * Find out the system id of a process. Java 8 doesn't offer it through the API,
+	 * so it is read from the process implementation's field, where possible.
+	 * 
+	 * @param process Target process
+	 * @return Process id or -1 if it couldn't be determined
+	 */
+	static long getPid(final Process process) {
+		try {
+			final Method pidMethod = Process.class.getMethod("pid");
+			return (Long)pidMethod.invoke(process);
+		} catch(final ReflectiveOperationException | RuntimeException e) {
+			//Not available prior to Java 9, try the implementation field next
+		}
+		try {
+			final Field pidField = process.getClass().getDeclaredField("pid");
+			pidField.setAccessible(true);
+			return pidField.getLong(process);
+		} catch(final ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Take a sample of the process' resource usage.
+	 * 
+	 * @return Resource usage or {@link ProcessResourceUsage#UNKNOWN} if the process can't be sampled
+	 */
+	ProcessResourceUsage sample() {
+		if(!PROC_AVAILABLE) {
+			return ProcessResourceUsage.UNKNOWN;
+		}
+		final long sampleTime = System.nanoTime();
+		final long cpuTicks;
+		long rssBytes = -1;
+		long voluntaryContextSwitches = -1;
+		long involuntaryContextSwitches = -1;
+		try {
+			cpuTicks = readCpuTicks(readFile("stat"));
+			
+			for(final String line : Files.readAllLines(processPath.resolve("status"), StandardCharsets.US_ASCII)) {
+				if(line.startsWith("VmRSS:")) {
+					rssBytes = parseValue(line) * 1024;
+				}
+				else if(line.startsWith("voluntary_ctxt_switches:")) {
+					voluntaryContextSwitches = parseValue(line);
+				}
+				else if(line.startsWith("nonvoluntary_ctxt_switches:")) {
+					involuntaryContextSwitches = parseValue(line);
+				}
+			}
+		} catch(final IOException | RuntimeException e) {
+			//The process has most likely exited in the meantime
+			return ProcessResourceUsage.UNKNOWN;
+		}
+		
+		long readBytes = -1;
+		long writeBytes = -1;
+		try {
+			for(final String line : Files.readAllLines(processPath.resolve("io"), StandardCharsets.US_ASCII)) {
+				if(line.startsWith("read_bytes:")) {
+					readBytes = parseValue(line);
+				}
+				else if(line.startsWith("write_bytes:")) {
+					writeBytes = parseValue(line);
+				}
+			}
+		} catch(final IOException | RuntimeException e) {
+			//The io file is only readable by the process owner and may not be available at all
+		}
+		
+		final double cpuLoad = lastCpuTicks == -1? 0 : ((double)(cpuTicks - lastCpuTicks) / CLOCK_TICKS_PER_SECOND)
+				/ ((sampleTime - lastSampleTime) / 1e9);
+		lastCpuTicks = cpuTicks;
+		lastSampleTime = sampleTime;
+		peakRssBytes = Math.max(peakRssBytes, rssBytes);
+		
+		return new ProcessResourceUsage(cpuLoad, cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND, rssBytes,
+				peakRssBytes, readBytes, writeBytes, voluntaryContextSwitches, involuntaryContextSwitches);
+	}
+	
+	private String readFile(final String name) throws IOException {
+		return new String(Files.readAllBytes(processPath.resolve(name)), StandardCharsets.US_ASCII);
+	}
+	
+	private static long readCpuTicks(final String stat) {
+		//The command name may contain spaces, so the fields are counted from its closing parenthesis
+		final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+		
+		//Fields 14 (utime) and 15 (stime) of the stat file, counting from the process state at field 3
+		return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+	}
+	
+	private static long parseValue(final String line) {
+		final String[] tokens = line.substring(line.indexOf(':') + 1).trim().split("\\s+");
+		return Long.parseLong(tokens[0]);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Sends job control signals to encoder processes, so that they can be suspended and later
+ * resumed without losing any of their work, and changes their scheduling priorities. Java 8 has
+ * no API for this, so the kill and renice commands, which exist on all POSIX systems, are used.
+ * Windows has no such signals, so there the processes can't be suspended or reniced at all.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class ProcessSignals {
+	
+	private static final boolean SUPPORTED = !System.getProperty("os.name", "").toLowerCase(
+			Locale.ROOT).startsWith("windows");
+	
+	private ProcessSignals() {}
+	
+	static boolean isSupported() {
+		return SUPPORTED;
+	}
+	
+	/**
+	 * Stop a process (SIGSTOP). A stopped process keeps its memory and open files, but is never scheduled.
+	 * 
+	 * @param pid Id of the process to stop
+	 * @return Whether the process was stopped
+	 */
+	static boolean suspend(final long pid) {
+		return signal(pid, "-STOP");
+	}
+	
+	/**
+	 * Continue a previously stopped process (SIGCONT).
+	 * 
+	 * @param pid Id of the process to continue
+	 * @return Whether the process was continued
+	 */
+	static boolean resume(final long pid) {
+		return signal(pid, "-CONT");
+	}
+	
+	/**
+	 * Change the scheduling priority of a process. Only the superuser can lower the niceness of a process.
+	 * 
+	 * @param pid Id of the process to renice
+	 * @param niceness New niceness, from 0 (normal) to 19 (lowest)
+	 * @return Whether the priority was changed
+	 */
+	static boolean renice(final long pid, final int niceness) {
+		return run(pid, "renice", String.valueOf(niceness), "-p", String.valueOf(pid));
+	}
+	
+	private static boolean signal(final long pid, final String signal) {
+		return run(pid, "kill", signal, String.valueOf(pid));
+	}
+	
+	private static boolean run(final long pid, final String... command) {
+		if(!SUPPORTED || pid == -1) {
+			return false;
+		}
+		try {
+			return new ProcessBuilder(command).start().waitFor() == 0;
+		} catch(final IOException ioe) {
+			return false;
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.matic.x264batcher.model.ProcessResourceUsage;
+import org.matic.x264batcher.model.SegmentProgressView;
+import org.matic.x264batcher.model.SegmentProgressView.State;
+
+/**
+ * A bus to which segment encoders publish their progress events. The events are
+ * not forwarded one by one. Instead, the first event after a delivery schedules the next
+ * one, no sooner than the update interval allows, and all of the events that arrive in
+ * the meantime are coalesced into a single immutable snapshot. Nothing is scheduled
+ * while there are no new events, so an idle bus doesn't do any work.
+ * 
+ * While any of the segment encoder processes are running, the bus also samples their
+ * resource usage on its delivery thread and includes it in the snapshots.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class ProgressEventBus {
+	
+	private static final long RESOURCE_SAMPLE_INTERVAL = 1000;
+	
+	private final ScheduledExecutorService deliveryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final Consumer<List<SegmentProgressView>> subscriber;
+	private final long updateIntervalMillis;
+	
+	private final long[] segmentFrameCounts;
+	private final long[] framesDone;
+	private final double[] fps;
+	private final State[] states;
+	
+	private final ProcessResourceSampler[] resourceSamplers;
+	private final ProcessResourceUsage[] resourceUsages;
+	private ScheduledFuture<?> samplingTask = null;
+	
+	private boolean deliveryScheduled = false;
+	private boolean closed = false;
+	private long lastDeliveryTime = 0;
+
+	/**
+	 * Create a new instance of the event bus.
+	 * 
+	 * @param segmentFrameCounts Frame count of each of the segments that will publish events
+	 * @param updateIntervalMillis Min time between two deliveries to the subscriber
+	 * @param subscriber Receives the progress snapshots (on the bus' delivery thread)
+	 */
+	ProgressEventBus(final long[] segmentFrameCounts, final long updateIntervalMillis,
+			final Consumer<List<SegmentProgressView>> subscriber) {
+		this.segmentFrameCounts = segmentFrameCounts;
+		this.updateIntervalMillis = updateIntervalMillis;
+		this.subscriber = subscriber;
+		
+		framesDone = new long[segmentFrameCounts.length];
+		fps = new double[segmentFrameCounts.length];
+		states = new State[segmentFrameCounts.length];
+		Arrays.fill(states, State.QUEUED);
+		
+		resourceSamplers = new ProcessResourceSampler[segmentFrameCounts.length];
+		resourceUsages = new ProcessResourceUsage[segmentFrameCounts.length];
+		Arrays.fill(resourceUsages, ProcessResourceUsage.UNKNOWN);
+	}
+	
+	synchronized void onSegmentStarted(final int segment) {
+		states[segment] = State.RUNNING;
+		scheduleDelivery();
+	}
+	
+	/**
+	 * Start sampling the resource usage of a segment's encoder process.
+	 * 
+	 * @param segment Segment index
+	 * @param pid Id of the segment's encoder process (-1 if unknown)
+	 */
+	synchronized void onProcessStarted(final int segment, final long pid) {
+		if(pid == -1 || closed || !ProcessResourceSampler.isAvailable()) {
+			return;
+		}
+		resourceSamplers[segment] = new ProcessResourceSampler(pid);
+		if(samplingTask == null) {
+			samplingTask = deliveryExecutor.scheduleWithFixedDelay(this::sampleResources, 0,
+					RESOURCE_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	synchronized void onSegmentPaused(final int segment) {
+		if(states[segment] == State.RUNNING) {
+			states[segment] = State.PAUSED;
+			fps[segment] = 0;
+			scheduleDelivery();
+		}
+	}
+	
+	synchronized void onSegmentResumed(final int segment) {
+		if(states[segment] == State.PAUSED) {
+			states[segment] = State.RUNNING;
+			scheduleDelivery();
+		}
+	}
+	
+	synchronized void onFramesAdvanced(final int segment, final long segmentFramesDone, final double segmentFps) {
+		framesDone[segment] = Math.min(segmentFramesDone, segmentFrameCounts[segment]);
+		fps[segment] = segmentFps;
+		scheduleDelivery();
+	}
+	
+	synchronized void onSegmentFinished(final int segment) {
+		states[segment] = State.FINISHED;
+		framesDone[segment] = segmentFrameCounts[segment];
+		fps[segment] = 0;
+		resourceSamplers[segment] = null;
+		scheduleDelivery();
+	}
+	
+	synchronized void onSegmentFailed(final int segment) {
+		states[segment] = State.FAILED;
+		fps[segment] = 0;
+		resourceSamplers[segment] = null;
+		scheduleDelivery();
+	}
+	
+	/**
+	 * Get the most recently sampled resource usage of a segment's encoder process.
+	 * 
+	 * @param segment Segment index
+	 * @return Resource usage or {@link ProcessResourceUsage#UNKNOWN} if it was never sampled
+	 */
+	synchronized ProcessResourceUsage getResourceUsage(final int segment) {
+		return resourceUsages[segment];
+	}
+	
+	/**
+	 * Take a consistent snapshot of the current progress of all segments.
+	 * 
+	 * @return Progress snapshot
+	 */
+	synchronized List<SegmentProgressView> getSnapshot() {
+		final List<SegmentProgressView> snapshot = new ArrayList<>(segmentFrameCounts.length);
+		for(int i = 0; i < segmentFrameCounts.length; ++i) {
+			snapshot.add(new SegmentProgressView(i, segmentFrameCounts[i], framesDone[i], fps[i], states[i],
+					resourceUsages[i]));
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Stop delivering the progress snapshots. Any pending delivery is discarded.
+	 */
+	void close() {
+		synchronized(this) {
+			closed = true;
+		}
+		deliveryExecutor.shutdownNow();
+	}
+	
+	private void scheduleDelivery() {
+		if(deliveryScheduled || closed) {
+			return;
+		}
+		deliveryScheduled = true;
+		final long delay = Math.max(0, lastDeliveryTime + updateIntervalMillis - System.currentTimeMillis());
+		deliveryExecutor.schedule(this::deliver, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	private void sampleResources() {
+		final ProcessResourceSampler[] samplers;
+		synchronized(this) {
+			samplers = resourceSamplers.clone();
+		}
+		
+		//Sample outside of the lock, so that the encoders never wait on the file system reads
+		final ProcessResourceUsage[] samples = new ProcessResourceUsage[samplers.length];
+		for(int i = 0; i < samplers.length; ++i) {
+			samples[i] = samplers[i] != null? samplers[i].sample() : null;
+		}
+		
+		synchronized(this) {
+			boolean sampling = false;
+			for(int i = 0; i < samples.length; ++i) {
+				if(samples[i] != null && samples[i].isKnown() && resourceSamplers[i] == samplers[i]) {
+					resourceUsages[i] = samples[i];
+					scheduleDelivery();
+				}
+				sampling |= resourceSamplers[i] != null;
+			}
+			if(!sampling && samplingTask != null) {
+				samplingTask.cancel(false);
+				samplingTask = null;
+			}
+		}
+	}
+	
+	private void deliver() {
+		final List<SegmentProgressView> snapshot;
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			deliveryScheduled = false;
+			lastDeliveryTime = System.currentTimeMillis();
+			snapshot = getSnapshot();
+		}
+		subscriber.accept(snapshot);
+	}
+}
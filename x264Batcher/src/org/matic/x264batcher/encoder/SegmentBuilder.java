@@ -24,24 +24,35 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
+import org.matic.x264batcher.encoder.X264StreamScanner.StreamCut;
+import org.matic.x264batcher.exception.EncoderException;
 import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
 import org.matic.x264batcher.gui.model.QueuedJob;
 import org.matic.x264batcher.model.AvsInputFile;
-import org.matic.x264batcher.model.AvsScriptCommand;
 import org.matic.x264batcher.model.AvsSegment;
 import org.matic.x264batcher.model.ClipDimension;
 import org.matic.x264batcher.model.EncoderParameters;
 import org.matic.x264batcher.model.MergedScript;
+import org.matic.x264batcher.parser.ParsedIndexedFile;
 
 /**
  * Builder of clip segments from the AVS scripts that are part of an encoding job.
  * The entire length (in frames) of the included AVS scripts is evenly divided into
  * segments of approximately same length (in frames). A segment can contain multiple
  * AVS scripts (or parts of these) if the segment length is greater than the length
- * of included clips. 
+ * of included clips. Whenever a clip's GOP positions are known, the segment boundaries
+ * are moved to the nearest GOP start, so that the decoder doesn't need to decode (and
+ * throw away) the frames preceding a segment's first frame. 
+ * <p>
+ * The remaining frames of a segment whose encoding was cut short can be encoded by
+ * continuation segments, each of which trims a part of the segment's AVS script.
+ * If a segment's script is unchanged since an earlier, interrupted, encoding of the
+ * same job, the segment resumes from the last complete GOP of that encoding's output.
  * 
  * @author Vedran Matic
  *
@@ -49,10 +60,22 @@ import org.matic.x264batcher.model.MergedScript;
 final class SegmentBuilder {
 	
 	private static final String SEGMENT_NAME_PREFIX = "_seg_";
+	private static final String CONTINUATION_NAME_PREFIX = "_cont_";
+	private static final String OUTPUT_OPTION = " --output ";
+	private static final String COMMAND_COMMENT_PREFIX = "# ";
+	
+	//Matches the segment and continuation scripts, and any file derived from them (such as the encoded,
+	//log, pre-flight and backup files), which all keep the segment's name
+	private static final Pattern INTERMEDIATE_FILE_NAME = Pattern.compile(".*" + SEGMENT_NAME_PREFIX
+			+ "\\d+(" + CONTINUATION_NAME_PREFIX + "\\d+_\\d+)?\\..+");
+	
+	//Max distance (in frames) that a segment boundary may be moved to align it with a GOP start
+	private static final long GOP_ALIGNMENT_TOLERANCE = 60;
 	
 	private final EncoderParameters encoderParameters;
 	private final QueuedJob queuedJob;
 	private final EncoderLogger logger;
+	private final int segmentCount;
 	
 	/**
 	 * Create a new instance of segment builder.
@@ -60,12 +83,14 @@ final class SegmentBuilder {
 	 * @param encoderParameters x264 command parameters used for this segment's encoding
 	 * @param queuedJob Encoding job to which this segment belongs to
 	 * @param logger Build progress is logged to this logger
+	 * @param segmentCount Number of segments to divide the clip into
 	 */
 	SegmentBuilder(final EncoderParameters encoderParameters,
-				   final QueuedJob queuedJob, final EncoderLogger logger) {
+				   final QueuedJob queuedJob, final EncoderLogger logger, final int segmentCount) {
 		this.encoderParameters = encoderParameters;
 		this.queuedJob = queuedJob;
 		this.logger = logger;
+		this.segmentCount = segmentCount;
 	}
 	
 	/**
@@ -85,11 +110,11 @@ final class SegmentBuilder {
 			final ClipDimension clipDimension) throws IOException {
 		
 		final List<AvsSegment> builtSegments = new ArrayList<>();
-		final long segmentLength = (long)Math.ceil(((double)totalFrames) / encoderParameters.getEncoderJobsLimit());
+		final long segmentLength = (long)Math.ceil(((double)totalFrames) / segmentCount);
+		final long gopAlignmentTolerance = Math.min(GOP_ALIGNMENT_TOLERANCE, segmentLength / 4);
 		final ScriptMerger scriptMerger = new ScriptMerger(clipDimension);
 		
 		int currentAvsFileIndex = 0;
-		long currentSegmentOffset = 0;
 		long currentAvsFileOffset = 0;
 		long currentFrame = 0;
 		 
@@ -97,7 +122,9 @@ final class SegmentBuilder {
 			final AvsInputFile currentInputAvsFile = inputFiles.get(currentAvsFileIndex);
 			final long loopAvsFileOffset = currentInputAvsFile.getClipStart() + currentAvsFileOffset;
 			final long clipLengthLeft = currentInputAvsFile.getClipEnd() - loopAvsFileOffset + 1;
-			final long segmentLengthLeft = segmentLength - currentSegmentOffset;
+			
+			//Measure the segment end from the job start, so that GOP alignment shifts don't add up
+			final long segmentLengthLeft = (builtSegments.size() + 1) * segmentLength - currentFrame;
 			
 			if((segmentLengthLeft >= clipLengthLeft) && 
 					(currentFrame + clipLengthLeft >= totalFrames)) {
@@ -113,28 +140,29 @@ final class SegmentBuilder {
 			
 			//Check if what's left of this AVS covers the rest of the segment
 			if(clipLengthLeft >= segmentLengthLeft) {
-				//It does, cut it so that it covers the segment precisely, and create the segment	
-				final long avsFrameEnd = loopAvsFileOffset + segmentLengthLeft - 1;
+				//It does, cut it so that it covers the segment (as close to a GOP start as possible), and create the segment	
+				final long avsFrameEnd = alignToGopStart(currentInputAvsFile, loopAvsFileOffset,
+						loopAvsFileOffset + segmentLengthLeft - 1, gopAlignmentTolerance);
+				final long segmentFrames = avsFrameEnd - loopAvsFileOffset + 1;
 				scriptMerger.addScript(currentInputAvsFile, loopAvsFileOffset, avsFrameEnd);
 				final MergedScript mergedScript = scriptMerger.merge();
 				final AvsSegment avsSegment = buildAvsSegment(builtSegments.size(), mergedScript);
 				builtSegments.add(avsSegment);
-				currentFrame += (avsFrameEnd - loopAvsFileOffset + 1);
+				currentFrame += segmentFrames;
 				
-				//If the segment length is equal to this AVS file length, move to next AVS file
-				if(segmentLengthLeft == clipLengthLeft) {
+				//If the segment covers the rest of this AVS file, move to next AVS file
+				if(avsFrameEnd == currentInputAvsFile.getClipEnd()) {
 					++currentAvsFileIndex;
+					currentAvsFileOffset = 0;
 				}
 				else {
-					currentAvsFileOffset += segmentLengthLeft;					
+					currentAvsFileOffset += segmentFrames;					
 				}
-				currentSegmentOffset = 0;
 			}
 			else {
 				//Too short clip, get more frames from the next AVS file. Modify input AVS
 				scriptMerger.addScript(currentInputAvsFile, loopAvsFileOffset,
 						currentInputAvsFile.getClipEnd());
-				currentSegmentOffset += clipLengthLeft;
 				currentFrame += clipLengthLeft;
 				currentAvsFileOffset = 0;
 				++currentAvsFileIndex;
@@ -144,6 +172,25 @@ final class SegmentBuilder {
 		return builtSegments;
 	}
 	
+	private long alignToGopStart(final AvsInputFile inputFile, final long segmentStart,
+			final long segmentEnd, final long tolerance) {
+		final ParsedIndexedFile indexedFile = inputFile.getIndexedFile();
+		if(indexedFile == null || indexedFile.getGopIndex().isEmpty()) {
+			return segmentEnd;
+		}
+		final long nextSegmentStart = indexedFile.getGopIndex().findNearestGopStart(segmentEnd + 1, tolerance);
+		
+		//The aligned segment must neither be empty nor extend past this AVS file
+		if(nextSegmentStart <= segmentStart || nextSegmentStart > inputFile.getClipEnd() + 1) {
+			return segmentEnd;
+		}
+		if(nextSegmentStart != segmentEnd + 1) {
+			logger.log(Severity.INFO, "Segment boundary aligned to GOP start: frame " + (segmentEnd + 1)
+					+ " -> " + nextSegmentStart + " in AVS = [ " + inputFile.getName() + " ]");
+		}
+		return nextSegmentStart - 1;
+	}
+	
 	private AvsSegment buildAvsSegment(final long segmentId, final MergedScript mergedScript) throws IOException {
 		final String jobName = queuedJob.getName();
 		final Path workDir = Paths.get(queuedJob.getOutputPath());
@@ -155,10 +202,6 @@ final class SegmentBuilder {
 		avsSegmentName.append(".avs");
 
 		final Path avsSegmentPath = Paths.get(workDir.toString(), avsSegmentName.toString());
-		avsSegmentPath.toFile().createNewFile();
-		
-		Files.write(avsSegmentPath, mergedScript.getCommands().stream().map(
-				AvsScriptCommand::getCommand).collect(Collectors.toList()));
 				
 		final StringBuilder x264SegmentName = new StringBuilder();
 		x264SegmentName.append(jobName);
@@ -174,11 +217,140 @@ final class SegmentBuilder {
 			.append(queuedJob.getEncoderPreset().getCommand())			
 			.append(" --stitchable --sar ")
 			.append(queuedJob.getOutputSar())
-			.append(" --output ")
+			.append(OUTPUT_OPTION)
 			.append(x264SegmentPath)
 			.append(" ")
 			.append(avsSegmentPath.toString());		
 		
-		return new AvsSegment(command.toString(), avsSegmentPath, x264SegmentPath, mergedScript.getEncodedFrameCount());
+		//The command is kept in the script as well, so that a script is only unchanged if its encoding is too
+		final List<String> scriptLines = new ArrayList<>(mergedScript.getLines().size() + 1);
+		scriptLines.add(COMMAND_COMMENT_PREFIX + command);
+		scriptLines.addAll(mergedScript.getLines());
+		
+		final boolean scriptUnchanged = isScriptUnchanged(avsSegmentPath, scriptLines);
+		if(!scriptUnchanged) {
+			avsSegmentPath.toFile().createNewFile();
+			Files.write(avsSegmentPath, scriptLines);
+		}
+		
+		final AvsSegment avsSegment = new AvsSegment(command.toString(), avsSegmentPath, x264SegmentPath,
+				mergedScript.getEncodedFrameCount());
+		if(scriptUnchanged && Files.isRegularFile(x264SegmentPath)) {
+			resumeSegment(segmentId, avsSegment);
+		}
+		return avsSegment;
+	}
+	
+	/**
+	 * Keep the output that an interrupted encoding of a segment has left behind, up to its last
+	 * complete GOP, and continue the encoding from the first frame that wasn't kept. If the output
+	 * already contains all of the segment's frames, it is kept as it is and nothing is encoded.
+	 * 
+	 * @param segmentId Segment index
+	 * @param avsSegment Segment whose encoding was interrupted
+	 */
+	private void resumeSegment(final long segmentId, final AvsSegment avsSegment) {
+		try {
+			final StreamCut streamCut = X264StreamScanner.findLastGopStart(avsSegment.getX264FilePath());
+			if(streamCut.getPictureCount() == avsSegment.getFrameCount()) {
+				avsSegment.setEncoded();
+				logger.log(Severity.INFO, "Segment " + segmentId + " was already encoded, the output of an interrupted"
+						+ " encoding was kept: Job = " + queuedJob.getName());
+				return;
+			}
+			if(streamCut.getFrameCount() == 0 || streamCut.getFrameCount() >= avsSegment.getFrameCount()) {
+				return;
+			}
+			final List<AvsSegment> continuations = buildContinuations(avsSegment, streamCut.getFrameCount(), 1);
+			X264StreamScanner.cut(avsSegment.getX264FilePath(), streamCut);
+			avsSegment.setContinuations(streamCut.getFrameCount(), continuations);
+			
+			logger.log(Severity.INFO, "Segment " + segmentId + " resumes from frame " + streamCut.getFrameCount()
+					+ " of " + avsSegment.getFrameCount() + ", the output of an interrupted encoding was kept: Job = "
+					+ queuedJob.getName());
+		} catch(final IOException | EncoderException e) {
+			logger.log(Severity.WARN, "Segment " + segmentId + " will be encoded from the start, the output of an "
+					+ "interrupted encoding can't be resumed: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Check whether a file is one of the intermediate files that are created while a job is encoded.
+	 * 
+	 * @param path Path to the file
+	 * @return True if the file is named as a segment's file, false otherwise
+	 */
+	static boolean isIntermediateFile(final Path path) {
+		return INTERMEDIATE_FILE_NAME.matcher(path.getFileName().toString()).matches();
+	}
+	
+	private static boolean isScriptUnchanged(final Path avsSegmentPath, final List<String> scriptLines) {
+		if(!Files.isRegularFile(avsSegmentPath)) {
+			return false;
+		}
+		try {
+			return Files.readAllLines(avsSegmentPath).equals(scriptLines);
+		} catch(final IOException ioe) {
+			//Not readable as a script written by us, so it will simply be overwritten
+			return false;
+		}
+	}
+	
+	/**
+	 * Build the segments that continue the encoding of a segment from one of its frames on.
+	 * The remaining frames are evenly divided into parts, each of which is encoded by a
+	 * continuation segment that imports the segment's AVS script and trims its part out of it.
+	 * 
+	 * @param segment Segment to continue
+	 * @param frameStart First frame of the segment that is yet to be encoded
+	 * @param partCount Number of the parts to divide the remaining frames into
+	 * @return Built continuation segments, in the order of their frames
+	 * @throws IOException If any error occurs while the segments are written to the disk
+	 * @throws EncoderException If the segment's command has no output option
+	 */
+	static List<AvsSegment> buildContinuations(final AvsSegment segment, final long frameStart,
+			final int partCount) throws IOException, EncoderException {
+		final long framesLeft = segment.getFrameCount() - frameStart;
+		final long partLength = (long)Math.ceil(((double)framesLeft) / Math.max(1, partCount));
+		
+		final String segmentName = segment.getAvsFilePath().getFileName().toString().replaceFirst("\\.avs$", "");
+		
+		final List<AvsSegment> continuations = new ArrayList<>();
+		for(long partStart = frameStart; partStart < segment.getFrameCount(); partStart += partLength) {
+			final long partEnd = Math.min(partStart + partLength, segment.getFrameCount()) - 1;
+			final String partName = segmentName + CONTINUATION_NAME_PREFIX + frameStart + "_" + continuations.size();
+			
+			final Path avsPartPath = segment.getAvsFilePath().resolveSibling(partName + ".avs");
+			Files.write(avsPartPath, Arrays.asList("Import(\"" + segment.getAvsFilePath() + "\")",
+					"Trim(" + partStart + ", " + partEnd + ")"));
+			
+			final Path x264PartPath = segment.getX264FilePath().resolveSibling(partName + ".264");
+			continuations.add(new AvsSegment(buildEncoderCommand(segment, "", x264PartPath, avsPartPath),
+					avsPartPath, x264PartPath, partEnd - partStart + 1));
+		}
+		return continuations;
+	}
+	
+	/**
+	 * Build a command that encodes a script with a segment's encoder options, but into another output file,
+	 * as is needed by the segment's continuations and backups. The segment's output option and everything
+	 * after it (the segment's script) are replaced.
+	 * 
+	 * @param segment Segment whose encoder options to use
+	 * @param extraOptions Encoder options to add to the segment's ones, or an empty string
+	 * @param outputPath Path to the output file
+	 * @param avsPath Path to the script to encode
+	 * @return Built encoder command
+	 * @throws EncoderException If the segment's command has no output option
+	 */
+	static String buildEncoderCommand(final AvsSegment segment, final String extraOptions, final Path outputPath,
+			final Path avsPath) throws EncoderException {
+		final String command = segment.getCommand();
+		final int outputOptionIndex = command.lastIndexOf(OUTPUT_OPTION);
+		if(outputOptionIndex == -1) {
+			throw new EncoderException("No output option in the command of segment " + segment.getAvsFilePath()
+					+ ": " + command);
+		}
+		return command.substring(0, outputOptionIndex) + extraOptions + OUTPUT_OPTION + outputPath + " " + avsPath;
 	}
 }
\ No newline at end of file
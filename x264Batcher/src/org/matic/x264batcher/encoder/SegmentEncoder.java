@@ -22,52 +22,149 @@ package org.matic.x264batcher.encoder;
 import org.matic.x264batcher.gui.log.EncoderLogger;
 import org.matic.x264batcher.gui.log.LogEntry.Severity;
 import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.model.ProcessResourceUsage;
 import org.matic.x264batcher.model.SegmentEncoderResult;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 /**
  * An instance of x264.exe process that is encoding a portion (segment) of an input AVS script.
+ * The process output is either read through a pipe, or written to a log file that is followed
+ * by a {@link SegmentLogTailer}, in which case the full output is kept for later inspection.
+ * The process is only started once the job's {@link SlotGate} lets it through, and it can
+ * be suspended, resumed and reniced while it is running.
  * 
  * @author Vedran Matic
  *
  */
-final class SegmentEncoder implements Callable<SegmentEncoderResult> {
+final class SegmentEncoder implements Callable<SegmentEncoderResult>, SlotHolder {
 	
+	private static final int FAILURE_LOG_LINE_COUNT = 10;
+	
+	private final X264ProgressParser progressParser = new X264ProgressParser();
+	private final ProgressEventBus progressBus;
+	private final SegmentLogTailer logTailer;
+	private final SlotGate slotGate;
 	private final String jobCommand;
 	private final EncoderLogger logger;
-
-	private volatile String jobOutput = "";
-	private volatile long framesDone = 0;
+	private final Path logFilePath;
+	private final int segmentIndex;
+	
+	//Guarded by this encoder's lock
+	private Process process = null;
+	private long pid = -1;
+	private boolean suspended = false;
+	private boolean killed = false;
+	private long startTime = 0;
 	
 	/**
 	 * Create a new instance of the encoder.
 	 * 
+	 * @param segmentIndex Index of the encoded segment within its job
 	 * @param jobCommand The x264.exe command to execute
 	 * @param logger Output progress info to this logger
+	 * @param progressBus Bus to which the encoding progress events are published
+	 * @param logFilePath File to write the process output to, or null to read the output through a pipe
+	 * @param logTailer Tailer that follows the log file (only needed if the log file is set)
+	 * @param slotGate Gate that holds back the process start, and suspends the process, when there is no free slot
 	 */
-	SegmentEncoder(final String jobCommand, final EncoderLogger logger) {
+	SegmentEncoder(final int segmentIndex, final String jobCommand, final EncoderLogger logger,
+			final ProgressEventBus progressBus, final Path logFilePath, final SegmentLogTailer logTailer,
+			final SlotGate slotGate) {
+		this.segmentIndex = segmentIndex;
 		this.jobCommand = jobCommand;
 		this.logger = logger;
+		this.progressBus = progressBus;
+		this.logFilePath = logFilePath;
+		this.logTailer = logTailer;
+		this.slotGate = slotGate;
 	}
 	
-	void setFramesDone(final long framesDone) {
-		this.framesDone = framesDone;
+	public String getCommand() {
+		return jobCommand;
 	}
 	
-	long getFramesDone() {
-		return framesDone;
+	int getSegmentIndex() {
+		return segmentIndex;
 	}
 	
-	public String getCommand() {
-		return jobCommand;
+	/**
+	 * Get the time at which the encoder process was started.
+	 * 
+	 * @return Start time in millis, or 0 if the process hasn't been started yet
+	 */
+	synchronized long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * Stop the encoder for good, for example because another encoder of the same segment has
+	 * completed first. A killed encoder doesn't publish its failure to the progress bus.
+	 */
+	void kill() {
+		final Process runningProcess;
+		synchronized(this) {
+			killed = true;
+			runningProcess = process;
+		}
+		if(runningProcess != null) {
+			try {
+				runningProcess.destroyForcibly().waitFor();
+			} catch(final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Suspend the running encoder process, if any. Nothing is lost, the process
+	 * simply continues where it was stopped once it is resumed.
+	 * 
+	 * @return Whether the process is suspended
+	 */
+	@Override
+	public synchronized boolean suspend() {
+		if(suspended) {
+			return true;
+		}
+		if(process == null || !process.isAlive()) {
+			return false;
+		}
+		if(ProcessSignals.suspend(pid)) {
+			suspended = true;
+			progressBus.onSegmentPaused(segmentIndex);
+		}
+		return suspended;
 	}
 	
-	String getOutput() {
-		return jobOutput;
+	/**
+	 * Resume the previously suspended encoder process.
+	 */
+	@Override
+	public synchronized void resume() {
+		if(!suspended) {
+			return;
+		}
+		suspended = false;
+		ProcessSignals.resume(pid);
+		progressBus.onSegmentResumed(segmentIndex);
+	}
+	
+	/**
+	 * Change the scheduling priority of the running encoder process, if any.
+	 * 
+	 * @param niceness New niceness, from 0 (normal) to 19 (lowest)
+	 */
+	@Override
+	public synchronized void renice(final int niceness) {
+		if(process != null && process.isAlive() && !ProcessSignals.renice(pid, niceness)) {
+			logger.log(Severity.WARN, "Failed to change the priority of segment " + segmentIndex + " to " + niceness);
+		}
 	}
 
 	@Override
@@ -78,38 +175,131 @@ final class SegmentEncoder implements Callable<SegmentEncoderResult> {
 		final String[] commandTokens = jobCommand.trim().split(" ");
 		final ProcessBuilder builder = new ProcessBuilder(commandTokens);	
 		builder.redirectErrorStream(true);
+		if(logFilePath != null) {
+			builder.redirectOutput(logFilePath.toFile());
+		}
 		
+		try {
+			slotGate.acquire(this);
+		} catch(final InterruptedException ie) {
+			publishFailure();
+			return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
+					new EncoderException("Segment encoder was interrupted: command = " + jobCommand));
+		}
+		try {
+			return encode(builder);
+		} finally {
+			slotGate.release(this);
+		}
+	}
+	
+	private SegmentEncoderResult encode(final ProcessBuilder builder) {
 		final Process process;
 		try {
 			process = builder.start();
 		} catch (final IOException ioe) {
+			publishFailure();
 			return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
 					new EncoderException("Segment command creation failure: " + ioe.getMessage()));
 		}
 		
-		final BufferedReader is = new BufferedReader(new InputStreamReader(process.getInputStream()));		
-		String line;
+		final long processId = ProcessResourceSampler.getPid(process);
+		progressBus.onSegmentStarted(segmentIndex);
+		progressBus.onProcessStarted(segmentIndex, processId);
+		
+		synchronized(this) {
+			this.process = process;
+			this.pid = processId;
+			this.startTime = System.currentTimeMillis();
+			if(killed) {
+				process.destroyForcibly();
+			}
+		}
+		slotGate.onProcessStarted(this);
 		
 		try {
-			while(!Thread.currentThread().isInterrupted() && ((line = is.readLine()) != null)) {
-				jobOutput = line;
+			if(logFilePath != null) {
+				logTailer.follow(segmentIndex, logFilePath);
+			}
+			else {
+				readOutput(process);
 			}
 			if(Thread.currentThread().isInterrupted()) {
-				Thread.interrupted();
-				process.destroyForcibly().waitFor();
-				return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
-						new EncoderException("Segment encoder was interrupted: command = " + jobCommand));
+				throw new InterruptedException();
 			}
 			final int exitCode = process.waitFor();
 			if(exitCode != 0) {
+				if(isKilled()) {
+					return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
+							new EncoderException("Segment encoder was killed: command = " + jobCommand));
+				}
+				progressBus.onSegmentFailed(segmentIndex);
+				logResourceUsage("Segment encoding failed");
+				logFailureOutput();
 				return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
 						new EncoderException("Encoder completed with an error = " + exitCode));
 			}
-			
-		} catch(final InterruptedException | IOException e) {			
-			e.printStackTrace();
+		} catch(final InterruptedException ie) {
+			Thread.interrupted();
+			try {
+				process.destroyForcibly().waitFor();
+			} catch(final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			publishFailure();
+			return new SegmentEncoderResult(SegmentEncoderResult.FAILED,
+					new EncoderException("Segment encoder was interrupted: command = " + jobCommand));
+		} catch(final IOException ioe) {			
+			ioe.printStackTrace();
+		} finally {
+			if(logFilePath != null) {
+				logTailer.unfollow(segmentIndex);
+			}
 		}
 		
+		progressBus.onSegmentFinished(segmentIndex);
+		logResourceUsage("Segment encoded");
 		return new SegmentEncoderResult(SegmentEncoderResult.SUCCESS, null);
 	}
-}
\ No newline at end of file
+	
+	private synchronized boolean isKilled() {
+		return killed;
+	}
+	
+	private synchronized void publishFailure() {
+		if(!killed) {
+			progressBus.onSegmentFailed(segmentIndex);
+		}
+	}
+	
+	private void readOutput(final Process process) throws IOException {
+		final BufferedReader is = new BufferedReader(new InputStreamReader(process.getInputStream()));		
+		String line;
+		while(!Thread.currentThread().isInterrupted() && ((line = is.readLine()) != null)) {
+			if(progressParser.parse(line)) {
+				progressBus.onFramesAdvanced(segmentIndex, progressParser.getFramesDone(), progressParser.getFps());
+			}
+		}
+	}
+	
+	private void logResourceUsage(final String message) {
+		final ProcessResourceUsage resourceUsage = progressBus.getResourceUsage(segmentIndex);
+		if(resourceUsage.isKnown()) {
+			logger.log(Severity.INFO, message + ": segment = " + segmentIndex + ", [ " + resourceUsage + " ]");
+		}
+	}
+	
+	private void logFailureOutput() {
+		if(logFilePath == null) {
+			return;
+		}
+		try {
+			final List<String> lastLines = SegmentLogTailer.readLastLines(logFilePath, FAILURE_LOG_LINE_COUNT);
+			logger.log(Severity.ERROR, "Segment " + segmentIndex + " failed, full output is in [ " + logFilePath
+					+ " ], last lines:\n" + String.join("\n", lastLines));
+		} catch(final IOException ioe) {
+			logger.log(Severity.ERROR, "Segment " + segmentIndex + " failed, output couldn't be read from [ "
+					+ logFilePath + " ]: " + ioe.getMessage());
+		}
+	}
+}
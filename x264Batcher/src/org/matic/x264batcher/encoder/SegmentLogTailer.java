@@ -0,0 +1,193 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
+
+/**
+ * A single thread that follows the log files to which the segment encoder processes write
+ * their output. Instead of reading all of the output, only the trailing bytes of each file
+ * are read, and only if the file has grown since it was last checked, which is enough
+ * to find the most recent progress line. The thread is only polling while there are
+ * files to follow.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class SegmentLogTailer {
+	
+	private static final long POLL_INTERVAL = 500;
+	private static final int TAIL_SIZE = 1024;
+	
+	private final ScheduledExecutorService tailerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final Map<Integer, TailedFile> tailedFiles = new ConcurrentHashMap<>();
+	private final ProgressEventBus progressBus;
+	private final EncoderLogger logger;
+	
+	private ScheduledFuture<?> pollingTask = null;
+	
+	/**
+	 * Create a new instance of the tailer.
+	 * 
+	 * @param progressBus Bus to which the progress read from the files is published
+	 * @param logger Logger to which the failures to read the files are reported
+	 */
+	SegmentLogTailer(final ProgressEventBus progressBus, final EncoderLogger logger) {
+		this.progressBus = progressBus;
+		this.logger = logger;
+	}
+	
+	/**
+	 * Start following a segment's log file.
+	 * 
+	 * @param segment Segment index
+	 * @param logFilePath The log file to which the segment's encoder process writes its output
+	 */
+	synchronized void follow(final int segment, final Path logFilePath) {
+		tailedFiles.put(segment, new TailedFile(logFilePath));
+		if(pollingTask == null) {
+			pollingTask = tailerExecutor.scheduleWithFixedDelay(this::poll, POLL_INTERVAL,
+					POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Stop following a segment's log file, after publishing the progress it contains for the last time.
+	 * 
+	 * @param segment Segment index
+	 */
+	synchronized void unfollow(final int segment) {
+		final TailedFile tailedFile = tailedFiles.remove(segment);
+		if(tailedFile != null) {
+			tailedFile.publishProgress(segment);
+		}
+		if(tailedFiles.isEmpty() && pollingTask != null) {
+			pollingTask.cancel(false);
+			pollingTask = null;
+		}
+	}
+	
+	void close() {
+		tailerExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Read the last lines of a log file.
+	 * 
+	 * @param logFilePath Target log file
+	 * @param maxLineCount Max number of lines to read
+	 * @return The last lines, in the order they appear in the file
+	 * @throws IOException If the file can't be read
+	 */
+	static List<String> readLastLines(final Path logFilePath, final int maxLineCount) throws IOException {
+		final String[] lines = readTail(logFilePath, maxLineCount * 256).split("[\r\n]+");
+		final List<String> lastLines = new ArrayList<>(maxLineCount);
+		for(int i = Math.max(0, lines.length - maxLineCount); i < lines.length; ++i) {
+			if(!lines[i].trim().isEmpty()) {
+				lastLines.add(lines[i]);
+			}
+		}
+		return lastLines;
+	}
+	
+	private void poll() {
+		tailedFiles.forEach((segment, tailedFile) -> tailedFile.publishProgress(segment));
+	}
+	
+	private static String readTail(final Path logFilePath, final int tailSize) throws IOException {
+		try(final FileChannel channel = FileChannel.open(logFilePath, StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			final ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(tailSize, fileSize));
+			long position = fileSize - buffer.capacity();
+			while(buffer.hasRemaining()) {
+				final int read = channel.read(buffer, position);
+				if(read == -1) {
+					break;
+				}
+				position += read;
+			}
+			buffer.flip();
+			return StandardCharsets.UTF_8.decode(buffer).toString();
+		}
+	}
+	
+	private final class TailedFile {
+		private final X264ProgressParser progressParser = new X264ProgressParser();
+		private final Path logFilePath;
+		
+		private long lastFileSize = 0;
+		private boolean failureReported = false;
+		
+		TailedFile(final Path logFilePath) {
+			this.logFilePath = logFilePath;
+		}
+		
+		//Called either on the tailer thread or, for the final time, by the segment encoder
+		synchronized void publishProgress(final int segment) {
+			try {
+				final long fileSize = logFilePath.toFile().length();
+				if(fileSize == lastFileSize) {
+					return;
+				}
+				lastFileSize = fileSize;
+				
+				//x264 ends its progress lines with a carriage return, so look for both line endings
+				final String[] lines = readTail(logFilePath, TAIL_SIZE).split("[\r\n]+");
+				for(int i = lines.length - 1; i >= 0; --i) {
+					if(progressParser.parse(lines[i].trim())) {
+						progressBus.onFramesAdvanced(segment, progressParser.getFramesDone(), progressParser.getFps());
+						return;
+					}
+				}
+			} catch(final NoSuchFileException nsfe) {
+				//The process hasn't created the file yet
+			} catch(final IOException ioe) {
+				//The file is polled twice a second, report the failure only once
+				if(!failureReported) {
+					failureReported = true;
+					logger.log(Severity.ERROR, "Failed to read the log file of segment " + segment + ": "
+							+ logFilePath + ", due to = [ " + ioe.getMessage() + " ]");
+				}
+			}
+		}
+	}
+}
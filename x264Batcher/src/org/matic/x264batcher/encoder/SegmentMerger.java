@@ -109,14 +109,18 @@ final class SegmentMerger implements Runnable {
 			System.out.println("SegmentMerger: process has completed");
 			//Delete temporary files if needed 
 			if(jobParameters.isDeleteTemporaryFiles()) {
-				segments.forEach(p -> {
-					p.getAvsFilePath().toFile().delete();
-					p.getX264FilePath().toFile().delete();
-				});
+				segments.forEach(this::deleteTemporaryFiles);
 			}
 		}
 	}	
 	
+	private void deleteTemporaryFiles(final AvsSegment segment) {
+		segment.getAvsFilePath().toFile().delete();
+		segment.getX264FilePath().toFile().delete();
+		segment.getLogFilePath().toFile().delete();
+		segment.getContinuations().forEach(this::deleteTemporaryFiles);
+	}
+	
 	private String buildSegmentMergeCommand() {		
 		final Path mergedFilePath = Paths.get(jobParameters.getJobOutputPath(),
 					jobParameters.getName() + ".mkv");
@@ -125,7 +129,7 @@ final class SegmentMerger implements Runnable {
 			.append(" -o ")
 			.append(mergedFilePath.toString())
 			.append(" ")
-			.append(segments.stream().map(p -> p.getX264FilePath().toString())
+			.append(segments.stream().flatMap(p -> p.getEncodedFilePaths().stream()).map(Path::toString)
 				.collect(Collectors.joining(" + ")));
 		
 		return command.toString();
@@ -0,0 +1,131 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.matic.x264batcher.model.QueuePolicy;
+
+/**
+ * Makes the scheduling decisions of the encoder: which of the queued jobs to encode next,
+ * how many segments to split a job into and in which order to start the segments in the
+ * available encoder slots. The scheduler only decides, it neither keeps any state nor runs
+ * anything, so the same decisions can be replayed in a simulation of the encoder.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class SegmentScheduler {
+	
+	/**
+	 * An order in which a job's segments are started.
+	 */
+	public enum SegmentOrder {
+		//In the order they appear in the clip
+		IN_ORDER,
+		//The longest segments first, so that the short ones fill the gaps at the end
+		LONGEST_FIRST
+	}
+	
+	private final int slotCount;
+	private final int segmentsPerSlot;
+	private final QueuePolicy queuePolicy;
+	private final SegmentOrder segmentOrder;
+	
+	/**
+	 * Create a new scheduler.
+	 * 
+	 * @param slotCount Number of segments that can be encoded at the same time
+	 * @param segmentsPerSlot Number of segments to split a job into, per slot
+	 * @param queuePolicy Order in which to encode the queued jobs
+	 * @param segmentOrder Order in which to start a job's segments
+	 */
+	public SegmentScheduler(final int slotCount, final int segmentsPerSlot,
+			final QueuePolicy queuePolicy, final SegmentOrder segmentOrder) {
+		this.slotCount = Math.max(1, slotCount);
+		this.segmentsPerSlot = Math.max(1, segmentsPerSlot);
+		this.queuePolicy = queuePolicy;
+		this.segmentOrder = segmentOrder;
+	}
+	
+	/**
+	 * Get the number of slots to use when the configured limit is 0 (Auto).
+	 * 
+	 * @param encoderJobsLimit Configured limit of parallel encodings
+	 * @return The configured limit, or the number of available processors if set to Auto 
+	 */
+	public static int resolveSlotCount(final int encoderJobsLimit) {
+		return encoderJobsLimit > 0? encoderJobsLimit : Runtime.getRuntime().availableProcessors();
+	}
+	
+	public int getSlotCount() {
+		return slotCount;
+	}
+	
+	public int getSegmentCount() {
+		return slotCount * segmentsPerSlot;
+	}
+	
+	/**
+	 * Select the job to encode next.
+	 * 
+	 * @param queuedJobFrameCounts Frame counts of the queued jobs, in queue order
+	 * @return Index of the job to encode next, or -1 if there are no queued jobs
+	 */
+	public int selectNextJob(final List<Long> queuedJobFrameCounts) {
+		if(queuedJobFrameCounts.isEmpty()) {
+			return -1;
+		}
+		final IntStream jobIndexes = IntStream.range(0, queuedJobFrameCounts.size());
+		switch(queuePolicy) {
+		case SHORTEST_JOB_FIRST:
+			//On equal frame counts, the job that was queued first wins
+			return jobIndexes.boxed().min(Comparator.comparing(queuedJobFrameCounts::get)).get();
+		case LONGEST_JOB_FIRST:
+			return jobIndexes.boxed().min(Comparator.comparing(
+					(final Integer i) -> queuedJobFrameCounts.get(i)).reversed()).get();
+		default:
+			return 0;
+		}
+	}
+	
+	/**
+	 * Order the segments of a job in the order they should be started in.
+	 * 
+	 * @param segmentFrameCounts Frame count of each of the segments
+	 * @return Segment indexes, in the order the segments should be started in
+	 */
+	public int[] orderSegments(final long[] segmentFrameCounts) {
+		final IntStream segmentIndexes = IntStream.range(0, segmentFrameCounts.length);
+		if(segmentOrder == SegmentOrder.LONGEST_FIRST) {
+			return segmentIndexes.boxed().sorted(Comparator.comparing(
+					(final Integer i) -> segmentFrameCounts[i]).reversed()).mapToInt(Integer::intValue).toArray();
+		}
+		return segmentIndexes.toArray();
+	}
+	
+	@Override
+	public String toString() {
+		return "SegmentScheduler [slotCount=" + slotCount + ", segmentsPerSlot=" + segmentsPerSlot
+				+ ", queuePolicy=" + queuePolicy + ", segmentOrder=" + segmentOrder + "]";
+	}
+}
@@ -0,0 +1,295 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
+import org.matic.x264batcher.model.AvsSegment;
+
+/**
+ * A pre-flight check of a job's segments. Before any of the segments is encoded, each of them
+ * is encoded for a single frame only. A script error (such as a missing plugin or a bad filter
+ * parameter) makes x264.exe fail right away, so a broken job fails within seconds, instead of
+ * after its healthy segments have been encoding for hours. The checks pass through the job's
+ * {@link SlotGate}, just like the segment encoders, so they obey the job's slot limit, niceness
+ * and pausing.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class SegmentValidator {
+	
+	private static final int PREFLIGHT_FRAME_COUNT = 1;
+	private static final String PREFLIGHT_FILE_PREFIX = "preflight_";
+	
+	//A script that runs longer than this (in seconds) to deliver its first frame is slow, not broken
+	private static final long PREFLIGHT_TIMEOUT = 300;
+	private static final long PREFLIGHT_POLL_INTERVAL = 1000;
+	
+	//AviSynth reports the location of a script error as "(path, line N)"
+	private static final Pattern SCRIPT_LOCATION_PATTERN = Pattern.compile("\\(([^()]+\\.avsi?), line (\\d+)\\)");
+	private static final String ERROR_TAG = "[error]";
+	
+	private final EncoderLogger logger;
+	private final SlotGate slotGate;
+	private final int parallelism;
+	
+	/**
+	 * Create a new instance of the validator.
+	 * 
+	 * @param logger Logger to which the check results are written
+	 * @param slotGate Gate of the job, which decides how many of the checks may run at the same time
+	 * @param parallelism Max number of the checks to run at the same time, whatever the gate's current limit
+	 */
+	SegmentValidator(final EncoderLogger logger, final SlotGate slotGate, final int parallelism) {
+		this.logger = logger;
+		this.slotGate = slotGate;
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	/**
+	 * Check all of the segments, and fail as soon as any of them fails. A segment that
+	 * continues an earlier encoding is checked through its continuations.
+	 * 
+	 * @param segments Segments to check
+	 * @throws EncoderException If any of the segments failed the check, or the check was interrupted
+	 */
+	void validate(final List<AvsSegment> segments) throws EncoderException {
+		final ExecutorService checkExecutor = Executors.newFixedThreadPool(parallelism, r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		final CompletionService<String> completionService = new ExecutorCompletionService<>(checkExecutor);
+		
+		int checksLeft = 0;
+		for(int i = 0; i < segments.size(); ++i) {
+			final AvsSegment segment = segments.get(i);
+			if(segment.isEncoded()) {
+				continue;
+			}
+			final List<AvsSegment> checkedSegments = segment.getContinuations().isEmpty()?
+					Collections.singletonList(segment) : segment.getContinuations();
+			final int segmentIndex = i;
+			for(final AvsSegment checkedSegment : checkedSegments) {
+				completionService.submit(() -> check(segmentIndex, checkedSegment));
+				++checksLeft;
+			}
+		}
+		
+		try {
+			for(; checksLeft > 0; --checksLeft) {
+				final String failure = completionService.take().get();
+				if(failure != null) {
+					throw new EncoderException(failure);
+				}
+			}
+		} catch(final InterruptedException ie) {
+			throw new EncoderException("Pre-flight check was interrupted: " + ie.getMessage());
+		} catch(final ExecutionException ee) {
+			throw new EncoderException("Pre-flight check couldn't be run: " + ee.getCause().getMessage());
+		} finally {
+			checkExecutor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Encode the first frame of a segment, once the job's gate lets the check through. Only the
+	 * time during which the check's process is actually running counts against the timeout.
+	 * 
+	 * @param segmentIndex Index of the checked segment
+	 * @param segment Segment (or a continuation of it) to check
+	 * @return Description of the failure, or null if the segment passed the check
+	 * @throws IOException If the encoder can't be started
+	 * @throws InterruptedException If interrupted while waiting for a slot or on the encoder
+	 * @throws EncoderException If the segment's command has no output option to redirect
+	 */
+	private String check(final int segmentIndex, final AvsSegment segment) throws IOException, InterruptedException,
+			EncoderException {
+		final Path x264FilePath = segment.getX264FilePath();
+		final Path outputPath = x264FilePath.resolveSibling(PREFLIGHT_FILE_PREFIX + x264FilePath.getFileName());
+		final Path logPath = outputPath.resolveSibling(outputPath.getFileName() + ".log");
+		final String command = SegmentBuilder.buildEncoderCommand(segment, " --frames " + PREFLIGHT_FRAME_COUNT,
+				outputPath, segment.getAvsFilePath());
+		
+		final ProcessBuilder builder = new ProcessBuilder(command.trim().split(" "));
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(logPath.toFile());
+		
+		final PreflightCheck preflightCheck = new PreflightCheck(segmentIndex);
+		slotGate.acquire(preflightCheck);
+		try {
+			final Process process = builder.start();
+			preflightCheck.onProcessStarted(process);
+			slotGate.onProcessStarted(preflightCheck);
+			try {
+				if(!preflightCheck.awaitCompletion(TimeUnit.SECONDS.toMillis(PREFLIGHT_TIMEOUT))) {
+					logger.log(Severity.WARN, "Pre-flight check of segment " + segmentIndex + " timed out after "
+							+ PREFLIGHT_TIMEOUT + " seconds, the segment is assumed to be valid");
+					return null;
+				}
+				if(process.exitValue() == 0) {
+					return null;
+				}
+				final String failure = describeFailure(Files.readAllLines(logPath, StandardCharsets.ISO_8859_1));
+				logger.log(Severity.ERROR, "Segment " + segmentIndex + " failed the pre-flight check, command = [ "
+						+ segment.getCommand() + " ]: " + failure);
+				return "Segment " + segmentIndex + " failed the pre-flight check: " + failure;
+			} finally {
+				if(process.isAlive()) {
+					process.destroyForcibly().waitFor();
+				}
+				Files.deleteIfExists(outputPath);
+				Files.deleteIfExists(logPath);
+			}
+		} finally {
+			slotGate.release(preflightCheck);
+		}
+	}
+	
+	/**
+	 * Find the encoder's error message in its output, as well as the script line that caused it.
+	 * 
+	 * @param outputLines Encoder output
+	 * @return Description of the failure
+	 */
+	private static String describeFailure(final List<String> outputLines) {
+		String errorMessage = outputLines.stream().filter(l -> l.contains(ERROR_TAG)).findFirst().orElse(null);
+		if(errorMessage == null) {
+			errorMessage = outputLines.stream().filter(l -> !l.trim().isEmpty()).reduce((first, second) -> second)
+					.orElse("x264 exited without any output");
+		}
+		
+		final Matcher locationMatcher = SCRIPT_LOCATION_PATTERN.matcher(String.join("\n", outputLines));
+		if(!locationMatcher.find()) {
+			return errorMessage.trim();
+		}
+		final String scriptPath = locationMatcher.group(1);
+		final int lineNumber = Integer.parseInt(locationMatcher.group(2));
+		final StringBuilder failure = new StringBuilder(errorMessage.trim());
+		failure.append(" [ ").append(scriptPath).append(", line ").append(lineNumber);
+		
+		try {
+			final List<String> scriptLines = Files.readAllLines(Paths.get(scriptPath), StandardCharsets.ISO_8859_1);
+			if(lineNumber > 0 && lineNumber <= scriptLines.size()) {
+				failure.append(": ").append(scriptLines.get(lineNumber - 1).trim());
+			}
+		} catch(final IOException | RuntimeException e) {
+			//The location is reported without the line's contents
+		}
+		return failure.append(" ]").toString();
+	}
+	
+	/**
+	 * The process of a single check, as seen by the job's gate.
+	 */
+	private final class PreflightCheck implements SlotHolder {
+		
+		private final int segmentIndex;
+		
+		//Guarded by this check's lock
+		private Process process = null;
+		private long pid = -1;
+		private boolean suspended = false;
+		
+		PreflightCheck(final int segmentIndex) {
+			this.segmentIndex = segmentIndex;
+		}
+		
+		synchronized void onProcessStarted(final Process process) {
+			this.process = process;
+			this.pid = ProcessResourceSampler.getPid(process);
+		}
+		
+		/**
+		 * Wait for the check's process to complete. The time spent suspended doesn't count against the timeout.
+		 * 
+		 * @param timeout Max running time of the process (in millis)
+		 * @return Whether the process has completed within the timeout
+		 * @throws InterruptedException If interrupted while waiting
+		 */
+		boolean awaitCompletion(final long timeout) throws InterruptedException {
+			final Process runningProcess;
+			synchronized(this) {
+				runningProcess = process;
+			}
+			long runningTime = 0;
+			while(!runningProcess.waitFor(PREFLIGHT_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if(!isSuspended()) {
+					runningTime += PREFLIGHT_POLL_INTERVAL;
+				}
+				if(runningTime >= timeout) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public synchronized boolean suspend() {
+			if(suspended) {
+				return true;
+			}
+			if(process == null || !process.isAlive()) {
+				return false;
+			}
+			suspended = ProcessSignals.suspend(pid);
+			return suspended;
+		}
+		
+		@Override
+		public synchronized void resume() {
+			if(!suspended) {
+				return;
+			}
+			suspended = false;
+			ProcessSignals.resume(pid);
+		}
+		
+		@Override
+		public synchronized void renice(final int niceness) {
+			if(process != null && process.isAlive() && !ProcessSignals.renice(pid, niceness)) {
+				logger.log(Severity.WARN, "Failed to change the priority of the pre-flight check of segment "
+						+ segmentIndex + " to " + niceness);
+			}
+		}
+		
+		private synchronized boolean isSuspended() {
+			return suspended;
+		}
+	}
+}
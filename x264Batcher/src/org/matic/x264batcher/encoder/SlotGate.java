@@ -0,0 +1,208 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A gate through which a job's segment encoders (and any other {@link SlotHolder} processes,
+ * such as the pre-flight checks) pass before starting their processes. The gate
+ * limits the number of the segments that are encoding at the same time, and holds back all of
+ * them while the job is paused. The processes of the already started segments are suspended
+ * when the job is paused, or when the slot limit is lowered below the number of the running
+ * segments. All of the state changes are made under the gate's lock, so that a segment that is
+ * just starting its process is either suspended by the gate or suspends itself.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class SlotGate {
+	
+	//Segments that have passed the gate and haven't completed yet, in the order they were started in
+	private final Set<SlotHolder> runningSegments = new LinkedHashSet<>();
+	
+	//Running segments that were suspended because the slot limit was lowered
+	private final Set<SlotHolder> throttledSegments = new LinkedHashSet<>();
+	
+	private boolean paused = false;
+	private int slotLimit;
+	private int niceness = 0;
+	
+	/**
+	 * Create a new gate.
+	 * 
+	 * @param slotLimit Initial number of the segments that may encode at the same time
+	 */
+	SlotGate(final int slotLimit) {
+		this.slotLimit = Math.max(1, slotLimit);
+	}
+	
+	synchronized void pause() {
+		if(paused) {
+			return;
+		}
+		paused = true;
+		runningSegments.forEach(SlotHolder::suspend);
+	}
+	
+	synchronized void resume() {
+		if(!paused) {
+			return;
+		}
+		paused = false;
+		runningSegments.stream().filter(s -> !throttledSegments.contains(s)).forEach(SlotHolder::resume);
+		notifyAll();
+	}
+	
+	synchronized boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Resume all of the suspended segments, for example before they are cancelled.
+	 */
+	synchronized void releaseAll() {
+		paused = false;
+		throttledSegments.clear();
+		runningSegments.forEach(SlotHolder::resume);
+		notifyAll();
+	}
+	
+	/**
+	 * Change the number of the segments that may encode at the same time. When the limit is
+	 * lowered, the most recently started segments are suspended until there is room for them
+	 * again, and the encoder processes are reniced if the niceness has changed.
+	 * 
+	 * @param slotLimit New slot limit, 0 holds back all of the segments (but doesn't pause the gate)
+	 * @param niceness Scheduling priority of the encoder processes, from 0 (normal) to 19 (lowest)
+	 */
+	synchronized void setCapacity(final int slotLimit, final int niceness) {
+		this.slotLimit = Math.max(0, slotLimit);
+		if(this.niceness != niceness) {
+			this.niceness = niceness;
+			runningSegments.forEach(s -> s.renice(niceness));
+		}
+		
+		final List<SlotHolder> activeSegments = new ArrayList<>(runningSegments);
+		activeSegments.removeAll(throttledSegments);
+		
+		//Suspend the most recently started segments first, they have the least work to lose
+		for(int i = activeSegments.size() - 1; i >= 0 && getActiveCount() > this.slotLimit; --i) {
+			throttle(activeSegments.get(i));
+		}
+		unthrottle();
+	}
+	
+	synchronized int getSlotLimit() {
+		return slotLimit;
+	}
+	
+	/**
+	 * Check whether another segment could start encoding right away.
+	 * 
+	 * @return Whether there is a free slot
+	 */
+	synchronized boolean hasFreeSlot() {
+		return getFreeSlotCount() > 0;
+	}
+	
+	/**
+	 * Get the number of the segments that could start encoding right away.
+	 * 
+	 * @return Free slot count
+	 */
+	synchronized int getFreeSlotCount() {
+		return paused || !throttledSegments.isEmpty()? 0 : Math.max(0, slotLimit - getActiveCount());
+	}
+	
+	/**
+	 * Block until the segment may start encoding, and take a slot for it.
+	 * 
+	 * @param slotHolder Segment encoder (or other slot holder) that wants to start
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	synchronized void acquire(final SlotHolder slotHolder) throws InterruptedException {
+		while(paused || !throttledSegments.isEmpty() || getActiveCount() >= slotLimit) {
+			wait();
+		}
+		runningSegments.add(slotHolder);
+	}
+	
+	/**
+	 * Give up the slot of a segment that has completed (or failed to start).
+	 * 
+	 * @param slotHolder Completed segment encoder (or other slot holder)
+	 */
+	synchronized void release(final SlotHolder slotHolder) {
+		runningSegments.remove(slotHolder);
+		throttledSegments.remove(slotHolder);
+		unthrottle();
+		notifyAll();
+	}
+	
+	/**
+	 * Called by a segment encoder (or other slot holder) right after its process has started, in case the
+	 * gate was paused or its capacity was changed after the segment had passed through it.
+	 * 
+	 * @param slotHolder Slot holder whose process has started
+	 */
+	synchronized void onProcessStarted(final SlotHolder slotHolder) {
+		if(niceness != 0) {
+			slotHolder.renice(niceness);
+		}
+		if(paused) {
+			slotHolder.suspend();
+		}
+		if(getActiveCount() > slotLimit) {
+			throttle(slotHolder);
+		}
+	}
+	
+	private int getActiveCount() {
+		return runningSegments.size() - throttledSegments.size();
+	}
+	
+	private void throttle(final SlotHolder slotHolder) {
+		//If the process can't be suspended, it simply keeps its slot until it completes
+		if(paused || slotHolder.suspend()) {
+			throttledSegments.add(slotHolder);
+		}
+	}
+	
+	/**
+	 * Resume the throttled segments for which there is room again, the oldest ones first.
+	 */
+	private void unthrottle() {
+		final List<SlotHolder> resumableSegments = new ArrayList<>(throttledSegments);
+		for(final SlotHolder slotHolder : resumableSegments) {
+			if(getActiveCount() >= slotLimit) {
+				break;
+			}
+			throttledSegments.remove(slotHolder);
+			if(!paused) {
+				slotHolder.resume();
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,49 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+/**
+ * A process that takes one of a job's slots while it runs. The {@link SlotGate} suspends,
+ * resumes and renices its holders when the job is paused or its capacity changes.
+ * 
+ * @author Vedran Matic
+ *
+ */
+interface SlotHolder {
+	
+	/**
+	 * Suspend the running process, if any.
+	 * 
+	 * @return Whether the process is suspended
+	 */
+	boolean suspend();
+	
+	/**
+	 * Resume the previously suspended process.
+	 */
+	void resume();
+	
+	/**
+	 * Change the scheduling priority of the running process, if any.
+	 * 
+	 * @param niceness New niceness, from 0 (normal) to 19 (lowest)
+	 */
+	void renice(int niceness);
+}
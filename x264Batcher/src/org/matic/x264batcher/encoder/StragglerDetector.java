@@ -0,0 +1,115 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.matic.x264batcher.model.SegmentProgressView;
+import org.matic.x264batcher.model.SegmentProgressView.State;
+
+/**
+ * Finds the straggler segments of a job, which are projected to complete much later than their
+ * siblings, and for which a backup encoder, started right now, would be expected to complete first.
+ * The projections are based on each segment's own encoding speed, while the backup's is based on the
+ * median speed of the already completed segments.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class StragglerDetector {
+	
+	//A segment is a straggler if it is projected to take this many times longer than the median segment
+	static final double DEFAULT_STRAGGLER_FACTOR = 1.5;
+	
+	//The median isn't meaningful before this share of the segments has completed
+	private static final double MIN_COMPLETED_SHARE = 0.5;
+	
+	private final double stragglerFactor;
+	
+	/**
+	 * Create a new detector.
+	 * 
+	 * @param stragglerFactor How many times longer than the median segment a straggler is projected to take
+	 */
+	StragglerDetector(final double stragglerFactor) {
+		this.stragglerFactor = stragglerFactor;
+	}
+	
+	/**
+	 * Find the running segment that is the furthest behind its siblings.
+	 * 
+	 * @param segmentViews Current progress of each of the segments
+	 * @param startTimes Time at which each segment started encoding (0 if it hasn't started yet)
+	 * @param finishTimes Time at which each segment completed (0 if it hasn't completed yet)
+	 * @param candidates Which of the segments may be backed up
+	 * @param now Current time
+	 * @return Index of the segment to back up, or -1 if there is no straggler
+	 */
+	int findStraggler(final List<SegmentProgressView> segmentViews, final long[] startTimes,
+			final long[] finishTimes, final boolean[] candidates, final long now) {
+		final int segmentCount = segmentViews.size();
+		final double[] durations = new double[segmentCount];
+		final double[] frameRates = new double[segmentCount];
+		int completedCount = 0;
+		for(int i = 0; i < segmentCount; ++i) {
+			if(startTimes[i] > 0 && finishTimes[i] > startTimes[i]) {
+				durations[completedCount] = finishTimes[i] - startTimes[i];
+				frameRates[completedCount] = segmentViews.get(i).getTotalFrames() / durations[completedCount];
+				++completedCount;
+			}
+		}
+		if(completedCount == 0 || completedCount < Math.ceil(segmentCount * MIN_COMPLETED_SHARE)) {
+			return -1;
+		}
+		final double medianDuration = median(durations, completedCount);
+		final double medianFrameRate = median(frameRates, completedCount);
+		
+		int straggler = -1;
+		double stragglerRemainingTime = 0;
+		for(int i = 0; i < segmentCount; ++i) {
+			final SegmentProgressView segmentView = segmentViews.get(i);
+			if(!candidates[i] || segmentView.getState() != State.RUNNING || startTimes[i] == 0 || finishTimes[i] != 0) {
+				continue;
+			}
+			final double elapsedTime = now - startTimes[i];
+			final long framesLeft = segmentView.getTotalFrames() - segmentView.getFramesDone();
+			
+			//A segment that hasn't reported any speed yet is only judged by its elapsed time
+			final double remainingTime = segmentView.getFps() > 0? 1000 * framesLeft / segmentView.getFps() :
+				elapsedTime > stragglerFactor * medianDuration? Double.MAX_VALUE : 0;
+			if(elapsedTime + remainingTime <= stragglerFactor * medianDuration) {
+				continue;
+			}
+			final double backupTime = segmentView.getTotalFrames() / medianFrameRate;
+			if(backupTime < remainingTime && remainingTime > stragglerRemainingTime) {
+				straggler = i;
+				stragglerRemainingTime = remainingTime;
+			}
+		}
+		return straggler;
+	}
+	
+	private static double median(final double[] values, final int count) {
+		final double[] sortedValues = Arrays.copyOf(values, count);
+		Arrays.sort(sortedValues);
+		return count % 2 == 1? sortedValues[count / 2] : (sortedValues[count / 2 - 1] + sortedValues[count / 2]) / 2;
+	}
+}
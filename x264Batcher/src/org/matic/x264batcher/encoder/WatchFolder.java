@@ -0,0 +1,354 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.matic.x264batcher.exception.EncoderException;
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
+import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.EncoderJobParameters;
+
+/**
+ * Watches a folder for new AVS scripts and turns each of them into a queued job, built from
+ * a folder-wide job template. A script (and any file sharing its base name, such as the index
+ * file it is usually created together with) is only imported once its size and modification time
+ * have stopped changing, so that scripts that are still being written or copied are not picked up.
+ * Scripts that already have an encoded clip in the template's output path are skipped, and so are
+ * the encoder's own intermediate files, should they end up in the watched folder.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class WatchFolder {
+	
+	/**
+	 * For how long (in milliseconds) a file must remain unchanged to be considered complete.
+	 */
+	public static final long DEFAULT_STABILITY_PERIOD = 5000;
+	
+	private static final String AVS_FILE_EXTENSION = ".avs";
+	private static final String ENCODED_FILE_EXTENSION = ".mkv";
+	
+	private static final long POLL_INTERVAL = 1000;
+	
+	//A script that can't be parsed is retried (it might have been incomplete), but not forever
+	private static final int MAX_IMPORT_ATTEMPTS = 3;
+	
+	//All of the state below is only accessed on the watcher thread
+	private final Map<Path, PendingFile> pendingFiles = new HashMap<>();
+	private final Set<Path> importedScripts = new HashSet<>();
+	
+	private final EncoderJobParameters jobTemplate;
+	private final Consumer<QueuedJob> jobConsumer;
+	private final EncoderLogger logger;
+	private final long stabilityPeriod;
+	private final Path folder;
+	
+	private WatchService watchService;
+	private Thread watcherThread;
+
+	/**
+	 * Create a new instance of the watch folder.
+	 * 
+	 * @param folder The folder to watch for new AVS scripts
+	 * @param jobTemplate Output path, SAR, encoder preset and cleanup option to use for the created jobs
+	 * @param stabilityPeriod For how long (in milliseconds) a file must remain unchanged before it is imported
+	 * @param logger Import errors are logged to this logger
+	 * @param jobConsumer Receives each of the created jobs (on the watcher thread)
+	 */
+	public WatchFolder(final Path folder, final EncoderJobParameters jobTemplate, final long stabilityPeriod,
+			final EncoderLogger logger, final Consumer<QueuedJob> jobConsumer) {
+		this.folder = folder.toAbsolutePath().normalize();
+		this.stabilityPeriod = stabilityPeriod;
+		this.jobTemplate = jobTemplate;
+		this.jobConsumer = jobConsumer;
+		this.logger = logger;
+	}
+	
+	/**
+	 * Start watching the folder. The scripts that are already in the folder are treated as new ones.
+	 * 
+	 * @throws IOException If the folder can't be watched
+	 */
+	public synchronized void start() throws IOException {
+		if(watchService != null) {
+			return;
+		}
+		watchService = folder.getFileSystem().newWatchService();
+		try {
+			folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch(final IOException ioe) {
+			watchService.close();
+			watchService = null;
+			throw ioe;
+		}
+		
+		final WatchService activeWatchService = watchService;
+		watcherThread = new Thread(() -> watch(activeWatchService), "watch-folder");
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+	}
+	
+	/**
+	 * Stop watching the folder. The jobs that have already been created are not affected.
+	 */
+	public synchronized void stop() {
+		if(watchService == null) {
+			return;
+		}
+		try {
+			watchService.close();
+		} catch(final IOException ioe) {
+			//The watcher thread will exit anyway, as it is interrupted below
+		}
+		watcherThread.interrupt();
+		watchService = null;
+		watcherThread = null;
+	}
+	
+	public Path getFolder() {
+		return folder;
+	}
+	
+	private void watch(final WatchService activeWatchService) {
+		scanFolder();
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				final WatchKey watchKey = activeWatchService.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if(watchKey != null) {
+					for(final WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+						if(watchEvent.kind() == StandardWatchEventKinds.OVERFLOW) {
+							//Some events were lost, find out what has changed by looking at the folder instead
+							scanFolder();
+						}
+						else {
+							onFileChanged(folder.resolve((Path)watchEvent.context()));
+						}
+					}
+					if(!watchKey.reset()) {
+						logger.log(Severity.ERROR, "Watch folder " + folder + " is no longer accessible");
+						return;
+					}
+				}
+				importStableScripts();
+			}
+		} catch(final InterruptedException | ClosedWatchServiceException e) {
+			//The watch folder was stopped
+		}
+	}
+	
+	private void scanFolder() {
+		try(final DirectoryStream<Path> directoryStream = Files.newDirectoryStream(folder)) {
+			directoryStream.forEach(this::onFileChanged);
+		} catch(final IOException ioe) {
+			logger.log(Severity.ERROR, "Failed to list watch folder " + folder + " due to: " + ioe.getMessage());
+		}
+	}
+	
+	private void onFileChanged(final Path path) {
+		if(SegmentBuilder.isIntermediateFile(path)) {
+			//A segment script of a job that is being encoded must not be queued as a new job
+			return;
+		}
+		if(isScript(path)) {
+			//A modified script is a new script, even if an older version of it was already imported
+			importedScripts.remove(path);
+		}
+		pendingFiles.computeIfAbsent(path, p -> new PendingFile());
+	}
+	
+	private void importStableScripts() {
+		final long now = System.currentTimeMillis();
+		
+		//Refresh the state of all pending files first, a script is stable only if its companion files are too
+		final Iterator<Map.Entry<Path, PendingFile>> pendingFileIterator = pendingFiles.entrySet().iterator();
+		while(pendingFileIterator.hasNext()) {
+			final Map.Entry<Path, PendingFile> pendingFile = pendingFileIterator.next();
+			if(!pendingFile.getValue().update(pendingFile.getKey(), now)) {
+				//The file was deleted (or renamed) while we were waiting for it to settle
+				pendingFileIterator.remove();
+			}
+		}
+		
+		final Set<String> unstableBaseNames = new HashSet<>();
+		pendingFiles.forEach((p, f) -> {
+			if(!f.isStable(now, stabilityPeriod)) {
+				unstableBaseNames.add(getBaseName(p));
+			}
+		});
+		
+		final List<Path> stablePaths = pendingFiles.keySet().stream().filter(
+				p -> !unstableBaseNames.contains(getBaseName(p))).sorted().collect(Collectors.toList());
+		
+		for(final Path stablePath : stablePaths) {
+			if(!isScript(stablePath)) {
+				//Only the scripts are imported, the other files are just waited on
+				pendingFiles.remove(stablePath);
+				continue;
+			}
+			final PendingFile pendingScript = pendingFiles.get(stablePath);
+			if(importedScripts.contains(stablePath) || importScript(stablePath, pendingScript)) {
+				pendingFiles.remove(stablePath);
+			}
+			else if(++pendingScript.failedAttempts >= MAX_IMPORT_ATTEMPTS) {
+				logger.log(Severity.ERROR, "Giving up on watched AVS = [ " + stablePath
+						+ " ], it will be retried once it is modified");
+				importedScripts.add(stablePath);
+				pendingFiles.remove(stablePath);
+			}
+			else {
+				//Wait for another stability period, the script might be rewritten in the meantime
+				pendingScript.lastChanged = now;
+			}
+		}
+	}
+	
+	private boolean importScript(final Path avsPath, final PendingFile pendingScript) {
+		final String jobName = getBaseName(avsPath);
+		final Path encodedFilePath = Paths.get(jobTemplate.getJobOutputPath(), jobName + ENCODED_FILE_EXTENSION);
+		if(Files.exists(encodedFilePath)) {
+			logger.log(Severity.INFO, "Skipping watched AVS = [ " + avsPath + " ], " 
+					+ encodedFilePath + " already exists");
+			importedScripts.add(avsPath);
+			return true;
+		}
+		
+		final AvsInputFile inputFile;
+		try {
+			inputFile = AvsParser.parseInputAvs(Collections.singletonList(avsPath.toString()), logger).get(0);
+		} catch(final IOException | EncoderException | RuntimeException e) {
+			logger.log(Severity.WARN, "Failed to import watched AVS = [ " + avsPath + " ], attempt "
+					+ (pendingScript.failedAttempts + 1) + " of " + MAX_IMPORT_ATTEMPTS
+					+ ", cause = [ " + e.getMessage() + " ]");
+			return false;
+		}
+		
+		final EncoderJobParameters jobParameters = new EncoderJobParameters(jobName,
+				jobTemplate.getJobOutputPath(), jobTemplate.getOutputSar(),
+				new ArrayList<>(Collections.singletonList(avsPath.toString())),
+				jobTemplate.getEncoderPreset(), jobTemplate.isDeleteTemporaryFiles());
+		
+		importedScripts.add(avsPath);
+		logger.log(Severity.INFO, "Queued a job for watched AVS = [ " + avsPath + " ]");
+		jobConsumer.accept(new QueuedJob(jobParameters, Collections.singletonList(inputFile),
+				inputFile.getClipDimension()));
+		return true;
+	}
+	
+	/**
+	 * Check whether two paths point to the same folder. A job template's output path must not
+	 * be the watched folder, or else the encoder's intermediate scripts would be picked up.
+	 * 
+	 * @param folderPath Path to the first folder
+	 * @param otherFolderPath Path to the other folder
+	 * @return True if both paths are set and point to the same folder, false otherwise
+	 */
+	public static boolean isSameFolder(final String folderPath, final String otherFolderPath) {
+		if(folderPath == null || folderPath.isEmpty() || otherFolderPath == null || otherFolderPath.isEmpty()) {
+			return false;
+		}
+		final Path folder;
+		final Path otherFolder;
+		try {
+			folder = Paths.get(folderPath).toAbsolutePath().normalize();
+			otherFolder = Paths.get(otherFolderPath).toAbsolutePath().normalize();
+		} catch(final InvalidPathException ipe) {
+			return false;
+		}
+		try {
+			return Files.isSameFile(folder, otherFolder);
+		} catch(final IOException ioe) {
+			//At least one of the folders doesn't exist
+			return folder.equals(otherFolder);
+		}
+	}
+	
+	private static boolean isScript(final Path path) {
+		return path.getFileName().toString().toLowerCase().endsWith(AVS_FILE_EXTENSION);
+	}
+	
+	private static String getBaseName(final Path path) {
+		final String fileName = path.getFileName().toString();
+		final int extensionStart = fileName.lastIndexOf('.');
+		return extensionStart > 0? fileName.substring(0, extensionStart) : fileName;
+	}
+	
+	private static final class PendingFile {
+		private long lastModified = -1;
+		private long lastChanged = -1;
+		private long size = -1;
+		
+		private int failedAttempts = 0;
+		
+		/**
+		 * Check the file's current size and modification time, and note when they have last changed.
+		 * 
+		 * @param path Path to the file
+		 * @param now Current time
+		 * @return Whether the file still exists
+		 */
+		boolean update(final Path path, final long now) {
+			final BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch(final IOException ioe) {
+				return false;
+			}
+			final long currentLastModified = attributes.lastModifiedTime().toMillis();
+			final long currentSize = attributes.size();
+			if(currentSize != size || currentLastModified != lastModified) {
+				lastModified = currentLastModified;
+				size = currentSize;
+				lastChanged = now;
+			}
+			return true;
+		}
+		
+		boolean isStable(final long now, final long stabilityPeriod) {
+			return now - lastChanged >= stabilityPeriod;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+/**
+ * A parser of the x264.exe progress output lines. It recognizes the periodic status lines,
+ * such as "[12.3%] 1234/10000 frames, 45.67 fps, 1234.56 kb/s, eta 0:01:23", as well as the
+ * final "encoded 10000 frames, 45.67 fps, 1234.56 kb/s" summary line. Any other output is ignored.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class X264ProgressParser {
+	
+	private static final String STATUS_LINE_PREFIX = "[";
+	private static final String SUMMARY_LINE_PREFIX = "encoded ";
+	private static final String FPS_SUFFIX = " fps";
+	
+	private long framesDone = 0;
+	private double fps = 0;
+	
+	/**
+	 * Parse an output line and remember the progress values it contains.
+	 * 
+	 * @param line x264.exe output line
+	 * @return Whether the line contained progress info
+	 */
+	boolean parse(final String line) {
+		final int framesStart;
+		if(line.startsWith(STATUS_LINE_PREFIX)) {
+			framesStart = line.indexOf(' ') + 1;
+		}
+		else if(line.startsWith(SUMMARY_LINE_PREFIX)) {
+			framesStart = SUMMARY_LINE_PREFIX.length();
+		}
+		else {
+			return false;
+		}
+		
+		final long parsedFramesDone = parseNumber(line, framesStart);
+		if(parsedFramesDone == -1) {
+			return false;
+		}
+		
+		final int fpsEnd = line.indexOf(FPS_SUFFIX, framesStart);
+		final int fpsStart = fpsEnd == -1? -1 : line.lastIndexOf(' ', fpsEnd - 1) + 1;
+		
+		double parsedFps = fps;
+		if(fpsStart > 0) {
+			try {
+				parsedFps = Double.parseDouble(line.substring(fpsStart, fpsEnd));
+			} catch(final NumberFormatException nfe) {
+				//Keep the previous value, the line was probably cut off
+			}
+		}
+		
+		framesDone = parsedFramesDone;
+		fps = parsedFps;
+		return true;
+	}
+	
+	long getFramesDone() {
+		return framesDone;
+	}
+	
+	double getFps() {
+		return fps;
+	}
+	
+	private static long parseNumber(final String line, final int from) {
+		long value = 0;
+		int position = from;
+		while(position < line.length() && Character.isDigit(line.charAt(position))) {
+			value = value * 10 + (line.charAt(position) - '0');
+			++position;
+		}
+		return position == from? -1 : value;
+	}
+}
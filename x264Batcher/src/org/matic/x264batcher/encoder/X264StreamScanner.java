@@ -0,0 +1,171 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A scanner of the raw H.264 (Annex B) streams written by x264.exe. It finds the point at which
+ * a partially written stream can be cut, so that it ends with a complete GOP. The cut is placed
+ * at the start of the last IDR picture in the stream (including any headers that precede it),
+ * and everything after the cut, possibly a picture that was only partially written, is dropped.
+ * As x264.exe only writes closed GOPs (unless --open-gop is used), all of the pictures before
+ * the cut are displayed before the IDR picture, so their count is the number of frames kept.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class X264StreamScanner {
+	
+	private static final int READ_BUFFER_SIZE = 1 << 20;
+	
+	private static final int NAL_TYPE_MASK = 0x1F;
+	private static final int NAL_TYPE_SLICE = 1;
+	private static final int NAL_TYPE_IDR_SLICE = 5;
+	
+	private X264StreamScanner() {}
+	
+	/**
+	 * Scan a stream for the last point at which it can be cut.
+	 * 
+	 * @param streamPath Path to the x264.exe output file
+	 * @return Where to cut the stream
+	 * @throws IOException If the stream can't be read
+	 */
+	static StreamCut findLastGopStart(final Path streamPath) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		
+		long pictureCount = 0;
+		long cutFrame = 0;
+		long cutOffset = 0;
+		
+		//Start of the headers (SPS, PPS, SEI, AUD) that precede the next picture, or -1 if none were seen
+		long headersStart = -1;
+		
+		long position = 0;
+		int zeroCount = 0;
+		long nalStart = -1;
+		int nalType = -1;
+		boolean headerPending = false;
+		boolean sliceHeaderPending = false;
+		
+		try(final FileChannel channel = FileChannel.open(streamPath, StandardOpenOption.READ)) {
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				while(buffer.hasRemaining()) {
+					final int value = buffer.get() & 0xFF;
+					if(headerPending) {
+						headerPending = false;
+						nalType = value & NAL_TYPE_MASK;
+						if(nalType == NAL_TYPE_SLICE || nalType == NAL_TYPE_IDR_SLICE) {
+							sliceHeaderPending = true;
+						}
+						else if(headersStart == -1) {
+							headersStart = nalStart;
+						}
+					}
+					else if(sliceHeaderPending) {
+						sliceHeaderPending = false;
+						
+						//The first bit is set only if first_mb_in_slice is 0, that is for the first slice of a picture
+						if((value & 0x80) != 0) {
+							if(nalType == NAL_TYPE_IDR_SLICE) {
+								cutFrame = pictureCount;
+								cutOffset = headersStart != -1? headersStart : nalStart;
+							}
+							++pictureCount;
+						}
+						headersStart = -1;
+					}
+					
+					if(value == 0) {
+						++zeroCount;
+					}
+					else {
+						if(value == 1 && zeroCount >= 2) {
+							//A start code, the leading zero bytes belong to it as well
+							nalStart = position - zeroCount;
+							headerPending = true;
+						}
+						zeroCount = 0;
+					}
+					++position;
+				}
+				buffer.clear();
+			}
+		}
+		return new StreamCut(cutFrame, cutOffset, pictureCount);
+	}
+	
+	/**
+	 * Cut a stream at the given offset, dropping everything that follows it.
+	 * 
+	 * @param streamPath Path to the x264.exe output file
+	 * @param streamCut Where to cut the stream
+	 * @throws IOException If the stream can't be truncated
+	 */
+	static void cut(final Path streamPath, final StreamCut streamCut) throws IOException {
+		try(final FileChannel channel = FileChannel.open(streamPath, StandardOpenOption.WRITE)) {
+			channel.truncate(streamCut.getByteOffset());
+		}
+	}
+	
+	/**
+	 * A point at which a stream can be cut.
+	 */
+	static final class StreamCut {
+		private final long frameCount;
+		private final long byteOffset;
+		private final long pictureCount;
+		
+		StreamCut(final long frameCount, final long byteOffset, final long pictureCount) {
+			this.frameCount = frameCount;
+			this.byteOffset = byteOffset;
+			this.pictureCount = pictureCount;
+		}
+		
+		/**
+		 * Get the number of the frames that are kept if the stream is cut.
+		 * 
+		 * @return Kept frame count
+		 */
+		long getFrameCount() {
+			return frameCount;
+		}
+		
+		long getByteOffset() {
+			return byteOffset;
+		}
+		
+		/**
+		 * Get the number of the pictures that were found in the whole stream. The last
+		 * one of them may have been written only partially.
+		 * 
+		 * @return Picture count
+		 */
+		long getPictureCount() {
+			return pictureCount;
+		}
+	}
+}
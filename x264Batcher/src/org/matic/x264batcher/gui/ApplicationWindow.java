@@ -20,6 +20,7 @@
 package org.matic.x264batcher.gui;
 
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.event.Event;
@@ -46,32 +47,45 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
 import javafx.util.Callback;
+import org.matic.x264batcher.control.ControlListener;
+import org.matic.x264batcher.control.ControlServer;
 import org.matic.x264batcher.encoder.AvsParser;
+import org.matic.x264batcher.encoder.BatchImportListener;
+import org.matic.x264batcher.encoder.BatchImporter;
 import org.matic.x264batcher.encoder.EncoderController;
 import org.matic.x264batcher.encoder.EncodingProgressListener;
-import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.encoder.WatchFolder;
 import org.matic.x264batcher.gui.log.ListViewEncoderLogger;
 import org.matic.x264batcher.gui.log.LogEntry;
 import org.matic.x264batcher.exception.EncoderException;
 import org.matic.x264batcher.gui.log.LogTabView;
 import org.matic.x264batcher.gui.model.ClipDimensionView;
 import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.metrics.MetricsExporter;
 import org.matic.x264batcher.model.AvsInputFile;
+import org.matic.x264batcher.model.CapacityProfile;
 import org.matic.x264batcher.model.ClipDimension;
 import org.matic.x264batcher.model.EncoderJobParameters;
 import org.matic.x264batcher.model.EncoderParameters;
 import org.matic.x264batcher.model.EncoderPreset;
 import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.JobPriority;
 import org.matic.x264batcher.model.JobStatus;
+import org.matic.x264batcher.model.QueuePolicy;
+import org.matic.x264batcher.model.SegmentProgressView;
 import org.matic.x264batcher.utils.Helper;
 
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -84,7 +98,7 @@ import java.util.stream.Collectors;
  * @author Vedran Matic
  *
  */
-public final class ApplicationWindow implements EncodingProgressListener {
+public final class ApplicationWindow implements EncodingProgressListener, BatchImportListener, ControlListener {
 	
 	private static final String GREEN_PROGRESS_BAR = "-fx-accent: rgb(181,230,29);";
 	private static final String ORANGE_PROGRESS_BAR = "-fx-accent: rgb(255,228,135);";
@@ -95,6 +109,10 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	private final NumberFormat numberFormatter = NumberFormat.getInstance();
 	
 	private final TableView<QueuedJob> jobTable = new TableView<>();	
+	private final TableView<SegmentProgressView> segmentTable = new TableView<>();
+	
+	//Progress of each of the encoding jobs (several small jobs may be encoded side by side), FX thread only
+	private final Map<QueuedJob, EncodingProgressView> jobProgressViews = new LinkedHashMap<>();
 	
 	private final TextField encoderInstancesField = new TextField();
 	private final TextField mkvmergeExecField = new TextField();
@@ -105,21 +123,38 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	private final Button quitButton = new Button("Quit");
 	
 	private final Button cancelAllJobsButton = new Button("Cancel All");
+	private final Button pauseAllJobsButton = new Button("Pause All");
 	private final Button encodeButton = new Button("Encode");	
 	
 	private final Button moveJobDownButton = new Button("[v]");	
 	private final Button removeJobButton = new Button("[-]");	
 	private final Button cancelJobButton = new Button("Cancel");
+	private final Button pauseJobButton = new Button("Pause");
 	private final Button editJobButton = new Button("Edit...");
 	private final Button moveJobUpButton = new Button("[^]");
 	private final Button addJobButton = new Button("[+]");
 	
+	private final ComboBox<BatchImporter.Grouping> importGroupingComboBox = new ComboBox<>();
+	private final ComboBox<JobPriority> jobPriorityComboBox = new ComboBox<>();
+	private final Button cancelImportButton = new Button("Cancel Import");
+	private final Button importJobsButton = new Button("Import...");
+	
+	private final CheckBox watchFolderCheckBox = new CheckBox("Watch folder: ");
+	private final TextField watchFolderField = new TextField();
+	private final Button watchFolderButton = new Button("Browse...");
+	private final Button watchFolderTemplateButton = new Button("Template...");
+	
 	private final Button deletePresetButton = new Button("Delete");
 	private final Button editPresetButton = new Button("Edit...");	
 	private final Button addPresetButton = new Button("Add");
 		
 	private final CheckBox encoderInstancesCheckBox = new CheckBox("Encoder instances: ");
+	private final CheckBox capacityProfilesCheckBox = new CheckBox("Capacity profiles: ");
+	private final TextField capacityProfilesField = new TextField();
 	private final CheckBox shutdownCheckBox = new CheckBox("Shutdown computer when done");	
+	private final CheckBox metricsCheckBox = new CheckBox();
+	private final CheckBox controlApiCheckBox = new CheckBox();
+	private final CheckBox segmentLogFilesCheckBox = new CheckBox("Write x264 output to a log file for each segment");
 	
 	private final ProgressBar currentJobProgressBar = new ProgressBar(0);
 	private final Label currentJobProgressStatus = new Label();
@@ -129,15 +164,33 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	
 	private final ProgressBar cpuProgressBar = new ProgressBar(0);
 	private final Label cpuProgressStatus = new Label();
+	
+	private final ProgressBar importProgressBar = new ProgressBar(0);
+	private final Label importProgressStatus = new Label();
+	private final HBox importProgressPane = new HBox(5);
 
 	private final ListView<EncoderPreset> encoderPresetsView = new ListView<>();
 	private final ListView<LogEntry> loggerView = new ListView<>();
 
-	private final EncoderLogger logger = new ListViewEncoderLogger(loggerView);
+	private final ListViewEncoderLogger logger = new ListViewEncoderLogger(loggerView);
 	private final EncoderController encoderController = new EncoderController(logger);
 	private final TabPane tabPane = new TabPane();
 	
 	private final Stage stage;
+	
+	private LogTabView logTabView;
+	
+	//The currently running batch import, accessed only on the JavaFX application thread
+	private BatchImporter batchImporter;
+	
+	//The metrics endpoint, if enabled, accessed only on the JavaFX application thread
+	private MetricsExporter metricsExporter;
+	
+	//The control API, if enabled, accessed only on the JavaFX application thread
+	private ControlServer controlServer;
+	
+	//The watch folder, if enabled, accessed only on the JavaFX application thread
+	private WatchFolder watchFolder;
 
 	public ApplicationWindow(final Stage stage) {
 		this.stage = stage;
@@ -149,6 +202,9 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		moveJobUpButton.setTooltip(new Tooltip("Move selected job up the queue"));
 		removeJobButton.setTooltip(new Tooltip("Remove selected job from the queue"));
 		addJobButton.setTooltip(new Tooltip("Add a new job to the queue"));
+		importJobsButton.setTooltip(new Tooltip("Add a job for each of the selected scripts, using the default job settings"));
+		watchFolderCheckBox.setTooltip(new Tooltip("Add a job for each new script in the folder and start encoding it"));
+		watchFolderTemplateButton.setTooltip(new Tooltip("Edit the job settings used for the watch folder's scripts"));
 		
 		initComponents();
 	}
@@ -158,8 +214,13 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	 */
 	@Override
 	public void onJobCompleted(final QueuedJob queuedJob) {
-		currentJobProgressBar.setProgress(1);		
-		currentJobProgressStatus.setText("Job completed");	
+		Platform.runLater(() -> {
+			jobProgressViews.remove(queuedJob);
+			if(jobProgressViews.isEmpty()) {
+				currentJobProgressBar.setProgress(1);		
+				currentJobProgressStatus.setText("Job completed");
+			}
+		});
 		
 		synchronized(jobTable) {
 			final ObservableList<QueuedJob> selectedJobs = jobTable.getSelectionModel().getSelectedItems();
@@ -172,6 +233,10 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	 */
 	@Override
 	public void onAllJobsCompleted() {
+		if(encoderController.isEncoding()) {
+			//A job was added from the watch folder and the encoding has already been restarted
+			return;
+		}
 		if(shutdownCheckBox.isSelected()) {
 			storeApplicationState();
 			try {
@@ -183,13 +248,22 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		}
 		else {
 			enableGui(true);
+			jobProgressViews.clear();
 			currentJobProgressBar.setProgress(0);
 			currentJobProgressStatus.setText("");
 			totalJobProgressBar.setProgress(0);
 			totalJobProgressStatus.setText("");
 			cpuProgressStatus.setText("");
 			cpuProgressBar.setProgress(0);
-			Helper.showAlert(stage, AlertType.INFORMATION, "All jobs have completed.", "Encoder Status");
+			segmentTable.getItems().clear();
+			if(watchFolder != null) {
+				//Don't block an unattended encoder with a dialog, more jobs will come in from the watch folder
+				logger.log(LogEntry.Severity.INFO, "All jobs have completed, waiting for new scripts in "
+						+ watchFolder.getFolder());
+			}
+			else {
+				Helper.showAlert(stage, AlertType.INFORMATION, "All jobs have completed.", "Encoder Status");
+			}
 		}
 	}
 	
@@ -199,49 +273,178 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	@Override
 	public void onProgressUpdate(final QueuedJob queuedJob, final EncodingProgressView progressView) {
 		if(progressView != null) {
-			final double jobPercentDone = progressView.getCurrentJobPercentDone();
-			final long jobSecondsLeft = progressView.getFps() > 0.0?
-					(long)((progressView.getCurrentJobTotalFrames() - progressView.getCurrentJobFramesDone())
-					/ progressView.getFps()) : -1;
-			
-			final StringBuilder jobProgressText = new StringBuilder();
-			jobProgressText.append(numberFormatter.format(100 * jobPercentDone))
-				.append("% done [ ")
-				.append(progressView.getCurrentJobFramesDone())
-				.append("/")
-				.append(progressView.getCurrentJobTotalFrames())
-				.append(" ][ ")
-				.append(numberFormatter.format(progressView.getFps()))
-				.append(" fps ] ETA: ")
-				.append(jobSecondsLeft == -1? "" : Helper.formatSecondsToHumanTime(jobSecondsLeft));
-			
-			final double totalPercentDone = progressView.getTotalPercentDone();
-			
-			final StringBuilder totalProgressText = new StringBuilder();
-			totalProgressText.append(numberFormatter.format(100 * totalPercentDone))
-				.append("% done [ ")
-				.append(progressView.getTotalJobsDone())
-				.append(" of ")
-				.append(progressView.getTotalJobs())
-				.append(" jobs completed ]");
-						
 			queuedJob.setTimeTaken(System.currentTimeMillis() - queuedJob.getTimeStarted());
 			
-			final double cpuLoad = progressView.getCpuLoad();
-			
 			Platform.runLater(() -> {
-				currentJobProgressStatus.setText(jobProgressText.toString());
-				currentJobProgressBar.setProgress(jobPercentDone);
-				totalJobProgressStatus.setText(totalProgressText.toString());
-				totalJobProgressBar.setProgress(totalPercentDone);
-				cpuProgressStatus.setText(numberFormatter.format(cpuLoad * 100) + "%");
-				cpuProgressBar.setProgress(cpuLoad);
+				//Show the small jobs that are encoded side by side as one, a preempted job no longer encodes
+				jobProgressViews.remove(queuedJob);
+				jobProgressViews.put(queuedJob, progressView);
+				jobProgressViews.keySet().removeIf(j -> j.getJobStatus() != JobStatus.RUNNING
+						|| encoderController.isPreempted(j));
+				if(!jobProgressViews.isEmpty()) {
+					showProgress(EncodingProgressView.combine(new ArrayList<>(jobProgressViews.values())));
+				}
 			});
 		}
 	}
 	
+	private void showProgress(final EncodingProgressView progressView) {
+		final double jobPercentDone = progressView.getCurrentJobPercentDone();
+		final long jobSecondsLeft = progressView.getJobSecondsLeft();
+		final long queueSecondsLeft = progressView.getQueueSecondsLeft();
+		
+		final StringBuilder jobProgressText = new StringBuilder();
+		jobProgressText.append(numberFormatter.format(100 * jobPercentDone))
+			.append("% done [ ")
+			.append(progressView.getCurrentJobFramesDone())
+			.append("/")
+			.append(progressView.getCurrentJobTotalFrames())
+			.append(" ][ ")
+			.append(numberFormatter.format(progressView.getFps()))
+			.append(" fps ] ETA: ")
+			.append(jobSecondsLeft == -1? "" : Helper.formatSecondsToHumanTime(jobSecondsLeft))
+			.append(progressView.isPaused()? " (Paused)" : "");
+		
+		final double totalPercentDone = progressView.getTotalPercentDone();
+		
+		final StringBuilder totalProgressText = new StringBuilder();
+		totalProgressText.append(numberFormatter.format(100 * totalPercentDone))
+			.append("% done [ ")
+			.append(progressView.getTotalJobsDone())
+			.append(" of ")
+			.append(progressView.getTotalJobs())
+			.append(" jobs completed ] ETA: ")
+			.append(queueSecondsLeft == -1? "" : Helper.formatSecondsToHumanTime(queueSecondsLeft));
+		
+		final double cpuLoad = progressView.getCpuLoad();
+		
+		currentJobProgressStatus.setText(jobProgressText.toString());
+		currentJobProgressBar.setProgress(jobPercentDone);
+		totalJobProgressStatus.setText(totalProgressText.toString());
+		totalJobProgressBar.setProgress(totalPercentDone);
+		cpuProgressStatus.setText(numberFormatter.format(cpuLoad * 100) + "%");
+		cpuProgressBar.setProgress(cpuLoad);
+		segmentTable.getItems().setAll(progressView.getSegmentViews());
+	}
+	
+	/**
+	 * @see BatchImportListener#onFileProcessed(String, boolean, int, int)
+	 */
+	@Override
+	public void onFileProcessed(final String avsPath, final boolean successful,
+			final int processedFileCount, final int totalFileCount) {
+		final Path fileName = Paths.get(avsPath).getFileName();
+		
+		final StringBuilder importProgressText = new StringBuilder();
+		importProgressText.append("Imported ")
+			.append(processedFileCount)
+			.append(" of ")
+			.append(totalFileCount)
+			.append(" scripts [ ")
+			.append(fileName != null? fileName : avsPath)
+			.append(successful? " ]" : " failed ]");
+		
+		Platform.runLater(() -> {
+			importProgressBar.setProgress(((double)processedFileCount) / totalFileCount);
+			importProgressStatus.setText(importProgressText.toString());
+		});
+	}
+	
+	/**
+	 * @see BatchImportListener#onJobImported(QueuedJob)
+	 */
+	@Override
+	public void onJobImported(final QueuedJob queuedJob) {
+		Platform.runLater(() -> {
+			synchronized(jobTable) {
+				jobTable.getItems().add(queuedJob);
+				encoderController.add(queuedJob);
+				queuedJob.setStatus(JobStatus.QUEUED);
+			}
+		});
+	}
+	
+	/**
+	 * @see BatchImportListener#onImportCompleted(int, boolean)
+	 */
+	@Override
+	public void onImportCompleted(final int importedJobCount, final boolean cancelled) {
+		logger.log(LogEntry.Severity.INFO, "Batch import " + (cancelled? "cancelled" : "completed")
+				+ ": " + importedJobCount + " job(s) added");
+		Platform.runLater(() -> {
+			batchImporter = null;
+			importJobsButton.setDisable(false);
+			importProgressPane.setVisible(false);
+			importProgressPane.setManaged(false);
+		});
+	}
+	
+	/**
+	 * @see ControlListener#onJobSubmitted(QueuedJob)
+	 */
+	@Override
+	public void onJobSubmitted(final QueuedJob queuedJob) {
+		onJobImported(queuedJob);
+	}
+	
+	/**
+	 * @see ControlListener#onJobsRemoved(List)
+	 */
+	@Override
+	public void onJobsRemoved(final List<QueuedJob> queuedJobs) {
+		Platform.runLater(() -> {
+			synchronized(jobTable) {
+				encoderController.remove(queuedJobs);
+				jobTable.getItems().removeAll(queuedJobs);
+			}
+		});
+	}
+	
+	/**
+	 * @see ControlListener#onJobMoved(QueuedJob, int)
+	 */
+	@Override
+	public void onJobMoved(final QueuedJob queuedJob, final int position) {
+		Platform.runLater(() -> {
+			synchronized(jobTable) {
+				final ObservableList<QueuedJob> jobs = jobTable.getItems();
+				if(jobs.remove(queuedJob)) {
+					jobs.add(Math.max(0, Math.min(position, jobs.size())), queuedJob);
+					encoderController.move(queuedJob, position);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @see ControlListener#onEncoderJobsLimitChanged(int)
+	 */
+	@Override
+	public void onEncoderJobsLimitChanged(final int encoderJobsLimit) {
+		Platform.runLater(() -> {
+			encoderController.setEncoderJobsLimit(encoderJobsLimit);
+			encoderInstancesCheckBox.setSelected(encoderJobsLimit > 0);
+			encoderInstancesField.setText(encoderJobsLimit > 0?
+					String.valueOf(encoderJobsLimit) : EncoderParameters.AUTO_JOB_LIMIT);
+			encoderInstancesField.setDisable(encoderJobsLimit == 0 || encoderController.isEncoding());
+		});
+	}
+	
+	/**
+	 * @see ControlListener#onEncodeRequested()
+	 */
+	@Override
+	public void onEncodeRequested() {
+		Platform.runLater(() -> {
+			if(!encoderController.isEncoding()) {
+				onEncode();
+			}
+		});
+	}
+	
 	private void initComponents() {
 		setupJobTableColumns();
+		setupSegmentTableColumns();
 		setupEncoderPresetsTab();
 		setupActionHandlers();			
 		
@@ -249,7 +452,9 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		moveJobUpButton.setAlignment(Pos.CENTER_LEFT);
 
 		cancelJobButton.setDisable(true);
+		pauseJobButton.setDisable(true);
 		cancelAllJobsButton.setDisable(true);
+		pauseAllJobsButton.setDisable(true);
 		//encodeButton.setDisable(true);
 		removeJobButton.setDisable(true);
 		editJobButton.setDisable(true);
@@ -265,6 +470,35 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		shutdownCheckBox.setSelected(Boolean.parseBoolean(
 				Helper.loadPreference(Helper.SHUTDOWN_COMPUTER_PROPERTY, "false")));
 		
+		final String metricsAddress = Helper.loadPreference(
+				Helper.METRICS_ADDRESS_PROPERTY, MetricsExporter.DEFAULT_ADDRESS);
+		final String metricsPort = Helper.loadPreference(
+				Helper.METRICS_PORT_PROPERTY, String.valueOf(MetricsExporter.DEFAULT_PORT));
+		metricsCheckBox.setText("Export metrics on http://" + metricsAddress + ":" + metricsPort + "/metrics");
+		metricsCheckBox.setSelected(Boolean.parseBoolean(
+				Helper.loadPreference(Helper.METRICS_ENABLED_PROPERTY, "false")));
+		onMetricsToggled();
+		
+		final String controlApiPort = Helper.loadPreference(
+				Helper.CONTROL_API_PORT_PROPERTY, String.valueOf(ControlServer.DEFAULT_PORT));
+		controlApiCheckBox.setText("Accept control requests on http://127.0.0.1:" + controlApiPort + "/api/");
+		controlApiCheckBox.setSelected(Boolean.parseBoolean(
+				Helper.loadPreference(Helper.CONTROL_API_ENABLED_PROPERTY, "false")));
+		onControlApiToggled();
+		
+		capacityProfilesField.setPromptText("<08:00-19:00 2 19; 19:00-08:00 Auto>");
+		capacityProfilesField.setText(Helper.loadPreference(Helper.CAPACITY_PROFILES_PROPERTY, ""));
+		capacityProfilesCheckBox.setTooltip(new Tooltip("Use a different number of encoder instances, and"
+				+ " priority (niceness 0 - 19), during parts of the day. Outside of these the instance limit is used"));
+		capacityProfilesCheckBox.setSelected(Boolean.parseBoolean(
+				Helper.loadPreference(Helper.CAPACITY_PROFILES_ENABLED_PROPERTY, "false")));
+		onCapacityProfilesToggled();
+		
+		segmentLogFilesCheckBox.setSelected(Boolean.parseBoolean(
+				Helper.loadPreference(Helper.SEGMENT_LOG_FILES_PROPERTY, "false")));
+		segmentLogFilesCheckBox.setTooltip(new Tooltip("Keep the full x264 output next to the segment files,"
+				+ " instead of reading it through the application"));
+		
 		mkvmergeExecField.setPromptText("<Select path to the mkvmerge.exe file>");
 		mkvmergeExecField.setText(Helper.loadPreference(
 				Helper.MKVMERGE_EXE_PATH_PROPERTY, ""));
@@ -283,6 +517,28 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		cpuProgressBar.setStyle(GREEN_PROGRESS_BAR);
 		
 		jobTable.setPlaceholder(new Label("Click [+] or drag-and-drop files to add jobs for encoding"));
+		
+		importGroupingComboBox.getItems().addAll(BatchImporter.Grouping.values());
+		final String importGrouping = Helper.loadPreference(
+				Helper.IMPORT_GROUPING_PROPERTY, BatchImporter.Grouping.PER_SCRIPT.name());
+		importGroupingComboBox.getSelectionModel().select(Arrays.stream(BatchImporter.Grouping.values()).filter(
+				g -> g.name().equals(importGrouping)).findFirst().orElse(BatchImporter.Grouping.PER_SCRIPT));
+		
+		jobPriorityComboBox.getItems().addAll(JobPriority.values());
+		jobPriorityComboBox.setPromptText("Priority");
+		jobPriorityComboBox.setDisable(true);
+		
+		importProgressStatus.setStyle(BOLD_FONT_STYLE);
+		importProgressBar.setStyle(GREEN_PROGRESS_BAR);
+		importProgressPane.setVisible(false);
+		importProgressPane.setManaged(false);
+		
+		watchFolderField.setPromptText("<Select a folder to watch for new AVS scripts>");
+		watchFolderField.setText(Helper.loadPreference(Helper.WATCH_FOLDER_PATH_PROPERTY, ""));
+		watchFolderCheckBox.setSelected(Boolean.parseBoolean(
+				Helper.loadPreference(Helper.WATCH_FOLDER_ENABLED_PROPERTY, "false")));
+		onWatchFolderToggled();
+		
 		jobTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 		
 		final Scene scene = new Scene(buildContentPane(), 950, 500);
@@ -334,6 +590,12 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	
 	private void setupJobQueueActionHandlers() {
 		addJobButton.setOnAction(e -> onAddJob(null));
+		importJobsButton.setOnAction(e -> onImportJobs(null));
+		cancelImportButton.setOnAction(e -> {
+			if(batchImporter != null) {
+				batchImporter.cancel();
+			}
+		});
 		removeJobButton.setOnAction(e -> {
 			final boolean allJobsRemoved = onRemoveJobs();
 			removeJobButton.setDisable(allJobsRemoved);
@@ -345,6 +607,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		
 		encoderController.addListener(this);
 		editJobButton.setOnAction(e -> onEditJob());
+		jobPriorityComboBox.setOnAction(e -> onJobPriorityChanged());
 		quitButton.setOnAction(this::onShutdown);
 		jobTable.getSelectionModel().getSelectedItems().addListener(this::onTableSelectionChanged);
 		jobTable.setRowFactory(tv -> {
@@ -354,6 +617,31 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		});
 		moveJobUpButton.setOnAction(e -> onMoveSelectedJob(-1));
 		moveJobDownButton.setOnAction(e -> onMoveSelectedJob(1));
+		
+		watchFolderCheckBox.setOnAction(e -> onWatchFolderToggled());
+		watchFolderButton.setOnAction(e -> {
+			final String initialPath = watchFolderField.getText();
+			final File selectedFolder = Helper.showDirectoryChooser(stage, "Select watch folder",
+					!initialPath.isEmpty() && Files.isDirectory(Paths.get(initialPath))? initialPath :
+						System.getProperty("user.home"));
+			if(selectedFolder != null) {
+				watchFolderField.setText(selectedFolder.getAbsolutePath());
+			}
+		});
+		watchFolderTemplateButton.setOnAction(e -> {
+			final JobSettingsWindow templateWindow = new JobSettingsWindow(
+					stage, encoderPresetsView.getItems(), Helper.loadWatchFolderTemplate(), watchFolderField.getText());
+			final EncoderJobParameters jobTemplate = templateWindow.showAndWait();
+			if(jobTemplate != null) {
+				Helper.storeWatchFolderTemplate(jobTemplate);
+				
+				//Restart the watch folder, so that the new template is used for the coming scripts
+				if(watchFolder != null) {
+					stopWatchFolder();
+					onWatchFolderToggled();
+				}
+			}
+		});
 	}
 	
 	private void setupEncoderOptionsActionHandlers() {
@@ -372,6 +660,9 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		});	
 		encodeButton.setOnAction(e -> onEncode());
 		
+		metricsCheckBox.setOnAction(e -> onMetricsToggled());
+		controlApiCheckBox.setOnAction(e -> onControlApiToggled());
+		capacityProfilesCheckBox.setOnAction(e -> onCapacityProfilesToggled());
 		encoderInstancesCheckBox.setOnAction(e -> {
 			encoderInstancesField.setText(encoderInstancesCheckBox.isSelected()? null : "Auto");
 			encoderInstancesField.setDisable(!encoderInstancesCheckBox.isSelected());
@@ -432,6 +723,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		encoderInstancesField.setDisable(!enabled || !encoderInstancesCheckBox.isSelected());
 		encoderInstancesCheckBox.setDisable(!enabled);
 		encodeButton.setDisable(!enabled);
+		segmentLogFilesCheckBox.setDisable(!enabled);
 		
 		mkvmergeExecButton.setDisable(!enabled);
 		mkvmergeExecField.setDisable(!enabled);
@@ -440,7 +732,25 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		x264ExecField.setDisable(!enabled);		
 		
 		cancelAllJobsButton.setDisable(enabled);
+		pauseAllJobsButton.setDisable(enabled);
+		pauseAllJobsButton.setText("Pause All");
 		cancelJobButton.setDisable(enabled);
+		updatePauseJobButton();
+	}
+	
+	private void onCapacityProfilesToggled() {
+		List<CapacityProfile> capacityProfiles = Collections.emptyList();
+		if(capacityProfilesCheckBox.isSelected()) {
+			try {
+				capacityProfiles = CapacityProfile.parse(capacityProfilesField.getText());
+				capacityProfilesField.setText(CapacityProfile.format(capacityProfiles));
+			} catch(final IllegalArgumentException iae) {
+				capacityProfilesCheckBox.setSelected(false);
+				Helper.showAlert(stage, AlertType.ERROR, iae.getMessage(), "Invalid Capacity Profile");
+			}
+		}
+		capacityProfilesField.setDisable(capacityProfilesCheckBox.isSelected());
+		encoderController.setCapacityProfiles(capacityProfiles);
 	}
 	
 	private void onEncode() {
@@ -449,13 +759,29 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		currentJobProgressStatus.setText("");
 		
 		final String encoderJobLimit = encoderInstancesField.getText();
+		final String progressUpdateInterval = Helper.loadPreference(Helper.PROGRESS_UPDATE_INTERVAL_PROPERTY,
+				String.valueOf(EncoderParameters.DEFAULT_PROGRESS_UPDATE_INTERVAL));
+		final String segmentsPerSlot = Helper.loadPreference(Helper.SEGMENTS_PER_SLOT_PROPERTY,
+				String.valueOf(EncoderParameters.DEFAULT_SEGMENTS_PER_SLOT));
+		final String smallJobFrameLimit = Helper.loadPreference(Helper.SMALL_JOB_FRAME_LIMIT_PROPERTY,
+				String.valueOf(EncoderParameters.DEFAULT_SMALL_JOB_FRAME_LIMIT));
 		final EncoderParameters encoderParameters = new EncoderParameters(
 				x264ExecField.getText(),
 				mkvmergeExecField.getText(),
-				EncoderParameters.AUTO_JOB_LIMIT.equals(encoderJobLimit)? 0 : Integer.parseInt(encoderJobLimit));
+				EncoderParameters.AUTO_JOB_LIMIT.equals(encoderJobLimit)? 0 : Integer.parseInt(encoderJobLimit),
+				!progressUpdateInterval.isEmpty() && Helper.isNumber(progressUpdateInterval)? Long.parseLong(progressUpdateInterval) :
+					EncoderParameters.DEFAULT_PROGRESS_UPDATE_INTERVAL,
+				segmentLogFilesCheckBox.isSelected(),
+				QueuePolicy.valueOf(Helper.loadPreference(Helper.QUEUE_POLICY_PROPERTY, QueuePolicy.FIFO.name())),
+				!segmentsPerSlot.isEmpty() && Helper.isNumber(segmentsPerSlot)? Integer.parseInt(segmentsPerSlot) :
+					EncoderParameters.DEFAULT_SEGMENTS_PER_SLOT,
+				!smallJobFrameLimit.isEmpty() && Helper.isNumber(smallJobFrameLimit)? Long.parseLong(smallJobFrameLimit) :
+					EncoderParameters.DEFAULT_SMALL_JOB_FRAME_LIMIT);
 		
 		cancelJobButton.setOnAction(e -> onCancelJob(false));
 		cancelAllJobsButton.setOnAction(e -> onCancelJob(true));
+		pauseJobButton.setOnAction(e -> onPauseJob());
+		pauseAllJobsButton.setOnAction(e -> onPauseAllJobs());
 
 		encoderController.encode(encoderParameters);				
 	}
@@ -469,6 +795,11 @@ public final class ApplicationWindow implements EncodingProgressListener {
 			removeJobButton.setDisable(false);
 			cancelJobButton.setDisable(selectedJobs.stream().filter(
 					j -> j.getJobStatus() == JobStatus.RUNNING).count() == 0);
+			updatePauseJobButton();
+			
+			//With several jobs selected, no priority is shown until the user picks one for all of them
+			jobPriorityComboBox.setDisable(selectedJobs.isEmpty());
+			jobPriorityComboBox.setValue(selectedJobs.size() == 1? selectedJobs.get(0).getJobPriority() : null);
 			
 			boolean moveJobUpAllowed = false;
 			boolean moveJobDownAllowed = false;
@@ -489,6 +820,48 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	}
 	
 	@SuppressWarnings("unchecked")
+	private void setupSegmentTableColumns() {
+		final TableColumn<SegmentProgressView, String> segmentColumn = buildSegmentColumn("Segment", 70,
+				s -> String.valueOf(s.getSegmentIndex()));
+		final TableColumn<SegmentProgressView, String> stateColumn = buildSegmentColumn("State", 80,
+				s -> s.getState().name());
+		final TableColumn<SegmentProgressView, String> progressColumn = buildSegmentColumn("Progress", 150,
+				s -> numberFormatter.format(100 * s.getPercentDone()) + "% [ " + s.getFramesDone() + "/"
+						+ s.getTotalFrames() + " ]");
+		final TableColumn<SegmentProgressView, String> fpsColumn = buildSegmentColumn("FPS", 70,
+				s -> numberFormatter.format(s.getFps()));
+		final TableColumn<SegmentProgressView, String> cpuColumn = buildSegmentColumn("CPU", 70,
+				s -> s.getResourceUsage().isKnown()?
+						numberFormatter.format(100 * s.getResourceUsage().getCpuLoad()) + "%" : "");
+		final TableColumn<SegmentProgressView, String> rssColumn = buildSegmentColumn("Memory", 90,
+				s -> formatBytes(s.getResourceUsage().getRssBytes()));
+		final TableColumn<SegmentProgressView, String> readColumn = buildSegmentColumn("Read", 90,
+				s -> formatBytes(s.getResourceUsage().getReadBytes()));
+		final TableColumn<SegmentProgressView, String> writeColumn = buildSegmentColumn("Written", 90,
+				s -> formatBytes(s.getResourceUsage().getWriteBytes()));
+		final TableColumn<SegmentProgressView, String> contextSwitchesColumn = buildSegmentColumn(
+				"Context Switches", 130, s -> s.getResourceUsage().isKnown()?
+						s.getResourceUsage().getVoluntaryContextSwitches() + " / "
+						+ s.getResourceUsage().getInvoluntaryContextSwitches() : "");
+		
+		segmentTable.getColumns().setAll(segmentColumn, stateColumn, progressColumn, fpsColumn, cpuColumn,
+				rssColumn, readColumn, writeColumn, contextSwitchesColumn);
+		segmentTable.setPlaceholder(new Label("Segments of the running job will be shown here"));
+	}
+	
+	private TableColumn<SegmentProgressView, String> buildSegmentColumn(final String title, final double width,
+			final Function<SegmentProgressView, String> valueConverter) {
+		final TableColumn<SegmentProgressView, String> column = new TableColumn<>(title);
+		column.setCellValueFactory(v -> new ReadOnlyStringWrapper(valueConverter.apply(v.getValue())));
+		column.setSortable(false);
+		column.setPrefWidth(width);
+		return column;
+	}
+	
+	private String formatBytes(final long bytes) {
+		return bytes < 0? "" : numberFormatter.format(bytes / (1024.0 * 1024.0)) + " MB";
+	}
+	
 	private void setupJobTableColumns() {
 		final TableColumn<QueuedJob, String> jobNameColumn = new TableColumn<>("Name");
 		jobNameColumn.setCellValueFactory(v -> v.getValue().nameProperty());
@@ -498,6 +871,10 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		statusColumn.setCellValueFactory(v -> v.getValue().statusProperty());
 		statusColumn.setPrefWidth(100);
 		
+		final TableColumn<QueuedJob, String> priorityColumn = new TableColumn<>("Priority");
+		priorityColumn.setCellValueFactory(v -> v.getValue().priorityProperty());
+		priorityColumn.setPrefWidth(70);
+		
 		final TableColumn<QueuedJob, String> messageColumn = new TableColumn<>("Message");
 		messageColumn.setCellValueFactory(v -> v.getValue().messageProperty());
 		messageColumn.setPrefWidth(100);
@@ -518,7 +895,8 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		timeStartedColumn.setCellValueFactory(v -> v.getValue().timeStartedProperty());		
 		timeStartedColumn.setPrefWidth(150);
 		addCellFactory(timeStartedColumn, j -> 
-			j.getJobStatus() != JobStatus.QUEUED? Helper.formatMillisToDate(j.getTimeStarted()) : "");
+			j.getJobStatus() != JobStatus.QUEUED && j.getJobStatus() != JobStatus.PAUSED?
+					Helper.formatMillisToDate(j.getTimeStarted()) : "");
 		
 		final TableColumn<QueuedJob, Number> timeCompletedColumn = new TableColumn<>("Completed");
 		timeCompletedColumn.setCellValueFactory(v -> v.getValue().timeCompletedProperty());
@@ -530,15 +908,17 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		timeTakenColumn.setCellValueFactory(v -> v.getValue().timeTakenProperty());
 		timeTakenColumn.setPrefWidth(150);
 		addCellFactory(timeTakenColumn, j -> 
-			j.getJobStatus() != JobStatus.QUEUED? Helper.formatSecondsToHumanTime(j.getTimeTaken() / 1000) : "");
+			j.getJobStatus() != JobStatus.QUEUED && j.getJobStatus() != JobStatus.PAUSED?
+					Helper.formatSecondsToHumanTime(j.getTimeTaken() / 1000) : "");
 		
 		final TableColumn<QueuedJob, Boolean> cleanupFilesColumn = new TableColumn<>("Cleanup");
 		cleanupFilesColumn.setCellValueFactory(v -> v.getValue().deleteTemporaryFilesProperty());
 		addCellFactory(cleanupFilesColumn, j -> j.getCleanupIntermediateFiles()? "Yes" : "No");
 		
-		jobTable.getColumns().setAll(jobNameColumn, statusColumn, messageColumn, outputPathColumn,
-				encoderPresetColumn, outputSarColumn, timeStartedColumn,
+		final List<TableColumn<QueuedJob, ?>> jobColumns = Arrays.asList(jobNameColumn, statusColumn, priorityColumn,
+				messageColumn, outputPathColumn, encoderPresetColumn, outputSarColumn, timeStartedColumn,
 				timeCompletedColumn, timeTakenColumn, cleanupFilesColumn);
+		jobTable.getColumns().setAll(jobColumns);
 	}
 	
 	private <T> void addCellFactory(final TableColumn<QueuedJob, T> column,
@@ -562,7 +942,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	}
 	
 	private Parent buildContentPane() {
-		final LogTabView logTabView = new LogTabView(stage, loggerView, logger);
+		logTabView = new LogTabView(stage, loggerView, logger);
 		tabPane.getTabs().addAll(buildEncoderTab(), buildJobsTab(), buildPresetsTab(), logTabView.getTab());
 		
 		final BorderPane mainPane = new BorderPane();
@@ -574,8 +954,15 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		mainPane.setOnDragDropped(e -> {
 			final List<String> droppedFilePaths = Helper.handleDragDropped(e);
 			if(!droppedFilePaths.isEmpty()) {
-				tabPane.getSelectionModel().select(1);				
-				onAddJob(droppedFilePaths);
+				tabPane.getSelectionModel().select(1);
+				
+				//Several scripts (or whole directories) are imported as separate jobs
+				if(droppedFilePaths.size() > 1 || droppedFilePaths.stream().anyMatch(p -> Files.isDirectory(Paths.get(p)))) {
+					onImportJobs(droppedFilePaths);
+				}
+				else {
+					onAddJob(droppedFilePaths);
+				}
 			}			
 		});
 		
@@ -622,10 +1009,17 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	
 	private Tab buildEncoderTab() {
 		final VBox encoderPane = new VBox(10);
-		encoderPane.getChildren().addAll(buildProgressPane(),
-				buildExecutablesPathPane(), buildEncoderOptionsPane(), shutdownCheckBox);
+		encoderPane.getChildren().addAll(buildProgressPane(), segmentTable,
+				buildExecutablesPathPane(), buildEncoderOptionsPane(), segmentLogFilesCheckBox,
+				shutdownCheckBox, metricsCheckBox, controlApiCheckBox);
+		
+		VBox.setVgrow(segmentTable, Priority.ALWAYS);
+		VBox.setMargin(segmentTable, new Insets(0, 5, 0, 5));
 		
 		VBox.setMargin(shutdownCheckBox, new Insets(0, 0, 0, 20));
+		VBox.setMargin(metricsCheckBox, new Insets(0, 0, 0, 20));
+		VBox.setMargin(controlApiCheckBox, new Insets(0, 0, 0, 20));
+		VBox.setMargin(segmentLogFilesCheckBox, new Insets(0, 0, 0, 20));
 		
 		final Tab encoderTab = new Tab("Encoder", encoderPane);
 		encoderTab.setClosable(false);
@@ -644,6 +1038,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		final BorderPane jobsPane = new BorderPane();
 		jobsPane.setTop(buildJobButtonsPane());
 		jobsPane.setCenter(buildJobTablePane());
+		jobsPane.setBottom(new VBox(buildWatchFolderPane(), buildImportProgressPane()));
 		
 		return jobsPane;
 	}
@@ -674,11 +1069,11 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	
 	private Pane buildJobButtonsPane() {
 		final HBox jobLifeCyclePane = new HBox(5);
-		jobLifeCyclePane.getChildren().addAll(addJobButton, removeJobButton);
+		jobLifeCyclePane.getChildren().addAll(importGroupingComboBox, importJobsButton, addJobButton, removeJobButton);
 		jobLifeCyclePane.setAlignment(Pos.CENTER_RIGHT);
 		
 		final HBox jobEditPane = new HBox(5);
-		jobEditPane.getChildren().addAll(editJobButton, cancelJobButton);
+		jobEditPane.getChildren().addAll(jobPriorityComboBox, editJobButton, pauseJobButton, cancelJobButton);
 		jobEditPane.setAlignment(Pos.CENTER_RIGHT);
 		
 		final BorderPane buttonsPane = new BorderPane();
@@ -692,6 +1087,31 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		return buttonsPane;
 	}
 	
+	private Pane buildWatchFolderPane() {
+		final HBox watchFolderPane = new HBox(5);
+		watchFolderPane.getChildren().addAll(watchFolderCheckBox, watchFolderField,
+				watchFolderButton, watchFolderTemplateButton);
+		watchFolderPane.setAlignment(Pos.CENTER_LEFT);
+		watchFolderPane.setPadding(new Insets(5));
+		
+		HBox.setHgrow(watchFolderField, Priority.ALWAYS);
+		
+		return watchFolderPane;
+	}
+	
+	private Pane buildImportProgressPane() {
+		final StackPane importProgressStatusPane = new StackPane(importProgressBar, importProgressStatus);
+		importProgressBar.setMaxWidth(Double.POSITIVE_INFINITY);
+		
+		importProgressPane.getChildren().addAll(importProgressStatusPane, cancelImportButton);
+		importProgressPane.setAlignment(Pos.CENTER_LEFT);
+		importProgressPane.setPadding(new Insets(5));
+		
+		HBox.setHgrow(importProgressStatusPane, Priority.ALWAYS);
+		
+		return importProgressPane;
+	}
+	
 	private Pane buildProgressPane() {				
 		final Label currentJobProgressLabel = new Label("Current job progress: ");
 		final Label totalJobProgressLabel = new Label("Total job progress: ");
@@ -734,7 +1154,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 	
 	private Pane buildButtonsPane() {
 		final HBox jobControlButtonsPane = new HBox(5);
-		jobControlButtonsPane.getChildren().addAll(encodeButton, cancelAllJobsButton);
+		jobControlButtonsPane.getChildren().addAll(encodeButton, pauseAllJobsButton, cancelAllJobsButton);
 		jobControlButtonsPane.setAlignment(Pos.CENTER_RIGHT);
 		
 		final BorderPane buttonsPane = new BorderPane();
@@ -753,10 +1173,14 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		encoderInstancesField.setPrefWidth(80);
 		
 		final HBox encoderOptionsPane = new HBox(5);
-		encoderOptionsPane.getChildren().addAll(encoderInstancesCheckBox, encoderInstancesField);		
+		encoderOptionsPane.getChildren().addAll(encoderInstancesCheckBox, encoderInstancesField,
+				capacityProfilesCheckBox, capacityProfilesField);		
 		encoderOptionsPane.setAlignment(Pos.CENTER_LEFT);
 		
 		HBox.setMargin(encoderInstancesCheckBox, new Insets(0, 0, 0, 20));
+		HBox.setMargin(capacityProfilesCheckBox, new Insets(0, 0, 0, 20));
+		HBox.setMargin(capacityProfilesField, new Insets(0, 5, 0, 0));
+		HBox.setHgrow(capacityProfilesField, Priority.ALWAYS);
 				
 		return encoderOptionsPane;
 	}
@@ -790,6 +1214,123 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		return execPathPane;
 	}
 	
+	private void onMetricsToggled() {
+		if(!metricsCheckBox.isSelected()) {
+			if(metricsExporter != null) {
+				metricsExporter.stop();
+				metricsExporter = null;
+				logger.log(LogEntry.Severity.INFO, "Metrics endpoint was stopped");
+			}
+			return;
+		}
+		if(metricsExporter != null) {
+			return;
+		}
+		final String metricsAddress = Helper.loadPreference(
+				Helper.METRICS_ADDRESS_PROPERTY, MetricsExporter.DEFAULT_ADDRESS);
+		final String metricsPort = Helper.loadPreference(
+				Helper.METRICS_PORT_PROPERTY, String.valueOf(MetricsExporter.DEFAULT_PORT));
+		try {
+			metricsExporter = new MetricsExporter(encoderController, metricsAddress,
+					!metricsPort.isEmpty() && Helper.isNumber(metricsPort)?
+							Integer.parseInt(metricsPort) : MetricsExporter.DEFAULT_PORT);
+			metricsExporter.start();
+			logger.log(LogEntry.Severity.INFO, "Metrics endpoint was started: " + metricsCheckBox.getText());
+		} catch(final IOException | IllegalArgumentException e) {
+			metricsCheckBox.setSelected(false);
+			logger.log(LogEntry.Severity.ERROR, "Failed to start the metrics endpoint due to: " + e.getMessage());
+		}
+	}
+	
+	private void onControlApiToggled() {
+		if(!controlApiCheckBox.isSelected()) {
+			if(controlServer != null) {
+				controlServer.stop();
+				controlServer = null;
+				logger.log(LogEntry.Severity.INFO, "Control API was stopped");
+			}
+			return;
+		}
+		if(controlServer != null) {
+			return;
+		}
+		final String controlApiPort = Helper.loadPreference(
+				Helper.CONTROL_API_PORT_PROPERTY, String.valueOf(ControlServer.DEFAULT_PORT));
+		try {
+			controlServer = new ControlServer(encoderController,
+					!controlApiPort.isEmpty() && Helper.isNumber(controlApiPort)?
+							Integer.parseInt(controlApiPort) : ControlServer.DEFAULT_PORT, logger, this);
+			controlServer.start();
+			logger.log(LogEntry.Severity.INFO, "Control API was started: " + controlApiCheckBox.getText());
+		} catch(final IOException | IllegalArgumentException e) {
+			controlApiCheckBox.setSelected(false);
+			logger.log(LogEntry.Severity.ERROR, "Failed to start the control API due to: " + e.getMessage());
+		}
+	}
+	
+	private void onWatchFolderToggled() {
+		watchFolderField.setDisable(watchFolderCheckBox.isSelected());
+		watchFolderButton.setDisable(watchFolderCheckBox.isSelected());
+		
+		if(!watchFolderCheckBox.isSelected()) {
+			if(watchFolder != null) {
+				stopWatchFolder();
+				logger.log(LogEntry.Severity.INFO, "Stopped watching the folder");
+			}
+			return;
+		}
+		if(watchFolder != null) {
+			return;
+		}
+		final String watchFolderPath = watchFolderField.getText();
+		if(watchFolderPath.isEmpty() || !Files.isDirectory(Paths.get(watchFolderPath))) {
+			logger.log(LogEntry.Severity.ERROR, "Watch folder [ " + watchFolderPath + " ] is not a directory");
+			watchFolderCheckBox.setSelected(false);
+			onWatchFolderToggled();
+			return;
+		}
+		final EncoderJobParameters jobTemplate = Helper.loadWatchFolderTemplate();
+		if(WatchFolder.isSameFolder(watchFolderPath, jobTemplate.getJobOutputPath())) {
+			logger.log(LogEntry.Severity.ERROR, "Watch folder [ " + watchFolderPath + " ] can't be the output path"
+					+ " of its job template, the encoder's own scripts would be queued as new jobs");
+			watchFolderCheckBox.setSelected(false);
+			onWatchFolderToggled();
+			return;
+		}
+		watchFolder = new WatchFolder(Paths.get(watchFolderPath), jobTemplate,
+				WatchFolder.DEFAULT_STABILITY_PERIOD, logger, this::onWatchedJobFound);
+		try {
+			watchFolder.start();
+			logger.log(LogEntry.Severity.INFO, "Watching folder " + watchFolder.getFolder() + " for new scripts");
+		} catch(final IOException ioe) {
+			watchFolder = null;
+			watchFolderCheckBox.setSelected(false);
+			onWatchFolderToggled();
+			logger.log(LogEntry.Severity.ERROR, "Failed to watch the folder due to: " + ioe.getMessage());
+		}
+	}
+	
+	private void stopWatchFolder() {
+		if(watchFolder != null) {
+			watchFolder.stop();
+			watchFolder = null;
+		}
+	}
+	
+	private void onWatchedJobFound(final QueuedJob queuedJob) {
+		Platform.runLater(() -> {
+			synchronized(jobTable) {
+				jobTable.getItems().add(queuedJob);
+				encoderController.add(queuedJob);
+				queuedJob.setStatus(JobStatus.QUEUED);
+			}
+			//Keep the encoder busy, the job is picked up by the running encoding if there is one
+			if(watchFolder != null && !encoderController.isEncoding()) {
+				onEncode();
+			}
+		});
+	}
+	
 	private void onShutdown(final Event event) {
 		if(!Helper.showAlert(stage, AlertType.WARNING,
 				"Are you sure you want to quit?", "Exit Confirmation")) {
@@ -797,7 +1338,15 @@ public final class ApplicationWindow implements EncodingProgressListener {
 			return;
 		}
 		encoderController.cancelAll();
+		if(metricsExporter != null) {
+			metricsExporter.stop();
+		}
+		if(controlServer != null) {
+			controlServer.stop();
+		}
+		stopWatchFolder();
 		storeApplicationState();
+		logTabView.close();
 		Platform.exit();
 	}
 	
@@ -827,6 +1376,7 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		final QueuedJob selectedJob = jobs.remove(selectedRowIndex);
 		final int newSelectionIndex = selectedRowIndex + direction; 
 		jobs.add(newSelectionIndex, selectedJob);
+		encoderController.move(selectedJob, newSelectionIndex);
 		jobTable.getSelectionModel().clearAndSelect(newSelectionIndex);
 	}
 	
@@ -900,6 +1450,43 @@ public final class ApplicationWindow implements EncodingProgressListener {
 		}
 	}
 	
+	private void onImportJobs(final List<String> avsPaths) {
+		if(batchImporter != null) {
+			Helper.showAlert(stage, AlertType.INFORMATION, "Please wait for the current import to complete.", "Import");
+			return;
+		}
+		
+		List<String> importedPaths = avsPaths;
+		if(importedPaths == null) {
+			final String initialFileChooserPath = Helper.loadPreference(
+					Helper.LAST_OUTPUT_PATH_PROPERTY, System.getProperty("user.home"));
+			final List<File> selectedFiles = Helper.showOpenFileChooser(stage, "Select AVS scripts to import",
+					Files.exists(Paths.get(initialFileChooserPath))? initialFileChooserPath : System.getProperty("user.home"),
+					Arrays.asList(new ExtensionFilter("AVS scripts", "*.avs"), new ExtensionFilter("All files", "*.*")), true);
+			if(selectedFiles == null || selectedFiles.isEmpty()) {
+				return;
+			}
+			importedPaths = selectedFiles.stream().map(File::getAbsolutePath).collect(Collectors.toList());
+		}
+		
+		try {
+			batchImporter = new BatchImporter(importedPaths, importGroupingComboBox.getValue(),
+					EncoderJobParameters.getDefault(), logger, this);
+		} catch(final IOException ioe) {
+			Helper.showAlert(stage, AlertType.ERROR, "An error occurred while reading input file(s):\n"
+					+ ioe.getMessage(), "Invalid input");
+			return;
+		}
+		
+		importJobsButton.setDisable(true);
+		importProgressBar.setProgress(0);
+		importProgressStatus.setText("Importing " + batchImporter.getTotalFileCount() + " scripts...");
+		importProgressPane.setVisible(true);
+		importProgressPane.setManaged(true);
+		
+		batchImporter.start();
+	}
+	
 	private void onEditJob() {			
 		final ObservableList<QueuedJob> selectedJobs = jobTable.getSelectionModel().getSelectedItems();
 		if(selectedJobs.size() == 1) {
@@ -926,10 +1513,59 @@ public final class ApplicationWindow implements EncodingProgressListener {
 			encoderController.cancelAll();
 		}
 		else {
-			encoderController.cancel();
+			//The selected job might have been preempted, rather than being the one that is encoding
+			new ArrayList<>(jobTable.getSelectionModel().getSelectedItems()).stream().filter(
+					j -> j.getJobStatus() == JobStatus.RUNNING).forEach(encoderController::cancel);
 		}			
 	}
 	
+	private void onJobPriorityChanged() {
+		final JobPriority jobPriority = jobPriorityComboBox.getValue();
+		if(jobPriority == null) {
+			return;
+		}
+		jobTable.getSelectionModel().getSelectedItems().stream().filter(j -> j.getJobPriority() != jobPriority).forEach(
+				j -> encoderController.setPriority(j, jobPriority));
+	}
+	
+	private void onPauseJob() {
+		final QueuedJob selectedJob = jobTable.getSelectionModel().getSelectedItem();
+		if(selectedJob == null) {
+			return;
+		}
+		if(encoderController.isPaused(selectedJob)) {
+			encoderController.resume(selectedJob);
+		}
+		else {
+			encoderController.pause(selectedJob);
+		}
+		updatePauseJobButton();
+	}
+	
+	private void onPauseAllJobs() {
+		if(encoderController.isPaused()) {
+			encoderController.resume();
+			pauseAllJobsButton.setText("Pause All");
+		}
+		else {
+			encoderController.pause();
+			pauseAllJobsButton.setText("Resume All");
+		}
+		updatePauseJobButton();
+	}
+	
+	private void updatePauseJobButton() {
+		final ObservableList<QueuedJob> selectedJobs = jobTable.getSelectionModel().getSelectedItems();
+		final QueuedJob selectedJob = selectedJobs.size() == 1? selectedJobs.get(0) : null;
+		
+		//Only running and waiting jobs can be paused
+		final boolean pausable = selectedJob != null && (selectedJob.getJobStatus() == JobStatus.RUNNING
+				|| selectedJob.getJobStatus() == JobStatus.QUEUED || selectedJob.getJobStatus() == JobStatus.PAUSED)
+				&& !encoderController.isPreempted(selectedJob);
+		pauseJobButton.setDisable(!pausable);
+		pauseJobButton.setText(pausable && encoderController.isPaused(selectedJob)? "Resume" : "Pause");
+	}
+	
 	private boolean onRemoveJobs() {	
 		synchronized(jobTable) {
 			final boolean userAccepted = Helper.showAlert(stage, AlertType.WARNING,
@@ -950,5 +1586,19 @@ public final class ApplicationWindow implements EncodingProgressListener {
 				String.valueOf(shutdownCheckBox.isSelected()));
 		Helper.storePreference(Helper.ENCODER_JOB_LIMIT_PROPERTY,
 				encoderInstancesField.getText());
+		Helper.storePreference(Helper.IMPORT_GROUPING_PROPERTY,
+				importGroupingComboBox.getValue().name());
+		Helper.storePreference(Helper.METRICS_ENABLED_PROPERTY,
+				String.valueOf(metricsCheckBox.isSelected()));
+		Helper.storePreference(Helper.SEGMENT_LOG_FILES_PROPERTY,
+				String.valueOf(segmentLogFilesCheckBox.isSelected()));
+		Helper.storePreference(Helper.CONTROL_API_ENABLED_PROPERTY,
+				String.valueOf(controlApiCheckBox.isSelected()));
+		Helper.storePreference(Helper.WATCH_FOLDER_ENABLED_PROPERTY,
+				String.valueOf(watchFolderCheckBox.isSelected()));
+		Helper.storePreference(Helper.WATCH_FOLDER_PATH_PROPERTY, watchFolderField.getText());
+		Helper.storePreference(Helper.CAPACITY_PROFILES_ENABLED_PROPERTY,
+				String.valueOf(capacityProfilesCheckBox.isSelected()));
+		Helper.storePreference(Helper.CAPACITY_PROFILES_PROPERTY, capacityProfilesField.getText());
 	}
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import javafx.beans.property.SimpleListProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -32,6 +33,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Window;
+import org.matic.x264batcher.encoder.WatchFolder;
 import org.matic.x264batcher.model.EncoderJobParameters;
 import org.matic.x264batcher.model.EncoderPreset;
 import org.matic.x264batcher.utils.Helper;
@@ -47,7 +49,9 @@ import java.util.stream.Collectors;
 
 /**
  * A window that shows properties of an encoder job. It is shown both
- * when adding a new job, and also when editing an existing job.
+ * when adding a new job, and also when editing an existing job. It is also
+ * used for editing a job template, in which case only the properties that
+ * are shared by all of the jobs (no name and no input files) are shown.
  * 
  * @author Vedran Matic
  *
@@ -72,6 +76,9 @@ final class JobSettingsWindow {
 	private final ComboBox<EncoderPreset> encoderPresetCombo;
 	
 	private final Dialog<ButtonType> window = new Dialog<>();
+	
+	private final boolean template;
+	private final String watchFolderPath;
 
 	/**
 	 * Create a new instance of job settings window.
@@ -82,6 +89,27 @@ final class JobSettingsWindow {
 	 */
 	JobSettingsWindow(final Window owner, final List<EncoderPreset> encoderPresets,
 					  final EncoderJobParameters jobParameters) {
+		this(owner, encoderPresets, jobParameters, false, null);
+	}
+	
+	/**
+	 * Create a new instance of job settings window, for editing a watch folder's job template.
+	 * The default job settings are then left untouched.
+	 * 
+	 * @param owner Parent and owner of this window 
+	 * @param encoderPresets A list of all available encoder presets to set
+	 * @param jobTemplate The edited job template
+	 * @param watchFolderPath The watch folder that the template is used for, which can't be the output path
+	 */
+	JobSettingsWindow(final Window owner, final List<EncoderPreset> encoderPresets,
+					  final EncoderJobParameters jobTemplate, final String watchFolderPath) {
+		this(owner, encoderPresets, jobTemplate, true, watchFolderPath);
+	}
+	
+	private JobSettingsWindow(final Window owner, final List<EncoderPreset> encoderPresets,
+					  final EncoderJobParameters jobParameters, final boolean template, final String watchFolderPath) {
+		this.template = template;
+		this.watchFolderPath = watchFolderPath;
 		window.initOwner(owner);
 		
 		encoderPresetCombo = new ComboBox<>(
@@ -101,7 +129,9 @@ final class JobSettingsWindow {
 	EncoderJobParameters showAndWait() {
 		final Optional<ButtonType> result = window.showAndWait();
 		if(result.isPresent() && result.get() == ButtonType.OK) {
-			storeJobState();
+			if(!template) {
+				storeJobState();
+			}
 			final String outputSar = sarNominatorField.getText() + ":" + sarDenominatorField.getText();
 			return new EncoderJobParameters(jobNameField.getText(), outputPathField.getText(), outputSar,
 					new ArrayList<>(inputFileList.getItems()),
@@ -253,17 +283,29 @@ final class JobSettingsWindow {
 		sarNominatorField.setMaxWidth(80);
 		
 		window.setHeaderText(null);
-		window.setTitle("Job Settings");
+		window.setTitle(template? "Job Template" : "Job Settings");
 		
 		window.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
 		
 		final SimpleListProperty<String> inputFileListProperty = new SimpleListProperty<>(inputFileList.getItems());
 		
-		final BooleanBinding okButtonBinding = outputPathField.textProperty().isEmpty().or(
+		final BooleanBinding settingsBinding = outputPathField.textProperty().isEmpty().or(
 				sarNominatorField.textProperty().isEmpty()).or(
-						sarDenominatorField.textProperty().isEmpty()).or(inputFileListProperty.emptyProperty());
+						sarDenominatorField.textProperty().isEmpty());
+		
+		//A template has no input files of its own
+		final BooleanBinding okButtonBinding = template? settingsBinding :
+				settingsBinding.or(inputFileListProperty.emptyProperty());
 		final Button okButton = (Button)window.getDialogPane().lookupButton(ButtonType.OK);
 		okButton.disableProperty().bind(okButtonBinding);
+		okButton.addEventFilter(ActionEvent.ACTION, e -> {
+			if(template && WatchFolder.isSameFolder(watchFolderPath, outputPathField.getText())) {
+				Helper.showAlert(window.getDialogPane().getScene().getWindow(), Alert.AlertType.ERROR,
+						"The output path can't be the watch folder,\nthe encoder's own scripts would be"
+						+ " queued as new jobs.", "Invalid Output Path");
+				e.consume();
+			}
+		});
 
 		window.setResizable(true);		
 		window.getDialogPane().setContent(layoutContent());
@@ -290,8 +332,10 @@ final class JobSettingsWindow {
 		mainPane.add(outputPathField, 1, 0);
 		mainPane.add(outputPathButton, 2, 0);
 		
-		mainPane.add(jobNameLabel, 0, 1);
-		mainPane.add(jobNameField, 1, 1);
+		if(!template) {
+			mainPane.add(jobNameLabel, 0, 1);
+			mainPane.add(jobNameField, 1, 1);
+		}
 		
 		mainPane.add(encoderPresetLabel, 0, 2);
 		mainPane.add(encoderPresetCombo, 1, 2);
@@ -301,8 +345,10 @@ final class JobSettingsWindow {
 		
 		mainPane.add(deleteTemporaryFilesCheckBox, 0, 4, 2, 1);
 		
-		final Node jobListView = buildJobListView();		
-        mainPane.add(jobListView, 0, 5, 3, 1);        
+		final Node jobListView = buildJobListView();
+		if(!template) {
+			mainPane.add(jobListView, 0, 5, 3, 1);
+		}
         
 		mainPane.setPadding(new Insets(5));
 		
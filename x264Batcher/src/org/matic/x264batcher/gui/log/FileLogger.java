@@ -20,34 +20,246 @@
 package org.matic.x264batcher.gui.log;
 
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
- * A simple file logger that writes contents of ListView log to a file.
+ * A file logger that writes log entries to a file on a background thread, so that
+ * the logging threads never wait on the disk. The entries are passed through a bounded
+ * queue and dropped (and counted) if the writer can't keep up. The log file is rotated
+ * when it grows too large or gets too old, keeping a limited number of previous files
+ * as [name].1, [name].2 and so on. The entries are written either as plain text lines
+ * or as JSON objects, one per line. If the file can't be written to, the failure is passed
+ * to a failure handler and no more entries are written.
  *
  * @author Vedran Matic
  */
 public final class FileLogger {
 
+    public static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+    public static final long DEFAULT_ROTATION_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    public static final int DEFAULT_MAX_BACKUPS = 5;
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final long IDLE_FLUSH_TIMEOUT = 500;
+    private static final long CLOSE_TIMEOUT = 2000;
+
+    //Marks the end of the entries to write, queued when the logger is closed
+    private static final LogEntry END_OF_LOG = new LogEntry(LogEntry.Severity.ALL, "");
+
+    private final BlockingQueue<LogEntry> entryQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Consumer<String> failureHandler;
+    private final Thread writerThread;
+
+    private final Path logFile;
+    private final long maxFileSize;
+    private final long rotationInterval;
+    private final int maxBackups;
+    private final boolean jsonLines;
+
     private BufferedWriter logWriter;
+    private long fileSize;
+    private long fileOpenTime;
+
+    private volatile boolean failed = false;
+
+    /**
+     * Open a log file for writing. The entries are appended to the file if it already exists.
+     *
+     * @param logFile Target log file
+     * @param maxFileSize Rotate the file once it becomes larger than this (in bytes)
+     * @param rotationInterval Rotate the file once it has been written to for this long (in millis)
+     * @param maxBackups How many of the rotated files to keep
+     * @param jsonLines Whether to write each entry as a JSON object rather than as plain text
+     * @param failureHandler Called on the writer thread with the description of a write failure
+     * @throws IOException If the file can't be opened
+     */
+    public FileLogger(final Path logFile, final long maxFileSize, final long rotationInterval,
+            final int maxBackups, final boolean jsonLines, final Consumer<String> failureHandler) throws IOException {
+        this.failureHandler = failureHandler;
+        this.logFile = logFile;
+        this.maxFileSize = maxFileSize;
+        this.rotationInterval = rotationInterval;
+        this.maxBackups = maxBackups;
+        this.jsonLines = jsonLines;
+
+        openLogFile();
+
+        writerThread = new Thread(this::writeEntries, "Log file writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queue a log entry for writing. Never blocks the caller.
+     *
+     * @param logEntry Entry to write
+     * @return Whether the entry was queued, false if it was dropped because the queue was full
+     */
+    public boolean write(final LogEntry logEntry) {
+        if(failed) {
+            return false;
+        }
+        final boolean queued = entryQueue.offer(logEntry);
+        if(!queued) {
+            droppedCount.incrementAndGet();
+        }
+        return queued;
+    }
+
+    /**
+     * Check whether the logger has stopped writing because of a failure.
+     *
+     * @return True if writing to the file has failed, false otherwise
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Write all of the queued entries and close the file.
+     */
+    public void close() {
+        if(!writerThread.isAlive()) {
+            //The writer has already stopped, because of a failure
+            return;
+        }
+        try {
+            if(!entryQueue.offer(END_OF_LOG, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                writerThread.interrupt();
+            }
+            writerThread.join(CLOSE_TIMEOUT);
+        } catch(final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            writerThread.interrupt();
+        }
+    }
+
+    private void writeEntries() {
+        try {
+            while(true) {
+                LogEntry logEntry = entryQueue.poll(IDLE_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+                if(logEntry == null) {
+                    //Nothing to write for a while, make sure that everything written so far is on the disk
+                    logWriter.flush();
+                    logEntry = entryQueue.take();
+                }
+                if(logEntry == END_OF_LOG) {
+                    break;
+                }
+                writeDroppedCount();
+                writeEntry(logEntry);
+            }
+        } catch(final IOException ioe) {
+            onFailure("Failed to write to the log file: " + logFile + ", due to = [ " + ioe.getMessage() + " ]");
+        } catch(final InterruptedException ie) {
+            //The logger is being closed without writing the remaining entries
+        } finally {
+            try {
+                logWriter.close();
+            } catch(final IOException ioe) {
+                onFailure("Failed to close the log file: " + logFile + ", due to = [ " + ioe.getMessage() + " ]");
+            }
+        }
+    }
+
+    private void onFailure(final String message) {
+        if(!failed) {
+            failed = true;
+            failureHandler.accept(message);
+        }
+    }
+
+    private void writeDroppedCount() throws IOException {
+        final long dropped = droppedCount.getAndSet(0);
+        if(dropped > 0) {
+            writeEntry(new LogEntry(LogEntry.Severity.WARN, dropped
+                    + " log entries were dropped as they were logged faster than they could be written"));
+        }
+    }
 
-    public void openForWriting(final File logFile) throws IOException {
-         logWriter = Files.newBufferedWriter(logFile.toPath(), StandardCharsets.UTF_8);
+    private void writeEntry(final LogEntry logEntry) throws IOException {
+        if(fileSize >= maxFileSize || System.currentTimeMillis() - fileOpenTime >= rotationInterval) {
+            rotate();
+        }
+        final String line = jsonLines? toJson(logEntry) : logEntry.toString();
+        logWriter.write(line);
+        logWriter.newLine();
+        fileSize += line.getBytes(StandardCharsets.UTF_8).length + System.lineSeparator().length();
     }
 
-    public void write(final LogEntry logEntry) throws IOException {
-        if(logWriter != null) {
-            logWriter.write(logEntry.getContent());
-            logWriter.newLine();
+    private void rotate() throws IOException {
+        logWriter.close();
+        Files.deleteIfExists(getBackupFile(maxBackups));
+        for(int i = maxBackups - 1; i > 0; --i) {
+            final Path backupFile = getBackupFile(i);
+            if(Files.exists(backupFile)) {
+                Files.move(backupFile, getBackupFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if(maxBackups > 0) {
+            Files.move(logFile, getBackupFile(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        else {
+            Files.deleteIfExists(logFile);
         }
+        openLogFile();
+    }
+
+    private void openLogFile() throws IOException {
+        logWriter = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileSize = Files.size(logFile);
+        fileOpenTime = System.currentTimeMillis();
+    }
+
+    private Path getBackupFile(final int index) {
+        return logFile.resolveSibling(logFile.getFileName() + "." + index);
     }
 
-    public void closeForWriting() throws IOException {
-        if(logWriter != null) {
-            logWriter.close();
+    private static String toJson(final LogEntry logEntry) {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"time\":\"").append(logEntry.getTime())
+            .append("\",\"severity\":\"").append(logEntry.getSeverity())
+            .append("\",\"message\":\"");
+        final String content = logEntry.getContent();
+        for(int i = 0; i < content.length(); ++i) {
+            final char character = content.charAt(i);
+            switch(character) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if(character < 0x20) {
+                    json.append(String.format("\\u%04x", (int)character));
+                }
+                else {
+                    json.append(character);
+                }
+            }
         }
+        return json.append("\"}").toString();
     }
-}
\ No newline at end of file
+}
@@ -19,23 +19,55 @@
 */
 package org.matic.x264batcher.gui.log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.scene.control.ListView;
 
 /**
  * A logger that displays the info about an encoding's progress in a ListView.
+ * The entries are logged to a lock-free ring buffer and moved to the ListView in
+ * batches, once per rendered frame, so that a burst of entries causes a single
+ * update of the view. Only the most recent entries are kept in the view.
+ * 
+ * All of the entries are also kept in an indexed {@link LogStore}, which is accessed on
+ * a background thread only. Filters are evaluated there after a short delay, so that
+ * quickly typed filter text results in a single evaluation, and the results are then
+ * shown in the view. Optionally, all of the entries are also written to a {@link FileLogger}.
  * 
  * @author Vedran Matic
  *
  */
 public final class ListViewEncoderLogger implements EncoderLogger {
 	
+	private static final int BUFFER_CAPACITY = 4096;
+	private static final int MAX_ENTRIES = 10000;
+	private static final int MAX_STORED_ENTRIES = 500000;
+	private static final long FILTER_DELAY = 150;
+	
+	private final LogRingBuffer logBuffer = new LogRingBuffer(BUFFER_CAPACITY);
+	private final List<LogEntry> drainedEntries = new ArrayList<>();
+	
 	private final ObservableList<LogEntry> logEntries = FXCollections.observableArrayList();
-	private final FilteredList<LogEntry> filteredLogEntries;
 	private final ListView<LogEntry> loggerView;
+	
+	private final LogStore logStore = new LogStore(MAX_STORED_ENTRIES);
+	private final ScheduledExecutorService logStoreExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread thread = new Thread(r);
+		thread.setDaemon(true);
+		return thread;
+	});
+	private ScheduledFuture<?> pendingFilter = null;
+	
+	private volatile FileLogger fileLogger = null;
 
 	/**
 	 * Create a new instance of the logger view.
@@ -45,8 +77,23 @@ public final class ListViewEncoderLogger implements EncoderLogger {
 	public ListViewEncoderLogger(final ListView<LogEntry> loggerView) {
 		this.loggerView = loggerView;
 		
-		filteredLogEntries = new FilteredList<>(logEntries, entry -> true);
-		this.loggerView.setItems(filteredLogEntries);
+		this.loggerView.setItems(logEntries);
+		
+		new AnimationTimer() {
+			@Override
+			public void handle(final long now) {
+				flush();
+			}
+		}.start();
+	}
+	
+	/**
+	 * Set a file logger to which all of the log entries are written as well.
+	 * 
+	 * @param fileLogger Target file logger, or null to stop logging to a file
+	 */
+	public void setFileLogger(final FileLogger fileLogger) {
+		this.fileLogger = fileLogger;
 	}
 
 	/**
@@ -54,7 +101,10 @@ public final class ListViewEncoderLogger implements EncoderLogger {
 	 */
 	@Override
 	public void clear() {
-		logEntries.clear();
+		logStoreExecutor.execute(() -> {
+			logStore.clear();
+			Platform.runLater(logEntries::clear);
+		});
 	}
 
 	/**
@@ -62,12 +112,7 @@ public final class ListViewEncoderLogger implements EncoderLogger {
 	 */
 	@Override
 	public void filter(final LogEntry.Severity severity) {
-		if(severity == LogEntry.Severity.ALL) {
-            filteredLogEntries.setPredicate(entry -> true);
-        }
-        else {
-            filteredLogEntries.setPredicate(entry -> entry.getSeverity() == severity);
-        }
+		filter(severity, "");
 	}
 
 	/**
@@ -75,9 +120,13 @@ public final class ListViewEncoderLogger implements EncoderLogger {
 	 */
 	@Override
 	public void filter(final LogEntry.Severity severity, final String filterText) {
-		filteredLogEntries.setPredicate(entry ->
-			entry.getContent().contains(filterText) && (severity == LogEntry.Severity.ALL?
-				true : entry.getSeverity() == severity));
+		if(pendingFilter != null) {
+			pendingFilter.cancel(false);
+		}
+		pendingFilter = logStoreExecutor.schedule(() -> {
+			final List<LogEntry> matchingEntries = logStore.filter(severity, filterText, MAX_ENTRIES);
+			Platform.runLater(() -> logEntries.setAll(matchingEntries));
+		}, FILTER_DELAY, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -85,8 +134,49 @@ public final class ListViewEncoderLogger implements EncoderLogger {
 	 */
 	@Override
 	public void log(final LogEntry.Severity severity, final String content) {
-		Platform.runLater(() -> {
-			logEntries.add(new LogEntry(severity, content));
+		final LogEntry logEntry = new LogEntry(severity, content);
+		logBuffer.add(logEntry);
+		
+		final FileLogger targetFileLogger = fileLogger;
+		if(targetFileLogger != null) {
+			targetFileLogger.write(logEntry);
+		}
+	}
+	
+	//Called on the JavaFX application thread on each pulse
+	private void flush() {
+		if(logBuffer.isEmpty()) {
+			return;
+		}
+		final long droppedCount = logBuffer.drainTo(drainedEntries);
+		if(droppedCount > 0) {
+			drainedEntries.add(new LogEntry(LogEntry.Severity.WARN, droppedCount
+					+ " log entries were not shown as they were logged faster than they could be displayed"));
+		}
+		
+		final List<LogEntry> addedEntries = new ArrayList<>(drainedEntries);
+		drainedEntries.clear();
+		
+		//Only the entries that match the current filter are appended to the view
+		logStoreExecutor.execute(() -> {
+			final List<LogEntry> matchingEntries = logStore.add(addedEntries);
+			if(!matchingEntries.isEmpty()) {
+				Platform.runLater(() -> show(matchingEntries));
+			}
 		});
 	}
+	
+	private void show(final List<LogEntry> addedEntries) {
+		final int overflow = logEntries.size() + addedEntries.size() - MAX_ENTRIES;
+		if(overflow >= logEntries.size()) {
+			logEntries.setAll(addedEntries.subList(
+					Math.max(0, addedEntries.size() - MAX_ENTRIES), addedEntries.size()));
+		}
+		else {
+			if(overflow > 0) {
+				logEntries.remove(0, overflow);
+			}
+			logEntries.addAll(addedEntries);
+		}
+	}
 }
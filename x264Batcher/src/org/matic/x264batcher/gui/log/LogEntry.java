@@ -71,6 +71,10 @@ public final class LogEntry {
 		return content;
 	}
 
+	public String getTime() {
+		return time;
+	}
+
 	public String getStyle() {
 		return severity == Severity.ALL? CSS_STYLES_MAP.get(Severity.INFO) : CSS_STYLES_MAP.get(severity);
 	}
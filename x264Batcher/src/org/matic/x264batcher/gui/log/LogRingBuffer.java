@@ -0,0 +1,112 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.gui.log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer of log entries with any number of producers and a
+ * single consumer. A producer never waits: it claims the next sequence number and stores
+ * its entry into the corresponding slot, overwriting the oldest entry if the consumer
+ * has fallen behind by more than the buffer's capacity. Such entries are counted as dropped.
+ *
+ * @author Vedran Matic
+ *
+ */
+final class LogRingBuffer {
+	
+	private final AtomicReferenceArray<Slot> slots;
+	private final AtomicLong writeSequence = new AtomicLong();
+	private final int capacity;
+	private final int mask;
+	
+	//Accessed only by the consumer
+	private long readSequence = 0;
+	private long droppedCount = 0;
+	
+	/**
+	 * Create a new ring buffer.
+	 * 
+	 * @param capacity Max number of not yet consumed entries (rounded up to a power of two)
+	 */
+	LogRingBuffer(final int capacity) {
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = this.capacity - 1;
+		this.slots = new AtomicReferenceArray<>(this.capacity);
+	}
+	
+	/**
+	 * Add an entry to the buffer. Can be called from any thread.
+	 * 
+	 * @param logEntry Entry to add
+	 */
+	void add(final LogEntry logEntry) {
+		final long sequence = writeSequence.getAndIncrement();
+		slots.set((int)(sequence & mask), new Slot(sequence, logEntry));
+	}
+	
+	/**
+	 * Move all of the published entries to a list. Must only be called by the consumer thread.
+	 * 
+	 * @param target List to which to add the entries, in the order they were published in
+	 * @return Number of entries that were dropped since the previous call
+	 */
+	long drainTo(final List<LogEntry> target) {
+		final long published = writeSequence.get();
+		if(published - readSequence > capacity) {
+			droppedCount += published - capacity - readSequence;
+			readSequence = published - capacity;
+		}
+		while(readSequence < published) {
+			final Slot slot = slots.get((int)(readSequence & mask));
+			if(slot == null || slot.sequence < readSequence) {
+				//The producer has claimed this slot but not yet stored its entry, continue on the next drain
+				break;
+			}
+			if(slot.sequence == readSequence) {
+				target.add(slot.logEntry);
+			}
+			else {
+				//Overwritten by a producer that has lapped the consumer in the meantime
+				++droppedCount;
+			}
+			++readSequence;
+		}
+		final long dropped = droppedCount;
+		droppedCount = 0;
+		return dropped;
+	}
+	
+	boolean isEmpty() {
+		return writeSequence.get() == readSequence;
+	}
+	
+	private static final class Slot {
+		private final long sequence;
+		private final LogEntry logEntry;
+		
+		Slot(final long sequence, final LogEntry logEntry) {
+			this.sequence = sequence;
+			this.logEntry = logEntry;
+		}
+	}
+}
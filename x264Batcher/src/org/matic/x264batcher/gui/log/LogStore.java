@@ -0,0 +1,277 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.gui.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An indexed store of log entries that supports fast filtering on severity and text.
+ * Each entry is indexed by its severity and by the lowercase words (runs of letters and
+ * digits) it contains. A text filter is evaluated by looking up the words of the filter text
+ * in the word index and checking only the resulting candidate entries. If the filter text
+ * is an extension of the previous one, only the entries that matched the previous filter
+ * are considered, so typing a filter in character by character stays cheap.
+ * 
+ * The store is not thread safe, it is meant to be accessed by a single thread.
+ *
+ * @author Vedran Matic
+ *
+ */
+final class LogStore {
+	
+	//Below this number of candidates, they are checked directly without further index lookups
+	private static final int MIN_INDEXED_CANDIDATES = 1024;
+	
+	private final List<LogEntry> entries = new ArrayList<>();
+	private final Map<LogEntry.Severity, IntList> severityIndex = new EnumMap<>(LogEntry.Severity.class);
+	private final Map<String, IntList> wordIndex = new HashMap<>();
+	private final int capacity;
+	
+	private LogEntry.Severity filterSeverity = LogEntry.Severity.ALL;
+	private String filterText = "";
+	private BitSet filterMatches = new BitSet();
+	
+	/**
+	 * Create a new log store.
+	 * 
+	 * @param capacity Max number of entries to keep, the oldest ones are evicted once it is reached
+	 */
+	LogStore(final int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Add entries to the store.
+	 * 
+	 * @param newEntries Entries to add
+	 * @return The added entries that match the current filter
+	 */
+	List<LogEntry> add(final List<LogEntry> newEntries) {
+		final List<LogEntry> matchingEntries = new ArrayList<>();
+		for(final LogEntry entry : newEntries) {
+			final int id = entries.size();
+			entries.add(entry);
+			index(id, entry);
+			if(matches(entry, filterSeverity, filterText)) {
+				filterMatches.set(id);
+				matchingEntries.add(entry);
+			}
+		}
+		if(entries.size() > capacity) {
+			evict(entries.size() - capacity + capacity / 4);
+		}
+		return matchingEntries;
+	}
+	
+	/**
+	 * Change the current filter and find all of the entries that match it.
+	 * 
+	 * @param severity Severity to match (or ALL to match any severity)
+	 * @param text Text that the entries must contain (or an empty string to match any text)
+	 * @param maxResults Max number of entries to return
+	 * @return The most recent matching entries, in the order they were added in
+	 */
+	List<LogEntry> filter(final LogEntry.Severity severity, final String text, final int maxResults) {
+		final boolean refinement = severity == filterSeverity && text.contains(filterText);
+		
+		BitSet candidates = refinement? filterMatches : null;
+		if(severity != LogEntry.Severity.ALL && candidates == null) {
+			candidates = toBitSet(severityIndex.get(severity));
+		}
+		if(text.isEmpty()) {
+			filterMatches = candidates != null? (BitSet)candidates.clone() : allEntries();
+		}
+		else {
+			filterMatches = findTextMatches(text, severity, candidates);
+		}
+		filterSeverity = severity;
+		filterText = text;
+		
+		return getLastMatches(maxResults);
+	}
+	
+	void clear() {
+		entries.clear();
+		severityIndex.clear();
+		wordIndex.clear();
+		filterMatches = new BitSet();
+	}
+	
+	int size() {
+		return entries.size();
+	}
+	
+	private BitSet findTextMatches(final String text, final LogEntry.Severity severity, BitSet candidates) {
+		final List<String> words = splitWords(text);
+		for(int i = 0; i < words.size(); ++i) {
+			if(candidates != null && candidates.cardinality() < MIN_INDEXED_CANDIDATES) {
+				break;
+			}
+			//Words at the ends of the filter text may only be parts of the entry's words
+			final boolean partialWord = (i == 0 && startsWithWord(text))
+					|| (i == words.size() - 1 && endsWithWord(text));
+			final BitSet wordMatches = findWordMatches(words.get(i), partialWord);
+			if(candidates == null) {
+				candidates = wordMatches;
+			}
+			else {
+				candidates.and(wordMatches);
+			}
+		}
+		if(candidates == null) {
+			//The text has no words, so every entry has to be checked
+			candidates = allEntries();
+		}
+		
+		final BitSet textMatches = new BitSet(entries.size());
+		for(int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+			if(matches(entries.get(id), severity, text)) {
+				textMatches.set(id);
+			}
+		}
+		return textMatches;
+	}
+	
+	private BitSet findWordMatches(final String word, final boolean partialWord) {
+		if(!partialWord) {
+			return toBitSet(wordIndex.get(word));
+		}
+		final BitSet wordMatches = new BitSet(entries.size());
+		wordIndex.forEach((indexedWord, ids) -> {
+			if(indexedWord.contains(word)) {
+				ids.addTo(wordMatches);
+			}
+		});
+		return wordMatches;
+	}
+	
+	private List<LogEntry> getLastMatches(final int maxResults) {
+		final int[] ids = new int[Math.min(maxResults, filterMatches.cardinality())];
+		int id = filterMatches.length();
+		for(int i = ids.length - 1; i >= 0; --i) {
+			id = filterMatches.previousSetBit(id - 1);
+			ids[i] = id;
+		}
+		final List<LogEntry> lastMatches = new ArrayList<>(ids.length);
+		for(final int matchId : ids) {
+			lastMatches.add(entries.get(matchId));
+		}
+		return lastMatches;
+	}
+	
+	private void index(final int id, final LogEntry entry) {
+		severityIndex.computeIfAbsent(entry.getSeverity(), s -> new IntList()).add(id);
+		for(final String word : splitWords(entry.getContent())) {
+			wordIndex.computeIfAbsent(word, w -> new IntList()).add(id);
+		}
+	}
+	
+	private void evict(final int count) {
+		entries.subList(0, count).clear();
+		severityIndex.clear();
+		wordIndex.clear();
+		for(int id = 0; id < entries.size(); ++id) {
+			index(id, entries.get(id));
+		}
+		filterMatches = filterMatches.get(count, Math.max(count, filterMatches.length()));
+	}
+	
+	private BitSet allEntries() {
+		final BitSet all = new BitSet(entries.size());
+		all.set(0, entries.size());
+		return all;
+	}
+	
+	private static boolean matches(final LogEntry entry, final LogEntry.Severity severity, final String text) {
+		return (severity == LogEntry.Severity.ALL || entry.getSeverity() == severity)
+				&& (text.isEmpty() || entry.getContent().contains(text));
+	}
+	
+	private static BitSet toBitSet(final IntList ids) {
+		final BitSet bitSet = new BitSet();
+		if(ids != null) {
+			ids.addTo(bitSet);
+		}
+		return bitSet;
+	}
+	
+	private static boolean startsWithWord(final String text) {
+		return Character.isLetterOrDigit(text.charAt(0));
+	}
+	
+	private static boolean endsWithWord(final String text) {
+		return Character.isLetterOrDigit(text.charAt(text.length() - 1));
+	}
+	
+	/**
+	 * Split a text into distinct lowercase words.
+	 * 
+	 * @param text Text to split
+	 * @return Found words, in the order of their first appearance
+	 */
+	static List<String> splitWords(final String text) {
+		final List<String> words = new ArrayList<>();
+		int wordStart = -1;
+		for(int i = 0; i <= text.length(); ++i) {
+			final boolean wordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(wordCharacter && wordStart == -1) {
+				wordStart = i;
+			}
+			else if(!wordCharacter && wordStart != -1) {
+				final String word = text.substring(wordStart, i).toLowerCase();
+				if(!words.contains(word)) {
+					words.add(word);
+				}
+				wordStart = -1;
+			}
+		}
+		return words;
+	}
+	
+	/**
+	 * A growable list of increasing entry ids.
+	 */
+	private static final class IntList {
+		private int[] values = new int[4];
+		private int size = 0;
+		
+		void add(final int value) {
+			if(size > 0 && values[size - 1] == value) {
+				return;
+			}
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size << 1);
+			}
+			values[size++] = value;
+		}
+		
+		void addTo(final BitSet bitSet) {
+			for(int i = 0; i < size; ++i) {
+				bitSet.set(values[i]);
+			}
+		}
+	}
+}
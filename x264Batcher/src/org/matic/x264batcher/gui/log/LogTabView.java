@@ -19,9 +19,9 @@
 */
 package org.matic.x264batcher.gui.log;
 
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.binding.BooleanBinding;
-import javafx.collections.ListChangeListener;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Alert;
@@ -34,6 +34,7 @@ import javafx.scene.control.ListView;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
@@ -45,7 +46,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 
 /**
  * A tab displaying the logger output and offering the user to store it to a file.
@@ -55,20 +55,21 @@ import java.util.List;
 public final class LogTabView {
 
     private final ListView<LogEntry> loggerView;
-    private final EncoderLogger logger;
+    private final ListViewEncoderLogger logger;
     private final Window parent;
     private final Tab logTab;
 
     private final CheckBox enableFileLoggingCheck = new CheckBox("File: ");
+    private final CheckBox jsonLinesCheck = new CheckBox("JSON lines");
     private final ComboBox<LogEntry.Severity> logFilterCombo = new ComboBox<>();
     private final Button browseLogFileButton = new Button("Browse...");
     private final Button clearLogButton = new Button("Clear Log");
     private final TextField logFilePathField = new TextField();
     private final TextField logFilterField = new TextField();
 
-    private final FileLogger fileLogger = new FileLogger();
+    private FileLogger fileLogger;
 
-    public LogTabView(final Window parent, final ListView<LogEntry> loggerView, final EncoderLogger logger) {
+    public LogTabView(final Window parent, final ListView<LogEntry> loggerView, final ListViewEncoderLogger logger) {
         this.loggerView = loggerView;
         this.parent = parent;
         this.logger = logger;
@@ -81,6 +82,17 @@ public final class LogTabView {
         return logTab;
     }
 
+    /**
+     * Stop logging to a file, if enabled, after all of the already logged entries are written.
+     */
+    public void close() {
+        if(fileLogger != null) {
+            logger.setFileLogger(null);
+            fileLogger.close();
+            fileLogger = null;
+        }
+    }
+
     private void initComponents() {
         logFilterCombo.getItems().setAll(LogEntry.Severity.values());
         logFilterCombo.getSelectionModel().select(LogEntry.Severity.ALL);
@@ -94,16 +106,12 @@ public final class LogTabView {
                 .or(enableFileLoggingCheck.selectedProperty().not());
         logFilePathField.disableProperty().bind(logToFileDisabledBinding);
         browseLogFileButton.disableProperty().bind(logToFileDisabledBinding);
+        jsonLinesCheck.disableProperty().bind(logToFileDisabledBinding);
+        jsonLinesCheck.setTooltip(new Tooltip("Write each log entry as a JSON object"));
         clearLogButton.disableProperty().bind(Bindings.size(loggerView.getItems()).isEqualTo(0));
     }
 
     private void setupActionHandlers() {
-        loggerView.getItems().addListener((ListChangeListener.Change<?extends LogEntry> c) -> {
-            if(c.next() && c.wasAdded()) {
-                final List<?extends LogEntry> addedLogEntries = c.getAddedSubList();
-                //addedLogEntries.forEach(logEntry -> fileLogger.write(logEntry));
-            }
-        });
         loggerView.setCellFactory(c -> new ListCell<LogEntry>() {
             @Override
             protected void updateItem(final LogEntry logEntry, final boolean empty) {
@@ -141,6 +149,8 @@ public final class LogTabView {
         });
         clearLogButton.setOnAction(e -> logger.clear());
         browseLogFileButton.setOnAction(e -> onBrowseForTargetLogFile());
+        enableFileLoggingCheck.setOnAction(e -> updateFileLogging());
+        jsonLinesCheck.setOnAction(e -> updateFileLogging());
     }
 
     private void onBrowseForTargetLogFile() {
@@ -157,18 +167,48 @@ public final class LogTabView {
                     return;
                 }
             }
+            close();
             try {
-                fileLogger.closeForWriting();
-                fileLogger.openForWriting(selectedFile);
+                Files.deleteIfExists(selectedFile.toPath());
             } catch (final IOException ioe) {
-                Helper.showAlert(parent, Alert.AlertType.ERROR, "Failed to open the file for writing:\n"
+                Helper.showAlert(parent, Alert.AlertType.ERROR, "Failed to overwrite the file:\n"
                         + ioe.getMessage(), "File Open Error");
                 return;
             }
             logFilePathField.setText(selectedFile.getAbsolutePath());
+            updateFileLogging();
         }
     }
 
+    private void updateFileLogging() {
+        close();
+        final String logFilePath = logFilePathField.getText();
+        if(!enableFileLoggingCheck.isSelected() || logFilePath == null || logFilePath.isEmpty()) {
+            return;
+        }
+        try {
+            fileLogger = new FileLogger(Paths.get(logFilePath), FileLogger.DEFAULT_MAX_FILE_SIZE,
+                    FileLogger.DEFAULT_ROTATION_INTERVAL, FileLogger.DEFAULT_MAX_BACKUPS, jsonLinesCheck.isSelected(),
+                    this::onFileLoggingFailed);
+        } catch (final IOException ioe) {
+            Helper.showAlert(parent, Alert.AlertType.ERROR, "Failed to open the file for writing:\n"
+                    + ioe.getMessage(), "File Open Error");
+            return;
+        }
+        logger.setFileLogger(fileLogger);
+    }
+
+    //Called on the file logger's writer thread, file logging is turned off so that the failure is noticed
+    private void onFileLoggingFailed(final String message) {
+        logger.log(LogEntry.Severity.ERROR, message + ", logging to the file is disabled");
+        Platform.runLater(() -> {
+            if(fileLogger != null && fileLogger.hasFailed()) {
+                close();
+                enableFileLoggingCheck.setSelected(false);
+            }
+        });
+    }
+
     private <T> Tab buildLogTab(final ListView<T> loggerView) {
         final ScrollPane loggerViewScroll = new ScrollPane();
         loggerViewScroll.setContent(loggerView);
@@ -178,13 +218,14 @@ public final class LogTabView {
         final BorderPane logFilePane = new BorderPane();
         logFilePane.setLeft(enableFileLoggingCheck);
         logFilePane.setCenter(logFilePathField);
-        logFilePane.setRight(browseLogFileButton);
+        logFilePane.setRight(new HBox(5, jsonLinesCheck, browseLogFileButton));
+        jsonLinesCheck.setMaxHeight(Double.MAX_VALUE);
 
         final Insets componentInsets = new Insets(5, 5, 5, 0);
 
         BorderPane.setMargin(enableFileLoggingCheck, componentInsets);
         BorderPane.setMargin(logFilePathField, componentInsets);
-        BorderPane.setMargin(browseLogFileButton, componentInsets);
+        BorderPane.setMargin(logFilePane.getRight(), componentInsets);
 
         final BorderPane logPane = new BorderPane();
         logPane.setTop(buildLogControlsPane());
@@ -20,11 +20,13 @@
 package org.matic.x264batcher.gui.model;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.matic.x264batcher.model.AvsInputFile;
 import org.matic.x264batcher.model.ClipDimension;
 import org.matic.x264batcher.model.EncoderJobParameters;
 import org.matic.x264batcher.model.EncoderPreset;
+import org.matic.x264batcher.model.JobPriority;
 import org.matic.x264batcher.model.JobStatus;
 
 import javafx.beans.property.BooleanProperty;
@@ -42,6 +44,8 @@ import javafx.beans.property.StringProperty;
  *
  */
 public final class QueuedJob {
+	
+	private static final AtomicLong ID_GENERATOR = new AtomicLong(0);
 
 	private final StringProperty encoderPreset = new SimpleStringProperty();
 	private final StringProperty outputPath = new SimpleStringProperty();
@@ -49,6 +53,7 @@ public final class QueuedJob {
 
 	private final StringProperty message = new SimpleStringProperty("");
 	private final StringProperty status = new SimpleStringProperty();
+	private final StringProperty priority = new SimpleStringProperty(JobPriority.NORMAL.toString());
 	private final StringProperty name = new SimpleStringProperty();
 	
 	private final BooleanProperty deleteTemporaryFiles = new SimpleBooleanProperty();
@@ -58,6 +63,10 @@ public final class QueuedJob {
 	private final LongProperty timeTaken = new SimpleLongProperty();
 	
 	private volatile JobStatus jobStatus = JobStatus.QUEUED;
+	private volatile JobPriority jobPriority = JobPriority.NORMAL;
+	
+	//Identifies the job to the clients of the control API, unique within an application run
+	private final long id = ID_GENERATOR.incrementAndGet();
 
 	private EncoderJobParameters jobParameters;
 	private final ClipDimension targetClipDimension;
@@ -82,6 +91,10 @@ public final class QueuedJob {
 		this.name.set(jobParameters.getName());
 	}
 	
+	public long getId() {
+		return id;
+	}
+	
 	public EncoderJobParameters getJobParameters() {
 		return jobParameters;
 	}
@@ -112,6 +125,15 @@ public final class QueuedJob {
 		this.status.set(jobStatus.toString());
 	}
 
+	public JobPriority getJobPriority() {
+		return jobPriority;
+	}
+	
+	public void setPriority(final JobPriority jobPriority) {
+		this.jobPriority = jobPriority;
+		this.priority.set(jobPriority.toString());
+	}
+
 	public void setEncoderPreset(final EncoderPreset encoderPreset) {
 		this.encoderPreset.set(encoderPreset.getName());
 	}
@@ -168,6 +190,10 @@ public final class QueuedJob {
 		return message.get();
 	}
 	
+	public String getPriority() {
+		return priority.get();
+	}
+	
 	public String getName() {
 		return name.get();
 	}
@@ -207,6 +233,10 @@ public final class QueuedJob {
 	public StringProperty messageProperty() {
 		return message;
 	}
+	
+	public StringProperty priorityProperty() {
+		return priority;
+	}
 
 	public StringProperty nameProperty() {
 		return name;
@@ -233,7 +263,7 @@ public final class QueuedJob {
 		return "QueuedJob [encoderPreset=" + encoderPreset + ", outputPath=" + outputPath + ", outputSar=" + outputSar
 				+ ", message=" + message + ", status=" + status + ", name=" + name + ", deleteTemporaryFiles="
 				+ deleteTemporaryFiles + ", timeStarted=" + timeStarted + ", timeCompleted=" + timeCompleted
-				+ ", timeTaken=" + timeTaken + ", jobStatus=" + jobStatus + ", jobParameters=" + jobParameters
+				+ ", timeTaken=" + timeTaken + ", jobStatus=" + jobStatus + ", jobPriority=" + jobPriority + ", jobParameters=" + jobParameters
 				+ ", targetClipDimension=" + targetClipDimension + ", inputFiles=" + inputFiles + "]";
 	}
 	
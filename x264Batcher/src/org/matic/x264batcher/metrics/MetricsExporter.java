@@ -0,0 +1,251 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.matic.x264batcher.encoder.EncoderController;
+import org.matic.x264batcher.encoder.EncoderStatistics;
+import org.matic.x264batcher.encoder.EncodingProgressListener;
+import org.matic.x264batcher.gui.model.QueuedJob;
+import org.matic.x264batcher.model.EncodingProgressView;
+import org.matic.x264batcher.model.JobStatus;
+import org.matic.x264batcher.model.SegmentProgressView;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP endpoint that exports the encoder's counters and gauges in
+ * the Prometheus text format. The gauges are taken from the most recent progress
+ * snapshot that was published by the encoder, so a scrape never blocks the encoding.
+ * The job and segment gauges are exported for each of the encoding jobs, as several
+ * small jobs may be encoded side by side.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class MetricsExporter implements EncodingProgressListener {
+	
+	public static final String DEFAULT_ADDRESS = "127.0.0.1";
+	public static final int DEFAULT_PORT = 9464;
+	
+	private static final String METRICS_PATH = "/metrics";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final String PREFIX = "x264batcher_";
+	
+	private final EncoderController encoderController;
+	private final HttpServer httpServer;
+	
+	private final Map<QueuedJob, EncodingProgressView> jobProgressViews = new ConcurrentHashMap<>();
+	private volatile EncodingProgressView lastProgressView = null;
+
+	/**
+	 * Create the exporter and bind it to an address. It won't serve any requests until started.
+	 * 
+	 * @param encoderController Controller whose metrics are exported
+	 * @param address Address to bind to (the loopback address, unless remote scraping is wanted)
+	 * @param port Port to listen on
+	 * @throws IOException If the address can't be bound
+	 */
+	public MetricsExporter(final EncoderController encoderController, final String address,
+			final int port) throws IOException {
+		this.encoderController = encoderController;
+		
+		httpServer = HttpServer.create(new InetSocketAddress(address, port), 0);
+		httpServer.createContext(METRICS_PATH, this::onScrape);
+		httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+	
+	public void start() {
+		encoderController.addListener(this);
+		httpServer.start();
+	}
+	
+	public void stop() {
+		encoderController.removeListener(this);
+		httpServer.stop(0);
+	}
+	
+	/**
+	 * @see EncodingProgressListener#onProgressUpdate(QueuedJob, EncodingProgressView)
+	 */
+	@Override
+	public void onProgressUpdate(final QueuedJob queuedJob, final EncodingProgressView progressView) {
+		jobProgressViews.put(queuedJob, progressView);
+		lastProgressView = progressView;
+	}
+
+	/**
+	 * @see EncodingProgressListener#onJobCompleted(QueuedJob)
+	 */
+	@Override
+	public void onJobCompleted(final QueuedJob queuedJob) {
+		jobProgressViews.remove(queuedJob);
+		if(jobProgressViews.isEmpty()) {
+			lastProgressView = null;
+		}
+	}
+
+	/**
+	 * @see EncodingProgressListener#onAllJobsCompleted()
+	 */
+	@Override
+	public void onAllJobsCompleted() {
+		jobProgressViews.clear();
+		lastProgressView = null;
+	}
+	
+	private void onScrape(final HttpExchange exchange) throws IOException {
+		try {
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			final byte[] response = buildMetrics().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, response.length);
+			try(final OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(response);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	String buildMetrics() {
+		final StringBuilder metrics = new StringBuilder();
+		final EncodingProgressView progressView = lastProgressView;
+		
+		//A preempted job no longer encodes, and a late snapshot may arrive after its job has completed
+		final List<Map.Entry<QueuedJob, EncodingProgressView>> jobViews = jobProgressViews.entrySet().stream().filter(
+				e -> e.getKey().getJobStatus() == JobStatus.RUNNING && !encoderController.isPreempted(e.getKey()))
+				.collect(Collectors.toList());
+		
+		final Map<JobStatus, Integer> jobCounts = encoderController.getJobCounts();
+		writeHeader(metrics, "jobs", "gauge", "Number of jobs on the queue, by status");
+		jobCounts.forEach((status, count) -> writeSample(metrics, "jobs",
+				"{status=\"" + status.name().toLowerCase(Locale.ROOT) + "\"}", count));
+		
+		final EncoderStatistics statistics = encoderController.getStatistics();
+		writeHeader(metrics, "segments_encoded_total", "counter", "Number of successfully encoded segments");
+		writeSample(metrics, "segments_encoded_total", "", statistics.getSegmentsEncoded());
+		writeHeader(metrics, "segments_failed_total", "counter", "Number of segments whose encoding failed");
+		writeSample(metrics, "segments_failed_total", "", statistics.getSegmentsFailed());
+		
+		writeHeader(metrics, "merge_duration_seconds", "summary", "Time spent merging encoded segments");
+		writeSample(metrics, "merge_duration_seconds_sum", "", statistics.getMergeDurationTotal() / 1000.0);
+		writeSample(metrics, "merge_duration_seconds_count", "", statistics.getMergeCount());
+		writeHeader(metrics, "last_merge_duration_seconds", "gauge", "Duration of the most recent merge");
+		writeSample(metrics, "last_merge_duration_seconds", "", statistics.getLastMergeDuration() / 1000.0);
+		
+		if(progressView == null) {
+			writeHeader(metrics, "active_instances", "gauge", "Number of running x264 instances");
+			writeSample(metrics, "active_instances", "", 0);
+			return metrics.toString();
+		}
+		
+		writeHeader(metrics, "system_cpu_load", "gauge", "System CPU load (0 - 1)");
+		writeSample(metrics, "system_cpu_load", "", progressView.getCpuLoad());
+		
+		writeHeader(metrics, "queue_frames_done", "gauge", "Frames encoded in all of the queued jobs");
+		writeSample(metrics, "queue_frames_done", "", progressView.getTotalFramesDone());
+		writeHeader(metrics, "queue_frames_total", "gauge", "Frames to encode in all of the queued jobs");
+		writeSample(metrics, "queue_frames_total", "", progressView.getTotalFrames());
+		
+		writeHeader(metrics, "job_fps", "gauge", "Encoding speed of the running job");
+		jobViews.forEach(e -> writeSample(metrics, "job_fps", jobLabel(e.getKey()), e.getValue().getFps()));
+		writeHeader(metrics, "job_frames_done", "gauge", "Frames encoded in the running job");
+		jobViews.forEach(e -> writeSample(metrics, "job_frames_done", jobLabel(e.getKey()),
+				e.getValue().getCurrentJobFramesDone()));
+		writeHeader(metrics, "job_frames_total", "gauge", "Frames to encode in the running job");
+		jobViews.forEach(e -> writeSample(metrics, "job_frames_total", jobLabel(e.getKey()),
+				e.getValue().getCurrentJobTotalFrames()));
+		
+		writeHeader(metrics, "job_eta_seconds", "gauge", "Estimated time left until the running job is done");
+		jobViews.forEach(e -> writeSample(metrics, "job_eta_seconds", jobLabel(e.getKey()),
+				e.getValue().getJobSecondsLeft()));
+		writeHeader(metrics, "queue_eta_seconds", "gauge", "Estimated time left until all of the queued jobs are done");
+		writeSample(metrics, "queue_eta_seconds", "", progressView.getQueueSecondsLeft());
+		
+		writeHeader(metrics, "active_instances", "gauge", "Number of running x264 instances");
+		writeSample(metrics, "active_instances", "", jobViews.stream().flatMap(e -> e.getValue().getSegmentViews().stream())
+				.filter(s -> s.getState() == SegmentProgressView.State.RUNNING).count());
+		
+		writeHeader(metrics, "segment_fps", "gauge", "Encoding speed of a segment of the running job");
+		jobViews.forEach(e -> e.getValue().getSegmentViews().forEach(s -> writeSample(metrics, "segment_fps",
+				segmentLabels(e.getKey(), s), s.getFps())));
+		writeHeader(metrics, "segment_frames_done", "gauge", "Frames encoded in a segment of the running job");
+		jobViews.forEach(e -> e.getValue().getSegmentViews().forEach(s -> writeSample(metrics, "segment_frames_done",
+				segmentLabels(e.getKey(), s), s.getFramesDone())));
+		writeHeader(metrics, "segment_frames_total", "gauge", "Frames to encode in a segment of the running job");
+		jobViews.forEach(e -> e.getValue().getSegmentViews().forEach(s -> writeSample(metrics, "segment_frames_total",
+				segmentLabels(e.getKey(), s), s.getTotalFrames())));
+		
+		writeHeader(metrics, "segment_cpu_load", "gauge", "CPU load of a segment's x264 process (1 = one core)");
+		jobViews.forEach(e -> e.getValue().getSegmentViews().stream().filter(s -> s.getResourceUsage().isKnown()).forEach(
+				s -> writeSample(metrics, "segment_cpu_load", segmentLabels(e.getKey(), s), s.getResourceUsage().getCpuLoad())));
+		writeHeader(metrics, "segment_rss_bytes", "gauge", "Resident memory of a segment's x264 process");
+		jobViews.forEach(e -> e.getValue().getSegmentViews().stream().filter(s -> s.getResourceUsage().isKnown()).forEach(
+				s -> writeSample(metrics, "segment_rss_bytes", segmentLabels(e.getKey(), s), s.getResourceUsage().getRssBytes())));
+		
+		return metrics.toString();
+	}
+	
+	private static String jobLabel(final QueuedJob queuedJob) {
+		return "{job=\"" + escape(queuedJob.getJobParameters().getName()) + "\"}";
+	}
+	
+	private static String segmentLabels(final QueuedJob queuedJob, final SegmentProgressView segmentView) {
+		return "{job=\"" + escape(queuedJob.getJobParameters().getName()) + "\",segment=\""
+				+ segmentView.getSegmentIndex() + "\"}";
+	}
+	
+	private static void writeHeader(final StringBuilder metrics, final String name, final String type,
+			final String help) {
+		metrics.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		metrics.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+	
+	private static void writeSample(final StringBuilder metrics, final String name, final String labels,
+			final Number value) {
+		metrics.append(PREFIX).append(name).append(labels).append(' ').append(value).append('\n');
+	}
+	
+	private static String escape(final String labelValue) {
+		if(labelValue == null) {
+			return "";
+		}
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -20,9 +20,9 @@
 package org.matic.x264batcher.model;
 
 import java.nio.file.Path;
-import java.util.List;
 
 import org.matic.x264batcher.parser.ParsedIndexedFile;
+import org.matic.x264batcher.script.AvsScriptTemplate;
 
 /**
  * A representation of an AVS file that is part of an encoder job.
@@ -32,7 +32,7 @@ import org.matic.x264batcher.parser.ParsedIndexedFile;
  */
 public final class AvsInputFile {
 		
-	private final List<AvsScriptCommand> scriptCommands;
+	private final AvsScriptTemplate scriptTemplate;
 	private final Path filePath;
 	
 	private final long clipStart;
@@ -48,48 +48,42 @@ public final class AvsInputFile {
 	 * 
 	 * @param filePath Path to the AVS file on the disk
 	 * @param parsedIndexedFile Properties of the indexed (.dgi/.d2v) file generated for this AVS file
-	 * @param scriptCommands Contents of the input AVS file 
+	 * @param scriptTemplate Compiled contents of the input AVS file, including a Trim() call
 	 */
 	public AvsInputFile(final Path filePath, final ParsedIndexedFile parsedIndexedFile,
-			final List<AvsScriptCommand> scriptCommands) {
+			final AvsScriptTemplate scriptTemplate) {
 		this.filePath = filePath;
-		this.scriptCommands = scriptCommands;
+		this.scriptTemplate = scriptTemplate;
 		this.parsedIndexedFile = parsedIndexedFile;
 		
-		final AvsScriptCommand trimCommand = this.scriptCommands.stream().filter(
-				c -> AvsScriptCommand.TRIM.equals(c.getIdentifier())).findAny().get(); 
-		final List<String> trimIndices = trimCommand.getArguments();
+		clipStart = scriptTemplate.getTrimStart();
 		
-		clipStart = Long.parseLong(trimIndices.get(0));
-		clipEnd = Long.parseLong(trimIndices.get(1));	
+		//Trim(start, 0) keeps the rest of the clip, while Trim(start, -n) keeps n frames
+		final long trimEnd = scriptTemplate.getTrimEnd();
+		if(trimEnd > 0) {
+			clipEnd = trimEnd;
+		}
+		else if(trimEnd < 0) {
+			clipEnd = clipStart - trimEnd - 1;
+		}
+		else {
+			clipEnd = parsedIndexedFile.getFrameCount() - 1;
+		}
 		
-		final AvsScriptCommand cropCommand = scriptCommands.stream().filter(
-				c -> AvsScriptCommand.CROP.equals(c.getIdentifier())).findFirst().get();
-		final List<String> cropArguments = cropCommand.getArguments();
+		final int[] outputDimension = scriptTemplate.getOutputDimension(
+				parsedIndexedFile.getWidth(), parsedIndexedFile.getHeight());
+		this.clipDimension = new ClipDimension(outputDimension[0], outputDimension[1]);
 		
-		final int clipWidth = parsedIndexedFile.getWidth() - (Math.abs(Integer.parseInt(cropArguments.get(0))) 
-				+ Math.abs(Integer.parseInt(cropArguments.get(2))));
-		final int clipHeight = parsedIndexedFile.getHeight() - (Math.abs(Integer.parseInt(cropArguments.get(1))) 
-				+ Math.abs(Integer.parseInt(cropArguments.get(3))));
-		
-		this.clipDimension = new ClipDimension(clipWidth, clipHeight);
-		
-		final AvsScriptCommand qtgmcCommand = scriptCommands.stream().filter(
-				c -> AvsScriptCommand.QTGMC.equals(c.getIdentifier())).findAny().orElse(null);
-		final AvsScriptCommand selectEvenCommand = scriptCommands.stream().filter(
-				c -> AvsScriptCommand.SELECT_EVEN.equals(c.getIdentifier())).findAny().orElse(null);
-		
-		usingDeinterlacing = qtgmcCommand != null && selectEvenCommand == null;
+		usingDeinterlacing = scriptTemplate.isUsingDeinterlacing();
 	}
 	
 	public ParsedIndexedFile getIndexedFile() {
 		return parsedIndexedFile;
 	}
 	
-	public List<AvsScriptCommand> getCommands() {
-		return scriptCommands;
+	public AvsScriptTemplate getScriptTemplate() {
+		return scriptTemplate;
 	}
-	
 	public boolean isUsingDeinterlacing() {
 		return usingDeinterlacing;
 	}
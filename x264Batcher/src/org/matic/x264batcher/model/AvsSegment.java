@@ -20,9 +20,14 @@
 package org.matic.x264batcher.model;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * A bean containing the info needed for encoding of a segment.
+ * A bean containing the info needed for encoding of a segment. A segment whose encoding
+ * was cut short can be continued by other segments, which encode the rest of its frames.
+ * Their outputs are merged right after the segment's own output, in the order they were set in.
  * 
  * @author Vedran Matic
  *
@@ -35,11 +40,18 @@ public final class AvsSegment {
 	private Path avsFilePath;
 	private Path x264FilePath;
 	
+	private List<AvsSegment> continuations = Collections.emptyList();
+	private long keptFrameCount;
+	
+	//Whether the output of an earlier, interrupted, encoding of the job already contains all of the frames
+	private boolean encoded = false;
+	
 	public AvsSegment(final String command, final Path avsFilePath, final Path x264FilePath, final long frameCount) {
 		this.command = command;
 		this.frameCount = frameCount;
 		this.avsFilePath = avsFilePath;
 		this.x264FilePath = x264FilePath;
+		this.keptFrameCount = frameCount;
 	}
 	
 	public final String getCommand() {
@@ -56,5 +68,58 @@ public final class AvsSegment {
 
 	public final Path getX264FilePath() {
 		return x264FilePath;
-	}	
+	}
+	
+	/**
+	 * Get the path of the file to which the encoder output can be logged.
+	 * 
+	 * @return Path to the segment's log file
+	 */
+	public final Path getLogFilePath() {
+		return x264FilePath.resolveSibling(x264FilePath.getFileName() + ".log");
+	}
+	
+	/**
+	 * Set the segments that encode the frames following the ones kept in this segment's output.
+	 * 
+	 * @param keptFrameCount Number of the frames in this segment's own output
+	 * @param continuations Segments that encode the rest of the frames
+	 */
+	public final void setContinuations(final long keptFrameCount, final List<AvsSegment> continuations) {
+		this.keptFrameCount = keptFrameCount;
+		this.continuations = new ArrayList<>(continuations);
+	}
+	
+	public final List<AvsSegment> getContinuations() {
+		return Collections.unmodifiableList(continuations);
+	}
+	
+	public final long getKeptFrameCount() {
+		return keptFrameCount;
+	}
+	
+	/**
+	 * Mark the segment as encoded, as its output was completed before the job's encoding was interrupted.
+	 */
+	public final void setEncoded() {
+		this.encoded = true;
+	}
+	
+	public final boolean isEncoded() {
+		return encoded;
+	}
+	
+	/**
+	 * Get the paths of all of the files that make up this segment's encoded frames, in merge order.
+	 * 
+	 * @return Paths to the encoded files
+	 */
+	public final List<Path> getEncodedFilePaths() {
+		final List<Path> encodedFilePaths = new ArrayList<>();
+		if(keptFrameCount > 0) {
+			encodedFilePaths.add(x264FilePath);
+		}
+		continuations.forEach(c -> encodedFilePaths.addAll(c.getEncodedFilePaths()));
+		return encodedFilePaths;
+	}
 }
@@ -0,0 +1,164 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.model;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The encoder capacity to use during a part of the day, such as fewer encoder instances
+ * at a lower CPU priority during the working hours. A profile whose end time is before its
+ * start time spans midnight.
+ * <p>
+ * The profiles are written as {@code start-end instances [niceness]}, for example
+ * {@code 08:00-19:00 2 19}, with several profiles separated by semicolons.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class CapacityProfile {
+	
+	public static final int DEFAULT_NICENESS = 0;
+	public static final int MAX_NICENESS = 19;
+	
+	private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+	private static final String PROFILE_SEPARATOR = ";";
+
+	private final LocalTime startTime;
+	private final LocalTime endTime;
+	private final int encoderJobsLimit;
+	private final int niceness;
+	
+	/**
+	 * Create a capacity profile
+	 * 
+	 * @param startTime Time of the day at which the profile becomes active
+	 * @param endTime Time of the day at which the profile stops being active
+	 * @param encoderJobsLimit Max parallel encoder instances (0 = Determine automatically)
+	 * @param niceness Scheduling priority of the encoder processes, from 0 (normal) to 19 (lowest)
+	 */
+	public CapacityProfile(final LocalTime startTime, final LocalTime endTime,
+			final int encoderJobsLimit, final int niceness) {
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.encoderJobsLimit = encoderJobsLimit;
+		this.niceness = niceness;
+	}
+	
+	/**
+	 * Parse a list of capacity profiles.
+	 * 
+	 * @param profiles Semicolon separated profiles
+	 * @return Parsed profiles, in the order they were listed in
+	 * @throws IllegalArgumentException If any of the profiles is malformed
+	 */
+	public static List<CapacityProfile> parse(final String profiles) {
+		if(profiles == null || profiles.trim().isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<CapacityProfile> capacityProfiles = new ArrayList<>();
+		for(final String profile : profiles.split(PROFILE_SEPARATOR)) {
+			if(!profile.trim().isEmpty()) {
+				capacityProfiles.add(parseProfile(profile.trim()));
+			}
+		}
+		return capacityProfiles;
+	}
+	
+	/**
+	 * Write capacity profiles in the format that {@link #parse(String)} accepts.
+	 * 
+	 * @param capacityProfiles Profiles to write
+	 * @return Semicolon separated profiles
+	 */
+	public static String format(final List<CapacityProfile> capacityProfiles) {
+		return capacityProfiles.stream().map(CapacityProfile::toString).collect(
+				Collectors.joining(PROFILE_SEPARATOR + " "));
+	}
+	
+	/**
+	 * Find the profile that is active at a time of the day. If several profiles
+	 * overlap, the first one that was listed wins.
+	 * 
+	 * @param capacityProfiles Profiles to search
+	 * @param time Time of the day
+	 * @return The active profile, or null if none is active
+	 */
+	public static CapacityProfile findActive(final List<CapacityProfile> capacityProfiles, final LocalTime time) {
+		return capacityProfiles.stream().filter(p -> p.isActive(time)).findFirst().orElse(null);
+	}
+	
+	public boolean isActive(final LocalTime time) {
+		if(startTime.isAfter(endTime)) {
+			return !time.isBefore(startTime) || time.isBefore(endTime);
+		}
+		return !time.isBefore(startTime) && time.isBefore(endTime);
+	}
+
+	public LocalTime getStartTime() {
+		return startTime;
+	}
+
+	public LocalTime getEndTime() {
+		return endTime;
+	}
+
+	public int getEncoderJobsLimit() {
+		return encoderJobsLimit;
+	}
+
+	public int getNiceness() {
+		return niceness;
+	}
+	
+	private static CapacityProfile parseProfile(final String profile) {
+		final String[] tokens = profile.split("\\s+");
+		final String[] times = tokens[0].split("-");
+		if(tokens.length < 2 || tokens.length > 3 || times.length != 2) {
+			throw new IllegalArgumentException("Expected start-end instances [niceness]: " + profile);
+		}
+		try {
+			final LocalTime startTime = LocalTime.parse(times[0], TIME_FORMATTER);
+			final LocalTime endTime = LocalTime.parse(times[1], TIME_FORMATTER);
+			final int encoderJobsLimit = EncoderParameters.AUTO_JOB_LIMIT.equalsIgnoreCase(tokens[1])?
+					0 : Integer.parseInt(tokens[1]);
+			final int niceness = tokens.length == 3? Integer.parseInt(tokens[2]) : DEFAULT_NICENESS;
+			if(encoderJobsLimit < 0 || niceness < 0 || niceness > MAX_NICENESS) {
+				throw new IllegalArgumentException("Instances must not be negative and niceness must be between 0 and "
+						+ MAX_NICENESS + ": " + profile);
+			}
+			return new CapacityProfile(startTime, endTime, encoderJobsLimit, niceness);
+		} catch(final DateTimeParseException | NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid capacity profile: " + profile);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return TIME_FORMATTER.format(startTime) + "-" + TIME_FORMATTER.format(endTime) + " "
+				+ (encoderJobsLimit == 0? EncoderParameters.AUTO_JOB_LIMIT : String.valueOf(encoderJobsLimit))
+				+ " " + niceness;
+	}
+}
@@ -28,10 +28,18 @@ package org.matic.x264batcher.model;
 public final class EncoderParameters {
 	
 	public static final String AUTO_JOB_LIMIT = "Auto";
+	public static final long DEFAULT_PROGRESS_UPDATE_INTERVAL = 250;
+	public static final int DEFAULT_SEGMENTS_PER_SLOT = 1;
+	public static final long DEFAULT_SMALL_JOB_FRAME_LIMIT = 5000;
 	
 	private final String mkvMergeExecutablePath;
 	private final String x264ExecutablePath;
+	private final long progressUpdateInterval;
 	private final int encoderJobsLimit;
+	private final boolean segmentLogFiles;
+	private final QueuePolicy queuePolicy;
+	private final int segmentsPerSlot;
+	private final long smallJobFrameLimit;
 
 	/**
 	 * Create encoder parameters
@@ -39,13 +47,25 @@ public final class EncoderParameters {
 	 * @param x264ExecutablePath Path to the x264.exe file
 	 * @param mkvMergeExecutablePath Path to the mkvmerge.exe file
 	 * @param encoderJobsLimit Max parallel jobs (0 = Determine automatically)
+	 * @param progressUpdateInterval Min time between two progress updates to the GUI (in millis)
+	 * @param segmentLogFiles Whether to write x264.exe output to a log file for each segment
+	 * @param queuePolicy Order in which to encode the queued jobs
+	 * @param segmentsPerSlot Number of segments to split a job into, per parallel job
+	 * @param smallJobFrameLimit Jobs with fewer frames aren't split, but encoded side by side (0 = Never)
 	 */
 	public EncoderParameters(final String x264ExecutablePath,
 			final String mkvMergeExecutablePath,
-			final int encoderJobsLimit) {
+			final int encoderJobsLimit, final long progressUpdateInterval,
+			final boolean segmentLogFiles, final QueuePolicy queuePolicy, final int segmentsPerSlot,
+			final long smallJobFrameLimit) {
 		this.mkvMergeExecutablePath = mkvMergeExecutablePath;
 		this.x264ExecutablePath = x264ExecutablePath;
 		this.encoderJobsLimit = encoderJobsLimit;
+		this.progressUpdateInterval = progressUpdateInterval;
+		this.segmentLogFiles = segmentLogFiles;
+		this.queuePolicy = queuePolicy;
+		this.segmentsPerSlot = segmentsPerSlot;
+		this.smallJobFrameLimit = smallJobFrameLimit;
 	}
 
 	public final String getMkvMergeExecutablePath() {
@@ -58,5 +78,25 @@ public final class EncoderParameters {
 
 	public final int getEncoderJobsLimit() {
 		return encoderJobsLimit;
-	}	
+	}
+	
+	public final long getProgressUpdateInterval() {
+		return progressUpdateInterval;
+	}
+	
+	public final boolean isSegmentLogFiles() {
+		return segmentLogFiles;
+	}
+	
+	public final QueuePolicy getQueuePolicy() {
+		return queuePolicy;
+	}
+	
+	public final int getSegmentsPerSlot() {
+		return segmentsPerSlot;
+	}
+	
+	public final long getSmallJobFrameLimit() {
+		return smallJobFrameLimit;
+	}
 }
\ No newline at end of file
@@ -19,48 +19,125 @@
 */
 package org.matic.x264batcher.model;
 
-import java.lang.management.ManagementFactory;
-
-import com.sun.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * A bean containing the information aboout the progress of
- * an encoding so that it can be shown to the user through GUI.
+ * An immutable snapshot of the progress of an encoding so that it
+ * can be safely shown to the user through GUI from any thread.
  * 
  * @author Vedran Matic
  *
  */
 public final class EncodingProgressView {
 
-	private final OperatingSystemMXBean operatingSystemMXBean = 
-			(OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+	private final List<SegmentProgressView> segmentViews;
 	private final long totalCurrentJobFrames;
-	
-	private long totalFrames = 0;
-	private long totalFramesDone = 0;
-	private long currentJobFramesDone = 0;
-	
-	private int totalJobs = 0;
-	private int totalJobsDone = 0; 
-	
-	private double fps = 0;
-	
-	public EncodingProgressView(final long totalCurrentJobFrames) {
-		this.totalCurrentJobFrames = totalCurrentJobFrames;
+	private final long currentJobFramesDone;
+	
+	private final long totalFrames;
+	private final long totalFramesDone;
+	
+	private final int totalJobs;
+	private final int totalJobsDone;
+	
+	private final double cpuLoad;
+	private final double fps;
+	
+	private final long jobSecondsLeft;
+	private final long queueSecondsLeft;
+	
+	private final boolean paused;
+	
+	/**
+	 * Create a progress snapshot.
+	 * 
+	 * @param segmentViews Progress of each of the current job's segments
+	 * @param totalFrames Frame count of all of the queued jobs
+	 * @param otherJobsFramesDone Frames done in all jobs except for the current one
+	 * @param totalJobs Count of all queued jobs
+	 * @param totalJobsDone Count of completed jobs
+	 * @param cpuLoad System CPU load (0 - 1)
+	 * @param jobSecondsLeft Estimated time left until the current job is done (-1 if unknown)
+	 * @param queueSecondsLeft Estimated time left until all of the queued jobs are done (-1 if unknown)
+	 * @param paused Whether the current job is paused (the time estimates are then frozen)
+	 */
+	public EncodingProgressView(final List<SegmentProgressView> segmentViews, final long totalFrames,
+			final long otherJobsFramesDone, final int totalJobs, final int totalJobsDone, final double cpuLoad,
+			final long jobSecondsLeft, final long queueSecondsLeft, final boolean paused) {
+		this.segmentViews = Collections.unmodifiableList(segmentViews);
+		this.totalFrames = totalFrames;
+		this.totalJobs = totalJobs;
+		this.totalJobsDone = totalJobsDone;
+		this.cpuLoad = cpuLoad;
+		this.jobSecondsLeft = jobSecondsLeft;
+		this.queueSecondsLeft = queueSecondsLeft;
+		this.paused = paused;
+		
+		long jobFrames = 0;
+		long jobFramesDone = 0;
+		double jobFps = 0;
+		for(final SegmentProgressView segmentView : segmentViews) {
+			jobFrames += segmentView.getTotalFrames();
+			jobFramesDone += segmentView.getFramesDone();
+			if(segmentView.getState() == SegmentProgressView.State.RUNNING) {
+				jobFps += segmentView.getFps();
+			}
+		}
+		this.totalCurrentJobFrames = jobFrames;
+		this.currentJobFramesDone = jobFramesDone;
+		this.totalFramesDone = otherJobsFramesDone + jobFramesDone;
+		this.fps = jobFps;
+	}
+	
+	/**
+	 * Combine the progress of the jobs that are encoded side by side, so that they can be shown as one.
+	 * The segments of all of the jobs are numbered in a row, the job is done when the last one of them
+	 * is, and the queue progress is taken from the most recent of the snapshots.
+	 * 
+	 * @param jobProgressViews Progress of each of the encoding jobs, the most recent one last
+	 * @return Combined progress snapshot
+	 */
+	public static EncodingProgressView combine(final List<EncodingProgressView> jobProgressViews) {
+		final EncodingProgressView latestView = jobProgressViews.get(jobProgressViews.size() - 1);
+		if(jobProgressViews.size() == 1) {
+			return latestView;
+		}
+		
+		final List<SegmentProgressView> segmentViews = new ArrayList<>();
+		long jobSecondsLeft = 0;
+		boolean paused = true;
+		for(final EncodingProgressView jobProgressView : jobProgressViews) {
+			for(final SegmentProgressView segmentView : jobProgressView.getSegmentViews()) {
+				segmentViews.add(new SegmentProgressView(segmentViews.size(), segmentView.getTotalFrames(),
+						segmentView.getFramesDone(), segmentView.getFps(), segmentView.getState(),
+						segmentView.getResourceUsage()));
+			}
+			jobSecondsLeft = jobSecondsLeft == -1 || jobProgressView.getJobSecondsLeft() == -1?
+					-1 : Math.max(jobSecondsLeft, jobProgressView.getJobSecondsLeft());
+			paused &= jobProgressView.isPaused();
+		}
+		final long jobsFramesDone = segmentViews.stream().mapToLong(SegmentProgressView::getFramesDone).sum();
+		
+		return new EncodingProgressView(segmentViews, latestView.getTotalFrames(),
+				Math.max(0, latestView.getTotalFramesDone() - jobsFramesDone), latestView.getTotalJobs(),
+				latestView.getTotalJobsDone(), latestView.getCpuLoad(), jobSecondsLeft,
+				latestView.getQueueSecondsLeft(), paused);
+	}
+	
+	public List<SegmentProgressView> getSegmentViews() {
+		return segmentViews;
 	}
 	
 	public double getCpuLoad() {
-		return operatingSystemMXBean.getSystemCpuLoad();
+		return cpuLoad;
 	}
 	
 	public long getTotalFrames() {
 		return totalFrames;
 	}
 	
-	public void setTotalFrames(final long totalFrames) {
-		this.totalFrames = totalFrames;
-	}
-	
 	public long getCurrentJobTotalFrames() {
 		return totalCurrentJobFrames;
 	}
@@ -74,27 +151,11 @@ public final class EncodingProgressView {
 	}
 	
 	public double getTotalPercentDone() {
-		return ((double)totalFramesDone) / totalFrames;
+		return totalFrames > 0? ((double)totalFramesDone) / totalFrames : 0;
 	}
 	
 	public double getCurrentJobPercentDone() {
-		return ((double)currentJobFramesDone) / totalCurrentJobFrames;
-	}
-	
-	public void setCurrentJobFramesDone(final long currentJobFramesDone) {
-		this.currentJobFramesDone = currentJobFramesDone;
-	}
-	
-	public void setTotalFramesDone(final long totalFramesDone) {
-		this.totalFramesDone = totalFramesDone;
-	}
-	
-	public void setTotalJobs(final int totalJobs) {
-		this.totalJobs = totalJobs;
-	}
-	
-	public void setTotalJobsDone(final int totalJobsDone) {
-		this.totalJobsDone = totalJobsDone;
+		return totalCurrentJobFrames > 0? ((double)currentJobFramesDone) / totalCurrentJobFrames : 0;
 	}
 	
 	public long getCurrentJobFramesDone() {
@@ -105,11 +166,29 @@ public final class EncodingProgressView {
 		return totalFramesDone;
 	}
 	
-	public void setFps(final double fps) {
-		this.fps = fps;
-	}
-	
 	public double getFps() {
 		return fps;
 	}
+	
+	public boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Get the estimated time left until the current job, including its merge, is done.
+	 * 
+	 * @return Seconds left or -1 if it can't be estimated yet
+	 */
+	public long getJobSecondsLeft() {
+		return jobSecondsLeft;
+	}
+	
+	/**
+	 * Get the estimated time left until all of the queued jobs are done.
+	 * 
+	 * @return Seconds left or -1 if it can't be estimated yet
+	 */
+	public long getQueueSecondsLeft() {
+		return queueSecondsLeft;
+	}
 }
@@ -17,34 +17,31 @@
 * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
 *
 */
-package org.matic.x264batcher.gui;
-
-import javafx.concurrent.ScheduledService;
-import javafx.concurrent.Task;
+package org.matic.x264batcher.model;
 
 /**
- * A simple service that runs a task (encoding progress reporting)
- * at a scheduled time interval.
+ * A priority of an encoding job. A job with a higher priority is always started before the
+ * jobs with lower priorities, and it preempts a running job with a lower priority.
  * 
  * @author Vedran Matic
  *
  */
-public final class ProgressPoller extends ScheduledService<Void> {
+public enum JobPriority {
+
+	LOW("Low"), NORMAL("Normal"), HIGH("High"), URGENT("Urgent");
 	
-	private final Runnable task;
+	private final String value;
+	
+	JobPriority(final String value) {
+		this.value = value;
+	}
 	
-	public ProgressPoller(final Runnable task) {
-		this.task = task;
+	public boolean isHigherThan(final JobPriority other) {
+		return compareTo(other) > 0;
 	}
 	
 	@Override
-	protected Task<Void> createTask() {
-		return new Task<Void>() {
-            @Override
-            public Void call() {		            	
-            	task.run();     	
-            	return null;
-            }
-		};
+	public String toString() {
+		return value;
 	}
-}
\ No newline at end of file
+}
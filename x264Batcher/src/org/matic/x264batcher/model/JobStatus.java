@@ -27,7 +27,8 @@ package org.matic.x264batcher.model;
  */
 public enum JobStatus {
 
-	RUNNING("Running"), QUEUED("Queued"), FINISHED("Finished"), CANCELLED("Cancelled"), FAILED("Failed");
+	RUNNING("Running"), QUEUED("Queued"), PAUSED("Paused"), FINISHED("Finished"), CANCELLED("Cancelled"),
+	FAILED("Failed");
 	
 	private final String value;
 	
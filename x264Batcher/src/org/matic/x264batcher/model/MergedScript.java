@@ -30,17 +30,17 @@ import java.util.List;
  */
 public final class MergedScript {
 	
-	private final List<AvsScriptCommand> scriptCommands;
+	private final List<String> scriptLines;
 	private final long encodedFrameCount;
 
 	/**
 	 * Create a new instance of a merged script.
 	 * 
-	 * @param scriptCommands Merged commands from the input clips
+	 * @param scriptLines Merged lines from the input clips
 	 * @param encodedFrameCount Total frame count for the merged script
 	 */
-	public MergedScript(final List<AvsScriptCommand> scriptCommands, final long encodedFrameCount) {
-		this.scriptCommands = scriptCommands;
+	public MergedScript(final List<String> scriptLines, final long encodedFrameCount) {
+		this.scriptLines = scriptLines;
 		this.encodedFrameCount = encodedFrameCount;
 	}
 	
@@ -48,7 +48,7 @@ public final class MergedScript {
 		return encodedFrameCount;
 	}
 	
-	public List<AvsScriptCommand> getCommands() {
-		return scriptCommands;
+	public List<String> getLines() {
+		return scriptLines;
 	}
 }
@@ -0,0 +1,112 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.model;
+
+/**
+ * An immutable sample of the resources used by an encoder process.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class ProcessResourceUsage {
+	
+	/**
+	 * Usage of a process that wasn't (or couldn't be) sampled.
+	 */
+	public static final ProcessResourceUsage UNKNOWN = new ProcessResourceUsage(-1, -1, -1, -1, -1, -1, -1, -1);
+	
+	private final double cpuLoad;
+	private final long cpuTime;
+	private final long rssBytes;
+	private final long peakRssBytes;
+	private final long readBytes;
+	private final long writeBytes;
+	private final long voluntaryContextSwitches;
+	private final long involuntaryContextSwitches;
+	
+	/**
+	 * Create a resource usage sample. Any value that couldn't be determined is set to -1.
+	 * 
+	 * @param cpuLoad CPU load since the previous sample (1 = one fully used core)
+	 * @param cpuTime Total CPU time used by the process (in millis)
+	 * @param rssBytes Resident set size
+	 * @param peakRssBytes Peak resident set size
+	 * @param readBytes Bytes read from the storage
+	 * @param writeBytes Bytes written to the storage
+	 * @param voluntaryContextSwitches Context switches while waiting for a resource
+	 * @param involuntaryContextSwitches Context switches forced by the scheduler
+	 */
+	public ProcessResourceUsage(final double cpuLoad, final long cpuTime, final long rssBytes,
+			final long peakRssBytes, final long readBytes, final long writeBytes,
+			final long voluntaryContextSwitches, final long involuntaryContextSwitches) {
+		this.cpuLoad = cpuLoad;
+		this.cpuTime = cpuTime;
+		this.rssBytes = rssBytes;
+		this.peakRssBytes = peakRssBytes;
+		this.readBytes = readBytes;
+		this.writeBytes = writeBytes;
+		this.voluntaryContextSwitches = voluntaryContextSwitches;
+		this.involuntaryContextSwitches = involuntaryContextSwitches;
+	}
+	
+	public boolean isKnown() {
+		return this != UNKNOWN;
+	}
+	
+	public double getCpuLoad() {
+		return cpuLoad;
+	}
+	
+	public long getCpuTime() {
+		return cpuTime;
+	}
+	
+	public long getRssBytes() {
+		return rssBytes;
+	}
+	
+	public long getPeakRssBytes() {
+		return peakRssBytes;
+	}
+	
+	public long getReadBytes() {
+		return readBytes;
+	}
+	
+	public long getWriteBytes() {
+		return writeBytes;
+	}
+	
+	public long getVoluntaryContextSwitches() {
+		return voluntaryContextSwitches;
+	}
+	
+	public long getInvoluntaryContextSwitches() {
+		return involuntaryContextSwitches;
+	}
+
+	@Override
+	public String toString() {
+		return "cpu = " + Math.round(cpuLoad * 100) + "%, cpu time = " + cpuTime / 1000 + "s, rss = "
+				+ (rssBytes >> 20) + " MB, peak rss = " + (peakRssBytes >> 20) + " MB, read = "
+				+ (readBytes >> 20) + " MB, written = " + (writeBytes >> 20) + " MB, context switches = "
+				+ voluntaryContextSwitches + "/" + involuntaryContextSwitches;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.model;
+
+/**
+ * An immutable snapshot of the encoding progress of a single job segment.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class SegmentProgressView {
+	
+	public enum State {
+		QUEUED, RUNNING, PAUSED, FINISHED, FAILED
+	}
+	
+	private final int segmentIndex;
+	private final long totalFrames;
+	private final long framesDone;
+	private final double fps;
+	private final State state;
+	private final ProcessResourceUsage resourceUsage;
+	
+	public SegmentProgressView(final int segmentIndex, final long totalFrames, final long framesDone,
+			final double fps, final State state, final ProcessResourceUsage resourceUsage) {
+		this.segmentIndex = segmentIndex;
+		this.totalFrames = totalFrames;
+		this.framesDone = framesDone;
+		this.fps = fps;
+		this.state = state;
+		this.resourceUsage = resourceUsage;
+	}
+	
+	public int getSegmentIndex() {
+		return segmentIndex;
+	}
+	
+	public long getTotalFrames() {
+		return totalFrames;
+	}
+	
+	public long getFramesDone() {
+		return framesDone;
+	}
+	
+	public double getFps() {
+		return fps;
+	}
+	
+	public State getState() {
+		return state;
+	}
+	
+	/**
+	 * Get the resource usage of the segment's encoder process, as of the most recent sample.
+	 * 
+	 * @return Resource usage or {@link ProcessResourceUsage#UNKNOWN} if it wasn't sampled
+	 */
+	public ProcessResourceUsage getResourceUsage() {
+		return resourceUsage;
+	}
+	
+	public double getPercentDone() {
+		return totalFrames > 0? ((double)framesDone) / totalFrames : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "SegmentProgressView [segmentIndex=" + segmentIndex + ", framesDone=" + framesDone
+				+ ", totalFrames=" + totalFrames + ", fps=" + fps + ", state=" + state + "]";
+	}
+}
@@ -0,0 +1,198 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.matic.x264batcher.gui.log.EncoderLogger;
+import org.matic.x264batcher.gui.log.LogEntry.Severity;
+
+/**
+ * An index file parser that remembers the results of another parser. The results are
+ * kept on the disk, keyed by the index file's path, size and modification time, so that
+ * an unchanged index file is never parsed more than once. The most recently used results
+ * are kept in memory as well, as a job's scripts often share the same index files.
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class CachingIndexedFileParser implements IndexedFileParser {
+
+	//Increase whenever the output of any of the parsers changes, so that stale cache entries are ignored
+	private static final int CACHE_VERSION = 2;
+	private static final int CACHE_FILE_MAGIC = 0x58494458;
+	private static final String CACHE_FILE_EXTENSION = ".idx";
+
+	//Max number of the results kept in memory, any others are read from the disk cache when needed
+	private static final int MEMORY_CACHE_SIZE = 32;
+
+	//Shared by all of the instances, so that the results outlive a parser created for a single parse run
+	private static final Map<Path, CacheEntry> MEMORY_CACHE = Collections.synchronizedMap(
+			new LinkedHashMap<Path, CacheEntry>(MEMORY_CACHE_SIZE, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Path, CacheEntry> eldest) {
+					return size() > MEMORY_CACHE_SIZE;
+				}
+			});
+
+	private final IndexedFileParser parser;
+	private final Path cacheDirectory;
+	private final EncoderLogger logger;
+
+	/**
+	 * Create a new instance of the caching parser.
+	 *
+	 * @param parser Parser to use when a cached result doesn't exist or is out of date
+	 * @param cacheDirectory Directory in which to store the cached results
+	 * @param logger Logger to which the caching failures are reported
+	 */
+	public CachingIndexedFileParser(final IndexedFileParser parser, final Path cacheDirectory,
+			final EncoderLogger logger) {
+		this.parser = parser;
+		this.cacheDirectory = cacheDirectory;
+		this.logger = logger;
+	}
+
+	/**
+	 * @see IndexedFileParser#parse(String)
+	 */
+	@Override
+	public ParsedIndexedFile parse(final String indexedFilePath) throws IOException {
+		final Path path = Paths.get(indexedFilePath).toAbsolutePath().normalize();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		final long fileSize = attributes.size();
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+
+		final CacheEntry memoryEntry = MEMORY_CACHE.get(path);
+		if(memoryEntry != null && memoryEntry.matches(fileSize, lastModified)) {
+			return memoryEntry.parsedIndexedFile;
+		}
+
+		final Path cacheFilePath = getCacheFilePath(path);
+		ParsedIndexedFile parsedIndexedFile = load(cacheFilePath, path, fileSize, lastModified);
+		if(parsedIndexedFile == null) {
+			parsedIndexedFile = parser.parse(indexedFilePath);
+			store(cacheFilePath, path, fileSize, lastModified, parsedIndexedFile);
+		}
+
+		MEMORY_CACHE.put(path, new CacheEntry(fileSize, lastModified, parsedIndexedFile));
+		return parsedIndexedFile;
+	}
+
+	private Path getCacheFilePath(final Path indexedFilePath) {
+		final String cacheFileName = UUID.nameUUIDFromBytes(
+				indexedFilePath.toString().getBytes(StandardCharsets.UTF_8)).toString();
+		return cacheDirectory.resolve(cacheFileName + CACHE_FILE_EXTENSION);
+	}
+
+	private ParsedIndexedFile load(final Path cacheFilePath, final Path indexedFilePath,
+			final long fileSize, final long lastModified) {
+		if(!Files.isRegularFile(cacheFilePath)) {
+			return null;
+		}
+		try {
+			final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cacheFilePath));
+			if(buffer.getInt() != CACHE_FILE_MAGIC || buffer.getInt() != CACHE_VERSION) {
+				return null;
+			}
+			final byte[] pathBytes = new byte[buffer.getInt()];
+			buffer.get(pathBytes);
+			if(!indexedFilePath.toString().equals(new String(pathBytes, StandardCharsets.UTF_8))
+					|| buffer.getLong() != fileSize || buffer.getLong() != lastModified) {
+				return null;
+			}
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			final long frameCount = buffer.getLong();
+			final GopIndex gopIndex = GopIndex.readFrom(buffer);
+
+			return gopIndex != null? new ParsedIndexedFile(width, height, frameCount, gopIndex) : null;
+		} catch(final IOException | RuntimeException e) {
+			//A damaged cache entry, it will be replaced by a freshly parsed one
+			return null;
+		}
+	}
+
+	private void store(final Path cacheFilePath, final Path indexedFilePath, final long fileSize,
+			final long lastModified, final ParsedIndexedFile parsedIndexedFile) {
+		final byte[] pathBytes = indexedFilePath.toString().getBytes(StandardCharsets.UTF_8);
+		final GopIndex gopIndex = parsedIndexedFile.getGopIndex();
+		final ByteBuffer buffer = ByteBuffer.allocate(4 * Integer.BYTES + pathBytes.length
+				+ 3 * Long.BYTES + Integer.BYTES + gopIndex.getStoredSize());
+
+		buffer.putInt(CACHE_FILE_MAGIC);
+		buffer.putInt(CACHE_VERSION);
+		buffer.putInt(pathBytes.length);
+		buffer.put(pathBytes);
+		buffer.putLong(fileSize);
+		buffer.putLong(lastModified);
+		buffer.putInt(parsedIndexedFile.getWidth());
+		buffer.putInt(parsedIndexedFile.getHeight());
+		buffer.putLong(parsedIndexedFile.getFrameCount());
+		gopIndex.writeTo(buffer);
+
+		try {
+			Files.createDirectories(cacheDirectory);
+
+			//Write to a temporary file first, so that a concurrent reader never sees a partial entry
+			final Path tempFilePath = Files.createTempFile(cacheDirectory, null, null);
+			try {
+				Files.write(tempFilePath, buffer.array());
+				Files.move(tempFilePath, cacheFilePath, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFilePath);
+			}
+		} catch(final IOException ioe) {
+			//Not being able to cache the result is not an error, the file will simply be parsed again
+			logger.log(Severity.WARN, "Failed to cache the parsed index file: " + indexedFilePath
+					+ ", due to = [ " + ioe.getMessage() + " ]");
+		}
+	}
+
+	private static final class CacheEntry {
+		private final ParsedIndexedFile parsedIndexedFile;
+		private final long lastModified;
+		private final long fileSize;
+
+		CacheEntry(final long fileSize, final long lastModified, final ParsedIndexedFile parsedIndexedFile) {
+			this.parsedIndexedFile = parsedIndexedFile;
+			this.lastModified = lastModified;
+			this.fileSize = fileSize;
+		}
+
+		boolean matches(final long fileSize, final long lastModified) {
+			return this.fileSize == fileSize && this.lastModified == lastModified;
+		}
+	}
+}
@@ -19,16 +19,16 @@
 */
 package org.matic.x264batcher.parser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 
 /**
  * Parses and stores the information extracted from a clip's index file.
  * This is mostly useful for obtaining information about a clip's
  * resolution and frame count. This implementation deals with
- * DGDecode indexed files.
+ * DGDecode indexed files. The file is scanned byte by byte, directly
+ * from its memory mapping.
  * 
  * @author Vedran Matic
  *
@@ -37,72 +37,84 @@ public final class D2VParser implements IndexedFileParser {
 	
 	public static final String D2V_FILE_EXTENSION = ".d2v";
 	
-	private static final String FIELD_OPERATION_IDENTIFIER = "Field_Operation=";
-	private static final String RESOLUTION_IDENTIFIER = "Picture_Size=";
+	private static final byte[] FIELD_OPERATION_IDENTIFIER = "Field_Operation=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] RESOLUTION_IDENTIFIER = "Picture_Size=".getBytes(StandardCharsets.US_ASCII);
+	
+	private static final int GOP_POSITION_TOKEN_INDEX = 3;
+	private static final int FRAME_FLAGS_TOKEN_INDEX = 4;
 	
 	/**
 	 * @see IndexedFileParser#parse(String)
 	 */
 	@Override
 	public final ParsedIndexedFile parse(final String d2vFilePath) throws IOException {
-		int[] resolution = {-1, -1};
-		int fieldOperation = -1;
+		final long[] resolution = {-1, -1};
+		long fieldOperation = -1;
 		long fieldCount = 0;
 		boolean processingFrameFlags = false;
 		
-		try(final BufferedReader reader = Files.newBufferedReader(Paths.get(d2vFilePath))) {			
-			String line;
-			while((line = reader.readLine()) != null) {
-				if(line.startsWith(RESOLUTION_IDENTIFIER)) {
-					resolution = extractResolution(line);
+		final GopIndex.Builder gopIndexBuilder = new GopIndex.Builder();
+		final IndexFileScanner scanner = IndexFileScanner.open(Paths.get(d2vFilePath));
+		
+		while(scanner.nextLine()) {
+			if(scanner.lineStartsWith(RESOLUTION_IDENTIFIER)) {
+				scanner.parseLineNumbers(resolution);
+			}
+			else if(scanner.lineStartsWith(FIELD_OPERATION_IDENTIFIER)) {
+				fieldOperation = scanner.parseLineNumber(FIELD_OPERATION_IDENTIFIER.length);
+			}
+			else if(scanner.isBlankLine()) {
+				if(fieldOperation != -1) {
+					processingFrameFlags = true;
 				}
-				else if(line.startsWith(FIELD_OPERATION_IDENTIFIER)) {
-					fieldOperation = Integer.parseInt(line.substring(FIELD_OPERATION_IDENTIFIER.length(), line.length()));
+				else if(processingFrameFlags) {
+					processingFrameFlags = false;
 				}
-				else if(line.trim().equals("")) {
-					if(fieldOperation != -1) {
-						processingFrameFlags = true;
-					}
-					else if(processingFrameFlags) {
-						processingFrameFlags = false;
+			}				
+			else if(processingFrameFlags) {
+				//Each frame flags line describes a single GOP, starting with an I-frame
+				final long gopStartFrame = fieldCount / 2;
+				long gopPosition = -1;
+				long gopFieldCount = 0;
+				int tokenIndex = 0;
+				
+				while(scanner.nextToken()) {
+					if(tokenIndex == GOP_POSITION_TOKEN_INDEX) {
+						gopPosition = scanner.tokenAsNumber();
 					}
-				}				
-				else if(processingFrameFlags) {
-					final String[] lineTokens = line.split(" ");
-					if(lineTokens.length > 4) {
-						fieldCount += processFrameFlags(lineTokens);
+					else if(tokenIndex >= FRAME_FLAGS_TOKEN_INDEX) {
+						gopFieldCount += processFrameFlag(scanner);
 					}
+					++tokenIndex;
+				}
+				if(tokenIndex > FRAME_FLAGS_TOKEN_INDEX) {
+					gopIndexBuilder.add((int)(fieldOperation == 1? gopStartFrame * 0.8 : gopStartFrame), gopPosition);
+					fieldCount += gopFieldCount;
 				}
 			}
-		}	
+		}
 		
 		long frameCount = (long)(Math.ceil(fieldCount / 2.0));
 		if(fieldOperation == 1) {
 			frameCount *= 0.8;
 		}
 		
-		return new ParsedIndexedFile(resolution[0], resolution[1], frameCount - 2);
+		return new ParsedIndexedFile((int)resolution[0], (int)resolution[1], frameCount - 1, gopIndexBuilder.build());
 	}
 	
-	private long processFrameFlags(final String[] frameFlags) {
-		long fieldCount = 0;
-		for(int i = 4; i < frameFlags.length; ++i) {
-			if(frameFlags[i].length() < 2) {
-				continue;
-			}
-			if(frameFlags[i].contains("0") || frameFlags[i].contains("2")) {
-				fieldCount += 2;
-			}
-			else if(frameFlags[i].contains("1") || frameFlags[i].contains("3")) {
-				fieldCount += 3;
+	private long processFrameFlag(final IndexFileScanner scanner) {
+		final int flagLength = scanner.tokenLength();
+		if(flagLength < 2) {
+			return 0;
+		}
+		boolean repeatedField = false;
+		for(int i = 0; i < flagLength; ++i) {
+			final byte flagDigit = scanner.tokenByte(i);
+			if(flagDigit == '0' || flagDigit == '2') {
+				return 2;
 			}
+			repeatedField |= flagDigit == '1' || flagDigit == '3';
 		}
-		return fieldCount;
-	}
-	
-	private int[] extractResolution(final String resolution) {
-		final String[] dimensions = resolution.substring(RESOLUTION_IDENTIFIER.length(),
-				resolution.length()).split("x");
-		return new int[]{ Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]) };
+		return repeatedField? 3 : 0;
 	}
 }
@@ -19,19 +19,17 @@
 */
 package org.matic.x264batcher.parser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.Arrays;
-
-import org.matic.x264batcher.utils.Helper;
 
 /**
  * Parses and stores the information extracted from a clip's index file.
  * This is mostly useful for obtaining information about a clip's
  * resolution and frame count. This implementation deals with
- * DGSource indexed files.
+ * DGSource indexed files. The frame count is taken from the index
+ * file's footer (the playback frame count, with pulldown applied),
+ * while the index body is used for building the clip's GOP map.
  * 
  * @author Vedran Matic
  *
@@ -40,27 +38,75 @@ public final class DgiParser implements IndexedFileParser {
 	
 	public static final String DGI_FILE_EXTENSION = ".dgi";
 	
-	private static final String RESOLUTION_IDENTIFIER = "SIZ";
+	private static final byte[] RESOLUTION_IDENTIFIER = "SIZ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CODED_FRAMES_IDENTIFIER = "CODED".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PLAYBACK_FRAMES_IDENTIFIER = "PLAYBACK".getBytes(StandardCharsets.US_ASCII);
+	
+	//Set on the picture entries for which the decoder repeats the first field (pulldown)
+	private static final long REPEAT_FIRST_FIELD_FLAG = 0x1;
 	
 	/**
 	 * @see IndexedFileParser#parse(String) 
 	 */
 	@Override
 	public ParsedIndexedFile parse(final String dgiFilePath) throws IOException {
-		int[] resolution = {-1, -1};
-		try (final BufferedReader reader = Files.newBufferedReader(Paths.get(dgiFilePath))) {
-			String line;
-			while((line = reader.readLine()) != null) {
-				if(line.startsWith(RESOLUTION_IDENTIFIER) && line.contains("x")) {
-					resolution = extractResolution(line);
+		final long[] resolution = {-1, -1};
+		final long[] footerValue = {-1};
+		long codedFrames = -1;
+		long playbackFrames = -1;
+		
+		long bodyCodedFrames = 0;
+		long bodyFieldCount = 0;
+		boolean processingBody = false;
+		
+		final GopIndex.Builder gopIndexBuilder = new GopIndex.Builder();
+		final IndexFileScanner scanner = IndexFileScanner.open(Paths.get(dgiFilePath));
+		
+		while(scanner.nextLine()) {
+			if(scanner.isBlankLine()) {
+				//The body follows the header, which ends with the first blank line
+				processingBody = true;
+			}
+			else if(scanner.lineStartsWith(RESOLUTION_IDENTIFIER) && scanner.lineContains((byte)'x')) {
+				scanner.parseLineNumbers(resolution);
+			}
+			else if(scanner.lineStartsWith(CODED_FRAMES_IDENTIFIER) && scanner.parseLineNumbers(footerValue) == 1) {
+				codedFrames = footerValue[0];
+			}
+			else if(scanner.lineStartsWith(PLAYBACK_FRAMES_IDENTIFIER) && scanner.parseLineNumbers(footerValue) == 1) {
+				playbackFrames = footerValue[0];
+			}
+			else if(processingBody && scanner.nextToken() && !scanner.lineContains((byte)'%')) {
+				//A GOP entry: its position in the stream, followed by an entry for each of its pictures
+				final long gopPosition = scanner.tokenAsNumber();
+				if(gopPosition == -1) {
+					continue;
+				}
+				gopIndexBuilder.add((int)(bodyFieldCount / 2), gopPosition);
+				while(scanner.nextToken()) {
+					final long pictureFlags = scanner.tokenAsNumber();
+					if(pictureFlags == -1) {
+						continue;
+					}
+					++bodyCodedFrames;
+					bodyFieldCount += (pictureFlags & REPEAT_FIRST_FIELD_FLAG) != 0? 3 : 2;
 				}
 			}
 		}
-		return new ParsedIndexedFile(resolution[0], resolution[1], -1);
-	}
-	
-	private int[] extractResolution(final String resolution) {
-		return Arrays.stream(resolution.split(" ")).filter(
-				Helper::isNumber).mapToInt(Integer::parseInt).toArray();			
+		
+		final long bodyPlaybackFrames = (bodyFieldCount + 1) / 2;
+		final long frameCount = playbackFrames != -1? playbackFrames : (bodyCodedFrames > 0? bodyPlaybackFrames : -1);
+		
+		if(codedFrames != -1 && bodyCodedFrames > 0 && codedFrames != bodyCodedFrames) {
+			//The body doesn't describe the whole stream, a GOP map based on it would be misleading
+			return new ParsedIndexedFile((int)resolution[0], (int)resolution[1], frameCount);
+		}
+		
+		//Map the GOP starts onto the frame numbers as seen by the decoder, if these differ from ours
+		final double frameScale = frameCount > 0 && bodyPlaybackFrames > 0?
+				((double)frameCount) / bodyPlaybackFrames : 1;
+		
+		return new ParsedIndexedFile((int)resolution[0], (int)resolution[1], frameCount,
+				gopIndexBuilder.build(frameScale));
 	}
 }
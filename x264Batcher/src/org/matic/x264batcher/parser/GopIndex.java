@@ -0,0 +1,214 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact index of the GOP (group of pictures) positions in a clip. For each GOP
+ * the frame at which it starts and the offset of its data in the source file are stored.
+ * The values are kept in primitive buffers, which are either backed by arrays or
+ * are views of a buffer that the index was read from (such as a cached parse result).
+ *
+ * @author Vedran Matic
+ *
+ */
+public final class GopIndex {
+
+	/**
+	 * An index without any GOP entries, used when the GOP positions are not known.
+	 */
+	public static final GopIndex EMPTY = new GopIndex(IntBuffer.allocate(0), LongBuffer.allocate(0));
+
+	private static final int FILE_MAGIC = 0x47495831;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	private final IntBuffer startFrames;
+	private final LongBuffer fileOffsets;
+
+	private GopIndex(final IntBuffer startFrames, final LongBuffer fileOffsets) {
+		this.startFrames = startFrames;
+		this.fileOffsets = fileOffsets;
+	}
+
+	/**
+	 * Get the number of GOPs in this index.
+	 *
+	 * @return GOP count
+	 */
+	public int size() {
+		return startFrames.limit();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int getStartFrame(final int gop) {
+		return startFrames.get(gop);
+	}
+
+	public long getFileOffset(final int gop) {
+		return fileOffsets.get(gop);
+	}
+
+	/**
+	 * Find the GOP start that is closest to a frame, but not further away than the tolerance.
+	 *
+	 * @param frame Target frame
+	 * @param tolerance Max allowed distance (in frames) between the target frame and a GOP start
+	 * @return The closest GOP start frame, or the target frame itself if there is no GOP start within tolerance
+	 */
+	public long findNearestGopStart(final long frame, final long tolerance) {
+		final int size = size();
+		if(size == 0) {
+			return frame;
+		}
+		int low = 0;
+		int high = size - 1;
+		while(low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int middleFrame = startFrames.get(middle);
+			if(middleFrame < frame) {
+				low = middle + 1;
+			}
+			else if(middleFrame > frame) {
+				high = middle - 1;
+			}
+			else {
+				return frame;
+			}
+		}
+		//low is now the first GOP that starts after the frame, and high the last one that starts before it
+		long nearest = frame;
+		long nearestDistance = tolerance + 1;
+		if(high >= 0 && frame - startFrames.get(high) < nearestDistance) {
+			nearest = startFrames.get(high);
+			nearestDistance = frame - nearest;
+		}
+		if(low < size && startFrames.get(low) - frame < nearestDistance) {
+			nearest = startFrames.get(low);
+		}
+		return nearest;
+	}
+
+	int getStoredSize() {
+		return HEADER_SIZE + size() * (Integer.BYTES + Long.BYTES);
+	}
+
+	void writeTo(final ByteBuffer buffer) {
+		final int size = size();
+		buffer.putInt(FILE_MAGIC);
+		buffer.putInt(size);
+		for(int i = 0; i < size; ++i) {
+			buffer.putInt(startFrames.get(i));
+		}
+		for(int i = 0; i < size; ++i) {
+			buffer.putLong(fileOffsets.get(i));
+		}
+	}
+
+	/**
+	 * Read a GOP index, previously written with {@link #writeTo(ByteBuffer)}, at the buffer's
+	 * current position. The returned index is a view to the buffer's contents.
+	 * 
+	 * @param buffer Source buffer
+	 * @return The read GOP index or null if the buffer doesn't contain a valid index
+	 */
+	static GopIndex readFrom(final ByteBuffer buffer) {
+		if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != FILE_MAGIC) {
+			return null;
+		}
+		final int size = buffer.getInt();
+		if(size < 0 || buffer.remaining() < size * (Integer.BYTES + Long.BYTES)) {
+			return null;
+		}
+		return size == 0? EMPTY : fromBuffer(buffer, size);
+	}
+
+	private static GopIndex fromBuffer(final ByteBuffer buffer, final int size) {
+		final ByteBuffer framesBuffer = buffer.slice();
+		framesBuffer.limit(size * Integer.BYTES);
+
+		buffer.position(buffer.position() + size * Integer.BYTES);
+		final ByteBuffer offsetsBuffer = buffer.slice();
+		offsetsBuffer.limit(size * Long.BYTES);
+		buffer.position(buffer.position() + size * Long.BYTES);
+
+		return new GopIndex(framesBuffer.asIntBuffer(), offsetsBuffer.asLongBuffer());
+	}
+
+	@Override
+	public String toString() {
+		return "GopIndex [size=" + size() + "]";
+	}
+
+	/**
+	 * A builder that collects GOP entries into growable primitive arrays.
+	 */
+	static final class Builder {
+
+		private int[] startFrames = new int[1024];
+		private long[] fileOffsets = new long[1024];
+		private int size = 0;
+
+		/**
+		 * Append a GOP entry. The entries must be added in increasing frame order.
+		 *
+		 * @param startFrame The first frame of the GOP
+		 * @param fileOffset The offset of the GOP data in the source file
+		 */
+		void add(final int startFrame, final long fileOffset) {
+			if(size == startFrames.length) {
+				startFrames = Arrays.copyOf(startFrames, size << 1);
+				fileOffsets = Arrays.copyOf(fileOffsets, size << 1);
+			}
+			startFrames[size] = startFrame;
+			fileOffsets[size] = fileOffset;
+			++size;
+		}
+
+		GopIndex build() {
+			return build(1);
+		}
+
+		/**
+		 * Build the index, with all of the GOP start frames multiplied by a scale factor.
+		 *
+		 * @param frameScale Start frame scale factor
+		 * @return The built index
+		 */
+		GopIndex build(final double frameScale) {
+			if(size == 0) {
+				return EMPTY;
+			}
+			final int[] scaledStartFrames = Arrays.copyOf(startFrames, size);
+			if(frameScale != 1) {
+				for(int i = 0; i < size; ++i) {
+					scaledStartFrames[i] = (int)(scaledStartFrames[i] * frameScale);
+				}
+			}
+			return new GopIndex(IntBuffer.wrap(scaledStartFrames), LongBuffer.wrap(Arrays.copyOf(fileOffsets, size)));
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A line and token scanner that operates directly on the bytes of an index file. The file
+ * is read into a single buffer in one go and closed right away (a mapped file would stay
+ * locked on Windows until the mapping is garbage collected). Lines and tokens are described
+ * by offsets into the buffer, which means that no objects are allocated while the file is
+ * being scanned.
+ *
+ * @author Vedran Matic
+ *
+ */
+final class IndexFileScanner {
+
+	private static final byte SPACE = ' ';
+	private static final byte TAB = '\t';
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private final ByteBuffer buffer;
+	private final int limit;
+
+	private int nextLineStart = 0;
+	private int lineStart = 0;
+	private int lineEnd = 0;
+
+	private int tokenStart = 0;
+	private int tokenEnd = 0;
+
+	private IndexFileScanner(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.limit = buffer.limit();
+	}
+
+	/**
+	 * Read an index file into memory and create a scanner for it.
+	 *
+	 * @param indexFilePath Path to the index file
+	 * @return A scanner positioned before the first line of the file
+	 * @throws IOException If the file can't be read
+	 */
+	static IndexFileScanner open(final Path indexFilePath) throws IOException {
+		try(final FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			if(fileSize > Integer.MAX_VALUE) {
+				throw new IOException("Index file is too large: " + indexFilePath);
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int)fileSize);
+			while(buffer.hasRemaining() && channel.read(buffer) != -1) {
+				//Keep reading until the whole file is in the buffer
+			}
+			buffer.flip();
+			return new IndexFileScanner(buffer);
+		}
+	}
+
+	/**
+	 * Advance to the next line of the file.
+	 *
+	 * @return Whether there was a next line
+	 */
+	boolean nextLine() {
+		if(nextLineStart >= limit) {
+			return false;
+		}
+		lineStart = nextLineStart;
+		int position = lineStart;
+		while(position < limit && buffer.get(position) != LF) {
+			++position;
+		}
+		nextLineStart = position + 1;
+		lineEnd = position > lineStart && buffer.get(position - 1) == CR? position - 1 : position;
+		tokenStart = tokenEnd = lineStart;
+		return true;
+	}
+
+	/**
+	 * Check whether the current line consists of whitespace only.
+	 *
+	 * @return True if the line is blank, false otherwise
+	 */
+	boolean isBlankLine() {
+		for(int i = lineStart; i < lineEnd; ++i) {
+			if(!isWhitespace(buffer.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the current line starts with a prefix.
+	 *
+	 * @param prefix ASCII prefix to match
+	 * @return True if the line starts with the prefix, false otherwise
+	 */
+	boolean lineStartsWith(final byte[] prefix) {
+		if(lineEnd - lineStart < prefix.length) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length; ++i) {
+			if(buffer.get(lineStart + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the current line contains a character.
+	 *
+	 * @param character ASCII character to look for
+	 * @return True if the character is on the line, false otherwise
+	 */
+	boolean lineContains(final byte character) {
+		for(int i = lineStart; i < lineEnd; ++i) {
+			if(buffer.get(i) == character) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parse the unsigned decimal number that starts at an offset from the current line start.
+	 *
+	 * @param lineOffset Offset from the line start
+	 * @return The parsed number or -1 if there are no digits at the offset
+	 */
+	long parseLineNumber(final int lineOffset) {
+		return parseNumber(lineStart + lineOffset, lineEnd);
+	}
+
+	/**
+	 * Parse all unsigned decimal numbers on the current line that are separated by non-digits.
+	 *
+	 * @param target Array to store the parsed numbers into
+	 * @return How many numbers were stored
+	 */
+	int parseLineNumbers(final long[] target) {
+		int count = 0;
+		int position = lineStart;
+		while(position < lineEnd && count < target.length) {
+			if(isDigit(buffer.get(position))) {
+				final int numberStart = position;
+				while(position < lineEnd && isDigit(buffer.get(position))) {
+					++position;
+				}
+				target[count++] = parseNumber(numberStart, position);
+			}
+			else {
+				++position;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Advance to the next space separated token on the current line.
+	 *
+	 * @return Whether there was a next token
+	 */
+	boolean nextToken() {
+		int position = tokenEnd;
+		while(position < lineEnd && isWhitespace(buffer.get(position))) {
+			++position;
+		}
+		if(position >= lineEnd) {
+			tokenStart = tokenEnd = lineEnd;
+			return false;
+		}
+		tokenStart = position;
+		while(position < lineEnd && !isWhitespace(buffer.get(position))) {
+			++position;
+		}
+		tokenEnd = position;
+		return true;
+	}
+
+	int tokenLength() {
+		return tokenEnd - tokenStart;
+	}
+
+	byte tokenByte(final int index) {
+		return buffer.get(tokenStart + index);
+	}
+
+	/**
+	 * Parse the current token as an unsigned decimal number.
+	 *
+	 * @return The parsed number or -1 if the token isn't a number
+	 */
+	long tokenAsNumber() {
+		for(int i = tokenStart; i < tokenEnd; ++i) {
+			if(!isDigit(buffer.get(i))) {
+				return -1;
+			}
+		}
+		return parseNumber(tokenStart, tokenEnd);
+	}
+
+	private long parseNumber(final int from, final int to) {
+		long value = 0;
+		int position = from;
+		while(position < to && isDigit(buffer.get(position))) {
+			value = value * 10 + (buffer.get(position) - '0');
+			++position;
+		}
+		return position == from? -1 : value;
+	}
+
+	private static boolean isDigit(final byte character) {
+		return character >= '0' && character <= '9';
+	}
+
+	private static boolean isWhitespace(final byte character) {
+		return character == SPACE || character == TAB;
+	}
+}
@@ -30,6 +30,8 @@ public final class ParsedIndexedFile {
 	private final int width;
 	private final int height;
 	private final long frameCount;
+	
+	private final GopIndex gopIndex;
 
 	/**
 	 * Create a new instance of the parsed index file.
@@ -39,9 +41,22 @@ public final class ParsedIndexedFile {
 	 * @param frameCount Clip length (in frames)
 	 */
 	ParsedIndexedFile(final int width, final int height, final long frameCount) {
+		this(width, height, frameCount, GopIndex.EMPTY);
+	}
+	
+	/**
+	 * Create a new instance of the parsed index file.
+	 * 
+	 * @param width Clip's width
+	 * @param height Clip's height
+	 * @param frameCount Clip length (in frames)
+	 * @param gopIndex Positions of the clip's GOPs
+	 */
+	ParsedIndexedFile(final int width, final int height, final long frameCount, final GopIndex gopIndex) {
 		this.width = width;
 		this.height = height;
 		this.frameCount = frameCount;
+		this.gopIndex = gopIndex;
 	}
 
 	public long getFrameCount() {
@@ -55,9 +70,14 @@ public final class ParsedIndexedFile {
 	public int getHeight() {
 		return height;
 	}
+	
+	public GopIndex getGopIndex() {
+		return gopIndex;
+	}
 
 	@Override
 	public String toString() {
-		return "ParsedIndexedFileResult [width=" + width + ", height=" + height + ", frameCount=" + frameCount + "]";
+		return "ParsedIndexedFileResult [width=" + width + ", height=" + height + ", frameCount=" + frameCount
+				+ ", gopIndex=" + gopIndex + "]";
 	}		
 }
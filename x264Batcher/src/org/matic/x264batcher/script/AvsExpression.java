@@ -0,0 +1,341 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * A node of a parsed AVS script expression. Expressions are immutable and can
+ * render themselves to a {@link TemplateWriter}, which takes care of renaming
+ * the clip variables they reference.
+ * 
+ * @author Vedran Matic
+ *
+ */
+abstract class AvsExpression {
+	
+	/**
+	 * Write this expression's text to a template.
+	 * 
+	 * @param writer Target template writer
+	 */
+	abstract void render(TemplateWriter writer);
+	
+	/**
+	 * Collect all of the function calls within this expression, in their evaluation order.
+	 * 
+	 * @param calls Target list of calls
+	 */
+	void collectCalls(final List<Call> calls) {}
+	
+	/**
+	 * Get the value of this expression if it is an integer constant.
+	 * 
+	 * @return Constant integer value or an empty value if this is not an integer constant
+	 */
+	OptionalLong getIntegerValue() {
+		return OptionalLong.empty();
+	}
+	
+	/**
+	 * Get the first expression of a method call chain, such as a in a.Trim(0,100).Crop(8,8,-8,-8).
+	 * 
+	 * @return The chain's first expression, or this expression if it is not a method call
+	 */
+	AvsExpression getChainHead() {
+		return this;
+	}
+	
+	/**
+	 * A constant number or string.
+	 */
+	static final class Literal extends AvsExpression {
+		private final String text;
+		
+		Literal(final String text) {
+			this.text = text;
+		}
+		
+		boolean isString() {
+			return text.startsWith("\"");
+		}
+		
+		/**
+		 * Get the value of a string literal, without the surrounding quotes.
+		 * 
+		 * @return String value
+		 */
+		String getStringValue() {
+			final int quoteLength = text.startsWith("\"\"\"")? 3 : 1;
+			return text.substring(quoteLength, text.length() - quoteLength);
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			writer.append(text);
+		}
+		
+		@Override
+		OptionalLong getIntegerValue() {
+			if(isString() || text.indexOf('.') != -1) {
+				return OptionalLong.empty();
+			}
+			try {
+				return OptionalLong.of(text.startsWith("$")? Long.parseLong(text.substring(1), 16) : Long.parseLong(text));
+			} catch(final NumberFormatException nfe) {
+				return OptionalLong.empty();
+			}
+		}
+	}
+	
+	/**
+	 * A reference to a variable (or a call of a function without parentheses).
+	 */
+	static final class Identifier extends AvsExpression {
+		private final String name;
+		
+		Identifier(final String name) {
+			this.name = name;
+		}
+		
+		String getName() {
+			return name;
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			writer.appendIdentifier(name);
+		}
+	}
+	
+	/**
+	 * A function call, such as Trim(0, 100), or a method call, such as clip.Trim(0, 100).
+	 * A method call without the parentheses, such as clip.width, is also represented by a call.
+	 */
+	static final class Call extends AvsExpression {
+		private final AvsExpression target;
+		private final String name;
+		private final List<Argument> arguments;
+		
+		/**
+		 * Create a new call instance.
+		 * 
+		 * @param target The expression on which the method is called, or null if this is a function call
+		 * @param name Name of the called function
+		 * @param arguments Call arguments, or null if the call has no parentheses
+		 */
+		Call(final AvsExpression target, final String name, final List<Argument> arguments) {
+			this.target = target;
+			this.name = name;
+			this.arguments = arguments;
+		}
+		
+		AvsExpression getTarget() {
+			return target;
+		}
+		
+		String getName() {
+			return name;
+		}
+		
+		boolean isNamed(final String functionName) {
+			return name.equalsIgnoreCase(functionName);
+		}
+		
+		/**
+		 * Get a positional (unnamed) argument of this call.
+		 * 
+		 * @param index Index of the argument among the positional arguments
+		 * @return The argument's value or null if there is no such argument
+		 */
+		AvsExpression getPositionalArgument(final int index) {
+			if(arguments == null) {
+				return null;
+			}
+			int positionalIndex = 0;
+			for(final Argument argument : arguments) {
+				if(argument.name == null && positionalIndex++ == index) {
+					return argument.value;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			if(target != null) {
+				target.render(writer);
+				writer.append(".");
+			}
+			writer.append(name);
+			if(arguments == null) {
+				return;
+			}
+			writer.append("(");
+			final boolean isTrimCall = writer.isTrimCall(this);
+			for(int i = 0; i < arguments.size(); ++i) {
+				if(i > 0) {
+					writer.append(",");
+				}
+				if(isTrimCall && i < 2) {
+					writer.appendSlot(i == 0? AvsScriptTemplate.Slot.TRIM_START : AvsScriptTemplate.Slot.TRIM_END);
+				}
+				else {
+					arguments.get(i).render(writer);
+				}
+			}
+			writer.append(")");
+		}
+		
+		@Override
+		void collectCalls(final List<Call> calls) {
+			if(target != null) {
+				target.collectCalls(calls);
+			}
+			if(arguments != null) {
+				arguments.forEach(a -> a.value.collectCalls(calls));
+			}
+			calls.add(this);
+		}
+		
+		@Override
+		AvsExpression getChainHead() {
+			return target != null? target.getChainHead() : this;
+		}
+	}
+	
+	/**
+	 * An operator applied to a single operand, such as -8.
+	 */
+	static final class Unary extends AvsExpression {
+		private final String operator;
+		private final AvsExpression operand;
+		
+		Unary(final String operator, final AvsExpression operand) {
+			this.operator = operator;
+			this.operand = operand;
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			writer.append(operator);
+			operand.render(writer);
+		}
+		
+		@Override
+		void collectCalls(final List<Call> calls) {
+			operand.collectCalls(calls);
+		}
+		
+		@Override
+		OptionalLong getIntegerValue() {
+			final OptionalLong value = operand.getIntegerValue();
+			if(!value.isPresent() || !("-".equals(operator) || "+".equals(operator))) {
+				return OptionalLong.empty();
+			}
+			return "-".equals(operator)? OptionalLong.of(-value.getAsLong()) : value;
+		}
+	}
+	
+	/**
+	 * An operator applied to two operands, such as clip_a ++ clip_b. The conditional
+	 * operator (?:) is represented by two binary expressions.
+	 */
+	static final class Binary extends AvsExpression {
+		private final AvsExpression left;
+		private final String operator;
+		private final AvsExpression right;
+		
+		Binary(final AvsExpression left, final String operator, final AvsExpression right) {
+			this.left = left;
+			this.operator = operator;
+			this.right = right;
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			left.render(writer);
+			writer.append(" " + operator + " ");
+			right.render(writer);
+		}
+		
+		@Override
+		void collectCalls(final List<Call> calls) {
+			left.collectCalls(calls);
+			right.collectCalls(calls);
+		}
+	}
+	
+	/**
+	 * An expression enclosed in parentheses.
+	 */
+	static final class Group extends AvsExpression {
+		private final AvsExpression expression;
+		
+		Group(final AvsExpression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		void render(final TemplateWriter writer) {
+			writer.append("(");
+			expression.render(writer);
+			writer.append(")");
+		}
+		
+		@Override
+		void collectCalls(final List<Call> calls) {
+			expression.collectCalls(calls);
+		}
+		
+		@Override
+		OptionalLong getIntegerValue() {
+			return expression.getIntegerValue();
+		}
+	}
+	
+	/**
+	 * A function call argument, which is either positional or named (such as Preset="Slow").
+	 */
+	static final class Argument {
+		private final String name;
+		private final AvsExpression value;
+		
+		/**
+		 * Create a new argument instance.
+		 * 
+		 * @param name Argument name or null if this is a positional argument
+		 * @param value Argument value
+		 */
+		Argument(final String name, final AvsExpression value) {
+			this.name = name;
+			this.value = value;
+		}
+		
+		void render(final TemplateWriter writer) {
+			if(name != null) {
+				writer.append(name);
+				writer.append("=");
+			}
+			value.render(writer);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+import org.matic.x264batcher.exception.EncoderException;
+
+/**
+ * Compiles AVS scripts into {@link AvsScriptTemplate}s. Each statement of the script is
+ * rewritten so that it operates on a named clip variable instead of the implicit last clip,
+ * and the script's own variables are prefixed with that clip name, making it possible to
+ * join several scripts into one. Plugin loading, imports, global variables and function
+ * definitions are collected into the script's header.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class AvsScriptCompiler {
+	
+	private static final Set<String> HEADER_FUNCTIONS = new HashSet<>(Arrays.asList(
+			"import", "loadplugin", "loadcplugin", "load_stdcall_plugin", "loadvirtualdubplugin",
+			"loadvfapiplugin", "setmemorymax", "setfiltermtmode"));
+	
+	//Functions that create a clip instead of processing the last one
+	private static final String SOURCE_FUNCTION_SUFFIX = "source";
+	private static final String BLANK_CLIP = "BlankClip";
+	
+	private static final String RESIZE_FUNCTION_SUFFIX = "resize";
+	private static final String COLOR_MATRIX = "ColorMatrix";
+	private static final String SELECT_EVEN = "SelectEven";
+	private static final String QTGMC = "QTGMC";
+	private static final String TRIM = "Trim";
+	private static final String CROP = "Crop";
+	
+	//Statements added by MeGUI are not needed by the encoder
+	private static final String IGNORED_STATEMENT_MARKER = "MeGUI";
+	
+	/**
+	 * Compile an AVS script into a template.
+	 * 
+	 * @param script AVS script text
+	 * @return Compiled script template
+	 * @throws EncoderException If the script can't be parsed
+	 */
+	public static AvsScriptTemplate compile(final String script) throws EncoderException {
+		final List<AvsStatement> statements = AvsScriptParser.parse(script);
+		
+		final Set<String> variables = new HashSet<>();
+		final Set<String> clipVariables = new HashSet<>();
+		statements.stream().filter(s -> s.getKind() == AvsStatement.Kind.ASSIGNMENT).forEach(s -> {
+			variables.add(s.getVariable().toLowerCase());
+			if(!isConstant(s.getExpression())) {
+				clipVariables.add(s.getVariable().toLowerCase());
+			}
+		});
+		
+		final TemplateWriter headerWriter = new TemplateWriter(variables, clipVariables, false);
+		final TemplateWriter bodyWriter = new TemplateWriter(variables, clipVariables, true);
+		
+		final List<String> headerLines = new ArrayList<>();
+		final List<AvsScriptTemplate.Line> bodyLines = new ArrayList<>();
+		final List<AvsScriptTemplate.DimensionChange> dimensionChanges = new ArrayList<>();
+		
+		int trimLineIndex = -1;
+		int lastSourceLineIndex = -1;
+		String lastSourceVariable = null;
+		int qtgmcLineIndex = -1;
+		String qtgmcInputSuffix = "";
+		String qtgmcOutputSuffix = "";
+		long trimStart = -1;
+		long trimEnd = -1;
+		
+		boolean usingExplicitResize = false;
+		boolean usingSelectEven = false;
+		String sourcePath = null;
+		
+		for(final AvsStatement statement : statements) {
+			if(statement.getSourceText().contains(IGNORED_STATEMENT_MARKER)) {
+				continue;
+			}
+			
+			final AvsExpression expression = statement.getExpression();
+			if(isHeaderStatement(statement)) {
+				if(expression != null && statement.getKind() == AvsStatement.Kind.EXPRESSION) {
+					expression.render(headerWriter);
+					headerLines.add(headerWriter.finishText());
+				}
+				else {
+					headerLines.add(statement.getSourceText());
+				}
+				continue;
+			}
+			
+			final int lineIndex = bodyLines.size();
+			final List<AvsExpression.Call> calls = new ArrayList<>();
+			expression.collectCalls(calls);
+			
+			for(final AvsExpression.Call call : calls) {
+				if(isSourceFunction(call) || call.isNamed(COLOR_MATRIX)) {
+					lastSourceLineIndex = lineIndex;
+					lastSourceVariable = statement.getVariable();
+				}
+				if(isSourceFunction(call) && sourcePath == null) {
+					final AvsExpression pathArgument = call.getPositionalArgument(0);
+					if(pathArgument instanceof AvsExpression.Literal && ((AvsExpression.Literal)pathArgument).isString()) {
+						sourcePath = ((AvsExpression.Literal)pathArgument).getStringValue();
+					}
+				}
+				if(call.isNamed(QTGMC) && qtgmcLineIndex == -1) {
+					qtgmcLineIndex = lineIndex;
+					//The clip is resized on its way into and out of the deinterlacer, which may be a variable
+					qtgmcInputSuffix = getClipSuffix(getInputClip(expression, bodyWriter));
+					qtgmcOutputSuffix = getClipSuffix(statement.getVariable());
+				}
+				if(call.isNamed(SELECT_EVEN)) {
+					usingSelectEven = true;
+				}
+				if(call.isNamed(CROP)) {
+					dimensionChanges.add(new AvsScriptTemplate.DimensionChange(true, getIntegerArguments(call, 4)));
+				}
+				if(call.getName().toLowerCase().endsWith(RESIZE_FUNCTION_SUFFIX)) {
+					usingExplicitResize = true;
+					dimensionChanges.add(new AvsScriptTemplate.DimensionChange(false, getIntegerArguments(call, 2)));
+				}
+			}
+			
+			if(calls.stream().anyMatch(c -> c.isNamed(TRIM))) {
+				if(trimLineIndex != -1 || !isTrimCall(expression)) {
+					throw new EncoderException("Only a single Trim(first_frame, last_frame) with constant frames"
+							+ " is supported, found at line " + statement.getLine());
+				}
+				final AvsExpression.Call trimCall = (AvsExpression.Call)expression;
+				trimStart = trimCall.getPositionalArgument(0).getIntegerValue().getAsLong();
+				trimEnd = trimCall.getPositionalArgument(1).getIntegerValue().getAsLong();
+				trimLineIndex = lineIndex;
+				bodyWriter.setTrimCall(trimCall);
+			}
+			
+			bodyLines.add(compileBodyStatement(statement, bodyWriter));
+			
+			if(statement.getKind() == AvsStatement.Kind.RETURN) {
+				//Anything after a return statement is never evaluated
+				break;
+			}
+		}
+		
+		if(bodyLines.isEmpty()) {
+			throw new EncoderException("The script doesn't produce a clip");
+		}
+		
+		//Trim the clip right after it has been loaded, but before it is deinterlaced
+		final int trimInsertionIndex = qtgmcLineIndex != -1? 
+				Math.min(lastSourceLineIndex + 1, qtgmcLineIndex) : lastSourceLineIndex + 1;
+		
+		return new AvsScriptTemplate(Collections.unmodifiableList(headerLines), Collections.unmodifiableList(bodyLines),
+				Collections.unmodifiableList(dimensionChanges), trimLineIndex, trimInsertionIndex,
+				lastSourceVariable != null? "_" + lastSourceVariable : "", qtgmcLineIndex, qtgmcInputSuffix,
+				qtgmcOutputSuffix, trimStart, trimEnd, usingExplicitResize, qtgmcLineIndex != -1 && !usingSelectEven, sourcePath);
+	}
+	
+	private static AvsScriptTemplate.Line compileBodyStatement(final AvsStatement statement, final TemplateWriter writer) {
+		final AvsExpression expression = statement.getExpression();
+		final String variable = statement.getVariable();
+		
+		//Assign to the clip, or to the clip's own copy of the variable
+		writer.appendIdentifier(variable != null? variable : "last");
+		writer.append("=");
+		
+		if(isProcessingLastClip(expression, writer)) {
+			writer.appendSlot(AvsScriptTemplate.Slot.CLIP);
+			writer.append(".");
+		}
+		expression.render(writer);
+		
+		return writer.finishLine();
+	}
+	
+	private static boolean isProcessingLastClip(final AvsExpression expression, final TemplateWriter writer) {
+		final AvsExpression chainHead = expression.getChainHead();
+		if(chainHead instanceof AvsExpression.Call) {
+			final AvsExpression.Call call = (AvsExpression.Call)chainHead;
+			if(isSourceFunction(call)) {
+				return false;
+			}
+			//A clip may also be passed explicitly, as in QTGMC(clip, Preset="Slow")
+			final AvsExpression firstArgument = call.getPositionalArgument(0);
+			return firstArgument == null || !isClipReference(firstArgument, writer);
+		}
+		if(chainHead instanceof AvsExpression.Identifier) {
+			//Either a variable, a clip property (prefixed when rendered) or a function called
+			//without the parentheses, such as SelectEven
+			final String name = ((AvsExpression.Identifier)chainHead).getName();
+			return !writer.isVariable(name) && !TemplateWriter.isClipProperty(name);
+		}
+		return false;
+	}
+	
+	/**
+	 * Find the clip that a statement's expression processes.
+	 * 
+	 * @param expression Statement's expression
+	 * @param writer Writer that knows the script's variables
+	 * @return Name of the processed clip variable, or null if the last clip is processed
+	 */
+	private static String getInputClip(final AvsExpression expression, final TemplateWriter writer) {
+		if(isProcessingLastClip(expression, writer)) {
+			return null;
+		}
+		AvsExpression clipReference = expression.getChainHead();
+		if(clipReference instanceof AvsExpression.Call) {
+			//A clip passed explicitly, as in QTGMC(clip, Preset="Slow")
+			clipReference = ((AvsExpression.Call)clipReference).getPositionalArgument(0);
+		}
+		return clipReference != null && isClipReference(clipReference, writer)?
+				((AvsExpression.Identifier)clipReference.getChainHead()).getName() : null;
+	}
+	
+	/**
+	 * Get the suffix that is appended to the clip name when a variable is rendered.
+	 * 
+	 * @param variable Clip variable name, or null for the last clip
+	 * @return Variable suffix, empty for the last clip
+	 */
+	private static String getClipSuffix(final String variable) {
+		return variable == null || TemplateWriter.LAST_VARIABLE.equalsIgnoreCase(variable)? "" : "_" + variable;
+	}
+	
+	private static boolean isClipReference(final AvsExpression expression, final TemplateWriter writer) {
+		final AvsExpression chainHead = expression.getChainHead();
+		return chainHead instanceof AvsExpression.Identifier && 
+				writer.isClipVariable(((AvsExpression.Identifier)chainHead).getName());
+	}
+	
+	private static boolean isConstant(final AvsExpression expression) {
+		return expression instanceof AvsExpression.Literal || expression.getIntegerValue().isPresent();
+	}
+	
+	private static boolean isHeaderStatement(final AvsStatement statement) {
+		switch(statement.getKind()) {
+		case GLOBAL:
+		case FUNCTION:
+			return true;
+		case EXPRESSION:
+			final AvsExpression expression = statement.getExpression();
+			return expression instanceof AvsExpression.Call && ((AvsExpression.Call)expression).getTarget() == null
+					&& HEADER_FUNCTIONS.contains(((AvsExpression.Call)expression).getName().toLowerCase());
+		default:
+			return false;
+		}
+	}
+	
+	private static boolean isSourceFunction(final AvsExpression.Call call) {
+		return call.getTarget() == null && (call.getName().toLowerCase().endsWith(SOURCE_FUNCTION_SUFFIX)
+				|| call.isNamed(BLANK_CLIP));
+	}
+	
+	private static boolean isTrimCall(final AvsExpression expression) {
+		if(!(expression instanceof AvsExpression.Call) || !((AvsExpression.Call)expression).isNamed(TRIM)) {
+			return false;
+		}
+		final AvsExpression.Call call = (AvsExpression.Call)expression;
+		final AvsExpression start = call.getPositionalArgument(0);
+		final AvsExpression end = call.getPositionalArgument(1);
+		
+		//Only the simple form, Trim(first_frame, last_frame), with constant frames can be adjusted
+		return start != null && end != null && start.getIntegerValue().isPresent() && end.getIntegerValue().isPresent()
+				&& call.getPositionalArgument(2) == null;
+	}
+	
+	private static long[] getIntegerArguments(final AvsExpression.Call call, final int count) {
+		final long[] values = new long[count];
+		for(int i = 0; i < count; ++i) {
+			final AvsExpression argument = call.getPositionalArgument(i);
+			final OptionalLong value = argument != null? argument.getIntegerValue() : OptionalLong.empty();
+			values[i] = value.isPresent()? value.getAsLong() : AvsScriptTemplate.DimensionChange.UNKNOWN;
+		}
+		return values;
+	}
+}
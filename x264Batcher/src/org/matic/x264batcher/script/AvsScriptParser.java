@@ -0,0 +1,279 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.matic.x264batcher.exception.EncoderException;
+
+/**
+ * A recursive descent parser for the subset of the AviSynth script language that is
+ * used in the encoded scripts: variable assignments, function and method calls (with
+ * positional and named arguments), method call chains, operators and return statements.
+ * User defined functions are not parsed, only their text is kept.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class AvsScriptParser {
+	
+	private static final Set<String> BINARY_OPERATORS = new HashSet<>(Arrays.asList(
+			"++", "+", "-", "*", "/", "%", "==", "!=", "<>", "<", ">", "<=", ">=", "&&", "||"));
+	
+	private static final String FUNCTION_KEYWORD = "function";
+	private static final String GLOBAL_KEYWORD = "global";
+	private static final String RETURN_KEYWORD = "return";
+	
+	private final List<AvsToken> tokens;
+	private final String script;
+	
+	private int position = 0;
+
+	private AvsScriptParser(final String script, final List<AvsToken> tokens) {
+		this.script = script;
+		this.tokens = tokens;
+	}
+	
+	/**
+	 * Parse an AVS script into a list of statements.
+	 * 
+	 * @param script AVS script text
+	 * @return Parsed top level statements
+	 * @throws EncoderException If the script contains a syntax error
+	 */
+	static List<AvsStatement> parse(final String script) throws EncoderException {
+		return new AvsScriptParser(script, AvsTokenizer.tokenize(script)).parseStatements();
+	}
+	
+	private List<AvsStatement> parseStatements() throws EncoderException {
+		final List<AvsStatement> statements = new ArrayList<>();
+		while(peek().getType() != AvsToken.Type.END) {
+			if(peek().getType() == AvsToken.Type.NEWLINE) {
+				++position;
+				continue;
+			}
+			statements.add(parseStatement());
+			final AvsToken statementEnd = peek();
+			if(statementEnd.getType() != AvsToken.Type.NEWLINE && statementEnd.getType() != AvsToken.Type.END) {
+				throw unexpected(statementEnd);
+			}
+		}
+		return statements;
+	}
+	
+	private AvsStatement parseStatement() throws EncoderException {
+		final AvsToken first = peek();
+		
+		if(first.isKeyword(FUNCTION_KEYWORD)) {
+			return parseFunction();
+		}
+		if(first.isKeyword(GLOBAL_KEYWORD)) {
+			++position;
+			final String variable = expect(AvsToken.Type.IDENTIFIER).getText();
+			expectOperator("=");
+			return createStatement(AvsStatement.Kind.GLOBAL, variable, parseExpression(), first);
+		}
+		if(first.isKeyword(RETURN_KEYWORD)) {
+			++position;
+			return createStatement(AvsStatement.Kind.RETURN, null, parseExpression(), first);
+		}
+		if(first.getType() == AvsToken.Type.IDENTIFIER && peek(1).isOperator("=")) {
+			position += 2;
+			return createStatement(AvsStatement.Kind.ASSIGNMENT, first.getText(), parseExpression(), first);
+		}
+		return createStatement(AvsStatement.Kind.EXPRESSION, null, parseExpression(), first);
+	}
+	
+	private AvsStatement parseFunction() throws EncoderException {
+		final AvsToken first = next();
+		while(!peek().isOperator("{")) {
+			if(peek().getType() == AvsToken.Type.END) {
+				throw unexpected(peek());
+			}
+			++position;
+		}
+		int depth = 0;
+		do {
+			final AvsToken token = next();
+			if(token.getType() == AvsToken.Type.END) {
+				throw new EncoderException("Unterminated function starting at line " + first.getLine());
+			}
+			if(token.isOperator("{")) {
+				++depth;
+			}
+			else if(token.isOperator("}")) {
+				--depth;
+			}
+		} while(depth > 0);
+		return createStatement(AvsStatement.Kind.FUNCTION, null, null, first);
+	}
+	
+	private AvsExpression parseExpression() throws EncoderException {
+		final AvsExpression condition = parseBinary();
+		if(!peek().isOperator("?")) {
+			return condition;
+		}
+		++position;
+		final AvsExpression whenTrue = parseExpression();
+		expectOperator(":");
+		final AvsExpression whenFalse = parseExpression();
+		return new AvsExpression.Binary(condition, "?", new AvsExpression.Binary(whenTrue, ":", whenFalse));
+	}
+	
+	private AvsExpression parseBinary() throws EncoderException {
+		//Operator precedence is irrelevant here, as the expressions are only rewritten but never evaluated
+		AvsExpression left = parseUnary();
+		while(peek().getType() == AvsToken.Type.OPERATOR && BINARY_OPERATORS.contains(peek().getText())) {
+			final String operator = next().getText();
+			left = new AvsExpression.Binary(left, operator, parseUnary());
+		}
+		return left;
+	}
+	
+	private AvsExpression parseUnary() throws EncoderException {
+		final AvsToken token = peek();
+		if(token.isOperator("-") || token.isOperator("+") || token.isOperator("!")) {
+			++position;
+			return new AvsExpression.Unary(token.getText(), parseUnary());
+		}
+		return parsePostfix();
+	}
+	
+	private AvsExpression parsePostfix() throws EncoderException {
+		AvsExpression expression = parsePrimary();
+		while(peek().isOperator(".")) {
+			++position;
+			final String name = expect(AvsToken.Type.IDENTIFIER).getText();
+			expression = new AvsExpression.Call(expression, name, parseOptionalArguments());
+		}
+		return expression;
+	}
+	
+	private AvsExpression parsePrimary() throws EncoderException {
+		final AvsToken token = next();
+		switch(token.getType()) {
+		case NUMBER:
+		case STRING:
+			return new AvsExpression.Literal(token.getText());
+		case IDENTIFIER:
+			final List<AvsExpression.Argument> arguments = parseOptionalArguments();
+			return arguments != null? new AvsExpression.Call(null, token.getText(), arguments) :
+				new AvsExpression.Identifier(token.getText());
+		default:
+			if(token.isOperator("(")) {
+				final AvsExpression expression = parseExpression();
+				skipNewlines();
+				expectOperator(")");
+				return new AvsExpression.Group(expression);
+			}
+			throw unexpected(token);
+		}
+	}
+	
+	private List<AvsExpression.Argument> parseOptionalArguments() throws EncoderException {
+		if(!peek().isOperator("(")) {
+			return null;
+		}
+		++position;
+		final List<AvsExpression.Argument> arguments = new ArrayList<>();
+		skipNewlines();
+		if(peek().isOperator(")")) {
+			++position;
+			return arguments;
+		}
+		while(true) {
+			skipNewlines();
+			String name = null;
+			if(peek().getType() == AvsToken.Type.IDENTIFIER && peek(1).isOperator("=")) {
+				name = next().getText();
+				++position;
+			}
+			arguments.add(new AvsExpression.Argument(name, parseExpression()));
+			skipNewlines();
+			final AvsToken separator = next();
+			if(separator.isOperator(")")) {
+				return arguments;
+			}
+			if(!separator.isOperator(",")) {
+				throw unexpected(separator);
+			}
+		}
+	}
+	
+	private AvsStatement createStatement(final AvsStatement.Kind kind, final String variable,
+			final AvsExpression expression, final AvsToken first) {
+		final AvsToken last = tokens.get(position - 1);
+		return new AvsStatement(kind, variable, expression, 
+				script.substring(first.getStart(), last.getEnd()), first.getLine());
+	}
+	
+	private void skipNewlines() {
+		//Be lenient about line breaks within parentheses, even when they are not explicitly continued
+		while(peek().getType() == AvsToken.Type.NEWLINE) {
+			++position;
+		}
+	}
+	
+	private AvsToken expect(final AvsToken.Type type) throws EncoderException {
+		final AvsToken token = next();
+		if(token.getType() != type) {
+			throw unexpected(token);
+		}
+		return token;
+	}
+	
+	private void expectOperator(final String operator) throws EncoderException {
+		final AvsToken token = next();
+		if(!token.isOperator(operator)) {
+			throw unexpected(token);
+		}
+	}
+	
+	private AvsToken peek() {
+		return peek(0);
+	}
+	
+	private AvsToken peek(final int offset) {
+		return tokens.get(Math.min(position + offset, tokens.size() - 1));
+	}
+	
+	private AvsToken next() {
+		final AvsToken token = peek();
+		if(token.getType() != AvsToken.Type.END) {
+			++position;
+		}
+		return token;
+	}
+	
+	private static EncoderException unexpected(final AvsToken token) {
+		switch(token.getType()) {
+		case END:
+			return new EncoderException("Unexpected end of script at line " + token.getLine());
+		case NEWLINE:
+			return new EncoderException("Unexpected end of line at line " + token.getLine());
+		default:
+			return new EncoderException("Unexpected '" + token.getText() + "' at line " + token.getLine());
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.matic.x264batcher.model.ClipDimension;
+
+/**
+ * A compiled AVS script, ready to be rendered as a part of a segment's merged script.
+ * The script is compiled only once, and the clip name, the Trim() interval and the
+ * resizing are substituted into the prepared lines each time it is rendered.
+ * 
+ * @author Vedran Matic
+ *
+ */
+public final class AvsScriptTemplate {
+	
+	private static final String RESIZE_FUNCTION = "Spline36Resize";
+	
+	/**
+	 * A placeholder for a value that is substituted when a template line is rendered.
+	 */
+	enum Slot {
+		CLIP, TRIM_START, TRIM_END
+	}
+	
+	private final List<String> headerLines;
+	private final List<Line> bodyLines;
+	private final List<DimensionChange> dimensionChanges;
+	
+	private final int trimLineIndex;
+	private final int trimInsertionIndex;
+	private final String trimInsertionSuffix;
+	private final int resizeAnchorIndex;
+	private final String resizeInputSuffix;
+	private final String resizeOutputSuffix;
+	
+	private final long trimStart;
+	private final long trimEnd;
+	
+	private final boolean usingExplicitResize;
+	private final boolean usingDeinterlacing;
+	
+	private final String sourcePath;
+
+	AvsScriptTemplate(final List<String> headerLines, final List<Line> bodyLines,
+			final List<DimensionChange> dimensionChanges, final int trimLineIndex, final int trimInsertionIndex,
+			final String trimInsertionSuffix, final int resizeAnchorIndex, final String resizeInputSuffix,
+			final String resizeOutputSuffix, final long trimStart, final long trimEnd, final boolean usingExplicitResize,
+			final boolean usingDeinterlacing, final String sourcePath) {
+		this.headerLines = headerLines;
+		this.bodyLines = bodyLines;
+		this.dimensionChanges = dimensionChanges;
+		this.trimLineIndex = trimLineIndex;
+		this.trimInsertionIndex = trimInsertionIndex;
+		this.trimInsertionSuffix = trimInsertionSuffix;
+		this.resizeAnchorIndex = resizeAnchorIndex;
+		this.resizeInputSuffix = resizeInputSuffix;
+		this.resizeOutputSuffix = resizeOutputSuffix;
+		this.trimStart = trimStart;
+		this.trimEnd = trimEnd;
+		this.usingExplicitResize = usingExplicitResize;
+		this.usingDeinterlacing = usingDeinterlacing;
+		this.sourcePath = sourcePath;
+	}
+	
+	/**
+	 * Create a copy of this template with a Trim() call inserted after the clip source.
+	 * Useful for scripts without explicit trimming, when the clip's length is known. 
+	 * 
+	 * @param start Trim start frame
+	 * @param end Trim end frame (inclusive)
+	 * @return A template with an inserted Trim() call
+	 */
+	public AvsScriptTemplate withTrim(final long start, final long end) {
+		final List<Line> trimmedBodyLines = new ArrayList<>(bodyLines);
+		//Trim the clip (or the clip variable) that the source was loaded into
+		trimmedBodyLines.add(trimInsertionIndex, new Line(new String[] {"", trimInsertionSuffix + "=",
+				trimInsertionSuffix + ".Trim(", ",", ")"},
+				new Slot[] {Slot.CLIP, Slot.CLIP, Slot.TRIM_START, Slot.TRIM_END}));
+		
+		final int shiftedResizeAnchorIndex = resizeAnchorIndex >= trimInsertionIndex? 
+				resizeAnchorIndex + 1 : resizeAnchorIndex;
+		
+		return new AvsScriptTemplate(headerLines, Collections.unmodifiableList(trimmedBodyLines), dimensionChanges,
+				trimInsertionIndex, trimInsertionIndex, trimInsertionSuffix, shiftedResizeAnchorIndex,
+				resizeInputSuffix, resizeOutputSuffix, start, end,
+				usingExplicitResize, usingDeinterlacing, sourcePath);
+	}
+	
+	/**
+	 * Render this template's lines for a part of the clip.
+	 * 
+	 * @param clipName Name of the clip variable to use
+	 * @param start Trim start frame
+	 * @param end Trim end frame (inclusive)
+	 * @param targetDimension Dimension to resize the clip to, or null if the clip doesn't need resizing
+	 * @param header Target collection for the header lines (plugin loading, imports and function definitions)
+	 * @param body Target list for the lines that produce the clip
+	 */
+	public void render(final String clipName, final long start, final long end, final ClipDimension targetDimension,
+			final Collection<String> header, final List<String> body) {
+		header.addAll(headerLines);
+		
+		final StringBuilder lineBuilder = new StringBuilder();
+		for(int i = 0; i < bodyLines.size(); ++i) {
+			if(targetDimension != null && i == resizeAnchorIndex) {
+				//We can divide resizing and make the deinterlacing more efficient, resize the width before it
+				final String inputClip = clipName + resizeInputSuffix;
+				body.add(inputClip + "=" + inputClip + "." + RESIZE_FUNCTION + "(" + targetDimension.getWidth()
+						+ "," + inputClip + ".height)");
+			}
+			
+			lineBuilder.setLength(0);
+			bodyLines.get(i).render(lineBuilder, clipName, start, end);
+			body.add(lineBuilder.toString());
+			
+			if(targetDimension != null && i == resizeAnchorIndex) {
+				//and the height after it
+				final String outputClip = clipName + resizeOutputSuffix;
+				body.add(outputClip + "=" + outputClip + "." + RESIZE_FUNCTION + "(" + outputClip + ".width,"
+						+ targetDimension.getHeight() + ")");
+			}
+		}
+		if(targetDimension != null && resizeAnchorIndex == -1) {
+			//Clip will not be deinterlaced, we add a one line resizing command at the clip's end
+			body.add(clipName + "=" + clipName + "." + RESIZE_FUNCTION + "(" + targetDimension.getWidth()
+					+ "," + targetDimension.getHeight() + ")");
+		}
+	}
+	
+	/**
+	 * Calculate the script's output dimension by applying the script's cropping and resizing.
+	 * 
+	 * @param sourceWidth Width of the clip source
+	 * @param sourceHeight Height of the clip source
+	 * @return Output width and height
+	 */
+	public int[] getOutputDimension(final int sourceWidth, final int sourceHeight) {
+		final int[] dimension = {sourceWidth, sourceHeight};
+		dimensionChanges.forEach(c -> c.apply(dimension));
+		return dimension;
+	}
+	
+	public boolean hasTrim() {
+		return trimLineIndex != -1;
+	}
+
+	public long getTrimStart() {
+		return trimStart;
+	}
+
+	public long getTrimEnd() {
+		return trimEnd;
+	}
+
+	public boolean isUsingExplicitResize() {
+		return usingExplicitResize;
+	}
+
+	public boolean isUsingDeinterlacing() {
+		return usingDeinterlacing;
+	}
+
+	/**
+	 * Get the path of the file that the script's clip source (such as DGSource()) loads.
+	 * 
+	 * @return Source file path or null if unknown
+	 */
+	public String getSourcePath() {
+		return sourcePath;
+	}
+	
+	@Override
+	public String toString() {
+		return "AvsScriptTemplate [headerLines=" + headerLines.size() + ", bodyLines=" + bodyLines.size()
+				+ ", sourcePath=" + sourcePath + "]";
+	}
+
+	/**
+	 * A prepared line of the script, consisting of text parts interleaved by slots.
+	 */
+	static final class Line {
+		private final String[] texts;
+		private final Slot[] slots;
+		
+		/**
+		 * Create a new line instance.
+		 * 
+		 * @param texts Text parts of the line, there is always one more text part than slots
+		 * @param slots Slots between the text parts
+		 */
+		Line(final String[] texts, final Slot[] slots) {
+			this.texts = texts;
+			this.slots = slots;
+		}
+		
+		void render(final StringBuilder target, final String clipName, final long start, final long end) {
+			target.append(texts[0]);
+			for(int i = 0; i < slots.length; ++i) {
+				switch(slots[i]) {
+				case CLIP:
+					target.append(clipName);
+					break;
+				case TRIM_START:
+					target.append(start);
+					break;
+				case TRIM_END:
+					target.append(end);
+					break;
+				}
+				target.append(texts[i + 1]);
+			}
+		}
+	}
+	
+	/**
+	 * A cropping or resizing of the clip, with constant arguments.
+	 */
+	static final class DimensionChange {
+		//Used for the arguments that are not constants
+		static final long UNKNOWN = Long.MIN_VALUE;
+		
+		private final boolean cropping;
+		private final long[] arguments;
+		
+		/**
+		 * Create a new dimension change instance.
+		 * 
+		 * @param cropping Whether this is a Crop() (4 arguments) or a resize (2 arguments)
+		 * @param arguments Argument values, or UNKNOWN for the arguments that are not constants
+		 */
+		DimensionChange(final boolean cropping, final long[] arguments) {
+			this.cropping = cropping;
+			this.arguments = arguments;
+		}
+		
+		void apply(final int[] dimension) {
+			if(!cropping) {
+				for(int i = 0; i < dimension.length; ++i) {
+					if(arguments[i] != UNKNOWN) {
+						dimension[i] = (int)arguments[i];
+					}
+				}
+				return;
+			}
+			for(final long argument : arguments) {
+				if(argument == UNKNOWN) {
+					return;
+				}
+			}
+			//Crop(left, top, width, height), where a non-positive width/height is the amount cropped from the right/bottom
+			for(int i = 0; i < dimension.length; ++i) {
+				final long size = arguments[i + 2];
+				dimension[i] = (int)(size > 0? size : dimension[i] - arguments[i] + size);
+			}
+		}
+	}
+}
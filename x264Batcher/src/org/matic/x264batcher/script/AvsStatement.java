@@ -0,0 +1,92 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+/**
+ * A top level statement of a parsed AVS script.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class AvsStatement {
+	
+	enum Kind {
+		//A variable assignment, such as src = DGSource("clip.dgi")
+		ASSIGNMENT,
+		//An expression whose value is assigned to the implicit last variable, such as QTGMC(Preset="Slow")
+		EXPRESSION,
+		//A return statement, ending the script
+		RETURN,
+		//A global variable assignment
+		GLOBAL,
+		//A user defined function
+		FUNCTION
+	}
+	
+	private final Kind kind;
+	private final String variable;
+	private final AvsExpression expression;
+	
+	private final String sourceText;
+	private final int line;
+
+	/**
+	 * Create a new statement instance.
+	 * 
+	 * @param kind Statement kind
+	 * @param variable Assigned variable name, or null if the statement doesn't assign to a variable
+	 * @param expression Statement expression, or null for function definitions
+	 * @param sourceText The statement's text as found in the script
+	 * @param line Script line on which the statement starts
+	 */
+	AvsStatement(final Kind kind, final String variable, final AvsExpression expression,
+			final String sourceText, final int line) {
+		this.kind = kind;
+		this.variable = variable;
+		this.expression = expression;
+		this.sourceText = sourceText;
+		this.line = line;
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	String getVariable() {
+		return variable;
+	}
+
+	AvsExpression getExpression() {
+		return expression;
+	}
+
+	String getSourceText() {
+		return sourceText;
+	}
+
+	int getLine() {
+		return line;
+	}
+
+	@Override
+	public String toString() {
+		return sourceText;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+/**
+ * A single token of an AVS script, as produced by the {@link AvsTokenizer}.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class AvsToken {
+	
+	enum Type {
+		IDENTIFIER, NUMBER, STRING, OPERATOR, NEWLINE, END
+	}
+	
+	private final Type type;
+	private final String text;
+	
+	private final int start;
+	private final int end;
+	private final int line;
+
+	/**
+	 * Create a new token instance.
+	 * 
+	 * @param type Token type
+	 * @param text Token text, as it appears in the script
+	 * @param start Offset of the token's first character in the script
+	 * @param end Offset after the token's last character in the script
+	 * @param line Script line (starting at 1) on which the token starts
+	 */
+	AvsToken(final Type type, final String text, final int start, final int end, final int line) {
+		this.type = type;
+		this.text = text;
+		this.start = start;
+		this.end = end;
+		this.line = line;
+	}
+
+	Type getType() {
+		return type;
+	}
+
+	String getText() {
+		return text;
+	}
+
+	int getStart() {
+		return start;
+	}
+
+	int getEnd() {
+		return end;
+	}
+
+	int getLine() {
+		return line;
+	}
+	
+	boolean is(final Type type, final String text) {
+		return this.type == type && this.text.equals(text);
+	}
+	
+	boolean isOperator(final String operator) {
+		return is(Type.OPERATOR, operator);
+	}
+	
+	boolean isKeyword(final String keyword) {
+		return type == Type.IDENTIFIER && text.equalsIgnoreCase(keyword);
+	}
+
+	@Override
+	public String toString() {
+		return type + " [" + text + "] at line " + line;
+	}
+}
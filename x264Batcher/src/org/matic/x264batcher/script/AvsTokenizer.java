@@ -0,0 +1,255 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matic.x264batcher.exception.EncoderException;
+
+/**
+ * Splits the text of an AVS script into tokens. Comments (#, block and nested block comments)
+ * are skipped and lines joined with a backslash (at the end of a line or at the start of the
+ * following line) are treated as a single line. Everything after an __END__ line is ignored.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class AvsTokenizer {
+	
+	private static final String END_OF_SCRIPT = "__END__";
+	private static final String TRIPLE_QUOTE = "\"\"\"";
+	
+	//Multi-character operators must be listed before the single character ones they start with
+	private static final String[] OPERATORS = {
+		"++", "==", "!=", "<>", "<=", ">=", "&&", "||",
+		"=", "+", "-", "*", "/", "%", "!", "<", ">", "?", ":", ".", ",", "(", ")", "{", "}"
+	};
+	
+	private final String script;
+	private final int length;
+	
+	private final List<AvsToken> tokens = new ArrayList<>();
+	
+	private int position = 0;
+	private int line = 1;
+
+	private AvsTokenizer(final String script) {
+		this.script = script;
+		this.length = script.length();
+	}
+	
+	/**
+	 * Split an AVS script into tokens. The last token is always an END token.
+	 * 
+	 * @param script AVS script text
+	 * @return Script tokens
+	 * @throws EncoderException If the script contains an unterminated string or comment, or an unknown character
+	 */
+	static List<AvsToken> tokenize(final String script) throws EncoderException {
+		final AvsTokenizer tokenizer = new AvsTokenizer(script);
+		tokenizer.run();
+		return tokenizer.tokens;
+	}
+	
+	private void run() throws EncoderException {
+		while(position < length) {
+			final char character = script.charAt(position);
+			
+			if(character == '\n') {
+				final AvsToken newline = new AvsToken(AvsToken.Type.NEWLINE, "", position, position + 1, line);
+				++position;
+				++line;
+				if(!continuesOnNextLine()) {
+					tokens.add(newline);
+				}
+			}
+			else if(Character.isWhitespace(character)) {
+				++position;
+			}
+			else if(character == '\\') {
+				//Line continuation, joins this line with the next one
+				++position;
+				skipLineContinuation();
+			}
+			else if(character == '#') {
+				skipLineComment();
+			}
+			else if(script.startsWith("/*", position)) {
+				skipBlockComment();
+			}
+			else if(script.startsWith("[*", position)) {
+				skipNestedBlockComment();
+			}
+			else if(character == '"') {
+				readString();
+			}
+			else if(Character.isDigit(character) || character == '$' || 
+					(character == '.' && position + 1 < length && Character.isDigit(script.charAt(position + 1)))) {
+				readNumber();
+			}
+			else if(Character.isLetter(character) || character == '_') {
+				if(readIdentifier()) {
+					break;
+				}
+			}
+			else {
+				readOperator();
+			}
+		}
+		tokens.add(new AvsToken(AvsToken.Type.END, "", length, length, line));
+	}
+	
+	private boolean continuesOnNextLine() {
+		int lookAhead = position;
+		while(lookAhead < length && isLineWhitespace(script.charAt(lookAhead))) {
+			++lookAhead;
+		}
+		if(lookAhead < length && script.charAt(lookAhead) == '\\') {
+			position = lookAhead + 1;
+			return true;
+		}
+		return false;
+	}
+	
+	private void skipLineContinuation() {
+		int lookAhead = position;
+		while(lookAhead < length && isLineWhitespace(script.charAt(lookAhead))) {
+			++lookAhead;
+		}
+		if(lookAhead < length && script.charAt(lookAhead) == '#') {
+			//A comment may follow the backslash
+			while(lookAhead < length && script.charAt(lookAhead) != '\n') {
+				++lookAhead;
+			}
+		}
+		if(lookAhead < length && script.charAt(lookAhead) == '\n') {
+			position = lookAhead + 1;
+			++line;
+		}
+	}
+	
+	private void skipLineComment() {
+		while(position < length && script.charAt(position) != '\n') {
+			++position;
+		}
+	}
+	
+	private void skipBlockComment() throws EncoderException {
+		final int commentLine = line;
+		final int commentEnd = script.indexOf("*/", position + 2);
+		if(commentEnd == -1) {
+			throw new EncoderException("Unterminated comment starting at line " + commentLine);
+		}
+		countLines(position, commentEnd);
+		position = commentEnd + 2;
+	}
+	
+	private void skipNestedBlockComment() throws EncoderException {
+		final int commentLine = line;
+		int depth = 0;
+		while(position < length) {
+			if(script.startsWith("[*", position)) {
+				++depth;
+				position += 2;
+			}
+			else if(script.startsWith("*]", position)) {
+				position += 2;
+				if(--depth == 0) {
+					return;
+				}
+			}
+			else {
+				if(script.charAt(position) == '\n') {
+					++line;
+				}
+				++position;
+			}
+		}
+		throw new EncoderException("Unterminated comment starting at line " + commentLine);
+	}
+	
+	private void readString() throws EncoderException {
+		final int start = position;
+		final int startLine = line;
+		final String quote = script.startsWith(TRIPLE_QUOTE, position)? TRIPLE_QUOTE : "\"";
+		final int stringEnd = script.indexOf(quote, position + quote.length());
+		if(stringEnd == -1) {
+			throw new EncoderException("Unterminated string starting at line " + startLine);
+		}
+		countLines(position, stringEnd);
+		position = stringEnd + quote.length();
+		tokens.add(new AvsToken(AvsToken.Type.STRING, script.substring(start, position), start, position, startLine));
+	}
+	
+	private void readNumber() {
+		final int start = position;
+		if(script.charAt(position) == '$') {
+			//Hexadecimal number
+			++position;
+			while(position < length && Character.digit(script.charAt(position), 16) != -1) {
+				++position;
+			}
+		}
+		else {
+			while(position < length && (Character.isDigit(script.charAt(position)) || script.charAt(position) == '.')) {
+				++position;
+			}
+		}
+		tokens.add(new AvsToken(AvsToken.Type.NUMBER, script.substring(start, position), start, position, line));
+	}
+	
+	private boolean readIdentifier() {
+		final int start = position;
+		while(position < length && (Character.isLetterOrDigit(script.charAt(position)) || script.charAt(position) == '_')) {
+			++position;
+		}
+		final String identifier = script.substring(start, position);
+		if(END_OF_SCRIPT.equals(identifier)) {
+			return true;
+		}
+		tokens.add(new AvsToken(AvsToken.Type.IDENTIFIER, identifier, start, position, line));
+		return false;
+	}
+	
+	private void readOperator() throws EncoderException {
+		for(final String operator : OPERATORS) {
+			if(script.startsWith(operator, position)) {
+				final int start = position;
+				position += operator.length();
+				tokens.add(new AvsToken(AvsToken.Type.OPERATOR, operator, start, position, line));
+				return;
+			}
+		}
+		throw new EncoderException("Unexpected character '" + script.charAt(position) + "' at line " + line);
+	}
+	
+	private void countLines(final int from, final int to) {
+		for(int i = from; i < to; ++i) {
+			if(script.charAt(i) == '\n') {
+				++line;
+			}
+		}
+	}
+	
+	private static boolean isLineWhitespace(final char character) {
+		return character != '\n' && Character.isWhitespace(character);
+	}
+}
@@ -0,0 +1,179 @@
+/*
+* This file is part of x264Batcher, an x264 encoder multiplier written in JavaFX.
+* Copyright (C) 2016 Vedran Matic
+*
+* This program is free software; you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation; either version 2 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this program; if not, write to the Free Software
+* Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+*
+*/
+package org.matic.x264batcher.script;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the text of a template line, as rendered by the expressions of a
+ * parsed AVS script. The references to the clip variables are replaced by
+ * slots, so that the clip name can be substituted when the line is rendered.
+ * 
+ * @author Vedran Matic
+ *
+ */
+final class TemplateWriter {
+	
+	static final String LAST_VARIABLE = "last";
+	private static final String[] CLIP_PROPERTIES = {"width", "height", "framecount", "framerate"};
+	
+	private final List<AvsScriptTemplate.Slot> slots = new ArrayList<>();
+	private final List<String> texts = new ArrayList<>();
+	private final StringBuilder text = new StringBuilder();
+	
+	private final Set<String> variables;
+	private final Set<String> clipVariables;
+	private final boolean renamingClips;
+	
+	private AvsExpression.Call trimCall;
+
+	/**
+	 * Create a new template writer instance.
+	 * 
+	 * @param variables Lower case names of all of the script's variables
+	 * @param clipVariables Lower case names of the script's variables that hold a clip
+	 * @param renamingClips Whether to replace the references to the variables by clip slots
+	 */
+	TemplateWriter(final Set<String> variables, final Set<String> clipVariables, final boolean renamingClips) {
+		this.variables = variables;
+		this.clipVariables = clipVariables;
+		this.renamingClips = renamingClips;
+	}
+	
+	/**
+	 * Mark a call as the script's Trim() call, whose first two arguments are replaced by the trim slots.
+	 * 
+	 * @param trimCall Trim() call or null if the written line doesn't contain the script's Trim() call
+	 */
+	void setTrimCall(final AvsExpression.Call trimCall) {
+		this.trimCall = trimCall;
+	}
+	
+	boolean isTrimCall(final AvsExpression.Call call) {
+		return call == trimCall;
+	}
+	
+	void append(final String value) {
+		text.append(value);
+	}
+	
+	void appendSlot(final AvsScriptTemplate.Slot slot) {
+		texts.add(text.toString());
+		text.setLength(0);
+		slots.add(slot);
+	}
+	
+	/**
+	 * Append a reference to a variable. The script's variables are renamed, so that they
+	 * don't clash with the variables of the other scripts that are merged with it.
+	 * 
+	 * @param name Referenced variable name
+	 */
+	void appendIdentifier(final String name) {
+		if(!renamingClips) {
+			append(name);
+			return;
+		}
+		final String lowerCaseName = name.toLowerCase();
+		if(LAST_VARIABLE.equals(lowerCaseName)) {
+			appendSlot(AvsScriptTemplate.Slot.CLIP);
+		}
+		else if(variables.contains(lowerCaseName)) {
+			appendSlot(AvsScriptTemplate.Slot.CLIP);
+			append("_" + name);
+		}
+		else if(isClipProperty(lowerCaseName)) {
+			//A clip property of the implicit last clip, such as width
+			appendSlot(AvsScriptTemplate.Slot.CLIP);
+			append("." + name);
+		}
+		else {
+			append(name);
+		}
+	}
+	
+	/**
+	 * Check whether a name references the last clip or one of the script's variables.
+	 * 
+	 * @param name Variable name
+	 * @return True if the name references a variable, false otherwise
+	 */
+	boolean isVariable(final String name) {
+		final String lowerCaseName = name.toLowerCase();
+		return LAST_VARIABLE.equals(lowerCaseName) || variables.contains(lowerCaseName);
+	}
+	
+	/**
+	 * Check whether a variable references a clip.
+	 * 
+	 * @param name Variable name
+	 * @return True if the variable references a clip, false otherwise
+	 */
+	boolean isClipVariable(final String name) {
+		final String lowerCaseName = name.toLowerCase();
+		return LAST_VARIABLE.equals(lowerCaseName) || clipVariables.contains(lowerCaseName);
+	}
+	
+	/**
+	 * Complete the current line, which must not contain any slots, and prepare the writer for the next one.
+	 * 
+	 * @return Completed line text
+	 */
+	String finishText() {
+		final String completedText = text.toString();
+		text.setLength(0);
+		return completedText;
+	}
+	
+	/**
+	 * Complete the current line and prepare the writer for the next one.
+	 * 
+	 * @return Completed template line
+	 */
+	AvsScriptTemplate.Line finishLine() {
+		texts.add(text.toString());
+		final AvsScriptTemplate.Line line = new AvsScriptTemplate.Line(texts.toArray(new String[texts.size()]),
+				slots.toArray(new AvsScriptTemplate.Slot[slots.size()]));
+		
+		texts.clear();
+		slots.clear();
+		text.setLength(0);
+		trimCall = null;
+		
+		return line;
+	}
+	
+	/**
+	 * Check whether a name references a property of the implicit last clip, such as width.
+	 * 
+	 * @param name Identifier name
+	 * @return True if the name is a clip property, false otherwise
+	 */
+	static boolean isClipProperty(final String name) {
+		for(final String property : CLIP_PROPERTIES) {
+			if(property.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -32,6 +32,7 @@ import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Window;
 import org.matic.ApplicationMain;
+import org.matic.x264batcher.model.EncoderJobParameters;
 import org.matic.x264batcher.model.EncoderPreset;
 
 import java.io.File;
@@ -65,12 +66,32 @@ public final class Helper {
 	public static String SAR_DENOMINATOR_PROPERTY = "dar.denominator";
 	public static String PERFORM_CLEANUP_PROPERTY = "perform.cleanup";
 	public static String LAST_OUTPUT_PATH_PROPERTY = "last.output.path";
+	public static String IMPORT_GROUPING_PROPERTY = "import.grouping";
+	public static String PROGRESS_UPDATE_INTERVAL_PROPERTY = "progress.update.interval";
+	public static String METRICS_ENABLED_PROPERTY = "metrics.enabled";
+	public static String METRICS_ADDRESS_PROPERTY = "metrics.address";
+	public static String METRICS_PORT_PROPERTY = "metrics.port";
+	public static String SEGMENT_LOG_FILES_PROPERTY = "segment.log.files";
+	public static String QUEUE_POLICY_PROPERTY = "queue.policy";
+	public static String SEGMENTS_PER_SLOT_PROPERTY = "segments.per.slot";
+	public static String SMALL_JOB_FRAME_LIMIT_PROPERTY = "small.job.frame.limit";
+	public static String WATCH_FOLDER_ENABLED_PROPERTY = "watch.folder.enabled";
+	public static String WATCH_FOLDER_PATH_PROPERTY = "watch.folder.path";
+	public static String CONTROL_API_ENABLED_PROPERTY = "control.api.enabled";
+	public static String CONTROL_API_PORT_PROPERTY = "control.api.port";
+	public static String CAPACITY_PROFILES_ENABLED_PROPERTY = "capacity.profiles.enabled";
+	public static String CAPACITY_PROFILES_PROPERTY = "capacity.profiles";
 	
 	private static final String DATE_FORMAT_PATTERN = "dd/MMMM/yyyy HH:mm";
 
 	private static String ACTIVE_ENCODER_PRESET_PROPERTY = "encoder.preset.active";
 	private static String ENCODER_PRESET_LIST_PROPERTY = "encoder.preset.list";
 	
+	private static String WATCH_FOLDER_OUTPUT_PATH_PROPERTY = "watch.folder.output.path";
+	private static String WATCH_FOLDER_PRESET_PROPERTY = "watch.folder.preset";
+	private static String WATCH_FOLDER_CLEANUP_PROPERTY = "watch.folder.cleanup";
+	private static String WATCH_FOLDER_SAR_PROPERTY = "watch.folder.sar";
+	
 	private static final String ENCODER_VALUES_DELIMITER = "@";
 	private static final String ENCODER_PRESET_DELIMITER = "!";
 	
@@ -125,6 +146,41 @@ public final class Helper {
 		Helper.storePreference(ACTIVE_ENCODER_PRESET_PROPERTY, activePresetBuilder.toString());
 	}
 	
+	/**
+	 * Load the job template that is applied to the jobs created from the watch folder's scripts.
+	 * Any template value that hasn't been saved yet is taken from the default job parameters.
+	 * 
+	 * @return Watch folder job template
+	 */
+	public static EncoderJobParameters loadWatchFolderTemplate() {
+		final EncoderJobParameters defaultJobParameters = EncoderJobParameters.getDefault();
+		final String presetProperty = Helper.loadPreference(WATCH_FOLDER_PRESET_PROPERTY, null);
+		final String[] presetValues = presetProperty != null? presetProperty.split(ENCODER_VALUES_DELIMITER) : null;
+		
+		return new EncoderJobParameters("",
+				Helper.loadPreference(WATCH_FOLDER_OUTPUT_PATH_PROPERTY, defaultJobParameters.getJobOutputPath()),
+				Helper.loadPreference(WATCH_FOLDER_SAR_PROPERTY, defaultJobParameters.getOutputSar()),
+				new ArrayList<>(),
+				presetValues != null? new EncoderPreset(presetValues[0], presetValues[1]) :
+					defaultJobParameters.getEncoderPreset(),
+				Boolean.parseBoolean(Helper.loadPreference(WATCH_FOLDER_CLEANUP_PROPERTY,
+						String.valueOf(defaultJobParameters.isDeleteTemporaryFiles()))));
+	}
+	
+	/**
+	 * Save the watch folder's job template.
+	 * 
+	 * @param jobTemplate Template to save
+	 */
+	public static void storeWatchFolderTemplate(final EncoderJobParameters jobTemplate) {
+		final EncoderPreset preset = jobTemplate.getEncoderPreset();
+		Helper.storePreference(WATCH_FOLDER_OUTPUT_PATH_PROPERTY, jobTemplate.getJobOutputPath());
+		Helper.storePreference(WATCH_FOLDER_SAR_PROPERTY, jobTemplate.getOutputSar());
+		Helper.storePreference(WATCH_FOLDER_PRESET_PROPERTY,
+				preset.getName() + ENCODER_VALUES_DELIMITER + preset.getCommand());
+		Helper.storePreference(WATCH_FOLDER_CLEANUP_PROPERTY, String.valueOf(jobTemplate.isDeleteTemporaryFiles()));
+	}
+	
 	/**
 	 * Load all of the previously saved encoder presets. A default encoder preset
 	 * will always be returned if there are no other presets.